@@ -16,18 +16,50 @@
 package com.upandcoding.fixer;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.MathContext;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.core.JsonParseException;
+import com.upandcoding.fixer.cache.ErrorCache;
+import com.upandcoding.fixer.cache.FluctuationCalculator;
+import com.upandcoding.fixer.cache.RateHistoryCache;
+import com.upandcoding.fixer.cache.ResponseCache;
+import com.upandcoding.fixer.cache.WarmStartFile;
 import com.upandcoding.fixer.endpoint.ConvertEndpoint;
 import com.upandcoding.fixer.endpoint.Endpoint;
 import com.upandcoding.fixer.endpoint.FluctuationEndpoint;
@@ -40,6 +72,14 @@ import com.upandcoding.fixer.endpoint.field.EndpointFieldList;
 import com.upandcoding.fixer.model.Currency;
 import com.upandcoding.fixer.model.ExchangeRate;
 import com.upandcoding.fixer.model.Fluctuation;
+import com.upandcoding.fixer.model.RateSnapshot;
+import com.upandcoding.fixer.request.CircuitBreaker;
+import com.upandcoding.fixer.request.Deadline;
+import com.upandcoding.fixer.request.LatestBatcher;
+import com.upandcoding.fixer.request.QuotaGovernor;
+import com.upandcoding.fixer.request.RequestCoalescer;
+import com.upandcoding.fixer.request.RequestHedger;
+import com.upandcoding.fixer.request.RetryPolicy;
 
 /**
  * Class for sending request to the Fixer API
@@ -66,6 +106,80 @@ public class FixerApiLoader {
 
 	private final static Logger log = LoggerFactory.getLogger(FixerApiLoader.class);
 
+	private static final ExecutorService defaultCallExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "jfixer-call-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * One or several calls to the methods of a loader, run with a deadline
+	 */
+	public interface Call<T> {
+		T call(FixerApiLoader loader) throws FixerException, JsonParseException, IOException;
+	}
+
+	/**
+	 * Deadline of the call run by a thread, null if none, and the requests it has
+	 * in progress so that they can be aborted when the call is cancelled
+	 */
+	private static class CallContext {
+		private final Deadline deadline;
+		// Requests always sent, the responses in cache are not served
+		private final boolean uncached;
+		private final Set<Endpoint> inFlight = ConcurrentHashMap.newKeySet();
+		private volatile boolean cancelled = false;
+		// Completed on cancellation, to wake up the waits of the call
+		private final CompletableFuture<Void> cancellation = new CompletableFuture<>();
+
+		CallContext(Deadline deadline) {
+			this(deadline, false);
+		}
+
+		CallContext(Deadline deadline, boolean uncached) {
+			this.deadline = deadline;
+			this.uncached = uncached;
+		}
+
+		void register(Endpoint endpoint) {
+			inFlight.add(endpoint);
+			if (cancelled) {
+				endpoint.abort();
+			}
+		}
+
+		void unregister(Endpoint endpoint) {
+			inFlight.remove(endpoint);
+		}
+
+		void cancel() {
+			cancelled = true;
+			for (Endpoint endpoint : inFlight) {
+				endpoint.abort();
+			}
+			cancellation.complete(null);
+		}
+	}
+
+	/**
+	 * The data and the body of a response, kept together as the response may come
+	 * from a hedged request rather than from the endpoint first sent
+	 */
+	private static class Response {
+		private final EndpointFieldList data;
+		private final String jsonResponse;
+
+		Response(EndpointFieldList data, String jsonResponse) {
+			this.data = data;
+			this.jsonResponse = jsonResponse;
+		}
+	}
+
 	private String accessKey;
 	private String baseCurrency;
 	private String baseUrl;
@@ -73,6 +187,69 @@ public class FixerApiLoader {
 	private String lastCalledUrl;
 	private String jsonResponse;
 
+	// Concurrent identical requests share the same response
+	private boolean requestCoalescing = false;
+	private final RequestCoalescer requestCoalescer = new RequestCoalescer();
+
+	// Concurrent calls to getLatest grouped into one request, disabled when null
+	private LatestBatcher latestBatcher;
+
+	// Retries of requests failed with a transient error, no retry when null
+	private RetryPolicy retryPolicy;
+
+	// Rate limit and monthly budget of the requests, no limit when null
+	private QuotaGovernor quotaGovernor;
+	private QuotaGovernor.Priority requestPriority = QuotaGovernor.Priority.INTERACTIVE;
+
+	// Daily rates loaded, by base currency, not kept when null
+	private RateHistoryCache historyCache;
+
+	// Late requests to the Latest Rates Endpoint sent twice, no hedging when null
+	private RequestHedger requestHedger;
+
+	// Responses kept by request key, no cache when null
+	private ResponseCache responseCache;
+
+	// Errors returned whatever the number of requests, by request key, not kept
+	// when null
+	private ErrorCache errorCache;
+
+	// Expired responses being loaded again in the background, by request key
+	private final ConcurrentMap<String, Boolean> revalidations = new ConcurrentHashMap<>();
+
+	// File the caches are saved to on shutdown, none when null
+	private volatile Path warmStartFile;
+	private Thread warmStartHook;
+
+	// Timeouts of each request in milliseconds, 0 for none
+	private int connectTimeoutMillis = 0;
+	private int socketTimeoutMillis = 0;
+	private long requestTimeoutMillis = 0;
+
+	// Deadline of the call in progress in the current thread, if any
+	private final ThreadLocal<CallContext> callContext = new ThreadLocal<>();
+	// Set while a submitted call runs on the call executor
+	private final ThreadLocal<Boolean> callWorker = new ThreadLocal<>();
+	private Executor callExecutor = defaultCallExecutor;
+	// Created by setVirtualThreadExecution, shut down when replaced
+	private VirtualThreadExecutor virtualThreadExecutor;
+
+	// Requests that timed out or exceeded their deadline, by endpoint type
+	private final ConcurrentMap<String, AtomicLong> timeoutCounts = new ConcurrentHashMap<>();
+
+	// Rates of other base currencies derived from the rates of the default base
+	// currency, instead of being requested
+	private boolean localRebasing = false;
+	private MathContext rebasingPrecision = RateSnapshot.DEFAULT_PRECISION;
+
+	// Requests sent to load the historical rates of several dates
+	private HistoricalPlanner historicalPlanner = new HistoricalPlanner();
+
+	// Circuit breakers by endpoint type, disabled when the threshold is 0
+	private int circuitFailureThreshold = 0;
+	private long circuitOpenDurationMillis = 0;
+	private final ConcurrentMap<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+
 	public FixerApiLoader() {
 
 	}
@@ -124,228 +301,917 @@ public class FixerApiLoader {
 		return jsonResponse;
 	}
 
+	public boolean isRequestCoalescing() {
+		return requestCoalescing;
+	}
+
 	/**
-	 * Fluctuations of a currency between two dates. Returns the rate at beginning
-	 * and at end of the period plus the variation in value and in percentage
+	 * Enables or disables request coalescing (disabled by default). When enabled,
+	 * threads calling the same endpoint with the same parameters at the same time
+	 * share one HTTP request. Each of them receives its own copy of the parsed
+	 * response. A caller cancelled or past its deadline stops waiting, the request
+	 * being aborted only once all its callers have stopped waiting.
 	 * 
-	 * @param startDate
-	 *            the start date for which historical rates are requested in format
-	 *            yyyy-MM-dd, eg: 2018-04-26
-	 * @param endDate
-	 *            the end date for which historical rates are requested in format
-	 *            yyyy-MM-dd, eg: 2018-04-26
-	 * 
-	 * @See <a href="https://fixer.io/documentation#fluctuation">Fluctuation
-	 *      Endpoint documentation</a>
-	 * 
-	 * @throws FixerException
-	 * @throws JsonParseException
-	 * @throws IOException
+	 * @param requestCoalescing
 	 */
-	public List<Fluctuation> getFluctuations(String startDate, String endDate)
-			throws FixerException, JsonParseException, IOException {
-		return getFluctuations(startDate, endDate, null, baseCurrency);
+	public void setRequestCoalescing(boolean requestCoalescing) {
+		this.requestCoalescing = requestCoalescing;
+	}
+
+	public RequestCoalescer getRequestCoalescer() {
+		return requestCoalescer;
+	}
+
+	public RetryPolicy getRetryPolicy() {
+		return retryPolicy;
 	}
 
 	/**
-	 * Fluctuations of a currency between two dates. Returns the rate at beginning
-	 * and at end of the period plus the variation in value and in percentage
-	 * 
-	 * @param startDate
-	 *            the start date for which historical rates are requested in format
-	 *            yyyy-MM-dd, eg: 2018-04-26
-	 * @param endDate
-	 *            the end date for which historical rates are requested in format
-	 *            yyyy-MM-dd, eg: 2018-04-26
-	 * @param symbols
-	 *            a comma separated string of 3-digits ISO currency codes
+	 * Sets the policy applied to retry the requests that fail with a transient
+	 * error (network error, HTTP 5xx, ...). Errors returned by the Fixer API, such
+	 * as an invalid key or a reached quota, are never retried.
 	 * 
-	 * @See <a href="https://fixer.io/documentation#fluctuation">Fluctuation
-	 *      Endpoint documentation</a>
+	 * @param retryPolicy
+	 *            the policy, or null to never retry (the default)
 	 * 
-	 * @throws FixerException
-	 * @throws JsonParseException
-	 * @throws IOException
+	 * @See RetryPolicy
 	 */
-	public List<Fluctuation> getFluctuations(String startDate, String endDate, String symbols)
-			throws FixerException, JsonParseException, IOException {
-		return getFluctuations(startDate, endDate, symbols, baseCurrency);
+	public void setRetryPolicy(RetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+	}
+
+	public QuotaGovernor getQuotaGovernor() {
+		return quotaGovernor;
 	}
 
 	/**
-	 * Fluctuations of a currency between two dates. Returns the rate at beginning
-	 * and at end of the period plus the variation in value and in percentage
-	 * 
-	 * @param startDate
-	 *            the start date for which historical rates are requested in format
-	 *            yyyy-MM-dd, eg: 2018-04-26
-	 * @param endDate
-	 *            the end date for which historical rates are requested in format
-	 *            yyyy-MM-dd, eg: 2018-04-26
-	 * @param symbols
-	 *            a comma separated string of 3-digits ISO currency codes
-	 * @param currency
-	 *            an alternate base currency
+	 * Sets the governor that limits the rate and the monthly number of requests.
+	 * Every request sent counts, retries included. The same governor can be set on
+	 * several loaders, for example one loader for interactive requests and one for
+	 * backfill jobs.
 	 * 
-	 * @See <a href="https://fixer.io/documentation#fluctuation">Fluctuation
-	 *      Endpoint documentation</a>
+	 * @param quotaGovernor
+	 *            the governor, or null for no limit (the default)
 	 * 
-	 * @throws FixerException
-	 * @throws JsonParseException
-	 * @throws IOException
+	 * @See QuotaGovernor
 	 */
-	public List<Fluctuation> getFluctuations(String startDate, String endDate, String symbols, String currency)
-			throws FixerException, JsonParseException, IOException {
+	public void setQuotaGovernor(QuotaGovernor quotaGovernor) {
+		this.quotaGovernor = quotaGovernor;
+	}
 
-		// Check Dates
-		try {
-			LocalDate sDate = LocalDate.parse(startDate, EndpointField.dateFormatter);
-			LocalDate eDate = LocalDate.parse(endDate, EndpointField.dateFormatter);
-			if (sDate.isAfter(eDate)) {
-				throw new FixerException("Start date cannot be after end date");
-			}
-		} catch (DateTimeParseException e) {
-			throw new FixerException("Invalid or null date");
-		}
+	public QuotaGovernor.Priority getRequestPriority() {
+		return requestPriority;
+	}
 
-		// Base Currency
-		if (StringUtils.isBlank(currency)) {
-			currency = baseCurrency;
-		}
+	/**
+	 * Sets the priority of the requests of this loader for the quota governor:
+	 * INTERACTIVE (the default) or BACKFILL.
+	 * 
+	 * @param requestPriority
+	 */
+	public void setRequestPriority(QuotaGovernor.Priority requestPriority) {
+		this.requestPriority = requestPriority;
+	}
 
-		// Calculates
-		Endpoint fluctuationEndpoint = new FluctuationEndpoint(baseUrl);
-		fluctuationEndpoint.addParam("access_key", accessKey);
-		fluctuationEndpoint.addParam("base", currency);
-		fluctuationEndpoint.addParam("start_date", startDate);
-		fluctuationEndpoint.addParam("end_date", endDate);
-		fluctuationEndpoint.addParam("symbols", symbols);
+	public RequestHedger getRequestHedger() {
+		return requestHedger;
+	}
 
-		try {
-			EndpointFieldList data = fluctuationEndpoint.getData();
-			this.lastCalledUrl = fluctuationEndpoint.getRequestUrl();
-			this.jsonResponse = fluctuationEndpoint.getJsonResponse();
+	/**
+	 * Enables hedging of the requests to the Latest Rates Endpoint: when the
+	 * response to a request is later than a percentile of the recent latencies,
+	 * the same request is sent again and the first response received is returned.
+	 * Hedges are counted by the quota governor.
+	 * 
+	 * @param requestHedger
+	 *            the hedger, or null to disable hedging (the default)
+	 * 
+	 * @See RequestHedger
+	 */
+	public void setRequestHedger(RequestHedger requestHedger) {
+		this.requestHedger = requestHedger;
+	}
 
-			return data.getFluctuations();
+	public ResponseCache getResponseCache() {
+		return responseCache;
+	}
 
-		} catch (FixerException e) {
-			this.jsonResponse = fluctuationEndpoint.getJsonResponse();
-			throw e;
-		}
+	/**
+	 * Sets the cache of the responses. Fresh responses are returned without
+	 * calling the Fixer API, and expired ones are still returned when the circuit
+	 * breaker of their endpoint is open.
+	 * 
+	 * @param responseCache
+	 *            the cache, or null for no cache (the default)
+	 */
+	public void setResponseCache(ResponseCache responseCache) {
+		this.responseCache = responseCache;
+	}
 
+	public ErrorCache getErrorCache() {
+		return errorCache;
 	}
 
 	/**
-	 * Fluctuations of a currency between two dates. Returns the rate at beginning
-	 * and at end of the period plus the variation in value and in percentage
-	 * 
-	 * @param startDate
-	 *            a valid local date
-	 * @param endDate
-	 *            a valid local date
+	 * Sets the cache of the errors, such as invalid currency codes or invalid
+	 * dates, that a request returns whatever the number of times it is sent. Until
+	 * the error expires, the same request fails at once without being sent.
 	 * 
-	 * @See <a href="https://fixer.io/documentation#fluctuation">Fluctuation
-	 *      Endpoint documentation</a>
+	 * @param errorCache
+	 *            the cache, or null for no cache (the default)
 	 * 
-	 * @throws FixerException
-	 * @throws JsonParseException
-	 * @throws IOException
+	 * @See ErrorCache
 	 */
-	public List<Fluctuation> getFluctuations(LocalDate startDate, LocalDate endDate)
-			throws FixerException, JsonParseException, IOException {
-		return getFluctuations(startDate, endDate, null, baseCurrency);
+	public void setErrorCache(ErrorCache errorCache) {
+		this.errorCache = errorCache;
+	}
+
+	public RateHistoryCache getHistoryCache() {
+		return historyCache;
 	}
 
 	/**
-	 * Fluctuations of a currency between two dates. Returns the rate at beginning
-	 * and at end of the period plus the variation in value and in percentage
-	 * 
-	 * @param startDate
-	 *            a valid local date
-	 * @param endDate
-	 *            a valid local date
-	 * @param symbols
-	 *            a comma separated string of 3-digits ISO currency codes
+	 * Sets the cache of the daily rates. The rates returned by getHistorical and
+	 * getTimeSeries are recorded in it, and getFluctuations computes the
+	 * fluctuations from it when the rates of both dates are cached.
 	 * 
-	 * @See <a href="https://fixer.io/documentation#fluctuation">Fluctuation
-	 *      Endpoint documentation</a>
+	 * @param historyCache
+	 *            the cache, or null to keep no history (the default)
 	 * 
-	 * @throws FixerException
-	 * @throws JsonParseException
-	 * @throws IOException
+	 * @See RateHistoryCache
 	 */
-	public List<Fluctuation> getFluctuations(LocalDate startDate, LocalDate endDate, String symbols)
-			throws FixerException, JsonParseException, IOException {
-		return getFluctuations(startDate, endDate, symbols, baseCurrency);
+	public void setHistoryCache(RateHistoryCache historyCache) {
+		this.historyCache = historyCache;
 	}
 
 	/**
-	 * Fluctuations of a currency between two dates. Returns the rate at beginning
-	 * and at end of the period plus the variation in value and in percentage
+	 * Saves the response and history caches to a file, to restore them with
+	 * loadCaches after a restart
 	 * 
-	 * @param startDate
-	 *            a valid local date
-	 * @param endDate
-	 *            a valid local date
-	 * @param symbols
-	 *            a comma separated string of 3-digits ISO currency codes
-	 * @param currency
-	 *            an alternate base currency
+	 * @param file
+	 *            the file, replaced if it exists
+	 * @return the number of responses and series saved
+	 * @throws IOException
 	 * 
-	 * @See <a href="https://fixer.io/documentation#fluctuation">Fluctuation
-	 *      Endpoint documentation</a>
+	 * @See WarmStartFile
+	 */
+	public int saveCaches(Path file) throws IOException {
+		return WarmStartFile.save(file, responseCache, historyCache);
+	}
+
+	/**
+	 * Restores the response and history caches saved by saveCaches, creating them
+	 * if the loader has none. Restored responses that are still fresh are served
+	 * without calling the Fixer API; expired ones are requested again when needed.
 	 * 
-	 * @throws FixerException
-	 * @throws JsonParseException
+	 * @param file
+	 *            the file
+	 * @return the number of responses and series restored
 	 * @throws IOException
+	 * 
+	 * @See WarmStartFile
 	 */
-	public List<Fluctuation> getFluctuations(LocalDate startDate, LocalDate endDate, String symbols, String currency)
-			throws FixerException, JsonParseException, IOException {
-
-		String strStartDate = null;
-		if (startDate != null) {
-			strStartDate = startDate.format(EndpointField.dateFormatter);
-		} else {
-			throw new FixerException("Invalid or null date");
+	public synchronized int loadCaches(Path file) throws IOException {
+		if (responseCache == null) {
+			responseCache = new ResponseCache();
 		}
+		if (historyCache == null) {
+			historyCache = new RateHistoryCache();
+		}
+		return WarmStartFile.load(file, responseCache, historyCache);
+	}
 
-		String strEndDate = null;
-		if (endDate != null) {
-			strEndDate = endDate.format(EndpointField.dateFormatter);
-		} else {
-			throw new FixerException("Invalid or null date");
+	/**
+	 * Restores the caches from a file, if it exists, and saves them back to it
+	 * when the JVM shuts down. A file that cannot be read is ignored: the loader
+	 * then starts with empty caches.
+	 * 
+	 * @param file
+	 *            the file
+	 * @return the number of responses and series restored
+	 */
+	public synchronized int enableWarmStart(Path file) {
+		Validate.notNull(file, "Parameter '%s' cannot be null", "file");
+		int restored = 0;
+		if (Files.exists(file)) {
+			try {
+				restored = loadCaches(file);
+			} catch (IOException e) {
+				log.warn("Cannot restore the caches from {}: {}", file, e.getMessage());
+			}
+		}
+		this.warmStartFile = file;
+		if (warmStartHook == null) {
+			warmStartHook = new Thread(() -> {
+				Path target = this.warmStartFile;
+				if (target != null) {
+					try {
+						saveCaches(target);
+					} catch (IOException e) {
+						log.warn("Cannot save the caches to {}: {}", target, e.getMessage());
+					}
+				}
+			}, "jfixer-warm-start");
+			Runtime.getRuntime().addShutdownHook(warmStartHook);
 		}
+		return restored;
+	}
 
-		// Base Currency
-		if (StringUtils.isBlank(currency)) {
-			currency = baseCurrency;
+	/**
+	 * Stops saving the caches on shutdown
+	 */
+	public synchronized void disableWarmStart() {
+		this.warmStartFile = null;
+		if (warmStartHook != null) {
+			try {
+				Runtime.getRuntime().removeShutdownHook(warmStartHook);
+			} catch (IllegalStateException e) {
+				// Already shutting down
+			}
+			warmStartHook = null;
 		}
+	}
 
-		return getFluctuations(strStartDate, strEndDate, symbols, currency);
+	public Path getWarmStartFile() {
+		return warmStartFile;
 	}
 
 	/**
-	 * Convert an amount in a given currency into the target currency
-	 * 
-	 * @param fromCurrency
-	 *            is the currency for amount
-	 * @param targetCurrency
-	 *            is the target currency
-	 * @param amount
-	 *            a double that represents the initial value in the fromCurrency
-	 * 
-	 * @return the value in the targetCurrency
-	 * 
-	 * @See <a href="https://fixer.io/documentation#convertcurrency">Convert
-	 *      Endpoint documentation</a>
-	 * 
-	 * @throws FixerException
-	 * @throws JsonParseException
-	 * @throws IOException
+	 * Records daily rates in the history cache, if any. Responses served from the
+	 * response cache were recorded when they were loaded.
 	 */
-	public double getConversion(String fromCurrency, String targetCurrency, double amount)
-			throws FixerException, JsonParseException, IOException {
-		return getConversion(fromCurrency, targetCurrency, amount, null);
+	void recordHistory(String currency, List<ExchangeRate> rates) {
+		RateHistoryCache cache = this.historyCache;
+		if (cache != null) {
+			cache.record(currency, rates);
+		}
+	}
+
+	/**
+	 * Enables a circuit breaker for each type of endpoint (latest, historical,
+	 * timeseries, convert, ...). After failureThreshold consecutive failures of an
+	 * endpoint type, its requests fail fast with a CircuitOpenException (or are
+	 * served from the response cache) during openDurationMillis. Then a single
+	 * probe request is sent to decide whether to close the circuit.
+	 * 
+	 * @param failureThreshold
+	 *            number of consecutive failures that opens a circuit, 0 to disable
+	 *            circuit breakers (the default)
+	 * @param openDurationMillis
+	 *            time during which requests are rejected before a probe is sent
+	 * 
+	 * @See CircuitBreaker
+	 */
+	public void setCircuitBreaker(int failureThreshold, long openDurationMillis) {
+		this.circuitFailureThreshold = failureThreshold;
+		this.circuitOpenDurationMillis = openDurationMillis;
+		this.circuitBreakers.clear();
+	}
+
+	/**
+	 * Returns the circuit breaker of a type of endpoint
+	 * 
+	 * @param endpointType
+	 *            the type of endpoint, see Endpoint.getEndpointType
+	 * @return the circuit breaker, or null if circuit breakers are disabled
+	 */
+	public CircuitBreaker getCircuitBreaker(String endpointType) {
+		if (circuitFailureThreshold <= 0) {
+			return null;
+		}
+		CircuitBreaker breaker = circuitBreakers.get(endpointType);
+		if (breaker == null) {
+			breaker = new CircuitBreaker(endpointType, circuitFailureThreshold, circuitOpenDurationMillis);
+			CircuitBreaker existing = circuitBreakers.putIfAbsent(endpointType, breaker);
+			if (existing != null) {
+				breaker = existing;
+			}
+		}
+		return breaker;
+	}
+
+	public int getConnectTimeoutMillis() {
+		return connectTimeoutMillis;
+	}
+
+	/**
+	 * Sets the maximum time to connect to the Fixer API. Requests that time out
+	 * fail with a FixerException of type 'timeout', which the retry policy
+	 * retries.
+	 * 
+	 * @param connectTimeoutMillis
+	 *            the timeout in milliseconds, 0 for the HttpClient default (the
+	 *            default)
+	 */
+	public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+		this.connectTimeoutMillis = connectTimeoutMillis;
+	}
+
+	public int getSocketTimeoutMillis() {
+		return socketTimeoutMillis;
+	}
+
+	/**
+	 * Sets the maximum time of inactivity while waiting for a response. Requests
+	 * that time out fail with a FixerException of type 'timeout', which the retry
+	 * policy retries.
+	 * 
+	 * @param socketTimeoutMillis
+	 *            the timeout in milliseconds, 0 for the HttpClient default (the
+	 *            default)
+	 */
+	public void setSocketTimeoutMillis(int socketTimeoutMillis) {
+		this.socketTimeoutMillis = socketTimeoutMillis;
+	}
+
+	public long getRequestTimeoutMillis() {
+		return requestTimeoutMillis;
+	}
+
+	/**
+	 * Sets the maximum duration of each request, from the connection to the end of
+	 * the response. Requests still in progress are aborted and fail with a
+	 * FixerException of type 'timeout', which the retry policy retries.
+	 * 
+	 * @param requestTimeoutMillis
+	 *            the timeout in milliseconds, 0 for none (the default)
+	 */
+	public void setRequestTimeoutMillis(long requestTimeoutMillis) {
+		this.requestTimeoutMillis = requestTimeoutMillis;
+	}
+
+	/**
+	 * Sets the executor on which the submitted calls are run. By default, a shared
+	 * pool of daemon threads.
+	 * 
+	 * @param callExecutor
+	 * 
+	 * @See setVirtualThreadExecution
+	 */
+	public synchronized void setCallExecutor(Executor callExecutor) {
+		Validate.notNull(callExecutor, "Parameter '%s' cannot be null", "callExecutor");
+		this.callExecutor = callExecutor;
+		shutdownVirtualThreadExecutor(callExecutor == virtualThreadExecutor ? virtualThreadExecutor : null);
+	}
+
+	public Executor getCallExecutor() {
+		return callExecutor;
+	}
+
+	/**
+	 * Runs the submitted calls on virtual threads (Java 21 or later), at most
+	 * maxConcurrency at the same time. Bulk jobs can then submit thousands of
+	 * calls, for example one getHistorical per date, without a pool of platform
+	 * threads. The synchronous methods are not affected.
+	 * <p>
+	 * On older runtimes, the calls run on maxConcurrency platform threads.
+	 * <p>
+	 * The executor previously created by this method, if any, is shut down: the
+	 * calls already submitted to it still run.
+	 * 
+	 * @param maxConcurrency
+	 *            maximum number of calls running at the same time
+	 * 
+	 * @See VirtualThreadExecutor
+	 */
+	public synchronized void setVirtualThreadExecution(int maxConcurrency) {
+		VirtualThreadExecutor executor = new VirtualThreadExecutor(maxConcurrency);
+		this.callExecutor = executor;
+		shutdownVirtualThreadExecutor(executor);
+	}
+
+	private void shutdownVirtualThreadExecutor(VirtualThreadExecutor replacement) {
+		if (virtualThreadExecutor != null && virtualThreadExecutor != replacement) {
+			virtualThreadExecutor.shutdown();
+		}
+		virtualThreadExecutor = replacement;
+	}
+
+	/**
+	 * Runs a call with a timeout, for example:
+	 * <p>
+	 * loader.call(Duration.ofSeconds(2), l -> l.getLatest("USD,GBP"));
+	 * <p>
+	 * All the requests sent by the call, retries included, are aborted when the
+	 * timeout is reached and the call then fails with a FixerException of type
+	 * 'deadline_exceeded'.
+	 * 
+	 * @param timeout
+	 *            the time given to the call
+	 * @param call
+	 *            the call
+	 * @return the result of the call
+	 * 
+	 * @throws FixerException
+	 * @throws JsonParseException
+	 * @throws IOException
+	 */
+	public <T> T call(Duration timeout, Call<T> call) throws FixerException, JsonParseException, IOException {
+		return call(Deadline.after(timeout), call);
+	}
+
+	/**
+	 * Runs a call with a deadline. All the requests sent by the call, retries
+	 * included, are aborted when the deadline is reached and the call then fails
+	 * with a FixerException of type 'deadline_exceeded'.
+	 * 
+	 * @param deadline
+	 *            the deadline of the call
+	 * @param call
+	 *            the call
+	 * @return the result of the call
+	 * 
+	 * @throws FixerException
+	 * @throws JsonParseException
+	 * @throws IOException
+	 */
+	public <T> T call(Deadline deadline, Call<T> call) throws FixerException, JsonParseException, IOException {
+		Validate.notNull(deadline, "Parameter '%s' cannot be null", "deadline");
+		return runCall(new CallContext(deadline), call);
+	}
+
+	/**
+	 * Runs a call on the call executor. Cancelling the returned future aborts the
+	 * HTTP requests in progress: the call then ends at once.
+	 * 
+	 * @param call
+	 *            the call
+	 * @return the future result of the call
+	 */
+	public <T> Future<T> submit(Call<T> call) {
+		return submit(new CallContext(null), call);
+	}
+
+	/**
+	 * Runs a call with a timeout on the call executor
+	 * 
+	 * @param timeout
+	 *            the time given to the call
+	 * @param call
+	 *            the call
+	 * @return the future result of the call, see submit(Deadline, Call)
+	 */
+	public <T> Future<T> submit(Duration timeout, Call<T> call) {
+		return submit(Deadline.after(timeout), call);
+	}
+
+	/**
+	 * Runs a call with a deadline on the call executor. Cancelling the returned
+	 * future aborts the HTTP requests in progress: the call then ends at once.
+	 * 
+	 * @param deadline
+	 *            the deadline of the call
+	 * @param call
+	 *            the call
+	 * @return the future result of the call
+	 */
+	public <T> Future<T> submit(Deadline deadline, Call<T> call) {
+		Validate.notNull(deadline, "Parameter '%s' cannot be null", "deadline");
+		return submit(new CallContext(deadline), call);
+	}
+
+	/**
+	 * Runs a call whose requests are always sent to the Fixer API: the responses
+	 * in cache, fresh or stale, are not served, but the responses received are
+	 * cached. Used by the rate refresher, which must see every update.
+	 * 
+	 * @param call
+	 *            the call
+	 * @return the result of the call
+	 * 
+	 * @throws FixerException
+	 * @throws JsonParseException
+	 * @throws IOException
+	 */
+	<T> T callUncached(Call<T> call) throws FixerException, JsonParseException, IOException {
+		CallContext previous = callContext.get();
+		return runCall(new CallContext(previous != null ? previous.deadline : null, true), call);
+	}
+
+	private <T> Future<T> submit(final CallContext context, final Call<T> call) {
+		FutureTask<T> task = new FutureTask<T>(() -> {
+			callWorker.set(Boolean.TRUE);
+			try {
+				return runCall(context, call);
+			} finally {
+				callWorker.remove();
+			}
+		}) {
+			@Override
+			public boolean cancel(boolean mayInterruptIfRunning) {
+				boolean cancelled = super.cancel(mayInterruptIfRunning);
+				if (cancelled) {
+					context.cancel();
+				}
+				return cancelled;
+			}
+		};
+		callExecutor.execute(task);
+		return task;
+	}
+
+	private <T> T runCall(CallContext context, Call<T> call) throws FixerException, JsonParseException, IOException {
+		CallContext previous = callContext.get();
+		if (previous != null && previous.deadline != null
+				&& (context.deadline == null || previous.deadline.getExpiresAtMillis() < context.deadline.getExpiresAtMillis())) {
+			// A nested call cannot extend the deadline of the enclosing call
+			context = previous;
+		}
+		callContext.set(context);
+		try {
+			return call.call(this);
+		} finally {
+			if (previous != null) {
+				callContext.set(previous);
+			} else {
+				callContext.remove();
+			}
+		}
+	}
+
+	/**
+	 * @param endpointType
+	 *            the type of endpoint, see Endpoint.getEndpointType
+	 * @return the number of requests of this type that timed out or exceeded their
+	 *         deadline
+	 */
+	public long getTimeoutCount(String endpointType) {
+		AtomicLong count = timeoutCounts.get(endpointType);
+		return count != null ? count.get() : 0;
+	}
+
+	/**
+	 * @return the number of requests that timed out or exceeded their deadline,
+	 *         by endpoint type
+	 */
+	public Map<String, Long> getTimeoutCounts() {
+		Map<String, Long> counts = new TreeMap<>();
+		for (Map.Entry<String, AtomicLong> entry : timeoutCounts.entrySet()) {
+			counts.put(entry.getKey(), entry.getValue().get());
+		}
+		return counts;
+	}
+
+	private void countTimeout(String endpointType) {
+		AtomicLong count = timeoutCounts.get(endpointType);
+		if (count == null) {
+			AtomicLong existing = timeoutCounts.putIfAbsent(endpointType, count = new AtomicLong());
+			if (existing != null) {
+				count = existing;
+			}
+		}
+		count.incrementAndGet();
+	}
+
+	public boolean isLocalRebasing() {
+		return localRebasing;
+	}
+
+	/**
+	 * Enables local rebasing. When enabled, getLatest and getHistorical called
+	 * with a base currency other than the default one request the rates of all
+	 * currencies in the default base currency, and derive the requested rates
+	 * from them. With a response cache or request coalescing, one response then
+	 * serves every base currency.
+	 * <p>
+	 * Currencies missing from the response are still requested to the Fixer API.
+	 * 
+	 * @param localRebasing
+	 *            true for local rebasing, false to always let the Fixer API rebase
+	 *            the rates (the default)
+	 * 
+	 * @See RateSnapshot
+	 */
+	public void setLocalRebasing(boolean localRebasing) {
+		this.localRebasing = localRebasing;
+	}
+
+	public MathContext getRebasingPrecision() {
+		return rebasingPrecision;
+	}
+
+	/**
+	 * Sets the precision of the rates rebased locally, 8 significant digits by
+	 * default
+	 * 
+	 * @param rebasingPrecision
+	 *            significant digits and rounding mode, MathContext.UNLIMITED for
+	 *            no rounding
+	 */
+	public void setRebasingPrecision(MathContext rebasingPrecision) {
+		Validate.notNull(rebasingPrecision, "Parameter '%s' cannot be null", "rebasingPrecision");
+		this.rebasingPrecision = rebasingPrecision;
+	}
+
+	private boolean isRebasedLocally(String currency) {
+		return localRebasing && !StringUtils.equalsIgnoreCase(currency, baseCurrency);
+	}
+
+	/**
+	 * Rebases the rates of the default base currency
+	 * 
+	 * @param baseRates
+	 *            the rates of all currencies in the default base currency
+	 * @param symbols
+	 *            a comma separated list of currency symbols, or null for all
+	 *            currencies
+	 * @param currency
+	 *            the new base currency
+	 * @return the rebased rates, or null if a currency is missing
+	 */
+	private List<ExchangeRate> rebaseLocally(List<ExchangeRate> baseRates, String symbols, String currency) {
+		RateSnapshot snapshot = RateSnapshot.of(baseCurrency, baseRates);
+		if (!snapshot.contains(currency)) {
+			log.debug("No rate for base currency {}, rebasing left to the Fixer API", currency);
+			return null;
+		}
+		List<String> symbolList = null;
+		if (StringUtils.isNotBlank(symbols)) {
+			symbolList = Arrays.asList(StringUtils.split(symbols, ','));
+		}
+		List<ExchangeRate> rates = snapshot.rebase(currency, rebasingPrecision).toExchangeRates(symbolList);
+		if (rates == null) {
+			log.debug("Missing rates for symbols {}, rebasing left to the Fixer API", symbols);
+		}
+		return rates;
+	}
+
+	public HistoricalPlanner getHistoricalPlanner() {
+		return historicalPlanner;
+	}
+
+	/**
+	 * Sets the planner that chooses the requests sent by getHistorical for a
+	 * collection of dates
+	 * 
+	 * @param historicalPlanner
+	 */
+	public void setHistoricalPlanner(HistoricalPlanner historicalPlanner) {
+		Validate.notNull(historicalPlanner, "Parameter '%s' cannot be null", "historicalPlanner");
+		this.historicalPlanner = historicalPlanner;
+	}
+
+	public LatestBatcher getLatestBatcher() {
+		return latestBatcher;
+	}
+
+	/**
+	 * Sets the window during which the calls to getLatest for the same base
+	 * currency are grouped into one request for the union of their symbols. Each
+	 * caller then waits up to the window before the request is sent.
+	 * <p>
+	 * Calls for all currencies (no symbols) are never grouped.
+	 * 
+	 * @param windowMillis
+	 *            duration of the window in milliseconds, 0 to disable batching (the
+	 *            default)
+	 */
+	public void setLatestBatchWindow(long windowMillis) {
+		if (windowMillis > 0) {
+			this.latestBatcher = new LatestBatcher(this::loadLatestOutsideCall, windowMillis);
+		} else {
+			this.latestBatcher = null;
+		}
+	}
+
+	/**
+	 * Fluctuations of a currency between two dates. Returns the rate at beginning
+	 * and at end of the period plus the variation in value and in percentage
+	 * 
+	 * @param startDate
+	 *            the start date for which historical rates are requested in format
+	 *            yyyy-MM-dd, eg: 2018-04-26
+	 * @param endDate
+	 *            the end date for which historical rates are requested in format
+	 *            yyyy-MM-dd, eg: 2018-04-26
+	 * 
+	 * @See <a href="https://fixer.io/documentation#fluctuation">Fluctuation
+	 *      Endpoint documentation</a>
+	 * 
+	 * @throws FixerException
+	 * @throws JsonParseException
+	 * @throws IOException
+	 */
+	public List<Fluctuation> getFluctuations(String startDate, String endDate)
+			throws FixerException, JsonParseException, IOException {
+		return getFluctuations(startDate, endDate, null, baseCurrency);
+	}
+
+	/**
+	 * Fluctuations of a currency between two dates. Returns the rate at beginning
+	 * and at end of the period plus the variation in value and in percentage
+	 * 
+	 * @param startDate
+	 *            the start date for which historical rates are requested in format
+	 *            yyyy-MM-dd, eg: 2018-04-26
+	 * @param endDate
+	 *            the end date for which historical rates are requested in format
+	 *            yyyy-MM-dd, eg: 2018-04-26
+	 * @param symbols
+	 *            a comma separated string of 3-digits ISO currency codes
+	 * 
+	 * @See <a href="https://fixer.io/documentation#fluctuation">Fluctuation
+	 *      Endpoint documentation</a>
+	 * 
+	 * @throws FixerException
+	 * @throws JsonParseException
+	 * @throws IOException
+	 */
+	public List<Fluctuation> getFluctuations(String startDate, String endDate, String symbols)
+			throws FixerException, JsonParseException, IOException {
+		return getFluctuations(startDate, endDate, symbols, baseCurrency);
+	}
+
+	/**
+	 * Fluctuations of a currency between two dates. Returns the rate at beginning
+	 * and at end of the period plus the variation in value and in percentage
+	 * 
+	 * @param startDate
+	 *            the start date for which historical rates are requested in format
+	 *            yyyy-MM-dd, eg: 2018-04-26
+	 * @param endDate
+	 *            the end date for which historical rates are requested in format
+	 *            yyyy-MM-dd, eg: 2018-04-26
+	 * @param symbols
+	 *            a comma separated string of 3-digits ISO currency codes
+	 * @param currency
+	 *            an alternate base currency
+	 * 
+	 * @See <a href="https://fixer.io/documentation#fluctuation">Fluctuation
+	 *      Endpoint documentation</a>
+	 * 
+	 * @throws FixerException
+	 * @throws JsonParseException
+	 * @throws IOException
+	 */
+	public List<Fluctuation> getFluctuations(String startDate, String endDate, String symbols, String currency)
+			throws FixerException, JsonParseException, IOException {
+
+		// Check Dates
+		LocalDate sDate;
+		LocalDate eDate;
+		try {
+			sDate = LocalDate.parse(startDate, EndpointField.dateFormatter);
+			eDate = LocalDate.parse(endDate, EndpointField.dateFormatter);
+			if (sDate.isAfter(eDate)) {
+				throw new FixerException("Start date cannot be after end date");
+			}
+		} catch (DateTimeParseException e) {
+			throw new FixerException("Invalid or null date");
+		}
+
+		// Base Currency
+		if (StringUtils.isBlank(currency)) {
+			currency = baseCurrency;
+		}
+
+		// Computed from the cached rates, only missing currencies are requested
+		List<Fluctuation> cachedFluctuations = new ArrayList<>();
+		RateHistoryCache cache = this.historyCache;
+		if (cache != null) {
+			List<String> symbolList = null;
+			if (StringUtils.isNotBlank(symbols)) {
+				symbolList = Arrays.asList(StringUtils.split(symbols, ','));
+			}
+			FluctuationCalculator.Result result = new FluctuationCalculator(cache).calculate(currency, sDate, eDate, symbolList);
+			if (result != null) {
+				if (result.isComplete()) {
+					return new ArrayList<>(result.getFluctuations());
+				}
+				log.debug("Fluctuations of {} not cached, requested to the Fixer API", result.getMissingSymbols());
+				cachedFluctuations.addAll(result.getFluctuations());
+				symbols = String.join(",", result.getMissingSymbols());
+			}
+		}
+
+		// Calculates
+		Endpoint fluctuationEndpoint = new FluctuationEndpoint(baseUrl);
+		fluctuationEndpoint.addParam("access_key", accessKey);
+		fluctuationEndpoint.addParam("base", currency);
+		fluctuationEndpoint.addParam("start_date", startDate);
+		fluctuationEndpoint.addParam("end_date", endDate);
+		fluctuationEndpoint.addParam("symbols", symbols);
+
+		EndpointFieldList data = callEndpoint(fluctuationEndpoint);
+		if (cachedFluctuations.isEmpty()) {
+			return data.getFluctuations();
+		}
+		cachedFluctuations.addAll(data.getFluctuations());
+		return cachedFluctuations;
+
+	}
+
+	/**
+	 * Fluctuations of a currency between two dates. Returns the rate at beginning
+	 * and at end of the period plus the variation in value and in percentage
+	 * 
+	 * @param startDate
+	 *            a valid local date
+	 * @param endDate
+	 *            a valid local date
+	 * 
+	 * @See <a href="https://fixer.io/documentation#fluctuation">Fluctuation
+	 *      Endpoint documentation</a>
+	 * 
+	 * @throws FixerException
+	 * @throws JsonParseException
+	 * @throws IOException
+	 */
+	public List<Fluctuation> getFluctuations(LocalDate startDate, LocalDate endDate)
+			throws FixerException, JsonParseException, IOException {
+		return getFluctuations(startDate, endDate, null, baseCurrency);
+	}
+
+	/**
+	 * Fluctuations of a currency between two dates. Returns the rate at beginning
+	 * and at end of the period plus the variation in value and in percentage
+	 * 
+	 * @param startDate
+	 *            a valid local date
+	 * @param endDate
+	 *            a valid local date
+	 * @param symbols
+	 *            a comma separated string of 3-digits ISO currency codes
+	 * 
+	 * @See <a href="https://fixer.io/documentation#fluctuation">Fluctuation
+	 *      Endpoint documentation</a>
+	 * 
+	 * @throws FixerException
+	 * @throws JsonParseException
+	 * @throws IOException
+	 */
+	public List<Fluctuation> getFluctuations(LocalDate startDate, LocalDate endDate, String symbols)
+			throws FixerException, JsonParseException, IOException {
+		return getFluctuations(startDate, endDate, symbols, baseCurrency);
+	}
+
+	/**
+	 * Fluctuations of a currency between two dates. Returns the rate at beginning
+	 * and at end of the period plus the variation in value and in percentage
+	 * 
+	 * @param startDate
+	 *            a valid local date
+	 * @param endDate
+	 *            a valid local date
+	 * @param symbols
+	 *            a comma separated string of 3-digits ISO currency codes
+	 * @param currency
+	 *            an alternate base currency
+	 * 
+	 * @See <a href="https://fixer.io/documentation#fluctuation">Fluctuation
+	 *      Endpoint documentation</a>
+	 * 
+	 * @throws FixerException
+	 * @throws JsonParseException
+	 * @throws IOException
+	 */
+	public List<Fluctuation> getFluctuations(LocalDate startDate, LocalDate endDate, String symbols, String currency)
+			throws FixerException, JsonParseException, IOException {
+
+		String strStartDate = null;
+		if (startDate != null) {
+			strStartDate = startDate.format(EndpointField.dateFormatter);
+		} else {
+			throw new FixerException("Invalid or null date");
+		}
+
+		String strEndDate = null;
+		if (endDate != null) {
+			strEndDate = endDate.format(EndpointField.dateFormatter);
+		} else {
+			throw new FixerException("Invalid or null date");
+		}
+
+		// Base Currency
+		if (StringUtils.isBlank(currency)) {
+			currency = baseCurrency;
+		}
+
+		return getFluctuations(strStartDate, strEndDate, symbols, currency);
+	}
+
+	/**
+	 * Convert an amount in a given currency into the target currency
+	 * 
+	 * @param fromCurrency
+	 *            is the currency for amount
+	 * @param targetCurrency
+	 *            is the target currency
+	 * @param amount
+	 *            a double that represents the initial value in the fromCurrency
+	 * 
+	 * @return the value in the targetCurrency
+	 * 
+	 * @See <a href="https://fixer.io/documentation#convertcurrency">Convert
+	 *      Endpoint documentation</a>
+	 * 
+	 * @throws FixerException
+	 * @throws JsonParseException
+	 * @throws IOException
+	 */
+	public double getConversion(String fromCurrency, String targetCurrency, double amount)
+			throws FixerException, JsonParseException, IOException {
+		return getConversion(fromCurrency, targetCurrency, amount, null);
 	}
 
 	/**
@@ -384,20 +1250,12 @@ public class FixerApiLoader {
 		} 
 		convertEndpoint.addParam("date", date);
 
-		try {
-			EndpointFieldList data = convertEndpoint.getData();
-			this.lastCalledUrl = convertEndpoint.getRequestUrl();
-			this.jsonResponse = convertEndpoint.getJsonResponse();
-
-			EndpointField fldResult = data.getField("result");
-			if (fldResult != null) {
-				return fldResult.getDouble();
-			} else {
-				throw new FixerException("Unable to determine conversion result due to unknown error");
-			}
-		} catch (FixerException e) {
-			this.jsonResponse = convertEndpoint.getJsonResponse();
-			throw e;
+		EndpointFieldList data = callEndpoint(convertEndpoint);
+		EndpointField fldResult = data.getField("result");
+		if (fldResult != null) {
+			return fldResult.getDouble();
+		} else {
+			throw new FixerException("Unable to determine conversion result due to unknown error");
 		}
 	}
 
@@ -478,16 +1336,11 @@ public class FixerApiLoader {
 		timeSeriesEndpoint.addParam("symbols", symbols);
 		timeSeriesEndpoint.addParam("base", currency);
 
-		try {
-			EndpointFieldList data = timeSeriesEndpoint.getData();
-			this.lastCalledUrl = timeSeriesEndpoint.getRequestUrl();
-			this.jsonResponse = timeSeriesEndpoint.getJsonResponse();
-
-			return data.getRates();
-		} catch (FixerException e) {
-			this.jsonResponse = timeSeriesEndpoint.getJsonResponse();
-			throw e;
+		EndpointFieldList data = callEndpoint(timeSeriesEndpoint);
+		if (!data.isCached()) {
+			recordHistory(currency, data.getRates());
 		}
+		return data.getRates();
 	}
 
 	public List<ExchangeRate> getTimeSeries(String startDate, String endDate)
@@ -681,6 +1534,13 @@ public class FixerApiLoader {
 			currency = baseCurrency;
 		}
 
+		if (isRebasedLocally(currency)) {
+			List<ExchangeRate> rates = rebaseLocally(getHistorical(date, null, baseCurrency), symbols, currency);
+			if (rates != null) {
+				return rates;
+			}
+		}
+
 		// Calculate
 		Endpoint historicalEndpoint = new HistoricalEndpoint(baseUrl);
 		historicalEndpoint.addParam("access_key", accessKey);
@@ -690,16 +1550,11 @@ public class FixerApiLoader {
 		historicalEndpoint.addPathVariable("date", date);
 		historicalEndpoint.addParam("base", currency);
 
-		try {
-			EndpointFieldList data = historicalEndpoint.getData();
-			this.lastCalledUrl = historicalEndpoint.getRequestUrl();
-			this.jsonResponse = historicalEndpoint.getJsonResponse();
-
-			return data.getRates();
-		} catch (FixerException e) {
-			this.jsonResponse = historicalEndpoint.getJsonResponse();
-			throw e;
+		EndpointFieldList data = callEndpoint(historicalEndpoint);
+		if (!data.isCached()) {
+			recordHistory(currency, data.getRates());
 		}
+		return data.getRates();
 	}
 
 	/**
@@ -798,6 +1653,137 @@ public class FixerApiLoader {
 		return getHistorical(strDate, strSymbols, currency);
 	}
 
+	/**
+	 * Returns the historical exchange rates of several dates, using the default
+	 * base currency.
+	 * 
+	 * @param dates
+	 *            the dates, in any order
+	 * @param symbols
+	 *            a comma separated string of 3-digits ISO currency codes, or null
+	 *            for all currencies
+	 * @return the exchange rates by date, see getHistorical(Collection, String,
+	 *         String)
+	 * 
+	 * @throws FixerException
+	 * @throws JsonParseException
+	 * @throws IOException
+	 */
+	public Map<LocalDate, List<ExchangeRate>> getHistorical(Collection<LocalDate> dates, String symbols)
+			throws FixerException, JsonParseException, IOException {
+		return getHistorical(dates, symbols, baseCurrency);
+	}
+
+	/**
+	 * Returns the historical exchange rates of several dates.
+	 * <p>
+	 * The requests are planned by the historical planner to minimize their
+	 * number: dates close to each other are loaded with one request to the
+	 * Time-Series Endpoint, isolated dates with one request to the Historical
+	 * Rates Endpoint. When several requests are needed, they are sent in parallel
+	 * on the call executor, within the deadline of the current call if any. If a
+	 * request fails, the others are cancelled and its error is thrown.
+	 * 
+	 * @param dates
+	 *            the dates, in any order
+	 * @param symbols
+	 *            a comma separated string of 3-digits ISO currency codes, or null
+	 *            for all currencies
+	 * @param currency
+	 *            a specific base currency
+	 * @return the exchange rates of each requested date, sorted by date. The list
+	 *         of a date for which the Fixer API returned no rate is empty.
+	 * 
+	 * @See HistoricalPlanner
+	 * 
+	 * @throws FixerException
+	 * @throws JsonParseException
+	 * @throws IOException
+	 */
+	public Map<LocalDate, List<ExchangeRate>> getHistorical(Collection<LocalDate> dates, final String symbols, String currency)
+			throws FixerException, JsonParseException, IOException {
+		Validate.notNull(dates, "Parameter '%s' cannot be null", "dates");
+		if (dates.contains(null)) {
+			throw new FixerException(String.format(FixerErrorMessages.INVALID_DATE, "null"));
+		}
+
+		// Base Currency
+		if (StringUtils.isBlank(currency)) {
+			currency = baseCurrency;
+		}
+		final String base = currency;
+
+		List<HistoricalPlanner.Request> requests = historicalPlanner.plan(dates);
+		Map<LocalDate, List<ExchangeRate>> ratesByDate = new TreeMap<>();
+		if (requests.size() == 1 || Boolean.TRUE.equals(callWorker.get())) {
+			// Within a submitted call, the requests are sent one after the other: waiting
+			// for other workers of the call executor could wait forever for a free one
+			for (HistoricalPlanner.Request request : requests) {
+				ratesByDate.putAll(loadHistorical(request, symbols, base));
+			}
+			return ratesByDate;
+		}
+
+		// Requests sent in parallel, with the deadline of the current call
+		CallContext current = callContext.get();
+		List<Future<Map<LocalDate, List<ExchangeRate>>>> futures = new ArrayList<>();
+		for (final HistoricalPlanner.Request request : requests) {
+			CallContext context = new CallContext(current != null ? current.deadline : null);
+			futures.add(submit(context, l -> l.loadHistorical(request, symbols, base)));
+		}
+		try {
+			for (Future<Map<LocalDate, List<ExchangeRate>>> future : futures) {
+				ratesByDate.putAll(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new FixerException("Interrupted while loading historical rates", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof FixerException) {
+				throw (FixerException) cause;
+			} else if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new FixerException(cause);
+		} finally {
+			for (Future<Map<LocalDate, List<ExchangeRate>>> future : futures) {
+				future.cancel(true);
+			}
+		}
+		return ratesByDate;
+	}
+
+	/**
+	 * Sends one request of a historical plan
+	 * 
+	 * @return the exchange rates of the requested dates of the request
+	 */
+	private Map<LocalDate, List<ExchangeRate>> loadHistorical(HistoricalPlanner.Request request, String symbols, String currency)
+			throws FixerException, JsonParseException, IOException {
+		Map<LocalDate, List<ExchangeRate>> ratesByDate = new TreeMap<>();
+		if (!request.isTimeSeries()) {
+			String strDate = request.getStartDate().format(EndpointField.dateFormatter);
+			ratesByDate.put(request.getStartDate(), getHistorical(strDate, symbols, currency));
+			return ratesByDate;
+		}
+
+		// Only the requested dates are kept from the period
+		for (LocalDate date : request.getDates()) {
+			ratesByDate.put(date, new ArrayList<ExchangeRate>());
+		}
+		List<ExchangeRate> rates = getTimeSeries(request.getStartDate(), request.getEndDate(), symbols, currency);
+		for (ExchangeRate rate : rates) {
+			List<ExchangeRate> dayRates = ratesByDate.get(LocalDate.parse(rate.getDate(), EndpointField.dateFormatter));
+			if (dayRates != null) {
+				dayRates.add(rate);
+			}
+		}
+		return ratesByDate;
+	}
+
 	/**
 	 * Returns a list of real-time or latest exchange rates for all available
 	 * currencies using the default base currency.
@@ -852,49 +1838,158 @@ public class FixerApiLoader {
 	 * This method calls the Latest Rates Endpoint of the
 	 * <a href="https://fixer.io/">Fixer API</a>.
 	 * 
-	 * @params currency a specific base currency
+	 * @params currency a specific base currency
+	 * @param symbols
+	 *            a list of currency symbols
+	 * @return List of ExchangeRate objects
+	 * 
+	 * @See ExchangeRate
+	 * @See <a href="https://fixer.io/documentation#latestrates">Latest Rates
+	 *      Endpoint documentation</a>
+	 * 
+	 * @throws FixerException
+	 * @throws JsonParseException
+	 * @throws IOException
+	 */
+	public List<ExchangeRate> getLatest(Set<String> symbols) throws FixerException, JsonParseException, IOException {
+		String strSymbols = null;
+		if (CollectionUtils.isNotEmpty(symbols)) {
+			strSymbols = String.join(",", symbols);
+		}
+		return getLatest(strSymbols, baseCurrency);
+	}
+
+	/**
+	 * Returns a list of real-time or latest exchange rates for the list of
+	 * currencies. If this list is null, exchange rates are returned for all
+	 * available currencies. The base currency is different of the default.
+	 * <p>
+	 * This method calls the Latest Rates Endpoint of the
+	 * <a href="https://fixer.io/">Fixer API</a>.
+	 * 
+	 * @params currency a specific base currency
+	 * @param symbols
+	 *            a comma separated list of currency symbols, like: EUR,USD,CHF
+	 * @return List of ExchangeRate objects
+	 * 
+	 * @See ExchangeRate
+	 * @See <a href="https://fixer.io/documentation#latestrates">Latest Rates
+	 *      Endpoint documentation</a>
+	 * 
+	 * @throws FixerException
+	 * @throws JsonParseException
+	 * @throws IOException
+	 */
+	public List<ExchangeRate> getLatest(String symbols, String currency)
+			throws FixerException, JsonParseException, IOException {
+
+		// Base Currency
+		if (StringUtils.isBlank(currency)) {
+			currency = baseCurrency;
+		}
+
+		if (isRebasedLocally(currency)) {
+			List<ExchangeRate> rates = rebaseLocally(loadLatest(null, baseCurrency), symbols, currency);
+			if (rates != null) {
+				return rates;
+			}
+		}
+
+		// Batches are loaded outside of the calls: not for the calls that bypass the
+		// response cache
+		CallContext context = callContext.get();
+		if (latestBatcher != null && StringUtils.isNotBlank(symbols) && (context == null || !context.uncached)) {
+			return latestBatcher.getLatest(Arrays.asList(StringUtils.split(symbols, ',')), currency,
+					context != null ? context.deadline : null, context != null ? context.cancellation : null);
+		}
+		return loadLatest(symbols, currency);
+	}
+
+	/**
+	 * Calls the Latest Rates Endpoint
+	 * 
 	 * @param symbols
-	 *            a list of currency symbols
+	 *            a comma separated list of currency symbols, or null for all
+	 *            currencies
+	 * @param currency
+	 *            the base currency
 	 * @return List of ExchangeRate objects
 	 * 
-	 * @See ExchangeRate
-	 * @See <a href="https://fixer.io/documentation#latestrates">Latest Rates
-	 *      Endpoint documentation</a>
-	 * 
 	 * @throws FixerException
 	 * @throws JsonParseException
 	 * @throws IOException
 	 */
-	public List<ExchangeRate> getLatest(Set<String> symbols) throws FixerException, JsonParseException, IOException {
-		String strSymbols = null;
-		if (CollectionUtils.isNotEmpty(symbols)) {
-			strSymbols = String.join(",", symbols);
+	private List<ExchangeRate> loadLatest(String symbols, String currency)
+			throws FixerException, JsonParseException, IOException {
+
+		LatestEndpoint latestEndpoint = new LatestEndpoint(baseUrl);
+		latestEndpoint.addParam("access_key", accessKey);
+		latestEndpoint.addParam("base", currency);
+		if (StringUtils.isNotBlank(symbols)) {
+			latestEndpoint.addParam("symbols", symbols);
 		}
-		return getLatest(strSymbols, baseCurrency);
+
+		EndpointFieldList data = callEndpoint(latestEndpoint);
+		return data.getRates();
 	}
 
 	/**
-	 * Returns a list of real-time or latest exchange rates for the list of
-	 * currencies. If this list is null, exchange rates are returned for all
-	 * available currencies. The base currency is different of the default.
+	 * Calls the Latest Rates Endpoint for the latest batcher, outside of the call
+	 * in progress on the thread, if any: the requests of a batch are shared by its
+	 * callers, and must not fail with the deadline or the cancellation of one of
+	 * them.
+	 * 
+	 * @param deadline
+	 *            the deadline of the requests, null if none
+	 * @param cancellation
+	 *            completed to abort the requests, null if they cannot be
+	 */
+	private List<ExchangeRate> loadLatestOutsideCall(String symbols, String currency, Deadline deadline, CompletableFuture<?> cancellation)
+			throws FixerException, JsonParseException, IOException {
+		final CallContext context = new CallContext(deadline);
+		if (cancellation != null) {
+			cancellation.whenComplete((result, e) -> context.cancel());
+		}
+		CallContext previous = callContext.get();
+		callContext.set(context);
+		try {
+			return loadLatest(symbols, currency);
+		} finally {
+			if (previous != null) {
+				callContext.set(previous);
+			} else {
+				callContext.remove();
+			}
+		}
+	}
+
+	/**
+	 * Returns the latest exchange rates, or null if they are still those of a
+	 * known timestamp. Meant for polling: when the rates have not been updated
+	 * since the last call, the response is parsed header first and no exchange
+	 * rate is created.
 	 * <p>
 	 * This method calls the Latest Rates Endpoint of the
 	 * <a href="https://fixer.io/">Fixer API</a>.
 	 * 
-	 * @params currency a specific base currency
 	 * @param symbols
-	 *            a comma separated list of currency symbols, like: EUR,USD,CHF
-	 * @return List of ExchangeRate objects
+	 *            a comma separated list of currency symbols, or null for all
+	 *            currencies
+	 * @param currency
+	 *            a specific base currency, or null for the default base currency
+	 * @param knownTimestamp
+	 *            the timestamp of the rates already known (see
+	 *            ExchangeRate.getTimestamp), or null
+	 * @return List of ExchangeRate objects, or null if the rates have the known
+	 *         timestamp
 	 * 
-	 * @See ExchangeRate
-	 * @See <a href="https://fixer.io/documentation#latestrates">Latest Rates
-	 *      Endpoint documentation</a>
+	 * @See LatestEndpoint#setKnownTimestamp(long)
 	 * 
 	 * @throws FixerException
 	 * @throws JsonParseException
 	 * @throws IOException
 	 */
-	public List<ExchangeRate> getLatest(String symbols, String currency)
+	public List<ExchangeRate> getLatestIfChanged(String symbols, String currency, LocalDateTime knownTimestamp)
 			throws FixerException, JsonParseException, IOException {
 
 		// Base Currency
@@ -902,24 +1997,25 @@ public class FixerApiLoader {
 			currency = baseCurrency;
 		}
 
+		// Rebased or batched requests: the whole response is parsed
+		if (knownTimestamp == null || isRebasedLocally(currency) || (latestBatcher != null && StringUtils.isNotBlank(symbols))) {
+			List<ExchangeRate> rates = getLatest(symbols, currency);
+			if (knownTimestamp != null && !rates.isEmpty() && knownTimestamp.equals(rates.get(0).getTimestamp())) {
+				return null;
+			}
+			return rates;
+		}
+
 		LatestEndpoint latestEndpoint = new LatestEndpoint(baseUrl);
 		latestEndpoint.addParam("access_key", accessKey);
 		latestEndpoint.addParam("base", currency);
 		if (StringUtils.isNotBlank(symbols)) {
 			latestEndpoint.addParam("symbols", symbols);
 		}
+		latestEndpoint.setKnownTimestamp(knownTimestamp.atZone(ZoneId.systemDefault()).toEpochSecond());
 
-		try {
-			EndpointFieldList data = latestEndpoint.getData();
-			this.lastCalledUrl = latestEndpoint.getRequestUrl();
-			this.jsonResponse = latestEndpoint.getJsonResponse();
-
-			return data.getRates();
-
-		} catch (FixerException e) {
-			this.jsonResponse = latestEndpoint.getJsonResponse();
-			throw e;
-		}
+		EndpointFieldList data = callEndpoint(latestEndpoint);
+		return data.isUnchanged() ? null : data.getRates();
 	}
 
 	/**
@@ -979,19 +2075,522 @@ public class FixerApiLoader {
 		SupportedSymbolsEndpoint symbolsEndpoint = new SupportedSymbolsEndpoint(baseUrl);
 		symbolsEndpoint.addParam("access_key", accessKey);
 
+		EndpointFieldList data = callEndpoint(symbolsEndpoint);
+		currencies = data.getCurrencies();
+		Currency.setSupportedCurrencies(currencies);
+
+		return currencies;
+	}
+
+	/**
+	 * Returns a publisher of the exchange rates between two dates, one item per
+	 * day.
+	 * <p>
+	 * Unlike getTimeSeries, the whole period is not loaded at once: the Time-Series
+	 * Endpoint is called for chunks of <code>chunkDays</code> days, and only when
+	 * the subscriber has requested more days than those already loaded.
+	 * 
+	 * @param startDate
+	 *            a valid local date
+	 * @param endDate
+	 *            a valid local date
+	 * @param symbols
+	 *            a comma separated string of 3-digits ISO currency codes
+	 * @param currency
+	 *            an alternate base currency
+	 * @param chunkDays
+	 *            the number of days loaded by each call to the endpoint
+	 * 
+	 * @return a publisher of lists of exchange rates, one list per day
+	 * 
+	 * @See TimeSeriesPublisher
+	 * @See <a href="https://fixer.io/documentation#timeseries">Time-Series Endpoint
+	 *      documentation</a>
+	 * 
+	 * @throws FixerException
+	 */
+	public TimeSeriesPublisher getTimeSeriesPublisher(LocalDate startDate, LocalDate endDate, String symbols,
+			String currency, int chunkDays) throws FixerException {
+
+		if (startDate == null || endDate == null) {
+			throw new FixerException("Invalid or null date");
+		}
+		if (startDate.isAfter(endDate)) {
+			throw new FixerException("Start date cannot be after end date");
+		}
+		if (chunkDays < 1 || chunkDays > TimeSeriesPublisher.MAX_CHUNK_DAYS) {
+			throw new FixerException("Chunk size must be between 1 and " + TimeSeriesPublisher.MAX_CHUNK_DAYS + " days");
+		}
+
+		// Base Currency
+		if (StringUtils.isBlank(currency)) {
+			currency = baseCurrency;
+		}
+
+		return new TimeSeriesPublisher(this, startDate, endDate, symbols, currency, chunkDays);
+	}
+
+	/**
+	 * Returns a publisher of the exchange rates between two dates, one item per
+	 * day, loaded by chunks of TimeSeriesPublisher.DEFAULT_CHUNK_DAYS days.
+	 * 
+	 * @param startDate
+	 *            a valid local date
+	 * @param endDate
+	 *            a valid local date
+	 * @param symbols
+	 *            a comma separated string of 3-digits ISO currency codes
+	 * 
+	 * @return a publisher of lists of exchange rates, one list per day
+	 * 
+	 * @throws FixerException
+	 */
+	public TimeSeriesPublisher getTimeSeriesPublisher(LocalDate startDate, LocalDate endDate, String symbols)
+			throws FixerException {
+		return getTimeSeriesPublisher(startDate, endDate, symbols, baseCurrency, TimeSeriesPublisher.DEFAULT_CHUNK_DAYS);
+	}
+
+	/**
+	 * Returns a refresher that polls the Latest Rates Endpoint in the background
+	 * and publishes the latest rates as snapshots. The refresher must be started.
+	 * 
+	 * @param symbols
+	 *            a comma separated string of 3-digits ISO currency codes, or null
+	 *            for all currencies
+	 * @param currency
+	 *            an alternate base currency
+	 * @param interval
+	 *            the interval between two polls
+	 * 
+	 * @return a refresher, not started
+	 * 
+	 * @See RateRefresher
+	 * 
+	 * @throws FixerException
+	 */
+	public RateRefresher getRateRefresher(String symbols, String currency, Duration interval) throws FixerException {
+		if (interval == null || interval.toMillis() <= 0) {
+			throw new FixerException("Refresh interval must be positive");
+		}
+
+		// Base Currency
+		if (StringUtils.isBlank(currency)) {
+			currency = baseCurrency;
+		}
+
+		return new RateRefresher(this, symbols, currency, interval);
+	}
+
+	/**
+	 * Returns a refresher of the rates of all currencies in the default base
+	 * currency, polling at the update interval of a Fixer plan. The refresher must
+	 * be started.
+	 * 
+	 * @param plan
+	 *            the Fixer plan of the access key
+	 * 
+	 * @return a refresher, not started
+	 * 
+	 * @throws FixerException
+	 */
+	public RateRefresher getRateRefresher(RateRefresher.Plan plan) throws FixerException {
+		Validate.notNull(plan, "Parameter '%s' cannot be null", "plan");
+		return getRateRefresher(null, baseCurrency, plan.getUpdateInterval());
+	}
+
+	/**
+	 * Sends the request of an endpoint and keeps track of the called URL and of
+	 * the Json response.
+	 * <ul>
+	 * <li>If a response cache is set and holds a fresh response for the request,
+	 * this response is returned without sending any request.</li>
+	 * <li>If the circuit breaker of the endpoint type is open, the request is
+	 * rejected: the cached response is returned whatever its age if there is one,
+	 * otherwise a CircuitOpenException is thrown.</li>
+	 * <li>If request coalescing is enabled, concurrent calls for the same
+	 * request (same request key, see Endpoint.getRequestKey) send only one request
+	 * and all receive the same data.</li>
+	 * <li>Within callUncached, no response is served from the cache: the request is
+	 * always sent, and its response cached.</li>
+	 * </ul>
+	 * 
+	 * @param endpoint
+	 *            an endpoint with all its parameters
+	 * @return the data returned by the endpoint
+	 * 
+	 * @throws FixerException
+	 * @throws JsonParseException
+	 * @throws IOException
+	 */
+	EndpointFieldList callEndpoint(final Endpoint endpoint) throws FixerException, JsonParseException, IOException {
+		final String requestKey = endpoint.getRequestKey();
+		final CallContext context = callContext.get();
+
+		// Error already returned for the same request
+		ErrorCache errors = this.errorCache;
+		if (errors != null) {
+			FixerException error = errors.get(requestKey);
+			if (error != null) {
+				this.lastCalledUrl = endpoint.getRequestUrl();
+				throw error;
+			}
+		}
+
+		// Call of the rate refresher: no response served from the cache
+		if (context != null && context.uncached) {
+			CircuitBreaker breaker = getCircuitBreaker(endpoint.getEndpointType());
+			if (breaker != null && !breaker.allowRequest()) {
+				throw breaker.newOpenException();
+			}
+			try {
+				return fetchAndTrack(endpoint, requestKey, context, breaker);
+			} catch (FixerException e) {
+				if (errors != null) {
+					errors.put(requestKey, e);
+				}
+				throw e;
+			}
+		}
+
+		// Fresh response in cache
+		ResponseCache cache = this.responseCache;
+		if (cache != null) {
+			ResponseCache.Entry entry = cache.getFresh(requestKey);
+			EndpointFieldList cached = entry != null ? getCachedData(cache, requestKey, entry) : null;
+			if (cached != null) {
+				this.lastCalledUrl = endpoint.getRequestUrl();
+				this.jsonResponse = entry.getJsonResponse();
+				EndpointFieldList data = cached.copy();
+				data.setCached(true);
+				return data;
+			}
+		}
+
+		// Expired response served at once, and loaded again in the background
+		CircuitBreaker breaker = getCircuitBreaker(endpoint.getEndpointType());
+		if (cache != null) {
+			ResponseCache.Entry staleEntry = cache.getStaleWhileRevalidate(requestKey);
+			EndpointFieldList stale = staleEntry != null ? serveStale(endpoint, requestKey, cache, staleEntry) : null;
+			if (stale != null) {
+				revalidate(endpoint, requestKey, breaker);
+				return stale;
+			}
+		}
+
+		// Fast fail when the endpoint is down
+		if (breaker != null && !breaker.allowRequest()) {
+			ResponseCache.Entry staleEntry = cache != null ? cache.get(requestKey) : null;
+			EndpointFieldList stale = staleEntry != null ? serveStale(endpoint, requestKey, cache, staleEntry) : null;
+			if (stale != null) {
+				log.debug("Circuit open for '{}', serving a response of {} ms", endpoint.getEndpointType(), staleEntry.getAge());
+				return stale;
+			}
+			throw breaker.newOpenException();
+		}
+
 		try {
-			EndpointFieldList data = symbolsEndpoint.getData();
-			this.lastCalledUrl = symbolsEndpoint.getRequestUrl();
-			this.jsonResponse = symbolsEndpoint.getJsonResponse();
+			return fetchAndTrack(endpoint, requestKey, context, breaker);
+		} catch (FixerException | IOException e) {
+			if (errors != null && e instanceof FixerException && errors.put(requestKey, (FixerException) e)) {
+				// Not a failure of the Fixer API: no stale response
+				throw e;
+			}
+			ResponseCache.Entry staleEntry = cache != null ? cache.getStaleIfError(requestKey) : null;
+			EndpointFieldList stale = staleEntry != null ? serveStale(endpoint, requestKey, cache, staleEntry) : null;
+			if (stale != null) {
+				log.debug("Request failed ({}), serving a response of {} ms", e.getMessage(), staleEntry.getAge());
+				return stale;
+			}
+			throw e;
+		}
+	}
 
-			currencies = data.getCurrencies();
-			Currency.setSupportedCurrencies(currencies);
+	/**
+	 * Fetches the data of an endpoint, and records the outcome in its circuit
+	 * breaker, if any
+	 */
+	private EndpointFieldList fetchAndTrack(Endpoint endpoint, String requestKey, CallContext context, CircuitBreaker breaker)
+			throws FixerException, JsonParseException, IOException {
+		try {
+			EndpointFieldList data = fetch(endpoint, requestKey, context);
+			if (breaker != null) {
+				breaker.onSuccess();
+			}
+			return data;
 		} catch (FixerException e) {
-			this.jsonResponse = symbolsEndpoint.getJsonResponse();
+			if (breaker != null) {
+				breaker.onError(e);
+			}
+			throw e;
+		} catch (IOException e) {
+			if (breaker != null) {
+				breaker.onFailure();
+			}
+			throw e;
+		} catch (RuntimeException | Error e) {
+			// Releases the probe of a half-open circuit
+			if (breaker != null) {
+				breaker.onIgnored();
+			}
 			throw e;
 		}
+	}
 
-		return currencies;
+	/**
+	 * Returns a cached response, expired or not, its rates being marked stale if
+	 * it has expired
+	 * 
+	 * @return the response, null if the entry could not be parsed
+	 */
+	private EndpointFieldList serveStale(Endpoint endpoint, String requestKey, ResponseCache cache, ResponseCache.Entry entry)
+			throws FixerException {
+		EndpointFieldList cached = getCachedData(cache, requestKey, entry);
+		if (cached == null) {
+			return null;
+		}
+		this.lastCalledUrl = endpoint.getRequestUrl();
+		this.jsonResponse = entry.getJsonResponse();
+		long staleMillis = cache.getStaleMillis(entry);
+		EndpointFieldList data = staleMillis > 0 ? cached.toStale(staleMillis) : cached.copy();
+		data.setCached(true);
+		return data;
+	}
+
+	/**
+	 * Returns the data of a cached response. The body of a response restored from
+	 * a warm-start file is only parsed at this point: if it cannot be, the entry
+	 * is dropped and the request is sent as if it had not been cached.
+	 * 
+	 * @return the data, null if the entry could not be parsed
+	 */
+	private EndpointFieldList getCachedData(ResponseCache cache, String requestKey, ResponseCache.Entry entry) {
+		try {
+			return entry.getData();
+		} catch (UncheckedIOException e) {
+			log.warn("Invalid cached response for {}, dropped: {}", requestKey, e.getCause().getMessage());
+			cache.getEntries().remove(requestKey, entry);
+			return null;
+		}
+	}
+
+	/**
+	 * Loads again an expired response in the background, unless it is already
+	 * being loaded again
+	 */
+	private void revalidate(final Endpoint endpoint, final String requestKey, final CircuitBreaker breaker) {
+		if (revalidations.putIfAbsent(requestKey, Boolean.TRUE) != null) {
+			return;
+		}
+		if (breaker != null && !breaker.allowRequest()) {
+			revalidations.remove(requestKey);
+			return;
+		}
+		try {
+			callExecutor.execute(() -> {
+				try {
+					fetchAndTrack(endpoint, requestKey, null, breaker);
+				} catch (Exception e) {
+					log.debug("Revalidation of {} failed: {}", requestKey, e.getMessage());
+				} finally {
+					revalidations.remove(requestKey);
+				}
+			});
+		} catch (RuntimeException e) {
+			revalidations.remove(requestKey);
+			log.debug("Revalidation of {} not started: {}", requestKey, e.getMessage());
+		}
+	}
+
+	/**
+	 * Sends the request of an endpoint, or joins an identical request in progress
+	 * if coalescing is enabled, and keeps the response in cache.
+	 * 
+	 * @param endpoint
+	 *            an endpoint with all its parameters
+	 * @param requestKey
+	 *            the request key of the endpoint
+	 * @param context
+	 *            the deadline of the call, null if none
+	 * @return the data returned by the endpoint
+	 * 
+	 * @throws FixerException
+	 * @throws JsonParseException
+	 * @throws IOException
+	 */
+	private EndpointFieldList fetch(final Endpoint endpoint, final String requestKey, final CallContext context)
+			throws FixerException, JsonParseException, IOException {
+		if (!requestCoalescing) {
+			return sendAndCache(endpoint, requestKey, context);
+		}
+		long timeoutMillis = 0;
+		if (context != null && context.deadline != null) {
+			timeoutMillis = context.deadline.getRemainingMillis();
+			if (timeoutMillis <= 0) {
+				countTimeout(endpoint.getEndpointType());
+				throw context.deadline.newExceededException(requestKey);
+			}
+		}
+		try {
+			final boolean[] sent = new boolean[1];
+			EndpointFieldList data;
+			if (context == null) {
+				data = requestCoalescer.execute(requestKey, () -> {
+					sent[0] = true;
+					return sendAndCache(endpoint, requestKey, null);
+				}, timeoutMillis);
+			} else {
+				// The request is shared: it is aborted only once all its callers have been
+				// cancelled or have reached their deadline
+				final CallContext shared = new CallContext(null);
+				data = requestCoalescer.execute(requestKey, () -> {
+					sent[0] = true;
+					return sendAndCache(endpoint, requestKey, shared);
+				}, timeoutMillis, context.cancellation, shared::cancel);
+			}
+			this.lastCalledUrl = endpoint.getRequestUrl();
+			// The response of another call: not shared with its caller
+			return sent[0] ? data : data.copy();
+		} catch (CancellationException e) {
+			throw new FixerException(0, "request_aborted", "Call cancelled while waiting for the response of: " + requestKey);
+		} catch (FixerException | IOException | RuntimeException e) {
+			throw e;
+		} catch (TimeoutException e) {
+			countTimeout(endpoint.getEndpointType());
+			throw context.deadline.newExceededException(requestKey);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new FixerException("Interrupted while waiting for the response of: " + requestKey, e);
+		} catch (Exception e) {
+			throw new FixerException(e);
+		}
+	}
+
+	private EndpointFieldList sendAndCache(Endpoint endpoint, String requestKey, CallContext context)
+			throws FixerException, JsonParseException, IOException {
+		Response response = sendRequest(endpoint, context);
+		this.jsonResponse = response.jsonResponse;
+		ResponseCache cache = this.responseCache;
+		if (cache != null && !response.data.isUnchanged()) {
+			// A full response does not depend on the part of the key after '#', eg: the
+			// known timestamp. Header-only responses are not cached.
+			int hash = requestKey.indexOf('#');
+			cache.put(hash >= 0 ? requestKey.substring(0, hash) : requestKey, response.data.copy(), response.jsonResponse);
+		}
+		return response.data;
+	}
+
+	/**
+	 * Actually sends the request of an endpoint, several times if a retry policy
+	 * is set and the request fails with a transient error.
+	 * 
+	 * @param endpoint
+	 *            an endpoint with all its parameters
+	 * @param context
+	 *            the deadline of the call, null if none
+	 * @return the response
+	 * 
+	 * @throws FixerException
+	 * @throws JsonParseException
+	 * @throws IOException
+	 */
+	private Response sendRequest(final Endpoint endpoint, final CallContext context) throws FixerException, JsonParseException, IOException {
+		RetryPolicy policy = this.retryPolicy;
+		if (policy == null) {
+			return sendHedged(endpoint, context);
+		}
+		return policy.execute(() -> sendHedged(endpoint, context), context != null ? context.deadline : null,
+				context != null ? context.cancellation : null);
+	}
+
+	/**
+	 * Sends the request of an endpoint, and a second identical request if the
+	 * endpoint is hedged and the response is late.
+	 * 
+	 * @param endpoint
+	 *            an endpoint with all its parameters
+	 * @param context
+	 *            the deadline of the call, null if none
+	 * @return the first successful response
+	 * 
+	 * @throws FixerException
+	 * @throws JsonParseException
+	 * @throws IOException
+	 */
+	private Response sendHedged(Endpoint endpoint, final CallContext context) throws FixerException, JsonParseException, IOException {
+		RequestHedger hedger = this.requestHedger;
+		if (hedger == null || !(endpoint instanceof LatestEndpoint)) {
+			return new Response(sendAttempt(endpoint, context), endpoint.getJsonResponse());
+		}
+		LatestEndpoint hedge = new LatestEndpoint(endpoint.getBaseUrl());
+		hedge.setRequestedEndpointParameters(new LinkedHashSet<>(endpoint.getRequestedEndpointParameters()));
+		hedge.setKnownTimestamp(((LatestEndpoint) endpoint).getKnownTimestamp());
+		return hedger.execute(endpoint, hedge, e -> new Response(sendAttempt(e, context), e.getJsonResponse()));
+	}
+
+	/**
+	 * Sends the request of an endpoint once, with the timeouts of the loader and
+	 * the deadline of the call
+	 * 
+	 * @param endpoint
+	 *            an endpoint with all its parameters
+	 * @param context
+	 *            the deadline of the call, null if none
+	 * @return the data returned by the endpoint
+	 * 
+	 * @throws FixerException
+	 * @throws JsonParseException
+	 * @throws IOException
+	 */
+	private EndpointFieldList sendAttempt(Endpoint endpoint, CallContext context) throws FixerException, JsonParseException, IOException {
+		long deadlineMillis = 0;
+		if (requestTimeoutMillis > 0) {
+			deadlineMillis = System.currentTimeMillis() + requestTimeoutMillis;
+		}
+		if (context != null && context.deadline != null) {
+			if (context.deadline.isExpired()) {
+				countTimeout(endpoint.getEndpointType());
+				throw context.deadline.newExceededException(endpoint.getRequestKey());
+			}
+			long callDeadline = context.deadline.getExpiresAtMillis();
+			deadlineMillis = deadlineMillis > 0 ? Math.min(deadlineMillis, callDeadline) : callDeadline;
+		}
+		endpoint.setConnectTimeoutMillis(connectTimeoutMillis);
+		endpoint.setSocketTimeoutMillis(socketTimeoutMillis);
+		endpoint.setDeadlineMillis(deadlineMillis);
+
+		QuotaGovernor governor = this.quotaGovernor;
+		if (governor != null) {
+			governor.acquire(requestPriority);
+		}
+		if (context != null) {
+			context.register(endpoint);
+		}
+		try {
+			EndpointFieldList data = endpoint.getData();
+			this.lastCalledUrl = endpoint.getRequestUrl();
+			this.jsonResponse = endpoint.getJsonResponse();
+			return data;
+		} catch (FixerException e) {
+			// The response of an aborted request, eg: a hedge that lost, is not exposed
+			if (!endpoint.isAborted()) {
+				this.jsonResponse = endpoint.getJsonResponse();
+			}
+			if (governor != null && e.getFixerCode() == QuotaGovernor.ERR_QUOTA_REACHED && !RetryPolicy.TYPE_HTTP_ERROR.equals(e.getFixerType())) {
+				governor.markExhausted();
+			}
+			if (RetryPolicy.TYPE_TIMEOUT.equals(e.getFixerType()) || Deadline.TYPE_DEADLINE_EXCEEDED.equals(e.getFixerType())) {
+				countTimeout(endpoint.getEndpointType());
+			}
+			if (Deadline.TYPE_DEADLINE_EXCEEDED.equals(e.getFixerType()) && (context == null || context.deadline == null || !context.deadline.isExpired())) {
+				// Only the request timeout is reached, the request may be retried
+				throw new FixerException(0, RetryPolicy.TYPE_TIMEOUT, "Request timeout of " + requestTimeoutMillis + " ms reached: " + endpoint.getRequestKey());
+			}
+			throw e;
+		} finally {
+			if (context != null) {
+				context.unregister(endpoint);
+			}
+		}
 	}
 
 }
@@ -39,6 +39,16 @@ public class FixerException extends Exception {
 		this.fixerType = type;
 	}
 
+	/**
+	 * Creates an error without stack trace if writableStackTrace is false, cheap
+	 * enough for errors returned from a cache
+	 */
+	public FixerException(int code, String type, String info, boolean writableStackTrace) {
+		super(info, null, false, writableStackTrace);
+		this.fixerCode = code;
+		this.fixerType = type;
+	}
+
 	public FixerException(String codeStr, String type, String info) {
 		super(info);
 		int code;
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * Plans the requests needed to load the historical rates of a set of dates.
+ * <p>
+ * Every request counts for one in the monthly quota, whatever the number of days
+ * it returns. The dates are sorted and grouped into clusters: a date belongs to
+ * the cluster of the previous date if it is at most maxGapDays days after it and
+ * the cluster does not span more than maxSpanDays days. A cluster of several
+ * dates is loaded with one request to the Time-Series Endpoint, an isolated date
+ * with one request to the Historical Rates Endpoint.
+ * <p>
+ * maxGapDays bounds the number of days loaded for nothing between two requested
+ * dates.
+ * 
+ * @author Lionel Conforto
+ *
+ */
+public class HistoricalPlanner {
+
+	public static final int DEFAULT_MAX_GAP_DAYS = 7;
+
+	/**
+	 * One request of a plan: a period loaded from the Time-Series Endpoint, or a
+	 * single date loaded from the Historical Rates Endpoint
+	 */
+	public static class Request {
+		private final List<LocalDate> dates;
+
+		private Request(List<LocalDate> dates) {
+			this.dates = Collections.unmodifiableList(dates);
+		}
+
+		/**
+		 * @return the requested dates covered by this request, in order
+		 */
+		public List<LocalDate> getDates() {
+			return dates;
+		}
+
+		public LocalDate getStartDate() {
+			return dates.get(0);
+		}
+
+		public LocalDate getEndDate() {
+			return dates.get(dates.size() - 1);
+		}
+
+		/**
+		 * @return true if the request is sent to the Time-Series Endpoint
+		 */
+		public boolean isTimeSeries() {
+			return dates.size() > 1;
+		}
+
+		public String toString() {
+			return ToStringBuilder.reflectionToString(this, ToStringStyle.SHORT_PREFIX_STYLE);
+		}
+	}
+
+	private int maxGapDays = DEFAULT_MAX_GAP_DAYS;
+	private int maxSpanDays = TimeSeriesPublisher.MAX_CHUNK_DAYS;
+
+	/**
+	 * Plans the requests for a set of dates
+	 * 
+	 * @param dates
+	 *            the dates, in any order, duplicates allowed
+	 * @return the requests, in date order
+	 */
+	public List<Request> plan(Collection<LocalDate> dates) {
+		Validate.notNull(dates, "Parameter '%s' cannot be null", "dates");
+
+		List<Request> requests = new ArrayList<>();
+		List<LocalDate> cluster = new ArrayList<>();
+		for (LocalDate date : new TreeSet<>(dates)) {
+			if (!cluster.isEmpty()) {
+				LocalDate previous = cluster.get(cluster.size() - 1);
+				long gap = ChronoUnit.DAYS.between(previous, date);
+				long span = ChronoUnit.DAYS.between(cluster.get(0), date) + 1;
+				if (gap > maxGapDays || span > maxSpanDays) {
+					requests.add(new Request(cluster));
+					cluster = new ArrayList<>();
+				}
+			}
+			cluster.add(date);
+		}
+		if (!cluster.isEmpty()) {
+			requests.add(new Request(cluster));
+		}
+		return requests;
+	}
+
+	public int getMaxGapDays() {
+		return maxGapDays;
+	}
+
+	/**
+	 * Sets the maximum number of days between two dates loaded by the same
+	 * time-series request. 0 never groups dates.
+	 * 
+	 * @param maxGapDays
+	 */
+	public void setMaxGapDays(int maxGapDays) {
+		this.maxGapDays = maxGapDays;
+	}
+
+	public int getMaxSpanDays() {
+		return maxSpanDays;
+	}
+
+	/**
+	 * Sets the maximum period of a time-series request, 365 days at most
+	 * 
+	 * @param maxSpanDays
+	 */
+	public void setMaxSpanDays(int maxSpanDays) {
+		Validate.isTrue(maxSpanDays > 0 && maxSpanDays <= TimeSeriesPublisher.MAX_CHUNK_DAYS, "Span must be in [1, %s]: %s",
+				TimeSeriesPublisher.MAX_CHUNK_DAYS, maxSpanDays);
+		this.maxSpanDays = maxSpanDays;
+	}
+
+}
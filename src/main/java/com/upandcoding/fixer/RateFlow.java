@@ -0,0 +1,85 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer;
+
+/**
+ * Interfaces for publishing data with back-pressure: a subscriber receives
+ * items only once it has requested them through its subscription.
+ * <p>
+ * The interfaces have the same shape and contract as java.util.concurrent.Flow
+ * (the API still targets Java 8), so that adapting a publisher to Flow or to
+ * Reactive Streams only means delegating each method.
+ * 
+ * @See TimeSeriesPublisher
+ * 
+ * @author Lionel Conforto
+ *
+ */
+public final class RateFlow {
+
+	private RateFlow() {
+	}
+
+	/**
+	 * Producer of items received by subscribers
+	 */
+	public interface Publisher<T> {
+
+		/**
+		 * Adds a subscriber. The subscriber is first called on onSubscribe, then
+		 * receives items through onNext as they are requested.
+		 * 
+		 * @param subscriber
+		 */
+		void subscribe(Subscriber<? super T> subscriber);
+	}
+
+	/**
+	 * Receiver of items. Calls to the methods of a given subscriber are never
+	 * concurrent.
+	 */
+	public interface Subscriber<T> {
+
+		void onSubscribe(Subscription subscription);
+
+		void onNext(T item);
+
+		void onError(Throwable throwable);
+
+		void onComplete();
+	}
+
+	/**
+	 * Link between a publisher and a subscriber
+	 */
+	public interface Subscription {
+
+		/**
+		 * Adds n items to the demand of the subscriber
+		 * 
+		 * @param n
+		 *            must be positive, otherwise onError is called with an
+		 *            IllegalArgumentException
+		 */
+		void request(long n);
+
+		/**
+		 * Stops sending items to the subscriber
+		 */
+		void cancel();
+	}
+
+}
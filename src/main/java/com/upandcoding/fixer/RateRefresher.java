@@ -0,0 +1,626 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.upandcoding.fixer.model.ExchangeRate;
+import com.upandcoding.fixer.model.LiveRates;
+import com.upandcoding.fixer.model.RateChangeNotifier;
+import com.upandcoding.fixer.model.RateSnapshot;
+import com.upandcoding.fixer.request.QuotaGovernor;
+
+/**
+ * Polls the Latest Rates Endpoint in the background, and publishes each new set
+ * of rates as an immutable snapshot.
+ * <p>
+ * Polls are scheduled every interval. When aligned, which is the default, they
+ * are scheduled on the multiples of the interval (every hour on the hour, every
+ * 10 minutes...) plus an offset, to get the rates just after the Fixer API
+ * updates them. A snapshot is published only when the timestamp of the rates
+ * changes: readers get the same snapshot instance until then.
+ * <p>
+ * Publishing is a single volatile write, so readers never see a partial update
+ * and never wait for a poll in progress.
+ * <p>
+ * In adaptive mode, the refresher learns the actual update period of the rates
+ * from the changes of their timestamp, which helps when the plan of the access
+ * key is unknown. Until a period is learned, polls are spaced by the interval.
+ * Then each poll is scheduled just after the next expected update (timestamp of
+ * the rates + period + offset). A poll that finds the rates not yet updated is
+ * followed by another one a tenth of a period later, then twice as late after
+ * each poll that still finds them unchanged, up to a period.
+ * <p>
+ * Polls are never closer than the minimum poll interval, 1 second by default,
+ * see {@link #setMaxPollsPerDay(int)}. If the loader has a quota governor, polls are
+ * skipped while the monthly budget is nearly used, or would be exhausted before
+ * the end of the month at the current pace: the snapshot then simply gets older.
+ * 
+ * <pre>
+ * RateRefresher refresher = loader.getRateRefresher(RateRefresher.Plan.PROFESSIONAL);
+ * refresher.start();
+ * ...
+ * double usd = refresher.getSnapshot().getRate("USD");
+ * </pre>
+ * 
+ * @See FixerApiLoader#getRateRefresher(String, String, Duration)
+ * 
+ * @author Lionel Conforto
+ *
+ */
+public class RateRefresher {
+
+	private static final Logger log = LoggerFactory.getLogger(RateRefresher.class);
+
+	/**
+	 * Update interval of the rates of each Fixer plan
+	 */
+	public enum Plan {
+		FREE(Duration.ofHours(1)), BASIC(Duration.ofHours(1)), PROFESSIONAL(Duration.ofMinutes(10)), PROFESSIONAL_PLUS(
+				Duration.ofMinutes(1)), ENTERPRISE(Duration.ofMinutes(1));
+
+		private final Duration updateInterval;
+
+		private Plan(Duration updateInterval) {
+			this.updateInterval = updateInterval;
+		}
+
+		public Duration getUpdateInterval() {
+			return updateInterval;
+		}
+	}
+
+	/**
+	 * Default delay between the expected update of the rates and the poll
+	 */
+	public static final long DEFAULT_OFFSET_MILLIS = 5000;
+
+	/**
+	 * Default fraction of the monthly budget above which polls are skipped
+	 */
+	public static final double DEFAULT_MAX_USED_RATIO = 0.9;
+
+	/**
+	 * Default minimum time between the start of two polls
+	 */
+	public static final long DEFAULT_MIN_POLL_INTERVAL_MILLIS = 1000;
+
+	// Number of timestamp changes from which the update period is learned
+	private static final int PERIOD_SAMPLES = 8;
+
+	private static final ScheduledExecutorService defaultScheduler = Executors.newScheduledThreadPool(1, new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "jfixer-refresh-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * A snapshot and the time it was received, published together
+	 */
+	private static final class Published {
+		private final RateSnapshot snapshot;
+		private final long receivedAtMillis;
+
+		private Published(RateSnapshot snapshot, long receivedAtMillis) {
+			this.snapshot = snapshot;
+			this.receivedAtMillis = receivedAtMillis;
+		}
+	}
+
+	private final FixerApiLoader loader;
+	private final String symbols;
+	private final String baseCurrency;
+	private final long intervalMillis;
+
+	private volatile boolean aligned = true;
+	private volatile long offsetMillis = DEFAULT_OFFSET_MILLIS;
+	private volatile double maxUsedRatio = DEFAULT_MAX_USED_RATIO;
+	private ScheduledExecutorService scheduler = defaultScheduler;
+
+	private volatile Published published;
+	// Orders the publications of concurrent refreshes and polls
+	private final Object publishLock = new Object();
+	private final LiveRates liveRates = new LiveRates();
+	private final RateChangeNotifier changeNotifier = new RateChangeNotifier();
+	private volatile long lastPollMillis = 0;
+	private volatile boolean quotaPaused = false;
+	private volatile Exception lastError;
+
+	private final AtomicLong pollCount = new AtomicLong();
+	private final AtomicLong publishCount = new AtomicLong();
+	private final AtomicLong failureCount = new AtomicLong();
+	private final AtomicLong skippedCount = new AtomicLong();
+	private final AtomicLong unchangedCount = new AtomicLong();
+
+	private volatile boolean headerFirst = true;
+
+	private volatile boolean adaptive = false;
+	private volatile long minPollIntervalMillis = DEFAULT_MIN_POLL_INTERVAL_MILLIS;
+	private volatile long lastPollStartMillis = 0;
+	// Polls in a row that found the rates unchanged
+	private final AtomicLong unchangedPolls = new AtomicLong();
+
+	// Intervals between the timestamps of the last snapshots, in milliseconds
+	private final long[] periodSamples = new long[PERIOD_SAMPLES];
+	private int periodSampleCount = 0;
+	private volatile long learnedPeriodMillis = 0;
+
+	private boolean running = false;
+	private ScheduledFuture<?> nextPoll;
+
+	RateRefresher(FixerApiLoader loader, String symbols, String baseCurrency, Duration interval) {
+		this.loader = loader;
+		this.symbols = symbols;
+		this.baseCurrency = baseCurrency;
+		this.intervalMillis = interval.toMillis();
+	}
+
+	/**
+	 * Starts polling. The first poll is immediate, then polls follow the schedule.
+	 */
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		log.debug("Refreshing {} rates every {} ms", baseCurrency, intervalMillis);
+		nextPoll = scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				poll();
+			}
+		}, 0, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops polling. The last snapshot remains available.
+	 */
+	public synchronized void stop() {
+		running = false;
+		if (nextPoll != null) {
+			nextPoll.cancel(false);
+			nextPoll = null;
+		}
+	}
+
+	public synchronized boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Polls the endpoint now, in the calling thread, whatever the schedule and the
+	 * quota
+	 * 
+	 * @return the current snapshot, new or not
+	 * 
+	 * @throws Exception
+	 *             the error of the endpoint
+	 */
+	public RateSnapshot refresh() throws Exception {
+		pollCount.incrementAndGet();
+		lastPollStartMillis = System.currentTimeMillis();
+		try {
+			RateSnapshot current = getSnapshot();
+			LocalDateTime knownTimestamp = headerFirst && current != null ? current.getTimestamp() : null;
+			// The cached responses would hide the updates
+			List<ExchangeRate> rates = loader.callUncached(l -> l.getLatestIfChanged(symbols, baseCurrency, knownTimestamp));
+			long now = System.currentTimeMillis();
+			lastPollMillis = now;
+			lastError = null;
+			if (rates == null) {
+				unchangedCount.incrementAndGet();
+				unchangedPolls.incrementAndGet();
+				return current;
+			}
+			RateSnapshot snapshot = publish(RateSnapshot.of(baseCurrency, rates), now);
+			if (snapshot == current) {
+				unchangedPolls.incrementAndGet();
+			} else {
+				unchangedPolls.set(0);
+			}
+			return snapshot;
+		} catch (Exception e) {
+			failureCount.incrementAndGet();
+			lastError = e;
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the last snapshot published, null before the first successful poll
+	 */
+	public RateSnapshot getSnapshot() {
+		Published current = published;
+		return current != null ? current.snapshot : null;
+	}
+
+	/**
+	 * @return the current rates, to read rates without locking nor allocation
+	 */
+	public LiveRates getLiveRates() {
+		return liveRates;
+	}
+
+	/**
+	 * Subscribes to the changes of the rates. Each new snapshot is compared to the
+	 * previous one, and the listener receives in one call the rates that moved by
+	 * at least the threshold, if any.
+	 * 
+	 * @param listener
+	 *            the listener, called in the thread of the refresher
+	 * @param thresholdPct
+	 *            the minimum change, in percentage and in absolute value, of the
+	 *            rates reported; 0 for any change
+	 * 
+	 * @See RateChangeNotifier
+	 */
+	public void addChangeListener(RateChangeNotifier.Listener listener, double thresholdPct) {
+		changeNotifier.addListener(listener, thresholdPct);
+	}
+
+	public void removeChangeListener(RateChangeNotifier.Listener listener) {
+		changeNotifier.removeListener(listener);
+	}
+
+	/**
+	 * @return the time since the last snapshot was received, -1 if none
+	 */
+	public long getSnapshotAgeMillis() {
+		Published current = published;
+		return current != null ? System.currentTimeMillis() - current.receivedAtMillis : -1;
+	}
+
+	/**
+	 * @return the time since the timestamp of the rates of the last snapshot, as
+	 *         set by the Fixer API, -1 if unknown
+	 */
+	public long getRateAgeMillis() {
+		long timestamp = getTimestampMillis(getSnapshot());
+		return timestamp > 0 ? System.currentTimeMillis() - timestamp : -1;
+	}
+
+	/**
+	 * @return the time since the last successful poll, new snapshot or not, -1 if
+	 *         none
+	 */
+	public long getLastPollAgeMillis() {
+		long last = lastPollMillis;
+		return last > 0 ? System.currentTimeMillis() - last : -1;
+	}
+
+	/**
+	 * @return the number of polls, failed ones included
+	 */
+	public long getPollCount() {
+		return pollCount.get();
+	}
+
+	/**
+	 * @return the number of snapshots published
+	 */
+	public long getPublishCount() {
+		return publishCount.get();
+	}
+
+	public long getFailureCount() {
+		return failureCount.get();
+	}
+
+	/**
+	 * @return the number of responses whose parsing stopped at the header, because
+	 *         the rates had not changed
+	 */
+	public long getUnchangedCount() {
+		return unchangedCount.get();
+	}
+
+	/**
+	 * @return the number of polls skipped because of the quota
+	 */
+	public long getSkippedCount() {
+		return skippedCount.get();
+	}
+
+	/**
+	 * @return the error of the last poll, null if it succeeded
+	 */
+	public Exception getLastError() {
+		return lastError;
+	}
+
+	/**
+	 * @return true if the last scheduled poll was skipped because of the quota
+	 */
+	public boolean isQuotaPaused() {
+		return quotaPaused;
+	}
+
+	public String getSymbols() {
+		return symbols;
+	}
+
+	public String getBaseCurrency() {
+		return baseCurrency;
+	}
+
+	public long getIntervalMillis() {
+		return intervalMillis;
+	}
+
+	public boolean isAligned() {
+		return aligned;
+	}
+
+	/**
+	 * Aligns the polls on the multiples of the interval since midnight UTC, which
+	 * is when the Fixer API updates its rates. Otherwise polls are simply spaced by
+	 * the interval.
+	 * 
+	 * @param aligned
+	 */
+	public void setAligned(boolean aligned) {
+		this.aligned = aligned;
+	}
+
+	public long getOffsetMillis() {
+		return offsetMillis;
+	}
+
+	/**
+	 * Sets the delay between the expected update of the rates and an aligned poll
+	 * 
+	 * @param offsetMillis
+	 */
+	public void setOffsetMillis(long offsetMillis) {
+		Validate.isTrue(offsetMillis >= 0, "Offset must be positive: %d", offsetMillis);
+		this.offsetMillis = offsetMillis;
+	}
+
+	public boolean isHeaderFirst() {
+		return headerFirst;
+	}
+
+	/**
+	 * When enabled, which is the default, the responses are parsed header first:
+	 * if the timestamp is the one of the current snapshot, parsing stops and the
+	 * current snapshot is kept, without creating any rate.
+	 * 
+	 * @param headerFirst
+	 * 
+	 * @See FixerApiLoader#getLatestIfChanged(String, String, LocalDateTime)
+	 */
+	public void setHeaderFirst(boolean headerFirst) {
+		this.headerFirst = headerFirst;
+	}
+
+	public boolean isAdaptive() {
+		return adaptive;
+	}
+
+	/**
+	 * Enables the adaptive mode: polls are scheduled just after the next update
+	 * of the rates, expected from the update period learned from their timestamps.
+	 * The interval is then only used until a period is learned.
+	 * 
+	 * @param adaptive
+	 */
+	public void setAdaptive(boolean adaptive) {
+		this.adaptive = adaptive;
+	}
+
+	/**
+	 * @return the update period of the rates learned from their timestamps: the
+	 *         shortest interval between the timestamps of the last snapshots, 0 if
+	 *         not known yet
+	 */
+	public long getLearnedPeriodMillis() {
+		return learnedPeriodMillis;
+	}
+
+	public long getMinPollIntervalMillis() {
+		return minPollIntervalMillis;
+	}
+
+	/**
+	 * Sets the minimum time between the start of two polls, whatever the schedule
+	 * 
+	 * @param minPollIntervalMillis
+	 *            the minimum time, DEFAULT_MIN_POLL_INTERVAL_MILLIS by default, 0
+	 *            for none
+	 */
+	public void setMinPollIntervalMillis(long minPollIntervalMillis) {
+		Validate.isTrue(minPollIntervalMillis >= 0, "Interval must be positive: %d", minPollIntervalMillis);
+		this.minPollIntervalMillis = minPollIntervalMillis;
+	}
+
+	/**
+	 * Caps the number of scheduled polls per day, by setting the minimum poll
+	 * interval
+	 * 
+	 * @param maxPollsPerDay
+	 *            the maximum number of polls per day
+	 */
+	public void setMaxPollsPerDay(int maxPollsPerDay) {
+		Validate.isTrue(maxPollsPerDay > 0, "Number of polls must be positive: %d", maxPollsPerDay);
+		setMinPollIntervalMillis(TimeUnit.DAYS.toMillis(1) / maxPollsPerDay);
+	}
+
+	/**
+	 * @return the delay before the next scheduled poll, computed now
+	 */
+	public long getNextPollDelayMillis() {
+		long now = System.currentTimeMillis();
+		return getNextPollMillis(now) - now;
+	}
+
+	public double getMaxUsedRatio() {
+		return maxUsedRatio;
+	}
+
+	/**
+	 * Sets the fraction of the monthly budget of the quota governor above which
+	 * the scheduled polls are skipped
+	 * 
+	 * @param maxUsedRatio
+	 *            between 0 and 1
+	 */
+	public void setMaxUsedRatio(double maxUsedRatio) {
+		Validate.isTrue(maxUsedRatio >= 0 && maxUsedRatio <= 1, "Ratio must be between 0 and 1: %s", maxUsedRatio);
+		this.maxUsedRatio = maxUsedRatio;
+	}
+
+	/**
+	 * Sets the executor that schedules and runs the polls. The default executor is
+	 * a shared daemon thread.
+	 * 
+	 * @param scheduler
+	 */
+	public synchronized void setScheduler(ScheduledExecutorService scheduler) {
+		Validate.notNull(scheduler, "Parameter '%s' cannot be null", "scheduler");
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Publishes the snapshot if its timestamp is after the one of the current
+	 * snapshot: a response received late, or from a cache, never replaces newer
+	 * rates
+	 * 
+	 * @return the snapshot published, the current one otherwise
+	 */
+	private RateSnapshot publish(RateSnapshot snapshot, long receivedAtMillis) {
+		synchronized (publishLock) {
+			Published current = published;
+			if (current != null && snapshot.getTimestamp() != null && current.snapshot.getTimestamp() != null
+					&& !snapshot.getTimestamp().isAfter(current.snapshot.getTimestamp())) {
+				return current.snapshot;
+			}
+			liveRates.publish(snapshot);
+			published = new Published(snapshot, receivedAtMillis);
+			publishCount.incrementAndGet();
+			if (current != null) {
+				learnPeriod(current.snapshot, snapshot);
+				changeNotifier.compare(current.snapshot, snapshot);
+			}
+			log.debug("New {} snapshot: {}", baseCurrency, snapshot.getTimestamp());
+			return snapshot;
+		}
+	}
+
+	private void poll() {
+		if (!isRunning()) {
+			return;
+		}
+		try {
+			quotaPaused = isQuotaPressure();
+			if (quotaPaused) {
+				skippedCount.incrementAndGet();
+				log.debug("Quota pressure, {} rates not refreshed", baseCurrency);
+			} else {
+				refresh();
+			}
+		} catch (Exception e) {
+			log.warn("Refresh of {} rates failed: {}", baseCurrency, e.getMessage());
+		} finally {
+			scheduleNext();
+		}
+	}
+
+	private boolean isQuotaPressure() {
+		QuotaGovernor governor = loader.getQuotaGovernor();
+		if (governor == null) {
+			return false;
+		}
+		return governor.getRemaining() == 0 || governor.getUsedRatio() >= maxUsedRatio || governor.isExhaustionProjected();
+	}
+
+	private synchronized void scheduleNext() {
+		if (!running) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		long next = getNextPollMillis(now);
+		nextPoll = scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				poll();
+			}
+		}, next - now, TimeUnit.MILLISECONDS);
+	}
+
+	private long getNextPollMillis(long now) {
+		long next;
+		long period = learnedPeriodMillis;
+		long timestamp = getTimestampMillis(getSnapshot());
+		if (adaptive && period > 0 && timestamp > 0) {
+			// Just after the next expected update or, if it is late, after a tenth of
+			// the period doubled by each unchanged poll, up to the period
+			next = timestamp + period + offsetMillis;
+			if (next <= now) {
+				long delay = Math.max(1, period / 10) << Math.min(unchangedPolls.get(), 16);
+				next = now + Math.min(delay, Math.max(1, period));
+			}
+		} else if (aligned) {
+			next = (now - offsetMillis) / intervalMillis * intervalMillis + intervalMillis + offsetMillis;
+		} else {
+			next = now + intervalMillis;
+		}
+		return Math.max(next, lastPollStartMillis + minPollIntervalMillis);
+	}
+
+	private synchronized void learnPeriod(RateSnapshot previous, RateSnapshot snapshot) {
+		long interval = getTimestampMillis(snapshot) - getTimestampMillis(previous);
+		if (getTimestampMillis(previous) <= 0 || interval <= 0) {
+			return;
+		}
+		periodSamples[periodSampleCount++ % PERIOD_SAMPLES] = interval;
+		// Polls may miss updates, so intervals are multiples of the period
+		long period = Long.MAX_VALUE;
+		for (int i = 0; i < Math.min(periodSampleCount, PERIOD_SAMPLES); i++) {
+			period = Math.min(period, periodSamples[i]);
+		}
+		if (period != learnedPeriodMillis) {
+			log.debug("Update period of the {} rates: {} ms", baseCurrency, period);
+		}
+		learnedPeriodMillis = period;
+	}
+
+	private static long getTimestampMillis(RateSnapshot snapshot) {
+		if (snapshot == null || snapshot.getTimestamp() == null) {
+			return 0;
+		}
+		return snapshot.getTimestamp().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+	}
+
+}
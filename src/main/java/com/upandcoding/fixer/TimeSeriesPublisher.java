@@ -0,0 +1,284 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer;
+
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.upandcoding.fixer.endpoint.Endpoint;
+import com.upandcoding.fixer.endpoint.TimeSeriesEndpoint;
+import com.upandcoding.fixer.endpoint.field.EndpointField;
+import com.upandcoding.fixer.endpoint.field.EndpointFieldList;
+import com.upandcoding.fixer.model.ExchangeRate;
+
+/**
+ * Publishes the exchange rates of a period, one list of rates per day, while
+ * honoring the demand of the subscriber.
+ * <p>
+ * The period is split into chunks of chunkDays days. A chunk is loaded from the
+ * Time-Series Endpoint only when all the days previously loaded have been sent
+ * and the subscriber requests more, so that no more than one chunk is held in
+ * memory whatever the length of the period.
+ * <p>
+ * Each subscriber gets its own subscription, starting from the first day of the
+ * period. Loading and sending are done on the executor of the publisher. When
+ * the subscription is cancelled, the HTTP request in progress, if any, is
+ * aborted.
+ * 
+ * @See RateFlow
+ * @See FixerApiLoader#getTimeSeriesPublisher(LocalDate, LocalDate, String)
+ * 
+ * @author Lionel Conforto
+ *
+ */
+public class TimeSeriesPublisher implements RateFlow.Publisher<List<ExchangeRate>> {
+
+	private static final Logger log = LoggerFactory.getLogger(TimeSeriesPublisher.class);
+
+	public static final int DEFAULT_CHUNK_DAYS = 30;
+
+	// The Time-Series Endpoint does not accept periods longer than a year
+	public static final int MAX_CHUNK_DAYS = 365;
+
+	private static final ExecutorService defaultExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "jfixer-timeseries-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final FixerApiLoader loader;
+	private final LocalDate startDate;
+	private final LocalDate endDate;
+	private final String symbols;
+	private final String baseCurrency;
+	private final int chunkDays;
+
+	private Executor executor = defaultExecutor;
+
+	TimeSeriesPublisher(FixerApiLoader loader, LocalDate startDate, LocalDate endDate, String symbols, String baseCurrency, int chunkDays) {
+		this.loader = loader;
+		this.startDate = startDate;
+		this.endDate = endDate;
+		this.symbols = symbols;
+		this.baseCurrency = baseCurrency;
+		this.chunkDays = chunkDays;
+	}
+
+	@Override
+	public void subscribe(RateFlow.Subscriber<? super List<ExchangeRate>> subscriber) {
+		Validate.notNull(subscriber, "Parameter '%s' cannot be null", "subscriber");
+		TimeSeriesSubscription subscription = new TimeSeriesSubscription(subscriber);
+		subscriber.onSubscribe(subscription);
+	}
+
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Sets the executor on which chunks are loaded and items are sent. The default
+	 * executor is a shared pool of daemon threads.
+	 * 
+	 * @param executor
+	 */
+	public void setExecutor(Executor executor) {
+		Validate.notNull(executor, "Parameter '%s' cannot be null", "executor");
+		this.executor = executor;
+	}
+
+	public LocalDate getStartDate() {
+		return startDate;
+	}
+
+	public LocalDate getEndDate() {
+		return endDate;
+	}
+
+	public int getChunkDays() {
+		return chunkDays;
+	}
+
+	/**
+	 * State of a subscriber. Loading and sending are serialized by the work in
+	 * progress counter: only one thread at a time runs drain().
+	 */
+	private class TimeSeriesSubscription implements RateFlow.Subscription {
+
+		private final RateFlow.Subscriber<? super List<ExchangeRate>> subscriber;
+
+		private final AtomicLong requested = new AtomicLong();
+		private final AtomicInteger wip = new AtomicInteger();
+		private volatile boolean cancelled = false;
+		private volatile Endpoint inFlight;
+
+		// Only accessed by drain()
+		private final Deque<List<ExchangeRate>> loadedDays = new ArrayDeque<>();
+		private LocalDate nextChunkStart = startDate;
+
+		TimeSeriesSubscription(RateFlow.Subscriber<? super List<ExchangeRate>> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				cancel();
+				subscriber.onError(new IllegalArgumentException("Requested number of items must be positive, was: " + n));
+				return;
+			}
+			long current;
+			long next;
+			do {
+				current = requested.get();
+				if (current == Long.MAX_VALUE) {
+					break;
+				}
+				next = current + n;
+				if (next < 0) {
+					next = Long.MAX_VALUE;
+				}
+			} while (!requested.compareAndSet(current, next));
+			schedule();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			Endpoint endpoint = inFlight;
+			if (endpoint != null) {
+				endpoint.abort();
+			}
+		}
+
+		private void schedule() {
+			if (wip.getAndIncrement() == 0) {
+				executor.execute(this::drain);
+			}
+		}
+
+		private boolean isExhausted() {
+			return loadedDays.isEmpty() && nextChunkStart.isAfter(endDate);
+		}
+
+		private void drain() {
+			int missed = 1;
+			do {
+				long demand = requested.get();
+				long emitted = 0;
+				while (emitted != demand) {
+					if (cancelled) {
+						return;
+					}
+					if (isExhausted()) {
+						cancelled = true;
+						subscriber.onComplete();
+						return;
+					}
+					if (loadedDays.isEmpty()) {
+						try {
+							loadNextChunk();
+						} catch (Exception e) {
+							if (!cancelled) {
+								cancelled = true;
+								subscriber.onError(e);
+							}
+							return;
+						}
+						continue;
+					}
+					subscriber.onNext(loadedDays.poll());
+					emitted++;
+				}
+				if (cancelled) {
+					return;
+				}
+				if (isExhausted()) {
+					cancelled = true;
+					subscriber.onComplete();
+					return;
+				}
+				if (emitted != 0 && demand != Long.MAX_VALUE) {
+					requested.addAndGet(-emitted);
+				}
+				missed = wip.addAndGet(-missed);
+			} while (missed != 0);
+		}
+
+		private void loadNextChunk() throws Exception {
+			LocalDate chunkEnd = nextChunkStart.plusDays(chunkDays - 1);
+			if (chunkEnd.isAfter(endDate)) {
+				chunkEnd = endDate;
+			}
+
+			Endpoint timeSeriesEndpoint = new TimeSeriesEndpoint(loader.getBaseUrl());
+			timeSeriesEndpoint.addParam("access_key", loader.getAccessKey());
+			timeSeriesEndpoint.addParam("start_date", nextChunkStart.format(EndpointField.dateFormatter));
+			timeSeriesEndpoint.addParam("end_date", chunkEnd.format(EndpointField.dateFormatter));
+			if (StringUtils.isNotBlank(symbols)) {
+				timeSeriesEndpoint.addParam("symbols", symbols);
+			}
+			timeSeriesEndpoint.addParam("base", baseCurrency);
+
+			EndpointFieldList data;
+			inFlight = timeSeriesEndpoint;
+			try {
+				if (cancelled) {
+					timeSeriesEndpoint.abort();
+				}
+				data = loader.callEndpoint(timeSeriesEndpoint);
+			} finally {
+				inFlight = null;
+			}
+			log.debug("Loaded time series from {} to {}: {} rates", nextChunkStart, chunkEnd, data.getRates().size());
+			loader.recordHistory(baseCurrency, data.getRates());
+
+			// Rates are returned day after day
+			Map<String, List<ExchangeRate>> ratesByDay = new LinkedHashMap<>();
+			for (ExchangeRate rate : data.getRates()) {
+				List<ExchangeRate> dayRates = ratesByDay.get(rate.getDate());
+				if (dayRates == null) {
+					dayRates = new ArrayList<>();
+					ratesByDay.put(rate.getDate(), dayRates);
+				}
+				dayRates.add(rate);
+			}
+			loadedDays.addAll(ratesByDay.values());
+			nextChunkStart = chunkEnd.plusDays(1);
+		}
+	}
+
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executor for bulk fetches: each task runs on its own virtual thread, and at
+ * most maxConcurrency tasks run at the same time. Tasks waiting for their turn
+ * hold no platform thread, so thousands of blocking requests can be submitted
+ * at once.
+ * <p>
+ * Virtual threads are available from Java 21. The library is built for Java 8,
+ * so they are looked up at runtime. On older runtimes, the executor falls back
+ * to a pool of maxConcurrency daemon platform threads, with the same
+ * concurrency limit.
+ * 
+ * @author Lionel Conforto
+ *
+ */
+public class VirtualThreadExecutor implements Executor {
+
+	private static final Logger log = LoggerFactory.getLogger(VirtualThreadExecutor.class);
+
+	// Executors.newVirtualThreadPerTaskExecutor(), null before Java 21
+	private static final Method newVirtualThreadPerTaskExecutor = findVirtualThreadFactoryMethod();
+
+	private final ExecutorService delegate;
+	private final boolean virtual;
+	private final int maxConcurrency;
+	private final Semaphore permits;
+
+	private final AtomicInteger runningCount = new AtomicInteger();
+	private final AtomicInteger peakCount = new AtomicInteger();
+
+	/**
+	 * @param maxConcurrency
+	 *            maximum number of tasks running at the same time
+	 */
+	public VirtualThreadExecutor(int maxConcurrency) {
+		Validate.isTrue(maxConcurrency > 0, "Max concurrency must be positive: %s", maxConcurrency);
+		this.maxConcurrency = maxConcurrency;
+		this.permits = new Semaphore(maxConcurrency);
+
+		ExecutorService virtualExecutor = newVirtualExecutor();
+		if (virtualExecutor != null) {
+			this.delegate = virtualExecutor;
+			this.virtual = true;
+		} else {
+			log.debug("Virtual threads not available, using {} platform threads", maxConcurrency);
+			this.delegate = Executors.newFixedThreadPool(maxConcurrency, new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "jfixer-bulk-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			this.virtual = false;
+		}
+	}
+
+	private static Method findVirtualThreadFactoryMethod() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException | SecurityException e) {
+			return null;
+		}
+	}
+
+	private static ExecutorService newVirtualExecutor() {
+		if (newVirtualThreadPerTaskExecutor == null) {
+			return null;
+		}
+		try {
+			return (ExecutorService) newVirtualThreadPerTaskExecutor.invoke(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// Not expected from Java 21: restricted by a security manager, for instance
+			log.debug("Unable to create a virtual thread executor: {}", e.getLocalizedMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * @return true if the runtime provides virtual threads (Java 21 or later)
+	 */
+	public static boolean isVirtualThreadSupported() {
+		return newVirtualThreadPerTaskExecutor != null;
+	}
+
+	@Override
+	public void execute(final Runnable task) {
+		delegate.execute(() -> {
+			try {
+				permits.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			int running = runningCount.incrementAndGet();
+			peakCount.accumulateAndGet(running, Math::max);
+			try {
+				task.run();
+			} finally {
+				runningCount.decrementAndGet();
+				permits.release();
+			}
+		});
+	}
+
+	/**
+	 * @return true if the tasks run on virtual threads, false if they run on
+	 *         platform threads
+	 */
+	public boolean isVirtual() {
+		return virtual;
+	}
+
+	public int getMaxConcurrency() {
+		return maxConcurrency;
+	}
+
+	/**
+	 * @return the number of tasks running
+	 */
+	public int getRunningCount() {
+		return runningCount.get();
+	}
+
+	/**
+	 * @return the highest number of tasks that have run at the same time
+	 */
+	public int getPeakCount() {
+		return peakCount.get();
+	}
+
+	/**
+	 * Stops accepting tasks, the tasks already submitted still run
+	 */
+	public void shutdown() {
+		delegate.shutdown();
+	}
+
+	/**
+	 * Stops accepting tasks, and waits for the tasks already submitted
+	 * 
+	 * @param timeoutMillis
+	 *            maximum time to wait
+	 * @return true if all the tasks have ended
+	 * 
+	 * @throws InterruptedException
+	 */
+	public boolean shutdown(long timeoutMillis) throws InterruptedException {
+		delegate.shutdown();
+		return delegate.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.analytics;
+
+import java.util.Arrays;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Minimum, maximum, sum and count of any range of a growing sequence of values,
+ * without scanning it.
+ * <p>
+ * The values are grouped in blocks of {@value #BLOCK_SIZE}, and a segment tree
+ * holds the aggregates of the blocks. A query scans at most two partial blocks
+ * and walks the tree for the full blocks in between, in O(log n). Setting a value
+ * updates its block and the nodes above it, also in O(log n), and the tree
+ * doubles its capacity as the sequence grows. The blocks keep the tree small: 20
+ * years of daily rates take less than 100 KB, values included.
+ * <p>
+ * NaN values are ignored. This class is not thread-safe.
+ * 
+ * @author Lionel Conforto
+ *
+ */
+public class RangeIndex {
+
+	/**
+	 * Number of values aggregated by each leaf of the tree
+	 */
+	public static final int BLOCK_SIZE = 16;
+
+	private static final int INITIAL_CAPACITY = 256;
+
+	private static final int MIN = 0;
+	private static final int MAX = 1;
+	private static final int SUM = 2;
+	private static final int COUNT = 3;
+
+	private double[] values;
+	private int size = 0;
+
+	// Number of leaves of the tree, a power of two. Node 1 is the root, the
+	// children of node i are 2i and 2i+1, the leaf of block b is leaves + b.
+	private int leaves;
+	private final double[][] nodes = new double[4][];
+
+	public RangeIndex() {
+		this(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * @param capacity
+	 *            the number of values expected
+	 */
+	public RangeIndex(int capacity) {
+		allocate(Math.max(capacity, BLOCK_SIZE));
+	}
+
+	/**
+	 * @return the number of values, including NaN values
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param index
+	 *            the index of the value
+	 * @return the value, NaN if unknown
+	 */
+	public double get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+		}
+		return values[index];
+	}
+
+	/**
+	 * Sets a value. An index after the end of the sequence extends it, with NaN
+	 * for the values in between.
+	 * 
+	 * @param index
+	 *            the index of the value
+	 * @param value
+	 *            the value, NaN to remove it
+	 */
+	public void set(int index, double value) {
+		Validate.isTrue(index >= 0, "Index must be positive: %d", index);
+		if (index >= values.length) {
+			grow(index + 1);
+		}
+		values[index] = value;
+		size = Math.max(size, index + 1);
+		updateBlock(index / BLOCK_SIZE);
+	}
+
+	/**
+	 * Replaces all the values, in O(n)
+	 * 
+	 * @param newValues
+	 *            the new values
+	 */
+	public void load(double[] newValues) {
+		Validate.notNull(newValues, "Parameter '%s' cannot be null", "newValues");
+		allocate(Math.max(newValues.length, BLOCK_SIZE));
+		System.arraycopy(newValues, 0, values, 0, newValues.length);
+		size = newValues.length;
+		buildTree();
+	}
+
+	/**
+	 * @param fromIndex
+	 *            the first index, included
+	 * @param toIndex
+	 *            the last index, excluded
+	 * @return the lowest value of the range, NaN if there is none
+	 */
+	public double getMin(int fromIndex, int toIndex) {
+		double min = query(fromIndex, toIndex, MIN);
+		return min == Double.POSITIVE_INFINITY ? Double.NaN : min;
+	}
+
+	/**
+	 * @param fromIndex
+	 *            the first index, included
+	 * @param toIndex
+	 *            the last index, excluded
+	 * @return the highest value of the range, NaN if there is none
+	 */
+	public double getMax(int fromIndex, int toIndex) {
+		double max = query(fromIndex, toIndex, MAX);
+		return max == Double.NEGATIVE_INFINITY ? Double.NaN : max;
+	}
+
+	/**
+	 * @param fromIndex
+	 *            the first index, included
+	 * @param toIndex
+	 *            the last index, excluded
+	 * @return the sum of the values of the range, 0 if there is none
+	 */
+	public double getSum(int fromIndex, int toIndex) {
+		return query(fromIndex, toIndex, SUM);
+	}
+
+	/**
+	 * @param fromIndex
+	 *            the first index, included
+	 * @param toIndex
+	 *            the last index, excluded
+	 * @return the number of values (not NaN) of the range
+	 */
+	public int getCount(int fromIndex, int toIndex) {
+		return (int) query(fromIndex, toIndex, COUNT);
+	}
+
+	/**
+	 * @param fromIndex
+	 *            the first index, included
+	 * @param toIndex
+	 *            the last index, excluded
+	 * @return the mean of the values of the range, NaN if there is none
+	 */
+	public double getAverage(int fromIndex, int toIndex) {
+		int count = getCount(fromIndex, toIndex);
+		return count > 0 ? getSum(fromIndex, toIndex) / count : Double.NaN;
+	}
+
+	private double query(int fromIndex, int toIndex, int op) {
+		if (fromIndex < 0 || toIndex > size || fromIndex > toIndex) {
+			throw new IndexOutOfBoundsException("Range [" + fromIndex + ", " + toIndex + "[, size " + size);
+		}
+		double result = identity(op);
+		// Full blocks in [firstBlock, lastBlock[
+		int firstBlock = (fromIndex + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		int lastBlock = toIndex / BLOCK_SIZE;
+		if (firstBlock >= lastBlock) {
+			return scan(fromIndex, toIndex, op, result);
+		}
+		result = scan(fromIndex, firstBlock * BLOCK_SIZE, op, result);
+		result = scan(lastBlock * BLOCK_SIZE, toIndex, op, result);
+
+		double[] tree = nodes[op];
+		int left = firstBlock + leaves;
+		int right = lastBlock + leaves;
+		while (left < right) {
+			if ((left & 1) == 1) {
+				result = combine(op, result, tree[left++]);
+			}
+			if ((right & 1) == 1) {
+				result = combine(op, result, tree[--right]);
+			}
+			left >>= 1;
+			right >>= 1;
+		}
+		return result;
+	}
+
+	private double scan(int fromIndex, int toIndex, int op, double result) {
+		for (int i = fromIndex; i < toIndex; i++) {
+			double value = values[i];
+			if (!Double.isNaN(value)) {
+				result = combine(op, result, op == COUNT ? 1 : value);
+			}
+		}
+		return result;
+	}
+
+	private void updateBlock(int block) {
+		int node = leaves + block;
+		int from = block * BLOCK_SIZE;
+		for (int op = MIN; op <= COUNT; op++) {
+			nodes[op][node] = scan(from, from + BLOCK_SIZE, op, identity(op));
+		}
+		for (node >>= 1; node > 0; node >>= 1) {
+			for (int op = MIN; op <= COUNT; op++) {
+				nodes[op][node] = combine(op, nodes[op][2 * node], nodes[op][2 * node + 1]);
+			}
+		}
+	}
+
+	private void buildTree() {
+		for (int op = MIN; op <= COUNT; op++) {
+			double[] tree = nodes[op];
+			for (int block = 0; block < leaves; block++) {
+				int from = block * BLOCK_SIZE;
+				tree[leaves + block] = scan(from, from + BLOCK_SIZE, op, identity(op));
+			}
+			for (int node = leaves - 1; node > 0; node--) {
+				tree[node] = combine(op, tree[2 * node], tree[2 * node + 1]);
+			}
+		}
+	}
+
+	private void grow(int minCapacity) {
+		double[] oldValues = values;
+		int oldSize = size;
+		allocate(Math.max(minCapacity, values.length * 2));
+		System.arraycopy(oldValues, 0, values, 0, oldSize);
+		size = oldSize;
+		buildTree();
+	}
+
+	private void allocate(int capacity) {
+		leaves = 1;
+		while (leaves * BLOCK_SIZE < capacity) {
+			leaves <<= 1;
+		}
+		values = new double[leaves * BLOCK_SIZE];
+		Arrays.fill(values, Double.NaN);
+		size = 0;
+		for (int op = MIN; op <= COUNT; op++) {
+			nodes[op] = new double[2 * leaves];
+			Arrays.fill(nodes[op], identity(op));
+		}
+	}
+
+	private static double identity(int op) {
+		switch (op) {
+		case MIN:
+			return Double.POSITIVE_INFINITY;
+		case MAX:
+			return Double.NEGATIVE_INFINITY;
+		default:
+			return 0;
+		}
+	}
+
+	private static double combine(int op, double a, double b) {
+		switch (op) {
+		case MIN:
+			return Math.min(a, b);
+		case MAX:
+			return Math.max(a, b);
+		default:
+			return a + b;
+		}
+	}
+
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.analytics;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.upandcoding.fixer.model.TimeSeries;
+
+/**
+ * Range queries (min, max, average) on the rates of every currency of a time
+ * series, between two dates, kept up to date as the series grows.
+ * <p>
+ * Each currency has its own RangeIndex, parallel to the days of the series.
+ * Once attached, the index listens to the series: an appended day is set in the
+ * index of each currency, in O(log n), and so are new rates for a day already
+ * present. Only a day inserted before the last one reloads the indexes, in O(n).
+ * 
+ * <pre>
+ * RateRangeIndex index = new RateRangeIndex(historyCache.getOrCreateSeries("EUR"));
+ * index.attach();
+ * double max = index.getMax("USD", LocalDate.of(2017, 1, 1), LocalDate.of(2017, 12, 31));
+ * </pre>
+ * 
+ * @See RangeIndex
+ * 
+ * @author Lionel Conforto
+ *
+ */
+public class RateRangeIndex implements TimeSeries.Listener {
+
+	private static final Logger log = LoggerFactory.getLogger(RateRangeIndex.class);
+
+	private final TimeSeries series;
+
+	private final Map<String, RangeIndex> indexes = new HashMap<>();
+	private boolean attached = false;
+
+	// Number of days indexed, and the last one: moved if a day was inserted before
+	private int indexedDays = 0;
+	private int lastEpochDay = 0;
+
+	public RateRangeIndex(TimeSeries series) {
+		Validate.notNull(series, "Parameter '%s' cannot be null", "series");
+		this.series = series;
+	}
+
+	/**
+	 * Indexes the days already in the series, and starts listening to it
+	 */
+	public void attach() {
+		synchronized (series) {
+			synchronized (this) {
+				if (attached) {
+					return;
+				}
+				reload();
+				series.addListener(this);
+				attached = true;
+			}
+		}
+	}
+
+	/**
+	 * Stops listening to the series. The indexes are no longer updated.
+	 */
+	public void detach() {
+		synchronized (series) {
+			synchronized (this) {
+				series.removeListener(this);
+				attached = false;
+			}
+		}
+	}
+
+	public TimeSeries getSeries() {
+		return series;
+	}
+
+	@Override
+	public synchronized void onAppend(TimeSeries series, int index) {
+		for (String currency : series.getCurrencies()) {
+			double rate = series.getRate(currency, index);
+			RangeIndex rangeIndex = indexes.get(currency);
+			if (rangeIndex == null) {
+				rangeIndex = new RangeIndex(series.size());
+				indexes.put(currency, rangeIndex);
+			}
+			rangeIndex.set(index, rate);
+		}
+		indexedDays = series.size();
+		lastEpochDay = series.getEpochDay(indexedDays - 1);
+	}
+
+	@Override
+	public synchronized void onChange(TimeSeries series, int fromIndex) {
+		if (indexedDays > 0 && series.getEpochDay(indexedDays - 1) != lastEpochDay) {
+			// The days after the one inserted have moved
+			log.debug("Day {} of the {} series inserted, range indexes reloaded", fromIndex, series.getBaseCurrency());
+			reload();
+			return;
+		}
+		for (String currency : series.getCurrencies()) {
+			RangeIndex rangeIndex = indexes.get(currency);
+			if (rangeIndex == null) {
+				rangeIndex = new RangeIndex(series.size());
+				indexes.put(currency, rangeIndex);
+			}
+			for (int i = fromIndex; i < series.size(); i++) {
+				double rate = series.getRate(currency, i);
+				double indexed = i < rangeIndex.size() ? rangeIndex.get(i) : Double.NaN;
+				if (Double.compare(indexed, rate) != 0) {
+					rangeIndex.set(i, rate);
+				}
+			}
+		}
+		indexedDays = series.size();
+		lastEpochDay = series.getEpochDay(indexedDays - 1);
+	}
+
+	/**
+	 * @param currency
+	 *            a 3-digits ISO code
+	 * @param from
+	 *            the first date, included
+	 * @param to
+	 *            the last date, included
+	 * @return the lowest rate between the two dates, NaN if there is none
+	 */
+	public double getMin(String currency, LocalDate from, LocalDate to) {
+		synchronized (series) {
+			synchronized (this) {
+				RangeIndex index = getIndex(currency);
+				if (index == null) {
+					return Double.NaN;
+				}
+				int toIndex = getToIndex(to, index);
+				return index.getMin(getFromIndex(from, toIndex), toIndex);
+			}
+		}
+	}
+
+	/**
+	 * @param currency
+	 *            a 3-digits ISO code
+	 * @param from
+	 *            the first date, included
+	 * @param to
+	 *            the last date, included
+	 * @return the highest rate between the two dates, NaN if there is none
+	 */
+	public double getMax(String currency, LocalDate from, LocalDate to) {
+		synchronized (series) {
+			synchronized (this) {
+				RangeIndex index = getIndex(currency);
+				if (index == null) {
+					return Double.NaN;
+				}
+				int toIndex = getToIndex(to, index);
+				return index.getMax(getFromIndex(from, toIndex), toIndex);
+			}
+		}
+	}
+
+	/**
+	 * @param currency
+	 *            a 3-digits ISO code
+	 * @param from
+	 *            the first date, included
+	 * @param to
+	 *            the last date, included
+	 * @return the average rate between the two dates, NaN if there is none
+	 */
+	public double getAverage(String currency, LocalDate from, LocalDate to) {
+		synchronized (series) {
+			synchronized (this) {
+				RangeIndex index = getIndex(currency);
+				if (index == null) {
+					return Double.NaN;
+				}
+				int toIndex = getToIndex(to, index);
+				return index.getAverage(getFromIndex(from, toIndex), toIndex);
+			}
+		}
+	}
+
+	/**
+	 * @param currency
+	 *            a 3-digits ISO code
+	 * @param from
+	 *            the first date, included
+	 * @param to
+	 *            the last date, included
+	 * @return the number of days with a rate between the two dates
+	 */
+	public int getCount(String currency, LocalDate from, LocalDate to) {
+		synchronized (series) {
+			synchronized (this) {
+				RangeIndex index = getIndex(currency);
+				if (index == null) {
+					return 0;
+				}
+				int toIndex = getToIndex(to, index);
+				return index.getCount(getFromIndex(from, toIndex), toIndex);
+			}
+		}
+	}
+
+	private RangeIndex getIndex(String currency) {
+		return currency != null ? indexes.get(currency.toUpperCase()) : null;
+	}
+
+	private int getFromIndex(LocalDate from, int toIndex) {
+		int index = series.indexOf(from);
+		// Empty range if the first date is after the last one
+		return Math.min(index >= 0 ? index : -index - 1, toIndex);
+	}
+
+	private int getToIndex(LocalDate to, RangeIndex rangeIndex) {
+		int index = series.indexOf(to);
+		int toIndex = index >= 0 ? index + 1 : -index - 1;
+		// The days after the last rate of the currency are not in its index
+		return Math.min(toIndex, rangeIndex.size());
+	}
+
+	private void reload() {
+		indexes.clear();
+		for (String currency : series.getCurrencies()) {
+			RangeIndex rangeIndex = new RangeIndex(series.size());
+			rangeIndex.load(series.getColumn(currency));
+			indexes.put(currency, rangeIndex);
+		}
+		indexedDays = series.size();
+		lastEpochDay = indexedDays > 0 ? series.getEpochDay(indexedDays - 1) : 0;
+	}
+
+}
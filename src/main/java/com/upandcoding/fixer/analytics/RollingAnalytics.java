@@ -0,0 +1,256 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.analytics;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.upandcoding.fixer.model.TimeSeries;
+
+/**
+ * Rolling statistics of every currency of a time series, kept up to date as the
+ * series grows.
+ * <p>
+ * Once attached, the analytics listen to the series: each day appended is added
+ * to the rolling window of each currency, in constant time. A day inserted
+ * before the last one, or new rates for a day already present, forces a rebuild
+ * from the start of the series.
+ * <p>
+ * The windows count rates, not calendar days: the days without rate for a
+ * currency are skipped.
+ * 
+ * <pre>
+ * RollingAnalytics analytics = new RollingAnalytics(historyCache.getOrCreateSeries("EUR"), 20);
+ * analytics.attach();
+ * double volatility = analytics.getStandardDeviation("USD");
+ * </pre>
+ * 
+ * @See RollingWindow
+ * 
+ * @author Lionel Conforto
+ *
+ */
+public class RollingAnalytics implements TimeSeries.Listener {
+
+	private static final Logger log = LoggerFactory.getLogger(RollingAnalytics.class);
+
+	private final TimeSeries series;
+	private final int windowSize;
+	private final double alpha;
+
+	private final Map<String, RollingWindow> windows = new HashMap<>();
+	private int lastIndex = -1;
+	private boolean attached = false;
+
+	/**
+	 * @param series
+	 *            the time series
+	 * @param windowSize
+	 *            the number of rates in each window
+	 */
+	public RollingAnalytics(TimeSeries series, int windowSize) {
+		this(series, windowSize, 2.0 / (windowSize + 1));
+	}
+
+	/**
+	 * @param series
+	 *            the time series
+	 * @param windowSize
+	 *            the number of rates in each window
+	 * @param alpha
+	 *            the smoothing factor of the EWMA
+	 */
+	public RollingAnalytics(TimeSeries series, int windowSize, double alpha) {
+		Validate.notNull(series, "Parameter '%s' cannot be null", "series");
+		// Fails early on invalid parameters
+		new RollingWindow(windowSize, alpha);
+		this.series = series;
+		this.windowSize = windowSize;
+		this.alpha = alpha;
+	}
+
+	/**
+	 * Computes the statistics of the days already in the series, and starts
+	 * listening to it
+	 */
+	public void attach() {
+		synchronized (series) {
+			synchronized (this) {
+				if (attached) {
+					return;
+				}
+				rebuild();
+				series.addListener(this);
+				attached = true;
+			}
+		}
+	}
+
+	/**
+	 * Stops listening to the series. The statistics are no longer updated.
+	 */
+	public void detach() {
+		synchronized (series) {
+			synchronized (this) {
+				series.removeListener(this);
+				attached = false;
+			}
+		}
+	}
+
+	public TimeSeries getSeries() {
+		return series;
+	}
+
+	public int getWindowSize() {
+		return windowSize;
+	}
+
+	/**
+	 * @return the index in the series of the last day included, -1 if none
+	 */
+	public synchronized int getLastIndex() {
+		return lastIndex;
+	}
+
+	@Override
+	public synchronized void onAppend(TimeSeries series, int index) {
+		if (index != lastIndex + 1) {
+			rebuild();
+			return;
+		}
+		addDay(index);
+	}
+
+	@Override
+	public synchronized void onChange(TimeSeries series, int fromIndex) {
+		log.debug("Day {} of the {} series changed, analytics rebuilt", fromIndex, series.getBaseCurrency());
+		rebuild();
+	}
+
+	/**
+	 * @param currency
+	 *            a 3-digits ISO code
+	 * @return the number of rates in the window of the currency
+	 */
+	public synchronized int getCount(String currency) {
+		RollingWindow window = getWindow(currency);
+		return window != null ? window.getCount() : 0;
+	}
+
+	/**
+	 * @param currency
+	 *            a 3-digits ISO code
+	 * @return the moving average, NaN if unknown
+	 */
+	public synchronized double getMean(String currency) {
+		RollingWindow window = getWindow(currency);
+		return window != null ? window.getMean() : Double.NaN;
+	}
+
+	/**
+	 * @param currency
+	 *            a 3-digits ISO code
+	 * @return the sample variance of the window, NaN if unknown
+	 */
+	public synchronized double getVariance(String currency) {
+		RollingWindow window = getWindow(currency);
+		return window != null ? window.getVariance() : Double.NaN;
+	}
+
+	/**
+	 * @param currency
+	 *            a 3-digits ISO code
+	 * @return the sample standard deviation of the window, NaN if unknown
+	 */
+	public synchronized double getStandardDeviation(String currency) {
+		RollingWindow window = getWindow(currency);
+		return window != null ? window.getStandardDeviation() : Double.NaN;
+	}
+
+	/**
+	 * @param currency
+	 *            a 3-digits ISO code
+	 * @return the exponentially weighted moving average, NaN if unknown
+	 */
+	public synchronized double getEwma(String currency) {
+		RollingWindow window = getWindow(currency);
+		return window != null ? window.getEwma() : Double.NaN;
+	}
+
+	/**
+	 * @param currency
+	 *            a 3-digits ISO code
+	 * @return the lowest rate of the window, NaN if unknown
+	 */
+	public synchronized double getMin(String currency) {
+		RollingWindow window = getWindow(currency);
+		return window != null ? window.getMin() : Double.NaN;
+	}
+
+	/**
+	 * @param currency
+	 *            a 3-digits ISO code
+	 * @return the highest rate of the window, NaN if unknown
+	 */
+	public synchronized double getMax(String currency) {
+		RollingWindow window = getWindow(currency);
+		return window != null ? window.getMax() : Double.NaN;
+	}
+
+	private RollingWindow getWindow(String currency) {
+		return currency != null ? windows.get(currency.toUpperCase()) : null;
+	}
+
+	private void rebuild() {
+		windows.clear();
+		lastIndex = -1;
+		// Currency by currency, the windows are independent
+		for (String currency : series.getCurrencies()) {
+			RollingWindow window = new RollingWindow(windowSize, alpha);
+			for (double rate : series.getColumn(currency)) {
+				window.add(rate);
+			}
+			if (window.getCount() > 0) {
+				windows.put(currency, window);
+			}
+		}
+		lastIndex = series.size() - 1;
+	}
+
+	private void addDay(int index) {
+		List<String> currencies = series.getCurrencies();
+		for (String currency : currencies) {
+			double rate = series.getRate(currency, index);
+			if (Double.isNaN(rate)) {
+				continue;
+			}
+			RollingWindow window = windows.get(currency);
+			if (window == null) {
+				window = new RollingWindow(windowSize, alpha);
+				windows.put(currency, window);
+			}
+			window.add(rate);
+		}
+		lastIndex = index;
+	}
+
+}
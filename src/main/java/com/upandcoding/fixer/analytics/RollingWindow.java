@@ -0,0 +1,233 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.analytics;
+
+import java.util.Arrays;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Rolling statistics over the last values of a sequence, updated in constant
+ * time for each new value.
+ * <p>
+ * The window keeps the last <i>size</i> values in a ring buffer. The mean and
+ * the variance are maintained with Welford's algorithm, extended to remove the
+ * value leaving the window. The minimum and the maximum are read from two
+ * monotonic queues holding the positions of the candidates, so that each value
+ * enters and leaves each queue at most once. The exponentially weighted moving
+ * average is not limited to the window: it covers all the values added since the
+ * last clear.
+ * <p>
+ * NaN values are ignored. This class is not thread-safe.
+ * 
+ * @author Lionel Conforto
+ *
+ */
+public class RollingWindow {
+
+	private final int capacity;
+	private final double alpha;
+
+	// Ring buffer of the last values, value number n at n % capacity
+	private final double[] values;
+	private long count = 0;
+
+	private double mean = 0;
+	private double m2 = 0;
+
+	private double ewma = Double.NaN;
+
+	// Monotonic queues of value numbers: increasing values for the minimum,
+	// decreasing values for the maximum
+	private final long[] minQueue;
+	private int minHead = 0;
+	private int minSize = 0;
+	private final long[] maxQueue;
+	private int maxHead = 0;
+	private int maxSize = 0;
+
+	/**
+	 * Creates a window whose EWMA uses the smoothing factor 2 / (size + 1)
+	 * 
+	 * @param size
+	 *            the number of values in the window
+	 */
+	public RollingWindow(int size) {
+		this(size, 2.0 / (size + 1));
+	}
+
+	/**
+	 * @param size
+	 *            the number of values in the window
+	 * @param alpha
+	 *            the smoothing factor of the EWMA, between 0 (excluded) and 1
+	 */
+	public RollingWindow(int size, double alpha) {
+		Validate.isTrue(size > 0, "Window size must be positive: %d", size);
+		Validate.isTrue(alpha > 0 && alpha <= 1, "Smoothing factor must be in ]0, 1]: %s", alpha);
+		this.capacity = size;
+		this.alpha = alpha;
+		this.values = new double[size];
+		this.minQueue = new long[size];
+		this.maxQueue = new long[size];
+	}
+
+	/**
+	 * Adds a value, removing the oldest one if the window is full
+	 * 
+	 * @param value
+	 *            the new value, ignored if NaN
+	 */
+	public void add(double value) {
+		if (Double.isNaN(value)) {
+			return;
+		}
+		if (count >= capacity) {
+			remove(values[(int) (count % capacity)]);
+		}
+		long n = count++;
+		values[(int) (n % capacity)] = value;
+
+		int size = getCount();
+		double delta = value - mean;
+		mean += delta / size;
+		m2 += delta * (value - mean);
+
+		ewma = Double.isNaN(ewma) ? value : alpha * value + (1 - alpha) * ewma;
+
+		// Queues: drop the values out of the window, then the values that can no
+		// longer be the minimum (or maximum)
+		long oldest = count - capacity;
+		if (minSize > 0 && minQueue[minHead] < oldest) {
+			minHead = (minHead + 1) % capacity;
+			minSize--;
+		}
+		while (minSize > 0 && valueAt(minQueue[(minHead + minSize - 1) % capacity]) >= value) {
+			minSize--;
+		}
+		minQueue[(minHead + minSize++) % capacity] = n;
+
+		if (maxSize > 0 && maxQueue[maxHead] < oldest) {
+			maxHead = (maxHead + 1) % capacity;
+			maxSize--;
+		}
+		while (maxSize > 0 && valueAt(maxQueue[(maxHead + maxSize - 1) % capacity]) <= value) {
+			maxSize--;
+		}
+		maxQueue[(maxHead + maxSize++) % capacity] = n;
+	}
+
+	/**
+	 * Removes all the values, and resets the EWMA
+	 */
+	public void clear() {
+		count = 0;
+		mean = 0;
+		m2 = 0;
+		ewma = Double.NaN;
+		minHead = minSize = 0;
+		maxHead = maxSize = 0;
+		Arrays.fill(values, 0);
+	}
+
+	/**
+	 * @return the number of values in the window
+	 */
+	public int getCount() {
+		return (int) Math.min(count, capacity);
+	}
+
+	/**
+	 * @return the maximum number of values in the window
+	 */
+	public int getSize() {
+		return capacity;
+	}
+
+	public boolean isFull() {
+		return count >= capacity;
+	}
+
+	/**
+	 * @return the last value added, NaN if none
+	 */
+	public double getLast() {
+		return count > 0 ? valueAt(count - 1) : Double.NaN;
+	}
+
+	/**
+	 * @return the mean of the values in the window, NaN if empty
+	 */
+	public double getMean() {
+		return count > 0 ? mean : Double.NaN;
+	}
+
+	/**
+	 * @return the sample variance of the values in the window, NaN if there are
+	 *         less than two values
+	 */
+	public double getVariance() {
+		int size = getCount();
+		return size > 1 ? Math.max(0, m2) / (size - 1) : Double.NaN;
+	}
+
+	/**
+	 * @return the sample standard deviation of the values in the window, NaN if
+	 *         there are less than two values
+	 */
+	public double getStandardDeviation() {
+		return Math.sqrt(getVariance());
+	}
+
+	/**
+	 * @return the exponentially weighted moving average of all the values, NaN if
+	 *         none
+	 */
+	public double getEwma() {
+		return ewma;
+	}
+
+	/**
+	 * @return the minimum of the values in the window, NaN if empty
+	 */
+	public double getMin() {
+		return minSize > 0 ? valueAt(minQueue[minHead]) : Double.NaN;
+	}
+
+	/**
+	 * @return the maximum of the values in the window, NaN if empty
+	 */
+	public double getMax() {
+		return maxSize > 0 ? valueAt(maxQueue[maxHead]) : Double.NaN;
+	}
+
+	private double valueAt(long n) {
+		return values[(int) (n % capacity)];
+	}
+
+	private void remove(double value) {
+		int size = getCount() - 1;
+		if (size == 0) {
+			mean = 0;
+			m2 = 0;
+			return;
+		}
+		double delta = value - mean;
+		mean -= delta / size;
+		m2 -= delta * (value - mean);
+	}
+
+}
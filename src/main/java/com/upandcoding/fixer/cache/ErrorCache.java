@@ -0,0 +1,262 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.upandcoding.fixer.FixerException;
+import com.upandcoding.fixer.request.RetryPolicy;
+
+/**
+ * Keeps for a short time the errors of the Fixer API that a request returns
+ * whatever the number of times it is sent, such as invalid currency codes or
+ * invalid dates: the same request then fails locally, without being sent.
+ * <p>
+ * Errors are kept by normalized request key (see normalize), so that requests
+ * that only differ by the case or the order of their symbols share their
+ * error. Errors depending on the access key or on the quota, and transport
+ * errors, are never kept.
+ * 
+ * @author Lionel Conforto
+ *
+ */
+public class ErrorCache {
+
+	private static final Logger log = LoggerFactory.getLogger(ErrorCache.class);
+
+	public static final long DEFAULT_TTL_MILLIS = 60 * 1000;
+	public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+	/**
+	 * Codes of the errors kept by default: function not supported (103), invalid
+	 * base currency (201), invalid currency codes (202), missing or invalid date
+	 * (301, 302), invalid amount (403), missing or invalid time frame, start or end
+	 * date (501 to 505). A function or base currency not in the plan (105) depends
+	 * on the access key, which is not part of the normalized key: not kept.
+	 */
+	public static final Set<Integer> DEFAULT_CODES = Collections
+			.unmodifiableSet(new HashSet<>(Arrays.asList(103, 201, 202, 301, 302, 403, 501, 502, 503, 504, 505)));
+
+	// Parameters whose values are currency codes
+	private static final Set<String> CURRENCY_PARAMETERS = new HashSet<>(Arrays.asList("base", "symbols", "from", "to"));
+
+	/**
+	 * An error and the time it expires
+	 */
+	private static class Entry {
+
+		private final int code;
+		private final String type;
+		private final String info;
+		private final long expiresAt;
+
+		Entry(FixerException e, long expiresAt) {
+			this.code = e.getFixerCode();
+			this.type = e.getFixerType();
+			this.info = e.getMessage();
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+	private volatile long ttlMillis = DEFAULT_TTL_MILLIS;
+	private volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+	private volatile Set<Integer> codes = DEFAULT_CODES;
+
+	private final AtomicLong hitCount = new AtomicLong();
+
+	public ErrorCache() {
+	}
+
+	public ErrorCache(long ttlMillis) {
+		setTtlMillis(ttlMillis);
+	}
+
+	/**
+	 * Returns the error of a request, if kept and not expired
+	 * 
+	 * @param requestKey
+	 *            the request key (see Endpoint.getRequestKey)
+	 * @return a new exception, without stack trace, with the code, type and
+	 *         message of the error, or null
+	 */
+	public FixerException get(String requestKey) {
+		if (entries.isEmpty()) {
+			return null;
+		}
+		String key = normalize(requestKey);
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			return null;
+		}
+		if (System.currentTimeMillis() >= entry.expiresAt) {
+			entries.remove(key, entry);
+			return null;
+		}
+		hitCount.incrementAndGet();
+		return new FixerException(entry.code, entry.type, entry.info, false);
+	}
+
+	/**
+	 * Keeps the error of a request, if its code is one of the kept codes
+	 * 
+	 * @param requestKey
+	 *            the request key (see Endpoint.getRequestKey)
+	 * @param e
+	 *            the error returned for the request
+	 * @return true if the error is kept
+	 */
+	public boolean put(String requestKey, FixerException e) {
+		if (!isCacheable(e)) {
+			return false;
+		}
+		long now = System.currentTimeMillis();
+		if (entries.size() >= maxEntries) {
+			removeExpired(now);
+			if (entries.size() >= maxEntries) {
+				log.debug("Error cache full, error of {} not kept", requestKey);
+				return false;
+			}
+		}
+		entries.put(normalize(requestKey), new Entry(e, now + ttlMillis));
+		return true;
+	}
+
+	/**
+	 * @param e
+	 *            an error
+	 * @return true if the error is returned by the Fixer API for one of the kept
+	 *         codes
+	 */
+	public boolean isCacheable(FixerException e) {
+		String type = e.getFixerType();
+		if (type == null || RetryPolicy.TYPE_HTTP_ERROR.equals(type) || RetryPolicy.TYPE_NETWORK_ERROR.equals(type)
+				|| RetryPolicy.TYPE_TIMEOUT.equals(type)) {
+			return false;
+		}
+		return codes.contains(e.getFixerCode());
+	}
+
+	/**
+	 * Normalizes a request key: parameters sorted by name, currency codes in upper
+	 * case and lists of symbols sorted. The part after '#', which does not change
+	 * the request sent, is dropped.
+	 * 
+	 * @param requestKey
+	 *            a request key
+	 * @return the normalized key
+	 */
+	public static String normalize(String requestKey) {
+		int hash = requestKey.indexOf('#');
+		if (hash >= 0) {
+			requestKey = requestKey.substring(0, hash);
+		}
+		int question = requestKey.indexOf('?');
+		if (question < 0) {
+			return requestKey;
+		}
+		List<String> parameters = new ArrayList<>();
+		for (String parameter : StringUtils.split(requestKey.substring(question + 1), '&')) {
+			int equals = parameter.indexOf('=');
+			String name = equals >= 0 ? parameter.substring(0, equals) : parameter;
+			if (equals >= 0 && CURRENCY_PARAMETERS.contains(name)) {
+				String[] values = StringUtils.split(parameter.substring(equals + 1).toUpperCase(), ',');
+				for (int i = 0; i < values.length; i++) {
+					values[i] = values[i].trim();
+				}
+				Arrays.sort(values);
+				parameter = name + "=" + StringUtils.join(values, ',');
+			}
+			parameters.add(parameter);
+		}
+		Collections.sort(parameters);
+		return requestKey.substring(0, question + 1) + StringUtils.join(parameters, '&');
+	}
+
+	private void removeExpired(long now) {
+		for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+			if (now >= entry.getValue().expiresAt) {
+				entries.remove(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	public void remove(String requestKey) {
+		entries.remove(normalize(requestKey));
+	}
+
+	public void clear() {
+		entries.clear();
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public long getTtlMillis() {
+		return ttlMillis;
+	}
+
+	public void setTtlMillis(long ttlMillis) {
+		Validate.isTrue(ttlMillis > 0, "TTL must be positive: %d", ttlMillis);
+		this.ttlMillis = ttlMillis;
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public void setMaxEntries(int maxEntries) {
+		Validate.isTrue(maxEntries > 0, "Maximum number of entries must be positive: %d", maxEntries);
+		this.maxEntries = maxEntries;
+	}
+
+	public Set<Integer> getCodes() {
+		return codes;
+	}
+
+	/**
+	 * @param codes
+	 *            the codes of the errors to keep
+	 */
+	public void setCodes(Set<Integer> codes) {
+		Validate.notNull(codes, "Parameter '%s' cannot be null", "codes");
+		this.codes = Collections.unmodifiableSet(new HashSet<>(codes));
+	}
+
+	/**
+	 * @return the number of requests failed locally
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.cache;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+
+import com.upandcoding.fixer.endpoint.field.EndpointField;
+import com.upandcoding.fixer.model.Currency;
+import com.upandcoding.fixer.model.Fluctuation;
+import com.upandcoding.fixer.model.TimeSeries;
+
+/**
+ * Computes fluctuations from the rates of the history cache, like the
+ * Fluctuation Endpoint does: change = endRate - startRate, and changePct =
+ * change / startRate * 100, both rounded to 4 decimals.
+ * <p>
+ * A fluctuation can be computed for a currency only if its rates of the start
+ * and end dates are both cached. The other currencies are reported as missing,
+ * so that only them are requested to the Fixer API. When all the currencies are
+ * requested, the supported currencies (see Currency.getSupportedcurrencies)
+ * that are not cached are reported as missing.
+ * 
+ * @author Lionel Conforto
+ *
+ */
+public class FluctuationCalculator {
+
+	private static final int CHANGE_SCALE = 4;
+
+	/**
+	 * The fluctuations computed, and the currencies that could not be
+	 */
+	public static class Result {
+		private final List<Fluctuation> fluctuations;
+		private final List<String> missingSymbols;
+
+		private Result(List<Fluctuation> fluctuations, List<String> missingSymbols) {
+			this.fluctuations = Collections.unmodifiableList(fluctuations);
+			this.missingSymbols = Collections.unmodifiableList(missingSymbols);
+		}
+
+		public List<Fluctuation> getFluctuations() {
+			return fluctuations;
+		}
+
+		/**
+		 * @return the currencies whose start or end rate is not cached
+		 */
+		public List<String> getMissingSymbols() {
+			return missingSymbols;
+		}
+
+		public boolean isComplete() {
+			return missingSymbols.isEmpty();
+		}
+	}
+
+	private final RateHistoryCache cache;
+
+	public FluctuationCalculator(RateHistoryCache cache) {
+		Validate.notNull(cache, "Parameter '%s' cannot be null", "cache");
+		this.cache = cache;
+	}
+
+	/**
+	 * Computes fluctuations from cached rates
+	 * 
+	 * @param baseCurrency
+	 *            the base currency
+	 * @param startDate
+	 *            the start of the window
+	 * @param endDate
+	 *            the end of the window
+	 * @param symbols
+	 *            the currencies, null or empty for all the supported currencies
+	 *            (see Currency.getSupportedcurrencies)
+	 * @return the result, or null if symbols is empty and the rates of one of the
+	 *         dates are not cached at all, or the supported currencies are unknown
+	 */
+	public Result calculate(String baseCurrency, LocalDate startDate, LocalDate endDate, Collection<String> symbols) {
+		List<String> supportedSymbols = new ArrayList<>();
+		for (Currency currency : new ArrayList<>(Currency.getSupportedcurrencies())) {
+			supportedSymbols.add(currency.getSymbol());
+		}
+		return calculate(baseCurrency, startDate, endDate, symbols, supportedSymbols);
+	}
+
+	/**
+	 * Computes fluctuations from cached rates
+	 * 
+	 * @param baseCurrency
+	 *            the base currency
+	 * @param startDate
+	 *            the start of the window
+	 * @param endDate
+	 *            the end of the window
+	 * @param symbols
+	 *            the currencies, null or empty for all the supported currencies
+	 * @param supportedSymbols
+	 *            all the currencies of the Fixer API, null or empty if unknown
+	 * @return the result, or null if symbols is empty and the rates of one of the
+	 *         dates are not cached at all, or the supported currencies are unknown
+	 */
+	public Result calculate(String baseCurrency, LocalDate startDate, LocalDate endDate, Collection<String> symbols,
+			Collection<String> supportedSymbols) {
+		Validate.notNull(startDate, "Parameter '%s' cannot be null", "startDate");
+		Validate.notNull(endDate, "Parameter '%s' cannot be null", "endDate");
+
+		TimeSeries series = cache.getSeries(baseCurrency);
+		int startIndex = series != null ? series.indexOf(startDate) : -1;
+		int endIndex = series != null ? series.indexOf(endDate) : -1;
+
+		boolean allSymbols = symbols == null || symbols.isEmpty();
+		if (allSymbols) {
+			// The result is complete only if it covers all the currencies of the API
+			if (startIndex < 0 || endIndex < 0 || supportedSymbols == null || supportedSymbols.isEmpty()) {
+				return null;
+			}
+			symbols = supportedSymbols;
+		}
+
+		String strStartDate = startDate.format(EndpointField.dateFormatter);
+		String strEndDate = endDate.format(EndpointField.dateFormatter);
+		List<Fluctuation> fluctuations = new ArrayList<>();
+		List<String> missingSymbols = new ArrayList<>();
+		for (String symbol : symbols) {
+			String currency = StringUtils.trimToEmpty(symbol).toUpperCase();
+			double startRate = startIndex >= 0 ? series.getRate(currency, startIndex) : Double.NaN;
+			double endRate = endIndex >= 0 ? series.getRate(currency, endIndex) : Double.NaN;
+			if (Double.isNaN(startRate) || Double.isNaN(endRate)) {
+				missingSymbols.add(currency);
+				continue;
+			}
+			double change = endRate - startRate;
+			double changePct = startRate != 0 ? change / startRate * 100 : 0;
+			fluctuations.add(new Fluctuation(strStartDate, strEndDate, series.getBaseCurrency(), currency, startRate, endRate,
+					round(change), round(changePct)));
+		}
+		return new Result(fluctuations, missingSymbols);
+	}
+
+	private static double round(double value) {
+		return new BigDecimal(value).setScale(CHANGE_SCALE, RoundingMode.HALF_UP).doubleValue();
+	}
+
+}
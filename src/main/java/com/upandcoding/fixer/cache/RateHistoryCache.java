@@ -0,0 +1,237 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.cache;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.upandcoding.fixer.endpoint.field.EndpointField;
+import com.upandcoding.fixer.model.ExchangeRate;
+import com.upandcoding.fixer.model.TimeSeries;
+
+/**
+ * Keeps the daily rates returned by the Historical Rates and Time-Series
+ * Endpoints, one columnar time series per base currency.
+ * <p>
+ * Unlike the response cache, which keeps responses by request, the history
+ * cache merges all the responses of a base currency: rates loaded by different
+ * requests, for different dates or symbols, can be used together.
+ * 
+ * @author Lionel Conforto
+ *
+ */
+public class RateHistoryCache {
+
+	private static final Logger log = LoggerFactory.getLogger(RateHistoryCache.class);
+
+	/**
+	 * Default maximum number of days between the date of an as-of lookup and the
+	 * day of the rate returned
+	 */
+	public static final int DEFAULT_AS_OF_TOLERANCE_DAYS = 7;
+
+	private final ConcurrentMap<String, TimeSeries> seriesByBase = new ConcurrentHashMap<>();
+
+	private volatile int asOfToleranceDays = DEFAULT_AS_OF_TOLERANCE_DAYS;
+
+	/**
+	 * @param baseCurrency
+	 *            a 3-digits ISO code
+	 * @return the series of the base currency, or null if no rate has been
+	 *         recorded for it
+	 */
+	public TimeSeries getSeries(String baseCurrency) {
+		if (baseCurrency == null) {
+			return null;
+		}
+		return seriesByBase.get(baseCurrency.toUpperCase());
+	}
+
+	/**
+	 * @param baseCurrency
+	 *            a 3-digits ISO code
+	 * @return the series of the base currency, created empty if needed
+	 */
+	public TimeSeries getOrCreateSeries(String baseCurrency) {
+		Validate.notNull(baseCurrency, "Parameter '%s' cannot be null", "baseCurrency");
+		String base = baseCurrency.toUpperCase();
+		TimeSeries series = seriesByBase.get(base);
+		if (series == null) {
+			series = new TimeSeries(base);
+			TimeSeries existing = seriesByBase.putIfAbsent(base, series);
+			if (existing != null) {
+				series = existing;
+			}
+		}
+		return series;
+	}
+
+	/**
+	 * Adds a whole series, for example restored from a file, unless the cache
+	 * already holds a series for its base currency
+	 * 
+	 * @param series
+	 *            the series
+	 * @return true if the series was added
+	 */
+	public boolean restore(TimeSeries series) {
+		Validate.notNull(series, "Parameter '%s' cannot be null", "series");
+		return seriesByBase.putIfAbsent(series.getBaseCurrency(), series) == null;
+	}
+
+	/**
+	 * Records daily rates
+	 * 
+	 * @param baseCurrency
+	 *            the base currency of the rates
+	 * @param rates
+	 *            the rates, of one or several days
+	 */
+	public void record(String baseCurrency, List<ExchangeRate> rates) {
+		if (rates == null || rates.isEmpty()) {
+			return;
+		}
+		Map<String, Map<String, Double>> ratesByDate = new LinkedHashMap<>();
+		for (ExchangeRate rate : rates) {
+			if (rate.getDate() == null || rate.getTargetCurrency() == null) {
+				continue;
+			}
+			Map<String, Double> dayRates = ratesByDate.get(rate.getDate());
+			if (dayRates == null) {
+				dayRates = new HashMap<>();
+				ratesByDate.put(rate.getDate(), dayRates);
+			}
+			dayRates.put(rate.getTargetCurrency(), rate.getRate());
+		}
+		Map<LocalDate, Map<String, Double>> ratesByDay = new LinkedHashMap<>();
+		for (Map.Entry<String, Map<String, Double>> day : ratesByDate.entrySet()) {
+			ratesByDay.put(LocalDate.parse(day.getKey(), EndpointField.dateFormatter), day.getValue());
+		}
+
+		// One notification of the listeners of the series for all the days
+		getOrCreateSeries(baseCurrency).putAll(ratesByDay);
+		log.debug("Recorded {} days of {} rates", ratesByDay.size(), baseCurrency);
+	}
+
+	/**
+	 * Returns the rate in force on a date: the rate of that date, or else the last
+	 * rate before it, within the as-of tolerance. Useful for week-ends, holidays
+	 * and dates not yet loaded.
+	 * 
+	 * @param baseCurrency
+	 *            the base currency
+	 * @param currency
+	 *            the target currency
+	 * @param date
+	 *            a date
+	 * @return the rate, with the date it was published for, or null if none is
+	 *         cached within the tolerance
+	 */
+	public ExchangeRate getRateAsOf(String baseCurrency, String currency, LocalDate date) {
+		return getRateAsOf(baseCurrency, currency, date, TimeSeries.Lookup.PREVIOUS, asOfToleranceDays);
+	}
+
+	/**
+	 * @param baseCurrency
+	 *            the base currency
+	 * @param currency
+	 *            the target currency
+	 * @param date
+	 *            a date
+	 * @param lookup
+	 *            where to look when there is no rate on the date
+	 * @param maxDays
+	 *            the maximum number of days between the date and the rate found
+	 * @return the rate, with the date it was published for, or null if none is
+	 *         cached within the tolerance
+	 */
+	public ExchangeRate getRateAsOf(String baseCurrency, String currency, LocalDate date, TimeSeries.Lookup lookup, int maxDays) {
+		Validate.notNull(date, "Parameter '%s' cannot be null", "date");
+		TimeSeries series = getSeries(baseCurrency);
+		return series != null ? series.getRateAsOf(currency, date, lookup, maxDays) : null;
+	}
+
+	/**
+	 * @param baseCurrency
+	 *            the base currency
+	 * @param symbols
+	 *            the target currencies
+	 * @param date
+	 *            a date
+	 * @param lookup
+	 *            where to look when there is no rate on the date
+	 * @param maxDays
+	 *            the maximum number of days between the date and the rates found
+	 * @return the rates found, in the order of the symbols; the currencies without
+	 *         rate within the tolerance are left out
+	 */
+	public List<ExchangeRate> getRatesAsOf(String baseCurrency, List<String> symbols, LocalDate date, TimeSeries.Lookup lookup,
+			int maxDays) {
+		Validate.notNull(symbols, "Parameter '%s' cannot be null", "symbols");
+		List<ExchangeRate> rates = new ArrayList<>();
+		for (String symbol : symbols) {
+			ExchangeRate rate = getRateAsOf(baseCurrency, symbol, date, lookup, maxDays);
+			if (rate != null) {
+				rates.add(rate);
+			}
+		}
+		return rates;
+	}
+
+	/**
+	 * @return the maximum number of days between the date of an as-of lookup and
+	 *         the rate returned
+	 */
+	public int getAsOfToleranceDays() {
+		return asOfToleranceDays;
+	}
+
+	public void setAsOfToleranceDays(int asOfToleranceDays) {
+		Validate.isTrue(asOfToleranceDays >= 0, "Tolerance must be positive: %d", asOfToleranceDays);
+		this.asOfToleranceDays = asOfToleranceDays;
+	}
+
+	/**
+	 * @return the base currencies of the recorded rates
+	 */
+	public Set<String> getBaseCurrencies() {
+		return new TreeSet<>(seriesByBase.keySet());
+	}
+
+	/**
+	 * @return all the series, by base currency
+	 */
+	public List<TimeSeries> getAllSeries() {
+		return new ArrayList<>(seriesByBase.values());
+	}
+
+	public void clear() {
+		seriesByBase.clear();
+	}
+
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.cache;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.upandcoding.fixer.endpoint.Endpoint;
+import com.upandcoding.fixer.endpoint.field.EndpointFieldList;
+
+/**
+ * Keeps the responses of the Fixer API by request key (see
+ * Endpoint.getRequestKey).
+ * <p>
+ * A response is fresh during ttlMillis after it was loaded: the loader then
+ * returns it without sending any request. Older responses are kept, so that
+ * they can still be served when the Fixer API cannot be reached.
+ * <p>
+ * Two policies, disabled by default, allow to serve expired responses, their
+ * rates being marked stale (see ExchangeRate.isStale):
+ * <ul>
+ * <li>stale-while-revalidate: during staleWhileRevalidateMillis after its
+ * expiry, a response is returned at once while it is requested again in the
+ * background</li>
+ * <li>stale-if-error: during staleIfErrorMillis after its expiry, a response is
+ * returned when requesting it again fails</li>
+ * </ul>
+ * <p>
+ * The cache keeps at most maxEntries responses. When it is full, the responses
+ * expired for longer than both windows are removed first, then the oldest ones.
+ * 
+ * @author Lionel Conforto
+ *
+ */
+public class ResponseCache {
+
+	private static final Logger log = LoggerFactory.getLogger(ResponseCache.class);
+
+	public static final long DEFAULT_TTL_MILLIS = 60 * 60 * 1000;
+	public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+	/**
+	 * A response and the time it was loaded
+	 */
+	public static class Entry {
+
+		// Parsed on first use for the entries restored from a file
+		private volatile EndpointFieldList data;
+		private final String jsonResponse;
+		private final long loadedAt;
+
+		public Entry(EndpointFieldList data, String jsonResponse, long loadedAt) {
+			this.data = data;
+			this.jsonResponse = jsonResponse;
+			this.loadedAt = loadedAt;
+		}
+
+		/**
+		 * Creates an entry whose response body is only parsed when its data is first
+		 * requested
+		 * 
+		 * @param jsonResponse
+		 *            the response body
+		 * @param loadedAt
+		 *            the time the response was loaded, in milliseconds since the
+		 *            epoch
+		 * @return the entry
+		 */
+		public static Entry ofJsonResponse(String jsonResponse, long loadedAt) {
+			return new Entry(null, jsonResponse, loadedAt);
+		}
+
+		/**
+		 * @return the data of the response
+		 * @throws UncheckedIOException
+		 *             if the response body of a restored entry cannot be parsed
+		 */
+		public EndpointFieldList getData() {
+			EndpointFieldList result = data;
+			if (result == null) {
+				synchronized (this) {
+					result = data;
+					if (result == null) {
+						try {
+							result = new Endpoint().parseResponse(jsonResponse);
+						} catch (IOException e) {
+							throw new UncheckedIOException("Invalid cached response", e);
+						}
+						data = result;
+					}
+				}
+			}
+			return result;
+		}
+
+		public String getJsonResponse() {
+			return jsonResponse;
+		}
+
+		public long getLoadedAt() {
+			return loadedAt;
+		}
+
+		/**
+		 * @return the time elapsed since the response was loaded, in milliseconds
+		 */
+		public long getAge() {
+			return System.currentTimeMillis() - loadedAt;
+		}
+	}
+
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+	private long ttlMillis = DEFAULT_TTL_MILLIS;
+	private volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+	private volatile long staleWhileRevalidateMillis = 0;
+	private volatile long staleIfErrorMillis = 0;
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong staleHitCount = new AtomicLong();
+
+	public ResponseCache() {
+	}
+
+	public ResponseCache(long ttlMillis) {
+		this.ttlMillis = ttlMillis;
+	}
+
+	/**
+	 * Returns the response of a request if it is fresh
+	 * 
+	 * @param key
+	 *            the request key
+	 * @return the entry, or null if missing or expired
+	 */
+	public Entry getFresh(String key) {
+		Entry entry = entries.get(key);
+		if (entry != null && isFresh(entry)) {
+			hitCount.incrementAndGet();
+			return entry;
+		}
+		missCount.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Returns the response of a request if it has expired for less than
+	 * staleWhileRevalidateMillis, to be served while it is loaded again
+	 * 
+	 * @param key
+	 *            the request key
+	 * @return the entry, or null if missing, fresh or expired for too long
+	 */
+	public Entry getStaleWhileRevalidate(String key) {
+		return getStale(key, staleWhileRevalidateMillis);
+	}
+
+	/**
+	 * Returns the response of a request if it has expired for less than
+	 * staleIfErrorMillis, to be served when loading it again failed
+	 * 
+	 * @param key
+	 *            the request key
+	 * @return the entry, or null if missing or expired for too long
+	 */
+	public Entry getStaleIfError(String key) {
+		return getStale(key, staleIfErrorMillis);
+	}
+
+	private Entry getStale(String key, long maxStaleMillis) {
+		Entry entry = entries.get(key);
+		if (entry != null && maxStaleMillis > 0 && getStaleMillis(entry) < maxStaleMillis) {
+			staleHitCount.incrementAndGet();
+			return entry;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the time elapsed since the entry expired, in milliseconds, 0 if it
+	 *         is fresh
+	 */
+	public long getStaleMillis(Entry entry) {
+		return Math.max(0, entry.getAge() - ttlMillis);
+	}
+
+	/**
+	 * Returns the response of a request, even if expired
+	 * 
+	 * @param key
+	 *            the request key
+	 * @return the entry, or null if missing
+	 */
+	public Entry get(String key) {
+		return entries.get(key);
+	}
+
+	public boolean isFresh(Entry entry) {
+		return entry.getAge() < ttlMillis;
+	}
+
+	public void put(String key, EndpointFieldList data, String jsonResponse) {
+		put(key, new Entry(data, jsonResponse, System.currentTimeMillis()));
+	}
+
+	public void put(String key, Entry entry) {
+		if (!entries.containsKey(key)) {
+			makeRoom(1);
+		}
+		entries.put(key, entry);
+	}
+
+	/**
+	 * Removes the responses beyond maxEntries, for instance after entries were
+	 * added through getEntries
+	 */
+	public void trim() {
+		makeRoom(0);
+	}
+
+	private synchronized void makeRoom(int needed) {
+		if (entries.size() + needed <= maxEntries) {
+			return;
+		}
+		long maxStaleMillis = Math.max(staleWhileRevalidateMillis, staleIfErrorMillis);
+		for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+			if (getStaleMillis(entry.getValue()) > maxStaleMillis) {
+				entries.remove(entry.getKey(), entry.getValue());
+			}
+		}
+		int excess = entries.size() + needed - maxEntries;
+		if (excess > 0) {
+			// Removes a tenth of the entries at once, not to sort them on every put
+			excess = Math.max(excess, maxEntries / 10);
+			List<Map.Entry<String, Entry>> oldest = new ArrayList<>(entries.entrySet());
+			oldest.sort(Comparator.comparingLong(entry -> entry.getValue().getLoadedAt()));
+			for (int i = 0; i < excess && i < oldest.size(); i++) {
+				entries.remove(oldest.get(i).getKey(), oldest.get(i).getValue());
+			}
+			log.debug("Response cache full, {} oldest responses removed", excess);
+		}
+	}
+
+	public void remove(String key) {
+		entries.remove(key);
+	}
+
+	public void clear() {
+		entries.clear();
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the entries by request key, as a live view
+	 */
+	public ConcurrentMap<String, Entry> getEntries() {
+		return entries;
+	}
+
+	public long getTtlMillis() {
+		return ttlMillis;
+	}
+
+	public void setTtlMillis(long ttlMillis) {
+		this.ttlMillis = ttlMillis;
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public void setMaxEntries(int maxEntries) {
+		Validate.isTrue(maxEntries > 0, "Maximum number of entries must be positive: %d", maxEntries);
+		this.maxEntries = maxEntries;
+		trim();
+	}
+
+	public long getStaleWhileRevalidateMillis() {
+		return staleWhileRevalidateMillis;
+	}
+
+	/**
+	 * @param staleWhileRevalidateMillis
+	 *            the time after its expiry during which a response is served while
+	 *            it is loaded again in the background, 0 to disable
+	 */
+	public void setStaleWhileRevalidateMillis(long staleWhileRevalidateMillis) {
+		Validate.isTrue(staleWhileRevalidateMillis >= 0, "Duration must be positive: %d", staleWhileRevalidateMillis);
+		this.staleWhileRevalidateMillis = staleWhileRevalidateMillis;
+	}
+
+	public long getStaleIfErrorMillis() {
+		return staleIfErrorMillis;
+	}
+
+	/**
+	 * @param staleIfErrorMillis
+	 *            the time after its expiry during which a response is served when
+	 *            loading it again fails, 0 to disable
+	 */
+	public void setStaleIfErrorMillis(long staleIfErrorMillis) {
+		Validate.isTrue(staleIfErrorMillis >= 0, "Duration must be positive: %d", staleIfErrorMillis);
+		this.staleIfErrorMillis = staleIfErrorMillis;
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * @return the number of expired responses served by the stale-while-revalidate
+	 *         and stale-if-error policies
+	 */
+	public long getStaleHitCount() {
+		return staleHitCount.get();
+	}
+
+}
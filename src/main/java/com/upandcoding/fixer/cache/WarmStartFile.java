@@ -0,0 +1,217 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.cache;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.upandcoding.fixer.io.RateFormat;
+import com.upandcoding.fixer.io.RateReader;
+import com.upandcoding.fixer.io.RateWriter;
+import com.upandcoding.fixer.model.TimeSeries;
+
+/**
+ * Saves the content of the caches of a loader to a local file, and restores it,
+ * so that a restarted node serves the responses it already had (supported
+ * symbols, latest, historical and time series rates) without calling the Fixer
+ * API.
+ * <p>
+ * Restored responses keep the time they were loaded: those still fresh are
+ * served as is, the others are only requested again when they are needed, like
+ * any expired response.
+ * <p>
+ * The file holds:
+ * 
+ * <pre>
+ * "JFXW" version:u8 count:i32 (loadedAt:i64 key:string response:string){count}
+ * the series of the history cache, as a RateFormat stream
+ * string := length:i32 UTF-8 bytes
+ * </pre>
+ * 
+ * It is written to a temporary file first, then moved, and read back through a
+ * memory-mapped buffer.
+ * 
+ * @See ResponseCache
+ * @See RateHistoryCache
+ * @See RateFormat
+ * 
+ * @author Lionel Conforto
+ *
+ */
+public final class WarmStartFile {
+
+	private static final Logger log = LoggerFactory.getLogger(WarmStartFile.class);
+
+	private static final byte[] MAGIC = { 'J', 'F', 'X', 'W' };
+	private static final int VERSION = 1;
+
+	private WarmStartFile() {
+	}
+
+	/**
+	 * Saves the caches to a file, replacing it if it exists
+	 * 
+	 * @param file
+	 *            the file
+	 * @param responses
+	 *            the response cache, null if none
+	 * @param history
+	 *            the history cache, null if none
+	 * @return the number of responses and series saved
+	 * @throws IOException
+	 */
+	public static int save(Path file, ResponseCache responses, RateHistoryCache history) throws IOException {
+		Validate.notNull(file, "Parameter '%s' cannot be null", "file");
+		List<String> keys = new ArrayList<>();
+		List<ResponseCache.Entry> entries = new ArrayList<>();
+		if (responses != null) {
+			for (Map.Entry<String, ResponseCache.Entry> entry : responses.getEntries().entrySet()) {
+				// Header-only responses of the latest rates are only meaningful to the
+				// poller that asked for them
+				if (entry.getKey().indexOf('#') < 0) {
+					keys.add(entry.getKey());
+					entries.add(entry.getValue());
+				}
+			}
+		}
+		List<TimeSeries> series = history != null ? history.getAllSeries() : new ArrayList<TimeSeries>();
+
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 5);
+			header.put(MAGIC).put((byte) VERSION).putInt(keys.size());
+			writeFully(channel, header);
+			for (int i = 0; i < keys.size(); i++) {
+				byte[] key = keys.get(i).getBytes(StandardCharsets.UTF_8);
+				byte[] response = entries.get(i).getJsonResponse().getBytes(StandardCharsets.UTF_8);
+				ByteBuffer buffer = ByteBuffer.allocate(16 + key.length + response.length);
+				buffer.putLong(entries.get(i).getLoadedAt());
+				buffer.putInt(key.length).put(key);
+				buffer.putInt(response.length).put(response);
+				writeFully(channel, buffer);
+			}
+			// Not closed: it would close the channel before it is forced
+			RateWriter writer = new RateWriter(channel);
+			for (TimeSeries s : series) {
+				writer.write(s);
+			}
+			writer.flush();
+			channel.force(false);
+		}
+		try {
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+		log.debug("Saved {} responses and {} series to {}", keys.size(), series.size(), file);
+		return keys.size() + series.size();
+	}
+
+	/**
+	 * Restores the caches from a file. A response already in cache is only
+	 * replaced by a more recent one, and a series already in cache is kept.
+	 * 
+	 * @param file
+	 *            the file
+	 * @param responses
+	 *            the response cache, null to skip the responses
+	 * @param history
+	 *            the history cache, null to skip the series
+	 * @return the number of responses and series restored
+	 * @throws IOException
+	 *             if the file cannot be read or is not a warm-start file
+	 */
+	public static int load(Path file, ResponseCache responses, RateHistoryCache history) throws IOException {
+		Validate.notNull(file, "Parameter '%s' cannot be null", "file");
+		int restoredResponses = 0;
+		int restoredSeries = 0;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			for (byte b : MAGIC) {
+				if (buffer.get() != b) {
+					throw new IOException("Not a warm-start file: " + file);
+				}
+			}
+			int version = buffer.get();
+			if (version != VERSION) {
+				throw new IOException("Unsupported version " + version + " of warm-start file: " + file);
+			}
+
+			int count = buffer.getInt();
+			for (int i = 0; i < count; i++) {
+				long loadedAt = buffer.getLong();
+				String key = readString(buffer);
+				String response = readString(buffer);
+				if (responses != null) {
+					ResponseCache.Entry entry = ResponseCache.Entry.ofJsonResponse(response, loadedAt);
+					if (responses.getEntries().merge(key, entry, (a, b) -> a.getLoadedAt() >= b.getLoadedAt() ? a : b) == entry) {
+						restoredResponses++;
+					}
+				}
+			}
+			if (responses != null) {
+				responses.trim();
+			}
+
+			if (history != null && buffer.hasRemaining()) {
+				RateReader reader = new RateReader(buffer);
+				while (reader.next() == RateFormat.RECORD_SERIES) {
+					if (history.restore(reader.readSeries())) {
+						restoredSeries++;
+					}
+				}
+			}
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			throw new IOException("Invalid warm-start file: " + file, e);
+		}
+		log.debug("Restored {} responses and {} series from {}", restoredResponses, restoredSeries, file);
+		return restoredResponses + restoredSeries;
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0 || length > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+}
@@ -16,6 +16,7 @@
 package com.upandcoding.fixer.endpoint;
 
 import java.io.IOException;
+import java.net.SocketTimeoutException;
 import java.text.ParseException;
 import java.time.Instant;
 import java.time.LocalDate;
@@ -29,6 +30,10 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -38,7 +43,9 @@ import org.apache.commons.lang3.builder.ToStringStyle;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpResponseException;
 import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.ConnectTimeoutException;
 import org.apache.http.impl.client.BasicResponseHandler;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
@@ -70,12 +77,21 @@ public class Endpoint {
 
 	private static final String ERR_NOT_NULL = "Parameter '%s' cannot be null";
 
+	private static final String ACCESS_KEY = "access_key";
+
+	// Aborts the requests still in progress at their deadline
+	private static final ScheduledExecutorService deadlineScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "jfixer-deadline");
+		thread.setDaemon(true);
+		return thread;
+	});
+
 	// Authorized parameters : only these parameters are allowed, some mandatory,
 	// some optional
-	protected static final Set<EndpointField> authorizedEndpointParameters = new LinkedHashSet<>();
+	protected final Set<EndpointField> authorizedEndpointParameters = new LinkedHashSet<>();
 
 	// Specific path of the URL. For example, "latest" for the Latest Rates Endpoint
-	protected static String endpointPath;
+	protected String endpointPath;
 
 	// Base URL of the Fixer API service, something like https://data.fixer.io/api/
 	protected String baseUrl;
@@ -88,6 +104,20 @@ public class Endpoint {
 	// time
 	protected Set<EndpointField> requestedEndpointParameters = new LinkedHashSet<>();
 
+	// HTTP request currently sent by this endpoint, kept so that it can be aborted
+	// from another thread
+	private volatile HttpGet currentRequest;
+	private volatile boolean aborted = false;
+
+	// Timeouts of the HTTP request in milliseconds, 0 for the HttpClient defaults
+	private int connectTimeoutMillis = 0;
+	private int socketTimeoutMillis = 0;
+
+	// Time after which the request is aborted, in milliseconds since the epoch, 0
+	// for no deadline
+	private long deadlineMillis = 0;
+	private volatile boolean expired = false;
+
 	/**
 	 * Adds a string parameter, a not mandatory param 
 	 * @param name
@@ -127,20 +157,41 @@ public class Endpoint {
 		if (!StringUtils.endsWithIgnoreCase(baseUrl, "/")) {
 			baseUrl = baseUrl + "/";
 		}
-		String endpointUrl = baseUrl + getUrlParameters();
+		String endpointUrl = baseUrl + getUrlParameters(true);
 		log.debug("EndpointUrl: {}", endpointUrl);
 		return endpointUrl;
 	}
 
+	/**
+	 * Builds the URL of the request without the access key. Two endpoints with the
+	 * same request key send the same request to the Fixer API, whatever the key
+	 * used, which makes it suitable to identify a request, for example in a cache.
+	 * 
+	 * @return the URL of the request, without the access_key parameter
+	 * 
+	 * @throws FixerException
+	 */
+	public String getRequestKey() throws FixerException {
+		Validate.notNull(baseUrl, ERR_NOT_NULL, "baseUrl");
+		Validate.notNull(endpointPath, ERR_NOT_NULL, "endpoint path");
+
+		if (!StringUtils.endsWithIgnoreCase(baseUrl, "/")) {
+			baseUrl = baseUrl + "/";
+		}
+		return baseUrl + getUrlParameters(false);
+	}
+
 	/**
 	 * Concatenates the request parameters into a list of URL
 	 * parameters
 	 * 
+	 * @param withAccessKey
+	 *            if false, the access_key parameter is left out
 	 * @return a valid URL parameters string
 	 * 
 	 * @throws FixerException
 	 */
-	private String getUrlParameters() throws FixerException {
+	private String getUrlParameters(boolean withAccessKey) throws FixerException {
 
 		// Are mandatory parameters present?
 		for (EndpointField eParam : authorizedEndpointParameters) {
@@ -162,6 +213,9 @@ public class Endpoint {
 				// actualParameter.getName());
 				throw new FixerException("Parameter '" + actualParameter.getName() + "' is not part of the endpoint's parameters");
 			}
+			if (!withAccessKey && ACCESS_KEY.equalsIgnoreCase(actualParameter.getName())) {
+				continue;
+			}
 			if (actualParameter.isInUrlParameter()) {
 				urlParameters = urlParameters + paramSeparator + actualParameter.getName() + "=" + actualParameter.getValue();
 			} else {
@@ -183,10 +237,31 @@ public class Endpoint {
 	 * @throws IOException
 	 * @throws FixerException 
 	 */
-	private static String getResponse(String url) throws FixerException {
+	private String getResponse(String url) throws FixerException {
 		String responseBody = "{}";
-		try (CloseableHttpClient client = HttpClientBuilder.create().build()) {
+		this.expired = false;
+		long remaining = Long.MAX_VALUE;
+		if (deadlineMillis > 0) {
+			remaining = deadlineMillis - System.currentTimeMillis();
+			if (remaining <= 0) {
+				throw new FixerException(0, "deadline_exceeded", "Deadline exceeded before loading URL: " + url);
+			}
+		}
+		RequestConfig config = RequestConfig.custom()
+				.setConnectTimeout(getTimeout(connectTimeoutMillis, remaining))
+				.setConnectionRequestTimeout(getTimeout(connectTimeoutMillis, remaining))
+				.setSocketTimeout(getTimeout(socketTimeoutMillis, remaining))
+				.build();
+		ScheduledFuture<?> expiry = null;
+		try (CloseableHttpClient client = HttpClientBuilder.create().setDefaultRequestConfig(config).build()) {
 			HttpGet httpGet = new HttpGet(url);
+			this.currentRequest = httpGet;
+			if (aborted) {
+				httpGet.abort();
+			}
+			if (deadlineMillis > 0) {
+				expiry = deadlineScheduler.schedule(this::expire, remaining, TimeUnit.MILLISECONDS);
+			}
 			HttpResponse resp = client.execute(httpGet);
 			ResponseHandler<String> handler = new BasicResponseHandler();
 			try {
@@ -196,11 +271,118 @@ public class Endpoint {
 				throw new FixerException(e.getStatusCode(), "http_error", msg);
 			}
 		} catch (IOException e) {
-			throw new FixerException(e.getLocalizedMessage());
+			if (aborted) {
+				throw new FixerException(0, "request_aborted", "Request aborted when loading URL: " + url);
+			}
+			if (expired || (deadlineMillis > 0 && System.currentTimeMillis() >= deadlineMillis)) {
+				throw new FixerException(0, "deadline_exceeded", "Deadline exceeded when loading URL: " + url);
+			}
+			if (e instanceof SocketTimeoutException || e instanceof ConnectTimeoutException) {
+				throw new FixerException(0, "timeout", "Timeout (" + e.getLocalizedMessage() + ") when loading URL: " + url);
+			}
+			throw new FixerException(0, "network_error", e.getLocalizedMessage());
+		} finally {
+			if (expiry != null) {
+				expiry.cancel(false);
+			}
+			this.currentRequest = null;
 		}
 		return responseBody;
 	}
 
+	/**
+	 * @param timeoutMillis
+	 *            the configured timeout, 0 for none
+	 * @param remainingMillis
+	 *            the time left before the deadline, Long.MAX_VALUE for none
+	 * @return the timeout to give to HttpClient, -1 for its default
+	 */
+	private static int getTimeout(int timeoutMillis, long remainingMillis) {
+		long timeout = timeoutMillis > 0 ? timeoutMillis : Long.MAX_VALUE;
+		timeout = Math.min(timeout, remainingMillis);
+		if (timeout == Long.MAX_VALUE) {
+			return -1;
+		}
+		return (int) Math.min(Integer.MAX_VALUE, Math.max(1, timeout));
+	}
+
+	/**
+	 * Aborts the request in progress because its deadline is reached
+	 */
+	private void expire() {
+		this.expired = true;
+		HttpGet request = this.currentRequest;
+		if (request != null) {
+			request.abort();
+		}
+	}
+
+	/**
+	 * Aborts the HTTP request sent by this endpoint, if any. May be called from any
+	 * thread: the thread blocked in getData() then receives a FixerException of
+	 * type 'request_aborted'. If called before getData(), the request is aborted as
+	 * soon as it is sent.
+	 */
+	public void abort() {
+		this.aborted = true;
+		HttpGet request = this.currentRequest;
+		if (request != null) {
+			request.abort();
+		}
+	}
+
+	public boolean isAborted() {
+		return aborted;
+	}
+
+	public int getConnectTimeoutMillis() {
+		return connectTimeoutMillis;
+	}
+
+	/**
+	 * Sets the maximum time to establish the connection, and to obtain a
+	 * connection from the pool. A request that times out fails with a
+	 * FixerException of type 'timeout'.
+	 * 
+	 * @param connectTimeoutMillis
+	 *            the timeout in milliseconds, 0 for the HttpClient default
+	 */
+	public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+		this.connectTimeoutMillis = connectTimeoutMillis;
+	}
+
+	public int getSocketTimeoutMillis() {
+		return socketTimeoutMillis;
+	}
+
+	/**
+	 * Sets the maximum time of inactivity while waiting for the response. A
+	 * request that times out fails with a FixerException of type 'timeout'.
+	 * 
+	 * @param socketTimeoutMillis
+	 *            the timeout in milliseconds, 0 for the HttpClient default
+	 */
+	public void setSocketTimeoutMillis(int socketTimeoutMillis) {
+		this.socketTimeoutMillis = socketTimeoutMillis;
+	}
+
+	public long getDeadlineMillis() {
+		return deadlineMillis;
+	}
+
+	/**
+	 * Sets the time after which the request is aborted, whatever its progress. The
+	 * connect and socket timeouts are reduced to the time left. A request still in
+	 * progress at the deadline fails with a FixerException of type
+	 * 'deadline_exceeded'.
+	 * 
+	 * @param deadlineMillis
+	 *            the deadline in milliseconds since the epoch, 0 for no deadline
+	 */
+	public void setDeadlineMillis(long deadlineMillis) {
+		this.deadlineMillis = deadlineMillis;
+	}
+
 	/**
 	 * Calls the Fixer API web service and retrieves data
 	 * 
@@ -217,8 +399,7 @@ public class Endpoint {
 		if (StringUtils.isNotBlank(url)) {
 			JsonFactory factory = new JsonFactory();
 			this.jsonResponse = getResponse(url);
-			JsonParser parser = factory.createParser(this.jsonResponse);
-			EndpointFieldList data = analyzeData(parser);
+			EndpointFieldList data = analyzeResponse(factory, this.jsonResponse);
 			if (data.isSuccess()) {
 				return data;
 			} else {
@@ -245,6 +426,36 @@ public class Endpoint {
 		}
 	}
 
+	/**
+	 * Parses a response body received earlier, for example kept in a file,
+	 * without sending any request
+	 * 
+	 * @param jsonResponse
+	 *            the response body
+	 * @return the data of the response
+	 * @throws JsonParseException
+	 * @throws IOException
+	 */
+	public EndpointFieldList parseResponse(String jsonResponse) throws JsonParseException, IOException {
+		return analyzeResponse(new JsonFactory(), jsonResponse);
+	}
+
+	/**
+	 * Parses the response body of a request. Endpoints may override it to parse
+	 * only part of the response.
+	 * 
+	 * @param factory
+	 *            the Json factory
+	 * @param jsonResponse
+	 *            the response body
+	 * @return the data of the response
+	 * @throws JsonParseException
+	 * @throws IOException
+	 */
+	protected EndpointFieldList analyzeResponse(JsonFactory factory, String jsonResponse) throws JsonParseException, IOException {
+		return analyzeData(factory.createParser(jsonResponse));
+	}
+
 	/**
 	 * Analyzes the result of a request. 
 	 * 
@@ -437,6 +648,17 @@ public class Endpoint {
 		return fields;
 	}
 
+	/**
+	 * Returns the type of the endpoint, like 'latest' or 'timeseries'. Requests
+	 * to endpoints of the same type share their statistics and protections, like
+	 * circuit breakers.
+	 * 
+	 * @return the type of endpoint
+	 */
+	public String getEndpointType() {
+		return endpointPath;
+	}
+
 	public Set<EndpointField> getRequestedEndpointParameters() {
 		return requestedEndpointParameters;
 	}
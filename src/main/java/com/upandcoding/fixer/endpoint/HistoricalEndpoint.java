@@ -27,4 +27,9 @@ public class HistoricalEndpoint extends Endpoint {
 		this.baseUrl = baseUrl;
 		init();
 	}
+
+	@Override
+	public String getEndpointType() {
+		return "historical";
+	}
 }
@@ -1,15 +1,26 @@
 package com.upandcoding.fixer.endpoint;
 
+import java.io.IOException;
+
 import org.apache.commons.collections4.CollectionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.upandcoding.fixer.FixerException;
 import com.upandcoding.fixer.endpoint.field.EndpointField;
+import com.upandcoding.fixer.endpoint.field.EndpointFieldList;
 
 public class LatestEndpoint extends Endpoint {
 
 	private static final Logger log = LoggerFactory.getLogger(LatestEndpoint.class);
 
+	// Timestamp of the rates already known, in seconds, 0 if none
+	private long knownTimestamp = 0;
+
 	private void init() {
 		endpointPath = "latest";
 		if (CollectionUtils.isNotEmpty(authorizedEndpointParameters)) {
@@ -29,4 +40,91 @@ public class LatestEndpoint extends Endpoint {
 		init();
 	}
 
+	public long getKnownTimestamp() {
+		return knownTimestamp;
+	}
+
+	/**
+	 * Sets the timestamp of the rates already known. The response is then parsed
+	 * header first: if its timestamp is the same, parsing stops and the data
+	 * returned holds only the header fields, with no rate, and is marked as
+	 * unchanged. Otherwise the response is parsed as usual.
+	 * 
+	 * @param knownTimestamp
+	 *            the Unix timestamp of the known rates, in seconds, 0 for none
+	 * 
+	 * @See EndpointFieldList#isUnchanged()
+	 */
+	public void setKnownTimestamp(long knownTimestamp) {
+		this.knownTimestamp = knownTimestamp;
+	}
+
+	/**
+	 * The data returned depends on the known timestamp, so it is part of the
+	 * request key
+	 */
+	@Override
+	public String getRequestKey() throws FixerException {
+		String requestKey = super.getRequestKey();
+		return knownTimestamp > 0 ? requestKey + "#timestamp=" + knownTimestamp : requestKey;
+	}
+
+	@Override
+	protected EndpointFieldList analyzeResponse(JsonFactory factory, String jsonResponse) throws JsonParseException, IOException {
+		if (knownTimestamp > 0) {
+			EndpointFieldList header = analyzeHeader(factory.createParser(jsonResponse));
+			if (header != null) {
+				return header;
+			}
+		}
+		return super.analyzeResponse(factory, jsonResponse);
+	}
+
+	/**
+	 * Reads the top-level fields of the response until the success flag and the
+	 * timestamp are known. Objects, like the rates, are skipped without being
+	 * parsed.
+	 * 
+	 * @param parser
+	 * @return the header fields if the response is a success with the known
+	 *         timestamp, null otherwise
+	 * @throws JsonParseException
+	 * @throws IOException
+	 */
+	private EndpointFieldList analyzeHeader(JsonParser parser) throws JsonParseException, IOException {
+		if (parser.nextToken() != JsonToken.START_OBJECT) {
+			return null;
+		}
+		EndpointFieldList fields = new EndpointFieldList();
+		boolean success = false;
+		boolean sameTimestamp = false;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String fieldName = parser.getCurrentName();
+			JsonToken jsonToken = parser.nextToken();
+			if (jsonToken.isStructStart()) {
+				parser.skipChildren();
+				continue;
+			}
+			if ("success".equals(fieldName)) {
+				if (jsonToken != JsonToken.VALUE_TRUE) {
+					return null;
+				}
+				success = true;
+				fields.addField(new EndpointField(fieldName, parser.getValueAsString(), EndpointField.TYPE_BOOL, false));
+			} else if ("timestamp".equals(fieldName)) {
+				if (parser.getValueAsLong() != knownTimestamp) {
+					return null;
+				}
+				sameTimestamp = true;
+				fields.addField(new EndpointField(fieldName, parser.getValueAsString(), EndpointField.TYPE_DAT, false));
+			}
+			if (success && sameTimestamp) {
+				log.debug("Rates unchanged since {}", knownTimestamp);
+				fields.setUnchanged(true);
+				return fields;
+			}
+		}
+		return null;
+	}
+
 }
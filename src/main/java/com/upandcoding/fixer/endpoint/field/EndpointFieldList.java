@@ -57,11 +57,41 @@ public class EndpointFieldList {
 
 	private List<Fluctuation> fluctuations = new ArrayList<>();
 
+	private boolean unchanged = false;
+
+	private boolean cached = false;
+
 	public boolean isSuccess() {
 		EndpointField successFld = getField("success");
 		return (successFld != null && "true".equalsIgnoreCase(successFld.getValue()));
 	}
 
+	/**
+	 * @return true if only the header of the response was parsed, because its
+	 *         timestamp is the one already known: the list holds no rate
+	 * 
+	 * @See com.upandcoding.fixer.endpoint.LatestEndpoint#setKnownTimestamp(long)
+	 */
+	public boolean isUnchanged() {
+		return unchanged;
+	}
+
+	public void setUnchanged(boolean unchanged) {
+		this.unchanged = unchanged;
+	}
+
+	/**
+	 * @return true if the data was served from the response cache, rather than
+	 *         loaded by this call
+	 */
+	public boolean isCached() {
+		return cached;
+	}
+
+	public void setCached(boolean cached) {
+		this.cached = cached;
+	}
+
 	public List<EndpointField> getFields() {
 		return fields;
 	}
@@ -110,6 +140,53 @@ public class EndpointFieldList {
 		this.fluctuations.add(fluctuation);
 	}
 
+	/**
+	 * Copies the data of a response: the lists and the rates, currencies and
+	 * fluctuations they hold are new instances, that can be modified without
+	 * changing this one. The fields are shared.
+	 * 
+	 * @return the copy
+	 */
+	public EndpointFieldList copy() {
+		return copy(false, 0);
+	}
+
+	/**
+	 * Copies the data of an expired response, with its rates marked stale, like
+	 * copy()
+	 * 
+	 * @param staleMillis
+	 *            the time elapsed since the response expired, in milliseconds
+	 * @return the copy
+	 */
+	public EndpointFieldList toStale(long staleMillis) {
+		return copy(true, staleMillis);
+	}
+
+	private EndpointFieldList copy(boolean stale, long staleMillis) {
+		EndpointFieldList copy = new EndpointFieldList();
+		copy.fields = fields;
+		copy.unchanged = unchanged;
+		copy.rates = new ArrayList<>(rates.size());
+		for (ExchangeRate rate : rates) {
+			ExchangeRate rateCopy = new ExchangeRate(rate.getBaseCurrency(), rate.getTargetCurrency(), rate.getRate(), rate.getDate(),
+					rate.getTimestamp());
+			rateCopy.setStale(stale || rate.isStale());
+			rateCopy.setStaleMillis(stale ? staleMillis : rate.getStaleMillis());
+			copy.rates.add(rateCopy);
+		}
+		copy.currencies = new ArrayList<>(currencies.size());
+		for (Currency currency : currencies) {
+			copy.currencies.add(new Currency(currency.getSymbol(), currency.getDisplayName()));
+		}
+		copy.fluctuations = new ArrayList<>(fluctuations.size());
+		for (Fluctuation f : fluctuations) {
+			copy.fluctuations.add(new Fluctuation(f.getStartDate(), f.getEndDate(), f.getBaseCurrency(), f.getTargetCurrency(),
+					f.getStartRate(), f.getEndRate(), f.getChange(), f.getChangePct()));
+		}
+		return copy;
+	}
+
 	public EndpointField getField(String fieldName) {
 		EndpointField fieldFound = null;
 		if (StringUtils.isNotBlank(fieldName) && CollectionUtils.isNotEmpty(fields)) {
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.io;
+
+/**
+ * Constants of the binary format of rate snapshots and time series.
+ * <p>
+ * A stream starts with a header, followed by any number of records:
+ * 
+ * <pre>
+ * header   := magic "JFXR" (4 bytes), version (1 byte)
+ * record   := type (1 byte), snapshot | series
+ * snapshot := base, flags (1 byte), [date: zigzag varint epoch day],
+ *             [timestamp: zigzag varlong epoch seconds], count: varint,
+ *             count x currency, count x rate (8 bytes, IEEE 754)
+ * series   := base, currencies: varint, currencies x currency,
+ *             days: varint, [first day: zigzag varint, (days - 1) x gap: varint],
+ *             currencies x column
+ * column   := encoding (1 byte), [scale (1 byte)], present: varint,
+ *             [bitmap of the days with a rate: (days + 7) / 8 bytes,
+ *              when present &lt; days], present x value
+ * value    := 8 bytes (ENCODING_RAW)
+ *           | zigzag varlong difference with the previous value, as an integer
+ *             number of 10^-scale (ENCODING_DECIMAL_DELTA)
+ * base, currency := length: varint, UTF-8 bytes
+ * </pre>
+ * 
+ * Numbers are big-endian. Varints are unsigned LEB128, 7 bits per byte; signed
+ * values are zigzag encoded first. Rates published by the Fixer API have a few
+ * decimals, so columns are usually stored as small decimal deltas, of 1 to 3
+ * bytes per day instead of 8; the writer falls back to raw doubles when a column
+ * cannot be rebuilt exactly from decimals. Timestamps are converted in the
+ * default time zone, like those of the Fixer API responses.
+ * 
+ * @See RateWriter
+ * @See RateReader
+ * 
+ * @author Lionel Conforto
+ *
+ */
+public final class RateFormat {
+
+	public static final byte[] MAGIC = { 'J', 'F', 'X', 'R' };
+
+	public static final int VERSION = 1;
+
+	public static final int RECORD_SNAPSHOT = 1;
+	public static final int RECORD_SERIES = 2;
+
+	public static final int ENCODING_RAW = 0;
+	public static final int ENCODING_DECIMAL_DELTA = 1;
+
+	static final int FLAG_DATE = 1;
+	static final int FLAG_TIMESTAMP = 2;
+
+	// Beyond this number of decimals, scaled rates may exceed 2^53
+	static final int MAX_SCALE = 9;
+
+	private RateFormat() {
+	}
+
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.io;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.Validate;
+
+import com.upandcoding.fixer.model.RateSnapshot;
+import com.upandcoding.fixer.model.TimeSeries;
+
+/**
+ * Reads rate snapshots and time series from a channel, in the binary format
+ * described by RateFormat.
+ * <p>
+ * The channel is read through a buffer, refilled as records are decoded. A
+ * reader can also decode a buffer holding the whole stream, such as a
+ * memory-mapped file. This class is not thread-safe.
+ * 
+ * <pre>
+ * try (RateReader reader = new RateReader(FileChannel.open(path))) {
+ * 	while (reader.next() == RateFormat.RECORD_SERIES) {
+ * 		TimeSeries series = reader.readSeries();
+ * 	}
+ * }
+ * </pre>
+ * 
+ * @See RateFormat
+ * @See RateWriter
+ * 
+ * @author Lionel Conforto
+ *
+ */
+public class RateReader implements Closeable {
+
+	private final ReadableByteChannel channel;
+	private final ByteBuffer buffer;
+	private boolean headerRead = false;
+	private boolean endOfStream = false;
+	private int recordType = 0;
+
+	public RateReader(ReadableByteChannel channel) {
+		this(channel, RateWriter.DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * @param channel
+	 *            the channel, closed with the reader
+	 * @param bufferSize
+	 *            the size of the buffer, at least 256 bytes
+	 */
+	public RateReader(ReadableByteChannel channel, int bufferSize) {
+		Validate.notNull(channel, "Parameter '%s' cannot be null", "channel");
+		Validate.isTrue(bufferSize >= 256, "Buffer too small: %d", bufferSize);
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocate(bufferSize);
+		this.buffer.flip();
+	}
+
+	/**
+	 * @param buffer
+	 *            the stream, from the position to the limit of the buffer, which
+	 *            are left unchanged
+	 */
+	public RateReader(ByteBuffer buffer) {
+		Validate.notNull(buffer, "Parameter '%s' cannot be null", "buffer");
+		this.channel = null;
+		this.buffer = buffer.duplicate();
+		this.endOfStream = true;
+	}
+
+	/**
+	 * Moves to the next record
+	 * 
+	 * @return the type of the record, RateFormat.RECORD_SNAPSHOT or
+	 *         RateFormat.RECORD_SERIES, or -1 at the end of the stream
+	 * @throws IOException
+	 *             if the stream is not in the expected format
+	 */
+	public int next() throws IOException {
+		if (recordType != 0) {
+			throw new IOException("Record of type " + recordType + " not read");
+		}
+		readHeader();
+		if (!fill(1)) {
+			return -1;
+		}
+		recordType = buffer.get();
+		if (recordType != RateFormat.RECORD_SNAPSHOT && recordType != RateFormat.RECORD_SERIES) {
+			throw new IOException("Unknown record type: " + recordType);
+		}
+		return recordType;
+	}
+
+	/**
+	 * Reads the current record, which must be a snapshot
+	 * 
+	 * @return the snapshot
+	 * @throws IOException
+	 */
+	public RateSnapshot readSnapshot() throws IOException {
+		checkRecord(RateFormat.RECORD_SNAPSHOT);
+		String base = readString();
+		int flags = readByte();
+		String date = null;
+		if ((flags & RateFormat.FLAG_DATE) != 0) {
+			date = LocalDate.ofEpochDay(readSignedVarLong()).toString();
+		}
+		LocalDateTime timestamp = null;
+		if ((flags & RateFormat.FLAG_TIMESTAMP) != 0) {
+			timestamp = LocalDateTime.ofInstant(Instant.ofEpochSecond(readSignedVarLong()), ZoneId.systemDefault());
+		}
+		int count = readCount();
+		String[] currencies = new String[count];
+		for (int i = 0; i < count; i++) {
+			currencies[i] = readString();
+		}
+		Map<String, Double> rates = new LinkedHashMap<>();
+		for (int i = 0; i < count; i++) {
+			require(8);
+			rates.put(currencies[i], buffer.getDouble());
+		}
+		recordType = 0;
+		return new RateSnapshot(base, date, timestamp, rates);
+	}
+
+	/**
+	 * Reads the current record, which must be a time series
+	 * 
+	 * @return the series
+	 * @throws IOException
+	 */
+	public TimeSeries readSeries() throws IOException {
+		checkRecord(RateFormat.RECORD_SERIES);
+		String base = readString();
+		int currencyCount = readCount();
+		String[] currencies = new String[currencyCount];
+		for (int i = 0; i < currencyCount; i++) {
+			currencies[i] = readString();
+		}
+
+		int dayCount = readCount();
+		int[] epochDays = new int[dayCount];
+		if (dayCount > 0) {
+			epochDays[0] = (int) readSignedVarLong();
+			for (int i = 1; i < dayCount; i++) {
+				epochDays[i] = epochDays[i - 1] + (int) readVarLong();
+			}
+		}
+
+		Map<String, double[]> columns = new LinkedHashMap<>();
+		for (String currency : currencies) {
+			columns.put(currency, readColumn(dayCount));
+		}
+		recordType = 0;
+		return TimeSeries.of(base, epochDays, columns);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (channel != null) {
+			channel.close();
+		}
+	}
+
+	private double[] readColumn(int dayCount) throws IOException {
+		int encoding = readByte();
+		int scale = -1;
+		if (encoding == RateFormat.ENCODING_DECIMAL_DELTA) {
+			scale = readByte();
+		} else if (encoding != RateFormat.ENCODING_RAW) {
+			throw new IOException("Unknown column encoding: " + encoding);
+		}
+		int present = readCount();
+		if (present > dayCount) {
+			throw new IOException("Column of " + present + " rates for " + dayCount + " days");
+		}
+
+		double[] values = new double[dayCount];
+		boolean[] hasRate = null;
+		if (present < dayCount) {
+			hasRate = new boolean[dayCount];
+			for (int i = 0; i < dayCount; i += 8) {
+				int bits = readByte();
+				for (int b = 0; b < 8 && i + b < dayCount; b++) {
+					hasRate[i + b] = (bits & (1 << b)) != 0;
+				}
+			}
+			Arrays.fill(values, Double.NaN);
+		}
+
+		double factor = Math.pow(10, Math.max(scale, 0));
+		long previous = 0;
+		for (int i = 0; i < dayCount; i++) {
+			if (hasRate != null && !hasRate[i]) {
+				continue;
+			}
+			if (scale >= 0) {
+				previous += readSignedVarLong();
+				values[i] = previous / factor;
+			} else {
+				require(8);
+				values[i] = buffer.getDouble();
+			}
+		}
+		return values;
+	}
+
+	private void readHeader() throws IOException {
+		if (headerRead) {
+			return;
+		}
+		require(RateFormat.MAGIC.length + 1);
+		for (byte b : RateFormat.MAGIC) {
+			if (buffer.get() != b) {
+				throw new IOException("Not a rate stream");
+			}
+		}
+		int version = buffer.get();
+		if (version != RateFormat.VERSION) {
+			throw new IOException("Unsupported version: " + version);
+		}
+		headerRead = true;
+	}
+
+	private void checkRecord(int type) throws IOException {
+		if (recordType != type) {
+			throw new IOException("Current record is of type " + recordType + ", not " + type);
+		}
+	}
+
+	private String readString() throws IOException {
+		int length = readCount();
+		require(length);
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private int readByte() throws IOException {
+		require(1);
+		return buffer.get() & 0xFF;
+	}
+
+	private int readCount() throws IOException {
+		long count = readVarLong();
+		if (count < 0 || count > Integer.MAX_VALUE) {
+			throw new IOException("Invalid count: " + count);
+		}
+		return (int) count;
+	}
+
+	private long readSignedVarLong() throws IOException {
+		long value = readVarLong();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private long readVarLong() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	private void require(int bytes) throws IOException {
+		if (!fill(bytes)) {
+			throw new EOFException("Unexpected end of stream");
+		}
+	}
+
+	/**
+	 * @return false if the stream ends before the number of bytes is available
+	 */
+	private boolean fill(int bytes) throws IOException {
+		if (channel != null && bytes > buffer.capacity()) {
+			throw new IOException("Value of " + bytes + " bytes larger than the buffer");
+		}
+		while (buffer.remaining() < bytes) {
+			if (endOfStream) {
+				return false;
+			}
+			buffer.compact();
+			int read = channel.read(buffer);
+			buffer.flip();
+			if (read < 0) {
+				endOfStream = true;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.List;
+
+import org.apache.commons.lang3.Validate;
+
+import com.upandcoding.fixer.model.RateSnapshot;
+import com.upandcoding.fixer.model.TimeSeries;
+
+/**
+ * Writes rate snapshots and time series to a channel, in the binary format
+ * described by RateFormat.
+ * <p>
+ * Records are encoded in a buffer which is written to the channel whenever it is
+ * full, so that a series of any size is written with a fixed amount of memory.
+ * The header is written with the first record. This class is not thread-safe.
+ * 
+ * <pre>
+ * try (FileChannel channel = FileChannel.open(path, CREATE, WRITE, TRUNCATE_EXISTING);
+ * 		RateWriter writer = new RateWriter(channel)) {
+ * 	writer.write(series);
+ * }
+ * </pre>
+ * 
+ * @See RateFormat
+ * @See RateReader
+ * 
+ * @author Lionel Conforto
+ *
+ */
+public class RateWriter implements Closeable {
+
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer;
+	private boolean headerWritten = false;
+	private long bytesWritten = 0;
+
+	public RateWriter(WritableByteChannel channel) {
+		this(channel, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * @param channel
+	 *            the channel, closed with the writer
+	 * @param bufferSize
+	 *            the size of the buffer, at least 256 bytes
+	 */
+	public RateWriter(WritableByteChannel channel, int bufferSize) {
+		Validate.notNull(channel, "Parameter '%s' cannot be null", "channel");
+		Validate.isTrue(bufferSize >= 256, "Buffer too small: %d", bufferSize);
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocate(bufferSize);
+	}
+
+	/**
+	 * Writes a snapshot
+	 * 
+	 * @param snapshot
+	 * @throws IOException
+	 */
+	public void write(RateSnapshot snapshot) throws IOException {
+		Validate.notNull(snapshot, "Parameter '%s' cannot be null", "snapshot");
+		writeHeader();
+		ensure(1);
+		buffer.put((byte) RateFormat.RECORD_SNAPSHOT);
+		writeString(snapshot.getBaseCurrency());
+
+		int flags = 0;
+		if (snapshot.getDate() != null) {
+			flags |= RateFormat.FLAG_DATE;
+		}
+		if (snapshot.getTimestamp() != null) {
+			flags |= RateFormat.FLAG_TIMESTAMP;
+		}
+		ensure(1);
+		buffer.put((byte) flags);
+		if (snapshot.getDate() != null) {
+			writeSignedVarLong(LocalDate.parse(snapshot.getDate()).toEpochDay());
+		}
+		if (snapshot.getTimestamp() != null) {
+			writeSignedVarLong(snapshot.getTimestamp().atZone(ZoneId.systemDefault()).toEpochSecond());
+		}
+
+		List<String> currencies = snapshot.getCurrencies();
+		writeVarLong(currencies.size());
+		for (String currency : currencies) {
+			writeString(currency);
+		}
+		for (String currency : currencies) {
+			ensure(8);
+			buffer.putDouble(snapshot.getRate(currency));
+		}
+	}
+
+	/**
+	 * Writes a time series, locked while it is written
+	 * 
+	 * @param series
+	 * @throws IOException
+	 */
+	public void write(TimeSeries series) throws IOException {
+		Validate.notNull(series, "Parameter '%s' cannot be null", "series");
+		synchronized (series) {
+			writeHeader();
+			ensure(1);
+			buffer.put((byte) RateFormat.RECORD_SERIES);
+			writeString(series.getBaseCurrency());
+
+			List<String> currencies = series.getCurrencies();
+			writeVarLong(currencies.size());
+			for (String currency : currencies) {
+				writeString(currency);
+			}
+
+			int[] epochDays = series.getEpochDays();
+			writeVarLong(epochDays.length);
+			if (epochDays.length > 0) {
+				writeSignedVarLong(epochDays[0]);
+				for (int i = 1; i < epochDays.length; i++) {
+					writeVarLong(epochDays[i] - epochDays[i - 1]);
+				}
+			}
+
+			for (String currency : currencies) {
+				writeColumn(series.getColumn(currency));
+			}
+		}
+	}
+
+	/**
+	 * Writes the content of the buffer to the channel
+	 * 
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			bytesWritten += channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * @return the number of bytes written to the channel so far
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+	private void writeHeader() throws IOException {
+		if (headerWritten) {
+			return;
+		}
+		ensure(RateFormat.MAGIC.length + 1);
+		buffer.put(RateFormat.MAGIC);
+		buffer.put((byte) RateFormat.VERSION);
+		headerWritten = true;
+	}
+
+	private void writeColumn(double[] values) throws IOException {
+		int present = 0;
+		for (double value : values) {
+			if (!Double.isNaN(value)) {
+				present++;
+			}
+		}
+		int scale = getDecimalScale(values);
+		ensure(2);
+		if (scale >= 0) {
+			buffer.put((byte) RateFormat.ENCODING_DECIMAL_DELTA);
+			buffer.put((byte) scale);
+		} else {
+			buffer.put((byte) RateFormat.ENCODING_RAW);
+		}
+		writeVarLong(present);
+
+		if (present < values.length) {
+			for (int i = 0; i < values.length; i += 8) {
+				int bits = 0;
+				for (int b = 0; b < 8 && i + b < values.length; b++) {
+					if (!Double.isNaN(values[i + b])) {
+						bits |= 1 << b;
+					}
+				}
+				ensure(1);
+				buffer.put((byte) bits);
+			}
+		}
+
+		double factor = scale >= 0 ? Math.pow(10, scale) : 0;
+		long previous = 0;
+		for (double value : values) {
+			if (Double.isNaN(value)) {
+				continue;
+			}
+			if (scale >= 0) {
+				long scaled = Math.round(value * factor);
+				writeSignedVarLong(scaled - previous);
+				previous = scaled;
+			} else {
+				ensure(8);
+				buffer.putDouble(value);
+			}
+		}
+	}
+
+	/**
+	 * @return the smallest number of decimals from which all the values can be
+	 *         rebuilt exactly, -1 if there is none
+	 */
+	static int getDecimalScale(double[] values) {
+		int scale = 0;
+		double factor = 1;
+		for (double value : values) {
+			if (Double.isNaN(value)) {
+				continue;
+			}
+			while (Math.round(value * factor) / factor != value || Math.abs(value * factor) >= (1L << 53)) {
+				scale++;
+				if (scale > RateFormat.MAX_SCALE) {
+					return -1;
+				}
+				factor = Math.pow(10, scale);
+			}
+		}
+		// Values checked before the last increase of the scale
+		for (double value : values) {
+			if (Math.abs(value * factor) >= (1L << 53)) {
+				return -1;
+			}
+		}
+		return scale;
+	}
+
+	private void writeString(String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeVarLong(bytes.length);
+		ensure(bytes.length);
+		buffer.put(bytes);
+	}
+
+	private void writeSignedVarLong(long value) throws IOException {
+		writeVarLong((value << 1) ^ (value >> 63));
+	}
+
+	private void writeVarLong(long value) throws IOException {
+		ensure(10);
+		while ((value & ~0x7FL) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	private void ensure(int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			flush();
+			if (buffer.remaining() < bytes) {
+				throw new IOException("Value of " + bytes + " bytes larger than the buffer");
+			}
+		}
+	}
+
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.model;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Read-only copy of a TimeSeries with each currency column compressed, for
+ * keeping long histories in memory.
+ * <p>
+ * Consecutive rates of a column are XOR-ed with each other and only the
+ * meaningful bits of the XOR are stored, as in the Gorilla encoding: an
+ * unchanged rate takes 1 bit, a close rate a few bits more than its differing
+ * mantissa bits. Days without rate (NaN) are encoded as any other value.
+ * <p>
+ * Columns are cut into blocks of a fixed number of days, the first rate of a
+ * block being stored in full: a rate is read by decoding its block from the
+ * start, a range by decoding its blocks sequentially.
+ * <p>
+ * Instances are immutable and thread-safe.
+ * 
+ * @See TimeSeries
+ * 
+ * @author Lionel Conforto
+ *
+ */
+public final class CompressedTimeSeries {
+
+	public static final int DEFAULT_BLOCK_SIZE = 128;
+
+	// Estimated sizes with compressed references, for the memory report
+	private static final int ARRAY_HEADER_BYTES = 16;
+	private static final int EXCHANGE_RATE_BYTES = 40;
+	private static final int DATE_STRING_BYTES = 56;
+	private static final int REFERENCE_BYTES = 4;
+
+	private final String baseCurrency;
+	private final int blockSize;
+	private final int[] epochDays;
+	private final String[] currencies;
+	private final Map<String, Integer> currencyIndexes = new HashMap<>();
+	private final long[][] columnBits;
+	private final int[][] blockOffsets;
+	private final long rateCount;
+
+	private CompressedTimeSeries(String baseCurrency, int blockSize, int[] epochDays, Map<String, double[]> columns) {
+		this.baseCurrency = baseCurrency;
+		this.blockSize = blockSize;
+		this.epochDays = epochDays;
+		this.currencies = columns.keySet().toArray(new String[columns.size()]);
+		this.columnBits = new long[currencies.length][];
+		this.blockOffsets = new int[currencies.length][];
+		long count = 0;
+		for (int c = 0; c < currencies.length; c++) {
+			currencyIndexes.put(currencies[c], c);
+			double[] values = columns.get(currencies[c]);
+			BitWriter writer = new BitWriter(values.length);
+			blockOffsets[c] = encode(values, blockSize, writer);
+			columnBits[c] = writer.toArray();
+			for (double value : values) {
+				if (!Double.isNaN(value)) {
+					count++;
+				}
+			}
+		}
+		this.rateCount = count;
+	}
+
+	public static CompressedTimeSeries of(TimeSeries series) {
+		return of(series, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * @param series
+	 *            the series to compress, copied as of now
+	 * @param blockSize
+	 *            the number of days of a block: smaller blocks speed up the
+	 *            access to a single rate, larger ones compress better
+	 * @return the compressed copy of the series
+	 */
+	public static CompressedTimeSeries of(TimeSeries series, int blockSize) {
+		Validate.notNull(series, "Parameter '%s' cannot be null", "series");
+		Validate.isTrue(blockSize > 0, "Block size must be positive: %d", blockSize);
+		int[] epochDays;
+		Map<String, double[]> columns = new LinkedHashMap<>();
+		synchronized (series) {
+			epochDays = series.getEpochDays();
+			for (String currency : series.getCurrencies()) {
+				columns.put(currency, series.getColumn(currency));
+			}
+		}
+		return new CompressedTimeSeries(series.getBaseCurrency(), blockSize, epochDays, columns);
+	}
+
+	/**
+	 * @return a new, uncompressed series with the same rates
+	 */
+	public TimeSeries toTimeSeries() {
+		Map<String, double[]> columns = new LinkedHashMap<>();
+		for (String currency : currencies) {
+			columns.put(currency, getColumn(currency));
+		}
+		return TimeSeries.of(baseCurrency, epochDays, columns);
+	}
+
+	public String getBaseCurrency() {
+		return baseCurrency;
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * @return the number of days
+	 */
+	public int size() {
+		return epochDays.length;
+	}
+
+	public List<String> getCurrencies() {
+		return Collections.unmodifiableList(Arrays.asList(currencies));
+	}
+
+	public boolean hasCurrency(String currency) {
+		return currency != null && currencyIndexes.containsKey(currency.toUpperCase());
+	}
+
+	public LocalDate getDate(int index) {
+		return LocalDate.ofEpochDay(epochDays[index]);
+	}
+
+	/**
+	 * @param date
+	 *            a date
+	 * @return the index of the date, or (-(insertion point) - 1) if the series
+	 *         does not contain it, like Arrays.binarySearch
+	 */
+	public int indexOf(LocalDate date) {
+		Validate.notNull(date, "Parameter '%s' cannot be null", "date");
+		return Arrays.binarySearch(epochDays, (int) date.toEpochDay());
+	}
+
+	/**
+	 * @param currency
+	 *            a 3-digits ISO code
+	 * @param index
+	 *            the index of a day
+	 * @return the rate, NaN if unknown for that day or currency
+	 */
+	public double getRate(String currency, int index) {
+		if (index < 0 || index >= epochDays.length) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + epochDays.length);
+		}
+		int column = getColumnIndex(currency);
+		if (column < 0) {
+			return Double.NaN;
+		}
+		double[] rate = new double[1];
+		decode(column, index, index + 1, rate);
+		return rate[0];
+	}
+
+	/**
+	 * @param currency
+	 *            a 3-digits ISO code
+	 * @param date
+	 *            a date
+	 * @return the rate, NaN if unknown for that date or currency
+	 */
+	public double getRate(String currency, LocalDate date) {
+		int index = indexOf(date);
+		return index >= 0 ? getRate(currency, index) : Double.NaN;
+	}
+
+	/**
+	 * @param currency
+	 *            a 3-digits ISO code
+	 * @return the rates of the currency, one per day, NaN when unknown, or null
+	 *         if the currency is not part of the series
+	 */
+	public double[] getColumn(String currency) {
+		return getRates(currency, 0, epochDays.length);
+	}
+
+	/**
+	 * @param currency
+	 *            a 3-digits ISO code
+	 * @param fromIndex
+	 *            the index of the first day, inclusive
+	 * @param toIndex
+	 *            the index of the last day, exclusive
+	 * @return the rates of the currency over the days, NaN when unknown, or null
+	 *         if the currency is not part of the series
+	 */
+	public double[] getRates(String currency, int fromIndex, int toIndex) {
+		if (fromIndex < 0 || toIndex > epochDays.length || fromIndex > toIndex) {
+			throw new IndexOutOfBoundsException("From: " + fromIndex + ", to: " + toIndex + ", size: " + epochDays.length);
+		}
+		int column = getColumnIndex(currency);
+		if (column < 0) {
+			return null;
+		}
+		double[] rates = new double[toIndex - fromIndex];
+		decode(column, fromIndex, toIndex, rates);
+		return rates;
+	}
+
+	/**
+	 * @return the number of known rates, all currencies included
+	 */
+	public long getRateCount() {
+		return rateCount;
+	}
+
+	/**
+	 * @return the estimated memory used by the compressed columns and the days
+	 */
+	public long getMemoryBytes() {
+		long bytes = ARRAY_HEADER_BYTES + 4L * epochDays.length;
+		for (int c = 0; c < currencies.length; c++) {
+			bytes += 2 * ARRAY_HEADER_BYTES + 8L * columnBits[c].length + 4L * blockOffsets[c].length;
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return the estimated memory of the same rates in the columns of a
+	 *         TimeSeries, one double per day and currency
+	 */
+	public long getColumnarMemoryBytes() {
+		return ARRAY_HEADER_BYTES + 4L * epochDays.length
+				+ currencies.length * (ARRAY_HEADER_BYTES + 8L * epochDays.length);
+	}
+
+	/**
+	 * @return the estimated memory of the same rates as a list of ExchangeRate,
+	 *         with one date string shared by the rates of a day
+	 */
+	public long getObjectMemoryBytes() {
+		return ARRAY_HEADER_BYTES + rateCount * (EXCHANGE_RATE_BYTES + REFERENCE_BYTES)
+				+ (long) epochDays.length * DATE_STRING_BYTES;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("CompressedTimeSeries[%s, %d days, %d currencies, %d rates, %d bytes (%d as columns, %d as objects)]",
+				baseCurrency, epochDays.length, currencies.length, rateCount, getMemoryBytes(), getColumnarMemoryBytes(),
+				getObjectMemoryBytes());
+	}
+
+	private int getColumnIndex(String currency) {
+		Integer column = currency != null ? currencyIndexes.get(currency.toUpperCase()) : null;
+		return column != null ? column : -1;
+	}
+
+	/**
+	 * Encodes the values block by block
+	 * 
+	 * @return the bit offset of each block
+	 */
+	private static int[] encode(double[] values, int blockSize, BitWriter writer) {
+		int[] offsets = new int[(values.length + blockSize - 1) / blockSize];
+		long previous = 0;
+		int previousLeading = -1;
+		int previousTrailing = 0;
+		for (int i = 0; i < values.length; i++) {
+			long bits = Double.doubleToRawLongBits(values[i]);
+			if (i % blockSize == 0) {
+				offsets[i / blockSize] = writer.position();
+				writer.write(bits, 64);
+				previous = bits;
+				previousLeading = -1;
+				continue;
+			}
+			long xor = bits ^ previous;
+			previous = bits;
+			if (xor == 0) {
+				writer.write(0, 1);
+				continue;
+			}
+			int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+			int trailing = Long.numberOfTrailingZeros(xor);
+			if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+				// Meaningful bits within the window of the previous XOR
+				writer.write(0b10, 2);
+				writer.write(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+			} else {
+				int length = 64 - leading - trailing;
+				writer.write(0b11, 2);
+				writer.write(leading, 5);
+				writer.write(length - 1, 6);
+				writer.write(xor >>> trailing, length);
+				previousLeading = leading;
+				previousTrailing = trailing;
+			}
+		}
+		return offsets;
+	}
+
+	/**
+	 * Decodes the values of a column from the start of the block of fromIndex
+	 */
+	private void decode(int column, int fromIndex, int toIndex, double[] dest) {
+		if (fromIndex >= toIndex) {
+			return;
+		}
+		long[] words = columnBits[column];
+		int block = fromIndex / blockSize;
+		long position = blockOffsets[column][block];
+		long previous = 0;
+		int leading = 0;
+		int trailing = 0;
+		for (int i = block * blockSize; i < toIndex; i++) {
+			if (i % blockSize == 0) {
+				previous = read(words, position, 64);
+				position += 64;
+			} else if (read(words, position++, 1) != 0) {
+				if (read(words, position++, 1) != 0) {
+					leading = (int) read(words, position, 5);
+					int length = (int) read(words, position + 5, 6) + 1;
+					trailing = 64 - leading - length;
+					position += 11;
+				}
+				int length = 64 - leading - trailing;
+				previous ^= read(words, position, length) << trailing;
+				position += length;
+			}
+			if (i >= fromIndex) {
+				dest[i - fromIndex] = Double.longBitsToDouble(previous);
+			}
+		}
+	}
+
+	/**
+	 * @return the bits at a position, most significant first
+	 */
+	private static long read(long[] words, long position, int count) {
+		int word = (int) (position >>> 6);
+		int free = 64 - (int) (position & 63);
+		long value;
+		if (count <= free) {
+			value = words[word] >>> (free - count);
+		} else {
+			int rest = count - free;
+			value = (words[word] << rest) | (words[word + 1] >>> (64 - rest));
+		}
+		return count == 64 ? value : value & ((1L << count) - 1);
+	}
+
+	private static final class BitWriter {
+
+		private long[] words;
+		private long position = 0;
+
+		BitWriter(int values) {
+			// About 2 bytes per rate for the usual daily moves
+			words = new long[Math.max(2, values / 4)];
+		}
+
+		int position() {
+			if (position > Integer.MAX_VALUE) {
+				throw new IllegalStateException("Column too large: " + position + " bits");
+			}
+			return (int) position;
+		}
+
+		void write(long value, int count) {
+			int word = (int) (position >>> 6);
+			if (word + 1 >= words.length) {
+				words = Arrays.copyOf(words, words.length * 2);
+			}
+			if (count < 64) {
+				value &= (1L << count) - 1;
+			}
+			int free = 64 - (int) (position & 63);
+			if (count <= free) {
+				words[word] |= value << (free - count);
+			} else {
+				int rest = count - free;
+				words[word] |= value >>> rest;
+				words[word + 1] |= value << (64 - rest);
+			}
+			position += count;
+		}
+
+		long[] toArray() {
+			return Arrays.copyOf(words, (int) ((position + 63) >>> 6));
+		}
+
+	}
+
+}
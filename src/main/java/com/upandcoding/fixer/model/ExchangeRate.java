@@ -48,6 +48,11 @@ public class ExchangeRate {
 	private double rate;
 	private LocalDateTime timestamp;
 
+	// Served from an expired response, because the Fixer API was not called or
+	// failed
+	private boolean stale;
+	private long staleMillis;
+
 	public ExchangeRate() {
 	}
 
@@ -99,6 +104,32 @@ public class ExchangeRate {
 		this.timestamp = timestamp;
 	}
 
+	/**
+	 * @return true if the rate comes from a cached response that had expired when
+	 *         it was returned
+	 * 
+	 * @See com.upandcoding.fixer.cache.ResponseCache
+	 */
+	public boolean isStale() {
+		return stale;
+	}
+
+	public void setStale(boolean stale) {
+		this.stale = stale;
+	}
+
+	/**
+	 * @return the time elapsed between the expiry of the cached response and the
+	 *         moment the rate was returned, in milliseconds, 0 if not stale
+	 */
+	public long getStaleMillis() {
+		return staleMillis;
+	}
+
+	public void setStaleMillis(long staleMillis) {
+		this.staleMillis = staleMillis;
+	}
+
 	@Override
 	public int hashCode() {
 		return Objects.hash(baseCurrency, targetCurrency, date, rate);
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.model;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * The current rates, replaced as a whole by a writer, typically a refresher, and
+ * read by many threads without locking.
+ * <p>
+ * Two ways of reading are offered:
+ * <ul>
+ * <li>getSnapshot() returns the last snapshot published, an immutable object,
+ * with a single volatile read (copy-on-write).</li>
+ * <li>getRate(), getCrossRate() and getRates() read the rates in place, in
+ * primitive arrays updated under a sequence lock: readers check that no update
+ * happened while they were reading, and read again otherwise. They never block
+ * the writer and allocate nothing.</li>
+ * </ul>
+ * Both views are consistent: a reader never sees rates of two different
+ * snapshots. The second view is updated before the first, so for a short time
+ * after publish() the rates read in place may be newer than getSnapshot().
+ * 
+ * @See RateSnapshot
+ * 
+ * @author Lionel Conforto
+ *
+ */
+public class LiveRates {
+
+	private final StampedLock lock = new StampedLock();
+
+	// Written under the write lock, read optimistically
+	private String baseCurrency;
+	private String[] currencies = new String[0];
+	private double[] rates = new double[0];
+	private long version = 0;
+
+	private volatile RateSnapshot snapshot;
+
+	/**
+	 * Replaces the current rates. When the currencies are the same as those of the
+	 * previous snapshot, the rates are copied in place.
+	 * 
+	 * @param newSnapshot
+	 *            the new rates
+	 */
+	public void publish(RateSnapshot newSnapshot) {
+		Validate.notNull(newSnapshot, "Parameter '%s' cannot be null", "newSnapshot");
+		String[] newCurrencies = newSnapshot.currencyArray();
+		double[] newRates = newSnapshot.rateArray();
+		long stamp = lock.writeLock();
+		try {
+			if (newCurrencies == currencies || Arrays.equals(newCurrencies, currencies)) {
+				System.arraycopy(newRates, 0, rates, 0, newRates.length);
+			} else {
+				currencies = newCurrencies;
+				rates = newRates.clone();
+			}
+			baseCurrency = newSnapshot.getBaseCurrency();
+			version++;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+		snapshot = newSnapshot;
+	}
+
+	/**
+	 * @return the last snapshot published, null if none
+	 */
+	public RateSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * @return the number of snapshots published
+	 */
+	public long getVersion() {
+		long stamp = lock.tryOptimisticRead();
+		long result = version;
+		if (!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			try {
+				result = version;
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param currency
+	 *            a 3-digits ISO code, in any case
+	 * @return the current rate of the currency, 1 for the base currency, NaN if
+	 *         unknown
+	 */
+	public double getRate(String currency) {
+		while (true) {
+			long stamp = lock.tryOptimisticRead();
+			double rate = rateOf(currency, baseCurrency, currencies, rates);
+			if (lock.validate(stamp)) {
+				return rate;
+			}
+		}
+	}
+
+	/**
+	 * @param fromCurrency
+	 *            a 3-digits ISO code, in any case
+	 * @param toCurrency
+	 *            a 3-digits ISO code, in any case
+	 * @return how much of toCurrency for one fromCurrency, both rates read from
+	 *         the same snapshot, NaN if unknown
+	 */
+	public double getCrossRate(String fromCurrency, String toCurrency) {
+		while (true) {
+			long stamp = lock.tryOptimisticRead();
+			String base = baseCurrency;
+			String[] codes = currencies;
+			double[] values = rates;
+			double from = rateOf(fromCurrency, base, codes, values);
+			double to = rateOf(toCurrency, base, codes, values);
+			if (lock.validate(stamp)) {
+				return to / from;
+			}
+		}
+	}
+
+	/**
+	 * Reads the rates of several currencies from the same snapshot
+	 * 
+	 * @param symbols
+	 *            3-digits ISO codes, in any case
+	 * @param result
+	 *            the array receiving the rates, parallel to the symbols, NaN for
+	 *            unknown currencies
+	 * @return the version of the snapshot read
+	 */
+	public long getRates(String[] symbols, double[] result) {
+		Validate.isTrue(result.length >= symbols.length, "Result array too short: %d < %d", result.length, symbols.length);
+		while (true) {
+			long stamp = lock.tryOptimisticRead();
+			String base = baseCurrency;
+			String[] codes = currencies;
+			double[] values = rates;
+			long readVersion = version;
+			for (int i = 0; i < symbols.length; i++) {
+				result[i] = rateOf(symbols[i], base, codes, values);
+			}
+			if (lock.validate(stamp)) {
+				return readVersion;
+			}
+		}
+	}
+
+	/**
+	 * Reads a rate from arrays that may be modified concurrently: the result is
+	 * only meaningful if the read is validated afterwards.
+	 */
+	private static double rateOf(String currency, String base, String[] codes, double[] values) {
+		if (currency == null) {
+			return Double.NaN;
+		}
+		// The codes are upper case and sorted: same order ignoring case
+		int index = Arrays.binarySearch(codes, currency, String.CASE_INSENSITIVE_ORDER);
+		if (index >= 0 && index < values.length) {
+			return values[index];
+		}
+		if (currency.equalsIgnoreCase(base)) {
+			return 1.0;
+		}
+		return Double.NaN;
+	}
+
+}
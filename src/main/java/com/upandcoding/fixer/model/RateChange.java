@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.model;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * Change of the rate of a currency between two consecutive snapshots
+ * 
+ * @author Lionel Conforto
+ *
+ */
+public final class RateChange {
+
+	private final String baseCurrency;
+	private final String targetCurrency;
+	private final double oldRate;
+	private final double newRate;
+	private final double changePct;
+
+	public RateChange(String baseCurrency, String targetCurrency, double oldRate, double newRate) {
+		this.baseCurrency = baseCurrency;
+		this.targetCurrency = targetCurrency;
+		this.oldRate = oldRate;
+		this.newRate = newRate;
+		this.changePct = (newRate - oldRate) / oldRate * 100;
+	}
+
+	public String getBaseCurrency() {
+		return baseCurrency;
+	}
+
+	public String getTargetCurrency() {
+		return targetCurrency;
+	}
+
+	public double getOldRate() {
+		return oldRate;
+	}
+
+	public double getNewRate() {
+		return newRate;
+	}
+
+	/**
+	 * @return the change in percentage, negative if the rate went down
+	 */
+	public double getChangePct() {
+		return changePct;
+	}
+
+	public String toString() {
+		return ToStringBuilder.reflectionToString(this, ToStringStyle.SHORT_PREFIX_STYLE);
+	}
+
+}
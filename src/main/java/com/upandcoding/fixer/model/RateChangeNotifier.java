@@ -0,0 +1,195 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares consecutive snapshots and notifies the listeners of the rates that
+ * moved beyond their threshold.
+ * <p>
+ * The two snapshots are compared in a single pass over their sorted currency
+ * and rate arrays. A RateChange is created only for a rate whose change reaches
+ * the lowest threshold of the listeners, and the list of changes of a listener
+ * only when it has a change to receive: when nothing moves enough, comparing
+ * allocates nothing. Each listener then receives all its changes in a single
+ * call.
+ * <p>
+ * Currencies present in only one of the snapshots are not reported. Listeners
+ * are called in the thread that publishes the snapshots; the errors they throw
+ * are logged and ignored.
+ * 
+ * @author Lionel Conforto
+ *
+ */
+public class RateChangeNotifier {
+
+	private static final Logger log = LoggerFactory.getLogger(RateChangeNotifier.class);
+
+	/**
+	 * Receives the changes of the rates
+	 */
+	public interface Listener {
+
+		/**
+		 * @param previous
+		 *            the previous snapshot
+		 * @param current
+		 *            the new snapshot
+		 * @param changes
+		 *            the changes beyond the threshold of the listener, in the order of
+		 *            the currencies, never empty
+		 */
+		void onChanges(RateSnapshot previous, RateSnapshot current, List<RateChange> changes);
+	}
+
+	private static final class Subscription {
+		private final Listener listener;
+		private final double thresholdPct;
+
+		// Changes of the comparison in progress, allocated on the first change
+		private List<RateChange> changes;
+
+		private Subscription(Listener listener, double thresholdPct) {
+			this.listener = listener;
+			this.thresholdPct = thresholdPct;
+		}
+	}
+
+	private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+	private volatile double minThresholdPct = Double.POSITIVE_INFINITY;
+	// Changes of the subscriptions and of their minimum threshold, not held while
+	// the listeners are notified
+	private final Object subscriptionLock = new Object();
+
+	/**
+	 * @param listener
+	 *            the listener
+	 * @param thresholdPct
+	 *            the minimum change, in percentage and in absolute value, of the
+	 *            rates reported to the listener; 0 for any change
+	 */
+	public void addListener(Listener listener, double thresholdPct) {
+		Validate.notNull(listener, "Parameter '%s' cannot be null", "listener");
+		Validate.isTrue(thresholdPct >= 0, "Threshold must be positive: %s", thresholdPct);
+		synchronized (subscriptionLock) {
+			subscriptions.add(new Subscription(listener, thresholdPct));
+			updateMinThreshold();
+		}
+	}
+
+	public void removeListener(Listener listener) {
+		synchronized (subscriptionLock) {
+			for (Subscription subscription : subscriptions) {
+				if (subscription.listener == listener) {
+					subscriptions.remove(subscription);
+				}
+			}
+			updateMinThreshold();
+		}
+	}
+
+	public int getListenerCount() {
+		return subscriptions.size();
+	}
+
+	/**
+	 * Compares two snapshots and notifies the listeners of the changes
+	 * 
+	 * @param previous
+	 *            the previous snapshot, nothing is compared if null
+	 * @param current
+	 *            the new snapshot
+	 * @return the number of changes reported, to all the listeners
+	 */
+	public synchronized int compare(RateSnapshot previous, RateSnapshot current) {
+		if (previous == null || current == null || subscriptions.isEmpty()) {
+			return 0;
+		}
+		double minThreshold = minThresholdPct;
+		String[] oldCurrencies = previous.currencyArray();
+		double[] oldRates = previous.rateArray();
+		String[] newCurrencies = current.currencyArray();
+		double[] newRates = current.rateArray();
+		boolean sameBase = previous.getBaseCurrency().equals(current.getBaseCurrency());
+
+		// Merge of the two sorted arrays
+		int reported = 0;
+		int i = 0;
+		int j = 0;
+		while (sameBase && i < oldCurrencies.length && j < newCurrencies.length) {
+			int order = oldCurrencies[i].compareTo(newCurrencies[j]);
+			if (order < 0) {
+				i++;
+			} else if (order > 0) {
+				j++;
+			} else {
+				double oldRate = oldRates[i];
+				double newRate = newRates[j];
+				double pct = Math.abs((newRate - oldRate) / oldRate * 100);
+				if (newRate != oldRate && pct >= minThreshold) {
+					RateChange change = new RateChange(current.getBaseCurrency(), newCurrencies[j], oldRate, newRate);
+					for (Subscription subscription : subscriptions) {
+						if (pct >= subscription.thresholdPct) {
+							if (subscription.changes == null) {
+								subscription.changes = new ArrayList<>();
+							}
+							subscription.changes.add(change);
+							reported++;
+						}
+					}
+				}
+				i++;
+				j++;
+			}
+		}
+		if (!sameBase) {
+			log.debug("Base currency changed from {} to {}, rates not compared", previous.getBaseCurrency(), current.getBaseCurrency());
+		}
+
+		if (reported > 0) {
+			for (Subscription subscription : subscriptions) {
+				List<RateChange> changes = subscription.changes;
+				if (changes == null) {
+					continue;
+				}
+				subscription.changes = null;
+				try {
+					subscription.listener.onChanges(previous, current, Collections.unmodifiableList(changes));
+				} catch (RuntimeException e) {
+					log.warn("Rate change listener failed: {}", e.getMessage(), e);
+				}
+			}
+		}
+		return reported;
+	}
+
+	private void updateMinThreshold() {
+		double min = Double.POSITIVE_INFINITY;
+		for (Subscription subscription : subscriptions) {
+			min = Math.min(min, subscription.thresholdPct);
+		}
+		minThresholdPct = min;
+	}
+
+}
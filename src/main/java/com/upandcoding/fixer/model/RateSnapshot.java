@@ -0,0 +1,289 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.model;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * The exchange rates of all currencies for a base currency at a given time, as
+ * returned by the Latest Rates or Historical Rates Endpoint.
+ * <p>
+ * A snapshot is immutable. Currencies are kept sorted in an array, with their
+ * rates in a parallel array of doubles, so that a snapshot of the 170
+ * currencies of the Fixer API takes a few kilobytes.
+ * <p>
+ * Rebasing derives the rates of another base currency from the snapshot:
+ * rate(B to X) = rate(A to X) / rate(A to B), where A is the base currency of
+ * the snapshot. The result is rounded to the significant digits of a
+ * MathContext, since the rates returned by the Fixer API have a limited
+ * precision themselves.
+ * 
+ * @author Lionel Conforto
+ *
+ */
+public final class RateSnapshot {
+
+	// Rates returned by the Fixer API have 6 or 7 significant digits, so a
+	// rebased rate is not more precise
+	public static final MathContext DEFAULT_PRECISION = new MathContext(8);
+
+	private final String baseCurrency;
+	private final String date;
+	private final LocalDateTime timestamp;
+	private final String[] currencies;
+	private final double[] rates;
+
+	/**
+	 * @param baseCurrency
+	 *            the base currency
+	 * @param date
+	 *            the date of the rates, yyyy-MM-dd
+	 * @param timestamp
+	 *            the time of the rates, may be null
+	 * @param rates
+	 *            the rate of each currency
+	 */
+	public RateSnapshot(String baseCurrency, String date, LocalDateTime timestamp, Map<String, Double> rates) {
+		Validate.notNull(baseCurrency, "Parameter '%s' cannot be null", "baseCurrency");
+		Validate.notNull(rates, "Parameter '%s' cannot be null", "rates");
+		this.baseCurrency = baseCurrency.toUpperCase();
+		this.date = date;
+		this.timestamp = timestamp;
+
+		Map<String, Double> sorted = new TreeMap<>();
+		for (Map.Entry<String, Double> entry : rates.entrySet()) {
+			sorted.put(entry.getKey().toUpperCase(), entry.getValue());
+		}
+		this.currencies = new String[sorted.size()];
+		this.rates = new double[sorted.size()];
+		int i = 0;
+		for (Map.Entry<String, Double> entry : sorted.entrySet()) {
+			this.currencies[i] = entry.getKey();
+			this.rates[i] = entry.getValue();
+			i++;
+		}
+	}
+
+	private RateSnapshot(String baseCurrency, String date, LocalDateTime timestamp, String[] currencies, double[] rates) {
+		this.baseCurrency = baseCurrency;
+		this.date = date;
+		this.timestamp = timestamp;
+		this.currencies = currencies;
+		this.rates = rates;
+	}
+
+	/**
+	 * Builds a snapshot from the rates returned for one date
+	 * 
+	 * @param baseCurrency
+	 *            the base currency of the rates
+	 * @param exchangeRates
+	 *            the rates, all of the same date
+	 * @return the snapshot
+	 */
+	public static RateSnapshot of(String baseCurrency, List<ExchangeRate> exchangeRates) {
+		Validate.notNull(exchangeRates, "Parameter '%s' cannot be null", "exchangeRates");
+		String date = null;
+		LocalDateTime timestamp = null;
+		Map<String, Double> rates = new TreeMap<>();
+		for (ExchangeRate exchangeRate : exchangeRates) {
+			if (date == null) {
+				date = exchangeRate.getDate();
+				timestamp = exchangeRate.getTimestamp();
+			}
+			rates.put(exchangeRate.getTargetCurrency(), exchangeRate.getRate());
+		}
+		return new RateSnapshot(baseCurrency, date, timestamp, rates);
+	}
+
+	public String getBaseCurrency() {
+		return baseCurrency;
+	}
+
+	public String getDate() {
+		return date;
+	}
+
+	public LocalDateTime getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return the currencies of the snapshot, sorted
+	 */
+	public List<String> getCurrencies() {
+		return Collections.unmodifiableList(Arrays.asList(currencies));
+	}
+
+	public int size() {
+		return currencies.length;
+	}
+
+	/**
+	 * @param currency
+	 *            a 3-digits ISO code
+	 * @return true if the snapshot has a rate for the currency, or if it is the
+	 *         base currency
+	 */
+	public boolean contains(String currency) {
+		return !Double.isNaN(getRate(currency));
+	}
+
+	/**
+	 * @param currency
+	 *            a 3-digits ISO code
+	 * @return the rate of the currency, 1 for the base currency, NaN if unknown
+	 */
+	public double getRate(String currency) {
+		if (currency == null) {
+			return Double.NaN;
+		}
+		int index = Arrays.binarySearch(currencies, currency.toUpperCase());
+		if (index >= 0) {
+			return rates[index];
+		}
+		if (baseCurrency.equalsIgnoreCase(currency)) {
+			return 1.0;
+		}
+		return Double.NaN;
+	}
+
+	/**
+	 * Derives the rates of another base currency, rounded to the default
+	 * precision.
+	 * 
+	 * @param newBaseCurrency
+	 *            the new base currency, must be part of the snapshot
+	 * @return the rebased snapshot
+	 */
+	public RateSnapshot rebase(String newBaseCurrency) {
+		return rebase(newBaseCurrency, DEFAULT_PRECISION);
+	}
+
+	/**
+	 * Derives the rates of another base currency. The rate of the former base
+	 * currency is added to the result if the snapshot did not contain it.
+	 * 
+	 * @param newBaseCurrency
+	 *            the new base currency, must be part of the snapshot
+	 * @param precision
+	 *            the significant digits and rounding mode of the rebased rates,
+	 *            MathContext.UNLIMITED to keep the result of the division
+	 *            unrounded
+	 * @return the rebased snapshot
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the new base currency is not part of the snapshot
+	 */
+	public RateSnapshot rebase(String newBaseCurrency, MathContext precision) {
+		Validate.notNull(newBaseCurrency, "Parameter '%s' cannot be null", "newBaseCurrency");
+		Validate.notNull(precision, "Parameter '%s' cannot be null", "precision");
+		String newBase = newBaseCurrency.toUpperCase();
+		if (newBase.equals(baseCurrency)) {
+			return this;
+		}
+		double baseRate = getRate(newBase);
+		Validate.isTrue(!Double.isNaN(baseRate) && baseRate > 0, "No rate for currency %s in the snapshot", newBase);
+
+		boolean addFormerBase = Arrays.binarySearch(currencies, baseCurrency) < 0;
+		String[] newCurrencies = currencies;
+		double[] sourceRates = rates;
+		if (addFormerBase) {
+			int insertAt = -Arrays.binarySearch(currencies, baseCurrency) - 1;
+			newCurrencies = new String[currencies.length + 1];
+			sourceRates = new double[currencies.length + 1];
+			System.arraycopy(currencies, 0, newCurrencies, 0, insertAt);
+			System.arraycopy(rates, 0, sourceRates, 0, insertAt);
+			newCurrencies[insertAt] = baseCurrency;
+			sourceRates[insertAt] = 1.0;
+			System.arraycopy(currencies, insertAt, newCurrencies, insertAt + 1, currencies.length - insertAt);
+			System.arraycopy(rates, insertAt, sourceRates, insertAt + 1, currencies.length - insertAt);
+		}
+
+		double[] newRates = new double[sourceRates.length];
+		for (int i = 0; i < sourceRates.length; i++) {
+			newRates[i] = round(sourceRates[i] / baseRate, precision);
+		}
+		return new RateSnapshot(newBase, date, timestamp, newCurrencies, newRates);
+	}
+
+	private static double round(double value, MathContext precision) {
+		if (precision.getPrecision() == 0 || Double.isNaN(value) || Double.isInfinite(value)) {
+			return value;
+		}
+		return new BigDecimal(value).round(precision).doubleValue();
+	}
+
+	/**
+	 * @param symbols
+	 *            the currencies, null or empty for all the currencies of the
+	 *            snapshot
+	 * @return the rates of the currencies, in the order of the symbols, or null if
+	 *         one of them is not part of the snapshot
+	 */
+	public List<ExchangeRate> toExchangeRates(Collection<String> symbols) {
+		List<ExchangeRate> exchangeRates = new ArrayList<>();
+		if (symbols == null || symbols.isEmpty()) {
+			for (int i = 0; i < currencies.length; i++) {
+				exchangeRates.add(new ExchangeRate(baseCurrency, currencies[i], rates[i], date, timestamp));
+			}
+			return exchangeRates;
+		}
+		for (String symbol : symbols) {
+			String currency = StringUtils.trimToEmpty(symbol).toUpperCase();
+			double rate = getRate(currency);
+			if (Double.isNaN(rate)) {
+				return null;
+			}
+			exchangeRates.add(new ExchangeRate(baseCurrency, currency, rate, date, timestamp));
+		}
+		return exchangeRates;
+	}
+
+	/**
+	 * @return the sorted currencies, not copied: must not be modified
+	 */
+	String[] currencyArray() {
+		return currencies;
+	}
+
+	/**
+	 * @return the rates, parallel to the currencies, not copied: must not be
+	 *         modified
+	 */
+	double[] rateArray() {
+		return rates;
+	}
+
+	public String toString() {
+		return ToStringBuilder.reflectionToString(this, ToStringStyle.SHORT_PREFIX_STYLE);
+	}
+
+}
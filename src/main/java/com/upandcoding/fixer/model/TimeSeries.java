@@ -0,0 +1,478 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.model;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The daily exchange rates of many currencies for one base currency, stored by
+ * column.
+ * <p>
+ * Days are kept sorted in an array of epoch days (days since 1970-01-01). Each
+ * currency has its own column, an array of doubles parallel to the days, with
+ * NaN for the days without rate. Twenty years of daily rates for 170 currencies
+ * take about 10 MB, instead of over a million ExchangeRate objects.
+ * <p>
+ * Days are normally added at the end, in which case the listeners are told which
+ * day was appended and can update their results in place. A day inserted before
+ * the last one, or a change of the rates of a day already present, is reported
+ * as a change from that day onward.
+ * <p>
+ * All methods are synchronized: listeners are called while the lock is held, so
+ * that they see the series in a consistent state.
+ * 
+ * @author Lionel Conforto
+ *
+ */
+public class TimeSeries {
+
+	private static final Logger log = LoggerFactory.getLogger(TimeSeries.class);
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	/**
+	 * Notified of the changes of a series
+	 */
+	public interface Listener {
+
+		/**
+		 * A day has been added after all the others
+		 * 
+		 * @param series
+		 *            the series
+		 * @param index
+		 *            the index of the new day, the last one
+		 */
+		void onAppend(TimeSeries series, int index);
+
+		/**
+		 * The days from an index onward have changed: inserted day, or new rates
+		 * for an existing day
+		 * 
+		 * @param series
+		 *            the series
+		 * @param fromIndex
+		 *            the index of the first day changed
+		 */
+		void onChange(TimeSeries series, int fromIndex);
+	}
+
+	/**
+	 * Which day to use when there is no rate on the date of an as-of lookup
+	 */
+	public enum Lookup {
+		/**
+		 * The last day before the date, the rate in force on that date
+		 */
+		PREVIOUS,
+		/**
+		 * The first day after the date
+		 */
+		NEXT,
+		/**
+		 * The closest day, the previous one if both are as close
+		 */
+		NEAREST
+	}
+
+	private final String baseCurrency;
+
+	private int[] epochDays = new int[INITIAL_CAPACITY];
+	private int size = 0;
+
+	// Currency dictionary: index of the column of each currency
+	private final Map<String, Integer> currencyIndexes = new HashMap<>();
+	private final List<String> currencies = new ArrayList<>();
+	private final List<double[]> columns = new ArrayList<>();
+
+	private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+	public TimeSeries(String baseCurrency) {
+		Validate.notNull(baseCurrency, "Parameter '%s' cannot be null", "baseCurrency");
+		this.baseCurrency = baseCurrency.toUpperCase();
+	}
+
+	/**
+	 * Creates a series from its columns, without copying the rates day by day
+	 * 
+	 * @param baseCurrency
+	 *            the base currency
+	 * @param epochDays
+	 *            the days, as epoch days, strictly increasing
+	 * @param columns
+	 *            the rates of each currency, parallel to the days, NaN for the days
+	 *            without rate
+	 * @return a new series
+	 */
+	public static TimeSeries of(String baseCurrency, int[] epochDays, Map<String, double[]> columns) {
+		Validate.notNull(epochDays, "Parameter '%s' cannot be null", "epochDays");
+		Validate.notNull(columns, "Parameter '%s' cannot be null", "columns");
+		for (int i = 1; i < epochDays.length; i++) {
+			Validate.isTrue(epochDays[i] > epochDays[i - 1], "Days must be strictly increasing, index %d", i);
+		}
+		TimeSeries series = new TimeSeries(baseCurrency);
+		int capacity = Math.max(INITIAL_CAPACITY, epochDays.length);
+		series.epochDays = Arrays.copyOf(epochDays, capacity);
+		series.size = epochDays.length;
+		for (Map.Entry<String, double[]> entry : columns.entrySet()) {
+			Validate.isTrue(entry.getValue().length == epochDays.length, "Column %s has %d rates for %d days", entry.getKey(),
+					entry.getValue().length, epochDays.length);
+			double[] column = series.getOrCreateColumn(entry.getKey());
+			System.arraycopy(entry.getValue(), 0, column, 0, epochDays.length);
+		}
+		return series;
+	}
+
+	public String getBaseCurrency() {
+		return baseCurrency;
+	}
+
+	/**
+	 * @return the number of days
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @return the currencies of the series, in the order of their columns
+	 */
+	public synchronized List<String> getCurrencies() {
+		return Collections.unmodifiableList(new ArrayList<>(currencies));
+	}
+
+	public synchronized boolean hasCurrency(String currency) {
+		return currency != null && currencyIndexes.containsKey(currency.toUpperCase());
+	}
+
+	public synchronized int getEpochDay(int index) {
+		checkIndex(index);
+		return epochDays[index];
+	}
+
+	public synchronized LocalDate getDate(int index) {
+		return LocalDate.ofEpochDay(getEpochDay(index));
+	}
+
+	/**
+	 * @return the first day, or null if the series is empty
+	 */
+	public synchronized LocalDate getFirstDate() {
+		return size > 0 ? LocalDate.ofEpochDay(epochDays[0]) : null;
+	}
+
+	/**
+	 * @return the last day, or null if the series is empty
+	 */
+	public synchronized LocalDate getLastDate() {
+		return size > 0 ? LocalDate.ofEpochDay(epochDays[size - 1]) : null;
+	}
+
+	/**
+	 * @param currency
+	 *            a 3-digits ISO code
+	 * @param index
+	 *            the index of the day
+	 * @return the rate, 1 for the base currency, NaN if unknown
+	 */
+	public synchronized double getRate(String currency, int index) {
+		checkIndex(index);
+		if (baseCurrency.equalsIgnoreCase(currency)) {
+			return 1.0;
+		}
+		Integer column = currency != null ? currencyIndexes.get(currency.toUpperCase()) : null;
+		if (column == null) {
+			return Double.NaN;
+		}
+		return columns.get(column)[index];
+	}
+
+	/**
+	 * @param currency
+	 *            a 3-digits ISO code
+	 * @param date
+	 *            a date
+	 * @return the rate of the currency on this exact date, NaN if unknown
+	 */
+	public synchronized double getRate(String currency, LocalDate date) {
+		int index = indexOf(date);
+		return index >= 0 ? getRate(currency, index) : Double.NaN;
+	}
+
+	/**
+	 * @param currency
+	 *            a 3-digits ISO code
+	 * @return a copy of the rates of the currency, one per day, NaN when unknown,
+	 *         or null if the currency is not part of the series
+	 */
+	public synchronized double[] getColumn(String currency) {
+		Integer column = currency != null ? currencyIndexes.get(currency.toUpperCase()) : null;
+		if (column == null) {
+			return null;
+		}
+		return Arrays.copyOf(columns.get(column), size);
+	}
+
+	/**
+	 * @return a copy of the days of the series, as epoch days
+	 */
+	public synchronized int[] getEpochDays() {
+		return Arrays.copyOf(epochDays, size);
+	}
+
+	/**
+	 * @param date
+	 *            a date
+	 * @return the index of the date, or (-(insertion point) - 1) if the series
+	 *         does not contain it, like Arrays.binarySearch
+	 */
+	public synchronized int indexOf(LocalDate date) {
+		Validate.notNull(date, "Parameter '%s' cannot be null", "date");
+		return Arrays.binarySearch(epochDays, 0, size, (int) date.toEpochDay());
+	}
+
+	/**
+	 * Finds the day whose rate applies to a date, with a binary search on the days
+	 * followed by a scan of the days without rate for the currency, limited by the
+	 * tolerance.
+	 * 
+	 * @param currency
+	 *            a 3-digits ISO code
+	 * @param date
+	 *            a date
+	 * @param lookup
+	 *            where to look when there is no rate on the date
+	 * @param maxDays
+	 *            the maximum number of days between the date and the day found
+	 * @return the index of the day, or -1 if there is no rate within the
+	 *         tolerance
+	 */
+	public synchronized int indexAsOf(String currency, LocalDate date, Lookup lookup, int maxDays) {
+		Validate.notNull(lookup, "Parameter '%s' cannot be null", "lookup");
+		Validate.isTrue(maxDays >= 0, "Tolerance must be positive: %d", maxDays);
+		double[] column = null;
+		if (!baseCurrency.equalsIgnoreCase(currency)) {
+			Integer c = currency != null ? currencyIndexes.get(currency.toUpperCase()) : null;
+			if (c == null) {
+				return -1;
+			}
+			column = columns.get(c);
+		}
+		int epochDay = (int) date.toEpochDay();
+		int index = indexOf(date);
+		if (index >= 0 && (column == null || !Double.isNaN(column[index]))) {
+			return index;
+		}
+		int insertion = index >= 0 ? index : -index - 1;
+
+		int previous = -1;
+		if (lookup != Lookup.NEXT) {
+			for (int i = insertion - 1; i >= 0 && epochDay - epochDays[i] <= maxDays; i--) {
+				if (column == null || !Double.isNaN(column[i])) {
+					previous = i;
+					break;
+				}
+			}
+		}
+		int next = -1;
+		if (lookup != Lookup.PREVIOUS) {
+			for (int i = index >= 0 ? index + 1 : insertion; i < size && epochDays[i] - epochDay <= maxDays; i++) {
+				if (column == null || !Double.isNaN(column[i])) {
+					next = i;
+					break;
+				}
+			}
+		}
+		if (previous < 0 || next < 0) {
+			return previous >= 0 ? previous : next;
+		}
+		return epochDays[next] - epochDay < epochDay - epochDays[previous] ? next : previous;
+	}
+
+	/**
+	 * @param currency
+	 *            a 3-digits ISO code
+	 * @param date
+	 *            a date
+	 * @param lookup
+	 *            where to look when there is no rate on the date
+	 * @param maxDays
+	 *            the maximum number of days between the date and the day found
+	 * @return the rate applying to the date, with the date of the day found, or
+	 *         null if there is no rate within the tolerance
+	 */
+	public synchronized ExchangeRate getRateAsOf(String currency, LocalDate date, Lookup lookup, int maxDays) {
+		int index = indexAsOf(currency, date, lookup, maxDays);
+		if (index < 0) {
+			return null;
+		}
+		return new ExchangeRate(baseCurrency, currency.toUpperCase(), getRate(currency, index),
+				LocalDate.ofEpochDay(epochDays[index]).toString(), null);
+	}
+
+	/**
+	 * Adds or updates the rates of a day. Currencies not in the rates are left
+	 * unchanged. The listeners are not notified if the rates were already known.
+	 * 
+	 * @param date
+	 *            the day
+	 * @param rates
+	 *            the rate of each currency
+	 */
+	public synchronized void put(LocalDate date, Map<String, Double> rates) {
+		Validate.notNull(rates, "Parameter '%s' cannot be null", "rates");
+		putAll(Collections.singletonMap(date, rates));
+	}
+
+	/**
+	 * Adds or updates the rates of several days. Currencies not in the rates are
+	 * left unchanged. The listeners are notified once for the whole batch: of each
+	 * new day if only days after the last one were added, otherwise of a change
+	 * from the first day changed. They are not notified if all the rates were
+	 * already known.
+	 * 
+	 * @param ratesByDay
+	 *            the rate of each currency, by day
+	 */
+	public synchronized void putAll(Map<LocalDate, Map<String, Double>> ratesByDay) {
+		Validate.notNull(ratesByDay, "Parameter '%s' cannot be null", "ratesByDay");
+		int initialSize = size;
+		int fromIndex = -1;
+		for (Map.Entry<LocalDate, Map<String, Double>> day : ratesByDay.entrySet()) {
+			int index = putDay(day.getKey(), day.getValue());
+			if (index >= 0 && (fromIndex < 0 || index < fromIndex)) {
+				fromIndex = index;
+			}
+		}
+		if (fromIndex < 0) {
+			return;
+		}
+		for (Listener listener : listeners) {
+			if (fromIndex >= initialSize) {
+				for (int index = initialSize; index < size; index++) {
+					listener.onAppend(this, index);
+				}
+			} else {
+				listener.onChange(this, fromIndex);
+			}
+		}
+	}
+
+	/**
+	 * @return the index of the day if it was inserted or if one of its rates
+	 *         changed, -1 if its rates were already known
+	 */
+	private int putDay(LocalDate date, Map<String, Double> rates) {
+		int index = indexOf(date);
+		boolean changed = false;
+		if (index < 0) {
+			index = -index - 1;
+			insertDay(index, (int) date.toEpochDay());
+			changed = true;
+		}
+		for (Map.Entry<String, Double> entry : rates.entrySet()) {
+			if (entry.getValue() != null && !baseCurrency.equalsIgnoreCase(entry.getKey())) {
+				double[] column = getOrCreateColumn(entry.getKey());
+				if (Double.compare(column[index], entry.getValue()) != 0) {
+					column[index] = entry.getValue();
+					changed = true;
+				}
+			}
+		}
+		return changed ? index : -1;
+	}
+
+	/**
+	 * Adds or updates the rates of a snapshot, whose base currency must be the one
+	 * of the series
+	 * 
+	 * @param snapshot
+	 *            the rates of one day
+	 */
+	public synchronized void put(RateSnapshot snapshot) {
+		Validate.isTrue(baseCurrency.equals(snapshot.getBaseCurrency()), "Snapshot in %s, series in %s", snapshot.getBaseCurrency(),
+				baseCurrency);
+		Map<String, Double> rates = new HashMap<>();
+		for (String currency : snapshot.getCurrencies()) {
+			rates.put(currency, snapshot.getRate(currency));
+		}
+		put(LocalDate.parse(snapshot.getDate()), rates);
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	private void insertDay(int index, int epochDay) {
+		if (size == epochDays.length) {
+			int capacity = epochDays.length * 2;
+			epochDays = Arrays.copyOf(epochDays, capacity);
+			for (int c = 0; c < columns.size(); c++) {
+				double[] column = Arrays.copyOf(columns.get(c), capacity);
+				Arrays.fill(column, size, capacity, Double.NaN);
+				columns.set(c, column);
+			}
+		}
+		if (index < size) {
+			log.debug("Day {} inserted before {} days", LocalDate.ofEpochDay(epochDay), size - index);
+			System.arraycopy(epochDays, index, epochDays, index + 1, size - index);
+			for (double[] column : columns) {
+				System.arraycopy(column, index, column, index + 1, size - index);
+			}
+		}
+		epochDays[index] = epochDay;
+		for (double[] column : columns) {
+			column[index] = Double.NaN;
+		}
+		size++;
+	}
+
+	private double[] getOrCreateColumn(String currency) {
+		String code = currency.toUpperCase();
+		Integer column = currencyIndexes.get(code);
+		if (column == null) {
+			double[] values = new double[epochDays.length];
+			Arrays.fill(values, Double.NaN);
+			column = columns.size();
+			columns.add(values);
+			currencies.add(code);
+			currencyIndexes.put(code, column);
+		}
+		return columns.get(column);
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+		}
+	}
+
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.request;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.upandcoding.fixer.FixerException;
+
+/**
+ * Stops sending requests to an endpoint that keeps failing.
+ * <ul>
+ * <li>CLOSED: requests are sent. After failureThreshold consecutive failures,
+ * the circuit opens.</li>
+ * <li>OPEN: requests are rejected at once, without waiting for a timeout. After
+ * openDurationMillis, the circuit becomes half-open.</li>
+ * <li>HALF_OPEN: a single request (the probe) is sent, others are rejected. The
+ * circuit closes if the probe succeeds and opens again if it fails.</li>
+ * </ul>
+ * Only transient errors (network errors, HTTP 408, 429 and 5xx) are failures:
+ * an error returned by the Fixer API shows that the service is up.
+ * 
+ * @author Lionel Conforto
+ *
+ */
+public class CircuitBreaker {
+
+	private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final String name;
+	private final int failureThreshold;
+	private final long openDurationMillis;
+
+	private State state = State.CLOSED;
+	private int consecutiveFailures = 0;
+	private long openedAt = 0;
+	private boolean probeInFlight = false;
+
+	private long rejectedCount = 0;
+	private long openCount = 0;
+
+	/**
+	 * @param name
+	 *            name of the protected endpoint, for logs and errors
+	 * @param failureThreshold
+	 *            number of consecutive failures that opens the circuit
+	 * @param openDurationMillis
+	 *            time during which requests are rejected before a probe is sent
+	 */
+	public CircuitBreaker(String name, int failureThreshold, long openDurationMillis) {
+		this.name = name;
+		this.failureThreshold = failureThreshold;
+		this.openDurationMillis = openDurationMillis;
+	}
+
+	/**
+	 * Tells whether a request may be sent. When true is returned, the caller must
+	 * report the outcome with onSuccess, onFailure, onError or onIgnored.
+	 * 
+	 * @return false if the request must be rejected
+	 */
+	public synchronized boolean allowRequest() {
+		switch (state) {
+		case CLOSED:
+			return true;
+		case OPEN:
+			if (System.currentTimeMillis() - openedAt >= openDurationMillis) {
+				log.debug("Circuit '{}' half-open: sending a probe", name);
+				state = State.HALF_OPEN;
+				probeInFlight = true;
+				return true;
+			}
+			rejectedCount++;
+			return false;
+		default:
+			if (!probeInFlight) {
+				probeInFlight = true;
+				return true;
+			}
+			rejectedCount++;
+			return false;
+		}
+	}
+
+	public synchronized void onSuccess() {
+		if (state != State.CLOSED) {
+			log.debug("Circuit '{}' closed", name);
+		}
+		state = State.CLOSED;
+		consecutiveFailures = 0;
+		probeInFlight = false;
+	}
+
+	public synchronized void onFailure() {
+		probeInFlight = false;
+		consecutiveFailures++;
+		if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+			if (state != State.OPEN) {
+				openCount++;
+			}
+			log.debug("Circuit '{}' open after {} consecutive failures", name, consecutiveFailures);
+			state = State.OPEN;
+			openedAt = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Reports a request whose outcome says nothing about the endpoint, such as an
+	 * aborted request or a request rejected locally: the state is left unchanged,
+	 * but another probe may be sent.
+	 */
+	public synchronized void onIgnored() {
+		probeInFlight = false;
+	}
+
+	/**
+	 * Reports a request that failed: only transient errors count as failures,
+	 * aborted requests and requests rejected locally by the quota governor are
+	 * ignored.
+	 * 
+	 * @param e
+	 */
+	public void onError(FixerException e) {
+		if (isFailure(e)) {
+			onFailure();
+		} else if (isIgnored(e)) {
+			onIgnored();
+		} else {
+			onSuccess();
+		}
+	}
+
+	/**
+	 * @param e
+	 * @return true if the request did not reach the endpoint or was aborted
+	 */
+	private static boolean isIgnored(FixerException e) {
+		String type = e.getFixerType();
+		return "request_aborted".equals(type) || Deadline.TYPE_DEADLINE_EXCEEDED.equals(type)
+				|| QuotaGovernor.TYPE_RATE_LIMITED.equals(type) || QuotaGovernor.TYPE_BUDGET_EXHAUSTED.equals(type);
+	}
+
+	/**
+	 * @param e
+	 * @return true if the error shows that the endpoint is unavailable
+	 */
+	public static boolean isFailure(FixerException e) {
+		if (RetryPolicy.TYPE_NETWORK_ERROR.equals(e.getFixerType()) || RetryPolicy.TYPE_TIMEOUT.equals(e.getFixerType())) {
+			return true;
+		}
+		if (RetryPolicy.TYPE_HTTP_ERROR.equals(e.getFixerType())) {
+			int status = e.getFixerCode();
+			return status >= 500 || status == 408 || status == 429;
+		}
+		return false;
+	}
+
+	/**
+	 * @return a CircuitOpenException for a rejected request
+	 */
+	public synchronized CircuitOpenException newOpenException() {
+		long retryIn = Math.max(0, openDurationMillis - (System.currentTimeMillis() - openedAt));
+		return new CircuitOpenException(name, "Circuit open for endpoint '" + name + "': request rejected, next attempt in " + retryIn + " ms");
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	public synchronized int getConsecutiveFailures() {
+		return consecutiveFailures;
+	}
+
+	public synchronized long getRejectedCount() {
+		return rejectedCount;
+	}
+
+	public synchronized long getOpenCount() {
+		return openCount;
+	}
+
+	public int getFailureThreshold() {
+		return failureThreshold;
+	}
+
+	public long getOpenDurationMillis() {
+		return openDurationMillis;
+	}
+
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.request;
+
+import com.upandcoding.fixer.FixerException;
+
+/**
+ * Raised when a request is rejected because the circuit breaker of its
+ * endpoint is open. Its Fixer type is 'circuit_open'.
+ * 
+ * @See CircuitBreaker
+ * 
+ * @author Lionel Conforto
+ *
+ */
+@SuppressWarnings("serial")
+public class CircuitOpenException extends FixerException {
+
+	public static final String TYPE = "circuit_open";
+
+	private final String endpointType;
+
+	public CircuitOpenException(String endpointType, String message) {
+		super(0, TYPE, message);
+		this.endpointType = endpointType;
+	}
+
+	public String getEndpointType() {
+		return endpointType;
+	}
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.request;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import org.apache.commons.lang3.Validate;
+
+import com.upandcoding.fixer.FixerException;
+
+/**
+ * The point in time after which a call to the Fixer API is abandoned. Can be
+ * built from a duration, counted from now, or from an absolute instant.
+ * 
+ * @author Lionel Conforto
+ *
+ */
+public final class Deadline {
+
+	public static final String TYPE_DEADLINE_EXCEEDED = "deadline_exceeded";
+
+	private final long expiresAtMillis;
+
+	private Deadline(long expiresAtMillis) {
+		this.expiresAtMillis = expiresAtMillis;
+	}
+
+	/**
+	 * @param timeout
+	 *            the time given to the call, from now
+	 * @return the deadline
+	 */
+	public static Deadline after(Duration timeout) {
+		Validate.notNull(timeout, "Parameter '%s' cannot be null", "timeout");
+		return new Deadline(System.currentTimeMillis() + timeout.toMillis());
+	}
+
+	/**
+	 * @param instant
+	 *            the absolute deadline
+	 * @return the deadline
+	 */
+	public static Deadline at(Instant instant) {
+		Validate.notNull(instant, "Parameter '%s' cannot be null", "instant");
+		return new Deadline(instant.toEpochMilli());
+	}
+
+	/**
+	 * @return the deadline in milliseconds since the epoch
+	 */
+	public long getExpiresAtMillis() {
+		return expiresAtMillis;
+	}
+
+	public Instant getExpiresAt() {
+		return Instant.ofEpochMilli(expiresAtMillis);
+	}
+
+	/**
+	 * @return the time left in milliseconds, 0 if the deadline has passed
+	 */
+	public long getRemainingMillis() {
+		return Math.max(0, expiresAtMillis - System.currentTimeMillis());
+	}
+
+	public boolean isExpired() {
+		return System.currentTimeMillis() >= expiresAtMillis;
+	}
+
+	/**
+	 * @param other
+	 *            another deadline, may be null
+	 * @return the earliest of the two deadlines
+	 */
+	public Deadline earliest(Deadline other) {
+		if (other == null || expiresAtMillis <= other.expiresAtMillis) {
+			return this;
+		}
+		return other;
+	}
+
+	/**
+	 * @param what
+	 *            description of the abandoned call, typically a request key
+	 * @return the exception thrown when a call is abandoned
+	 */
+	public FixerException newExceededException(String what) {
+		return new FixerException(0, TYPE_DEADLINE_EXCEEDED, "Deadline " + getExpiresAt() + " exceeded for: " + what);
+	}
+
+	@Override
+	public String toString() {
+		return "Deadline " + getExpiresAt();
+	}
+
+}
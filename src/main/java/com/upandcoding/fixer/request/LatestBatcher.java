@@ -0,0 +1,431 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.request;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.upandcoding.fixer.FixerException;
+import com.upandcoding.fixer.model.ExchangeRate;
+
+/**
+ * Groups the requests for latest rates sent within a short window into one
+ * request.
+ * <p>
+ * The first caller for a base currency opens a batch for the window.
+ * Meanwhile, other callers for the same base add their symbols to the batch.
+ * Then the union of the symbols is requested at once (or in several requests if
+ * the symbols parameter would be longer than maxSymbolsLength) and each caller
+ * receives the rates of its own symbols.
+ * <p>
+ * If a batched request fails because of an invalid currency code, each caller
+ * sends its own request, so that one invalid symbol does not fail the other
+ * callers.
+ * <p>
+ * Each caller waits for the batch until its own deadline, if any, and stops
+ * waiting if its call is cancelled, without failing the other callers. The
+ * batch is loaded by the first caller still waiting when the window closes, but
+ * outside of its call: its requests have the latest deadline of the callers
+ * still waiting, and are aborted only once all the callers have given up.
+ * 
+ * @author Lionel Conforto
+ *
+ */
+public class LatestBatcher {
+
+	private static final Logger log = LoggerFactory.getLogger(LatestBatcher.class);
+
+	public static final int DEFAULT_MAX_SYMBOLS_LENGTH = 1500;
+
+	private static final int ERR_INVALID_CURRENCY_CODES = 202;
+
+	/**
+	 * Actually loads the latest rates
+	 */
+	public interface LatestLoader {
+
+		/**
+		 * Loads the rates outside of the call in progress on the thread, if any
+		 * 
+		 * @param symbols
+		 *            a comma separated list of currency symbols
+		 * @param currency
+		 *            the base currency
+		 * @param deadline
+		 *            the deadline of the requests, null if none
+		 * @param cancellation
+		 *            completed to abort the requests, null if they cannot be
+		 */
+		List<ExchangeRate> load(String symbols, String currency, Deadline deadline, CompletableFuture<?> cancellation)
+				throws FixerException, JsonParseException, IOException;
+	}
+
+	/**
+	 * Symbols requested for a base currency during a window
+	 */
+	private static class Batch {
+		final Set<String> symbols = new TreeSet<>();
+		final CompletableFuture<Map<String, ExchangeRate>> result = new CompletableFuture<>();
+		// Completed when no caller waits for the batch any more
+		final CompletableFuture<Void> abandoned = new CompletableFuture<>();
+		final long closesAtNanos;
+		// Deadlines of the callers still waiting, null for a caller without deadline
+		final List<Deadline> deadlines = new ArrayList<>();
+		int callers = 0;
+		boolean loading = false;
+
+		Batch(long closesAtNanos) {
+			this.closesAtNanos = closesAtNanos;
+		}
+
+		/**
+		 * @return the latest deadline of the callers still waiting, null if one of
+		 *         them has none
+		 */
+		Deadline getLatestDeadline() {
+			Deadline latest = null;
+			for (Deadline deadline : deadlines) {
+				if (deadline == null) {
+					return null;
+				}
+				if (latest == null || deadline.getExpiresAtMillis() > latest.getExpiresAtMillis()) {
+					latest = deadline;
+				}
+			}
+			return latest;
+		}
+	}
+
+	private final LatestLoader loader;
+	private final long windowMillis;
+	private int maxSymbolsLength = DEFAULT_MAX_SYMBOLS_LENGTH;
+
+	// Batches still accepting symbols, by base currency
+	private final Map<String, Batch> openBatches = new HashMap<>();
+
+	private long batchCount = 0;
+	private long requestCount = 0;
+
+	/**
+	 * @param loader
+	 *            loads the latest rates
+	 * @param windowMillis
+	 *            duration of the window during which requests are grouped
+	 */
+	public LatestBatcher(LatestLoader loader, long windowMillis) {
+		this.loader = loader;
+		this.windowMillis = windowMillis;
+	}
+
+	/**
+	 * Returns the latest rates of the symbols, possibly loaded together with the
+	 * symbols of other callers.
+	 * 
+	 * @param symbols
+	 *            a list of currency symbols
+	 * @param currency
+	 *            the base currency
+	 * @return the exchange rates, in the order of the symbols
+	 * 
+	 * @throws FixerException
+	 * @throws JsonParseException
+	 * @throws IOException
+	 */
+	public List<ExchangeRate> getLatest(Collection<String> symbols, String currency) throws FixerException, JsonParseException, IOException {
+		return getLatest(symbols, currency, null, null);
+	}
+
+	/**
+	 * Returns the latest rates of the symbols, possibly loaded together with the
+	 * symbols of other callers, waiting for the batch until a deadline.
+	 * 
+	 * @param symbols
+	 *            a list of currency symbols
+	 * @param currency
+	 *            the base currency
+	 * @param deadline
+	 *            the deadline of the call, null if none
+	 * @param cancellation
+	 *            completed when the call is cancelled, null if it cannot be
+	 * @return the exchange rates, in the order of the symbols
+	 * 
+	 * @throws FixerException
+	 *             of type 'deadline_exceeded' if the deadline is reached while
+	 *             waiting for the batch, 'request_aborted' if the call is cancelled
+	 * @throws JsonParseException
+	 * @throws IOException
+	 */
+	public List<ExchangeRate> getLatest(Collection<String> symbols, String currency, Deadline deadline, CompletableFuture<?> cancellation)
+			throws FixerException, JsonParseException, IOException {
+
+		Set<String> requested = new LinkedHashSet<>();
+		for (String symbol : symbols) {
+			if (StringUtils.isNotBlank(symbol)) {
+				requested.add(symbol.trim().toUpperCase());
+			}
+		}
+
+		final Batch batch;
+		synchronized (openBatches) {
+			Batch open = openBatches.get(currency);
+			if (open == null) {
+				open = new Batch(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(windowMillis));
+				openBatches.put(currency, open);
+			}
+			batch = open;
+			batch.symbols.addAll(requested);
+			batch.callers++;
+			batch.deadlines.add(deadline);
+		}
+
+		Map<String, ExchangeRate> rates;
+		final AtomicBoolean left = new AtomicBoolean(false);
+		try {
+			long windowNanos = batch.closesAtNanos - System.nanoTime();
+			if (windowNanos <= 0 || !await(batch.result, currency, deadline, cancellation, windowNanos)) {
+				if (claim(batch, currency)) {
+					// Loaded on this thread, but given up when this call is cancelled
+					if (cancellation != null) {
+						cancellation.whenComplete((r, e) -> leave(batch, currency, deadline, left));
+					}
+					loadBatch(batch, currency);
+					if (cancellation != null && cancellation.isDone()) {
+						throw new FixerException(0, "request_aborted", "Call cancelled while loading the latest " + currency + " rates");
+					}
+					if (deadline != null && deadline.isExpired()) {
+						throw deadline.newExceededException("batch of latest " + currency + " rates");
+					}
+				} else {
+					await(batch.result, currency, deadline, cancellation, 0);
+				}
+			}
+			rates = batch.result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new FixerException("Interrupted while waiting for the latest rates", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof FixerException) {
+				FixerException fe = (FixerException) cause;
+				if (fe.getFixerCode() == ERR_INVALID_CURRENCY_CODES && batch.callers > 1) {
+					log.debug("Batch failed on invalid currency codes, loading {} alone", requested);
+					return loader.load(String.join(",", requested), currency, deadline, cancellation);
+				}
+				throw fe;
+			} else if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new FixerException(cause);
+		} finally {
+			leave(batch, currency, deadline, left);
+		}
+
+		List<ExchangeRate> result = new ArrayList<>();
+		for (String symbol : requested) {
+			ExchangeRate rate = rates.get(symbol);
+			if (rate != null) {
+				result.add(rate);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Waits for the result of a batch, until the deadline or the cancellation of
+	 * the call
+	 * 
+	 * @param maxNanos
+	 *            the maximum time to wait, 0 to wait until the deadline
+	 * @return true if the result is done, false if maxNanos elapsed first
+	 */
+	private static boolean await(CompletableFuture<?> result, String currency, Deadline deadline, CompletableFuture<?> cancellation,
+			long maxNanos) throws FixerException, InterruptedException {
+		CompletableFuture<?> signal = cancellation != null ? CompletableFuture.anyOf(result, cancellation) : result;
+		long timeoutNanos = maxNanos;
+		boolean deadlineFirst = false;
+		if (deadline != null) {
+			long remainingNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(deadline.getRemainingMillis(), 0));
+			if (maxNanos <= 0 || remainingNanos <= maxNanos) {
+				timeoutNanos = remainingNanos;
+				deadlineFirst = true;
+			}
+		}
+		try {
+			if (deadlineFirst || timeoutNanos > 0) {
+				signal.get(timeoutNanos, TimeUnit.NANOSECONDS);
+			} else {
+				signal.get();
+			}
+		} catch (TimeoutException e) {
+			if (!result.isDone()) {
+				if (deadlineFirst) {
+					throw deadline.newExceededException("batch of latest " + currency + " rates");
+				}
+				return false;
+			}
+		} catch (ExecutionException e) {
+			// Reported by the result
+		}
+		if (!result.isDone()) {
+			throw new FixerException(0, "request_aborted", "Call cancelled while waiting for the latest " + currency + " rates");
+		}
+		return true;
+	}
+
+	/**
+	 * Closes a batch once its window has elapsed
+	 * 
+	 * @return true if the caller must load the batch, false if another caller
+	 *         already does
+	 */
+	private boolean claim(Batch batch, String currency) {
+		synchronized (openBatches) {
+			if (batch.loading) {
+				return false;
+			}
+			batch.loading = true;
+			if (openBatches.get(currency) == batch) {
+				openBatches.remove(currency);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * A caller stops waiting for a batch. The last one abandons the batch: it is
+	 * not loaded if it is still open, its requests are aborted otherwise.
+	 */
+	private void leave(Batch batch, String currency, Deadline deadline, AtomicBoolean left) {
+		if (!left.compareAndSet(false, true)) {
+			return;
+		}
+		boolean abandoned;
+		synchronized (openBatches) {
+			batch.deadlines.remove(deadline);
+			abandoned = batch.deadlines.isEmpty();
+			if (abandoned && !batch.loading && openBatches.get(currency) == batch) {
+				openBatches.remove(currency);
+			}
+		}
+		if (abandoned) {
+			batch.abandoned.complete(null);
+		}
+	}
+
+	private void loadBatch(Batch batch, String currency) {
+		int callers;
+		Deadline deadline;
+		synchronized (openBatches) {
+			callers = batch.callers;
+			deadline = batch.getLatestDeadline();
+			batchCount++;
+		}
+		log.debug("Loading batch of {} callers for base {}: {}", callers, currency, batch.symbols);
+		try {
+			Map<String, ExchangeRate> rates = new HashMap<>();
+			for (String symbols : split(batch.symbols)) {
+				synchronized (openBatches) {
+					requestCount++;
+				}
+				for (ExchangeRate rate : loader.load(symbols, currency, deadline, batch.abandoned)) {
+					rates.put(rate.getTargetCurrency(), rate);
+				}
+			}
+			batch.result.complete(rates);
+		} catch (Exception e) {
+			batch.result.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * Splits the symbols into comma separated lists no longer than
+	 * maxSymbolsLength
+	 */
+	List<String> split(Set<String> symbols) {
+		List<String> groups = new ArrayList<>();
+		StringBuilder group = new StringBuilder();
+		for (String symbol : symbols) {
+			if (group.length() > 0 && group.length() + 1 + symbol.length() > maxSymbolsLength) {
+				groups.add(group.toString());
+				group.setLength(0);
+			}
+			if (group.length() > 0) {
+				group.append(',');
+			}
+			group.append(symbol);
+		}
+		if (group.length() > 0) {
+			groups.add(group.toString());
+		}
+		return groups;
+	}
+
+	public long getWindowMillis() {
+		return windowMillis;
+	}
+
+	public int getMaxSymbolsLength() {
+		return maxSymbolsLength;
+	}
+
+	/**
+	 * Sets the maximum length of the symbols parameter of a request. Batches with
+	 * more symbols are split into several requests.
+	 * 
+	 * @param maxSymbolsLength
+	 */
+	public void setMaxSymbolsLength(int maxSymbolsLength) {
+		this.maxSymbolsLength = maxSymbolsLength;
+	}
+
+	/**
+	 * @return the number of batches loaded
+	 */
+	public long getBatchCount() {
+		synchronized (openBatches) {
+			return batchCount;
+		}
+	}
+
+	/**
+	 * @return the number of requests sent to load batches
+	 */
+	public long getRequestCount() {
+		synchronized (openBatches) {
+			return requestCount;
+		}
+	}
+
+}
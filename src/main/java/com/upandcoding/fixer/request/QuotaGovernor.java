@@ -0,0 +1,630 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.request;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZonedDateTime;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.upandcoding.fixer.FixerException;
+
+/**
+ * Keeps the requests sent to the Fixer API within the limits of the plan.
+ * <ul>
+ * <li>Rate: a token bucket allows permitsPerSecond requests per second on
+ * average, with bursts of up to burstSize requests.</li>
+ * <li>Monthly budget: no more than monthlyLimit requests are sent in a calendar
+ * month. The count can be persisted to a local file, so that it survives
+ * restarts. The file is written every saveEveryRequests requests or
+ * saveEveryMillis, when the quota is reached and on close, never while a
+ * request waits for the governor.</li>
+ * <li>Priorities: while an interactive request is waiting for a token, backfill
+ * requests wait. The last backfillReserve fraction of the monthly budget is
+ * reserved for interactive requests.</li>
+ * </ul>
+ * The governor also projects the date at which the budget will be exhausted at
+ * the current pace, and warns its listener once a month when this date falls
+ * before the end of the month. No date is projected from the first few requests
+ * of the month: see getProjectedExhaustion.
+ * <p>
+ * A governor can be shared by several loaders using the same access key.
+ * 
+ * @author Lionel Conforto
+ *
+ */
+public class QuotaGovernor implements Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger(QuotaGovernor.class);
+
+	// Same code as the error returned by the Fixer API when the quota is reached
+	public static final int ERR_QUOTA_REACHED = 104;
+
+	public static final String TYPE_BUDGET_EXHAUSTED = "local_quota_exhausted";
+
+	// Minimum part of the month elapsed, or of the budget used, for a projection
+	private static final double MIN_PROJECTION_ELAPSED = 0.05;
+	private static final double MIN_PROJECTION_USED = 0.1;
+	public static final String TYPE_RATE_LIMITED = "local_rate_limited";
+
+	public enum Priority {
+		INTERACTIVE, BACKFILL
+	}
+
+	/**
+	 * Receives the warnings of the governor
+	 */
+	public interface Listener {
+
+		/**
+		 * Called once a month, when the projected exhaustion date first falls before
+		 * the end of the month
+		 * 
+		 * @param projectedExhaustion
+		 *            date at which the budget will be exhausted at the current pace
+		 * @param used
+		 *            requests sent this month
+		 * @param monthlyLimit
+		 *            requests allowed per month
+		 */
+		void onProjectedExhaustion(LocalDateTime projectedExhaustion, long used, long monthlyLimit);
+	}
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition changed = lock.newCondition();
+
+	// Token bucket
+	private final double permitsPerSecond;
+	private double burstSize = 1;
+	private double tokens;
+	private long lastRefillNanos;
+
+	// Monthly budget
+	private final long monthlyLimit;
+	private double backfillReserve = 0.1;
+	private YearMonth month;
+	private long used = 0;
+	private boolean exhausted = false;
+	private Path stateFile;
+
+	// Persistence of the monthly budget
+	private final ReentrantLock saveLock = new ReentrantLock();
+	private int saveEveryRequests = 10;
+	private long saveEveryMillis = 5000;
+	private long stateVersion = 0;
+	private long savedVersion = 0;
+	private int unsavedRequests = 0;
+	private long lastSaveNanos = System.nanoTime();
+
+	private Clock clock = Clock.systemUTC();
+	private long maxWaitMillis = 30000;
+	private volatile Listener listener;
+	private boolean warned = false;
+	private int interactiveWaiting = 0;
+
+	private long interactiveCount = 0;
+	private long backfillCount = 0;
+	private long rejectedCount = 0;
+
+	/**
+	 * @param permitsPerSecond
+	 *            average number of requests per second, 0 for no rate limit
+	 * @param monthlyLimit
+	 *            number of requests per calendar month, 0 for no budget
+	 */
+	public QuotaGovernor(double permitsPerSecond, long monthlyLimit) {
+		this.permitsPerSecond = permitsPerSecond;
+		this.monthlyLimit = monthlyLimit;
+		this.tokens = burstSize;
+		this.lastRefillNanos = System.nanoTime();
+		this.month = YearMonth.now(clock);
+	}
+
+	/**
+	 * Waits until a request may be sent and counts it in the monthly budget.
+	 * 
+	 * @param priority
+	 *            priority of the request
+	 * 
+	 * @throws FixerException
+	 *             if the monthly budget is exhausted, or if no token was available
+	 *             within maxWaitMillis
+	 */
+	public void acquire(Priority priority) throws FixerException {
+		long waitLimit = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+		LocalDateTime projected = null;
+		long usedNow = 0;
+		lock.lock();
+		try {
+			if (priority == Priority.INTERACTIVE) {
+				interactiveWaiting++;
+			}
+			try {
+				while (true) {
+					checkBudget(priority);
+					refill();
+					boolean yield = priority == Priority.BACKFILL && interactiveWaiting > 0;
+					if (!yield && tokens >= 1) {
+						tokens -= 1;
+						consume(priority);
+						projected = checkProjection();
+						usedNow = used;
+						break;
+					}
+					long waitNanos = waitLimit - System.nanoTime();
+					if (waitNanos <= 0) {
+						rejectedCount++;
+						throw new FixerException(0, TYPE_RATE_LIMITED, "No request allowed by the rate limit within " + maxWaitMillis + " ms");
+					}
+					if (!yield) {
+						waitNanos = Math.min(waitNanos, nanosToNextToken());
+					}
+					changed.awaitNanos(waitNanos);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new FixerException("Interrupted while waiting for the rate limit", e);
+			} finally {
+				if (priority == Priority.INTERACTIVE) {
+					interactiveWaiting--;
+					changed.signalAll();
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (projected != null) {
+			warnProjectedExhaustion(projected, usedNow);
+		}
+		saveState(false);
+	}
+
+	/**
+	 * Records that the Fixer API reported the quota as reached: no more request is
+	 * allowed until the end of the month.
+	 */
+	public void markExhausted() {
+		lock.lock();
+		try {
+			rollMonth();
+			exhausted = true;
+			stateVersion++;
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		saveState(true);
+	}
+
+	/**
+	 * Writes the monthly count to the state file if it changed since it was last
+	 * saved
+	 */
+	public void flush() {
+		saveState(true);
+	}
+
+	/**
+	 * Writes the monthly count to the state file, see flush
+	 */
+	@Override
+	public void close() {
+		flush();
+	}
+
+	private void checkBudget(Priority priority) throws FixerException {
+		rollMonth();
+		if (exhausted) {
+			rejectedCount++;
+			throw new FixerException(ERR_QUOTA_REACHED, TYPE_BUDGET_EXHAUSTED, "Monthly request quota reached for " + month);
+		}
+		if (monthlyLimit <= 0) {
+			return;
+		}
+		long limit = monthlyLimit;
+		if (priority == Priority.BACKFILL) {
+			limit = monthlyLimit - (long) Math.ceil(monthlyLimit * backfillReserve);
+		}
+		if (used >= limit) {
+			rejectedCount++;
+			throw new FixerException(ERR_QUOTA_REACHED, TYPE_BUDGET_EXHAUSTED,
+					"Monthly request budget exhausted for " + priority + " requests: " + used + " of " + monthlyLimit + " used in " + month);
+		}
+	}
+
+	private void consume(Priority priority) {
+		used++;
+		if (priority == Priority.INTERACTIVE) {
+			interactiveCount++;
+		} else {
+			backfillCount++;
+		}
+		stateVersion++;
+		unsavedRequests++;
+	}
+
+	private void refill() {
+		if (permitsPerSecond <= 0) {
+			tokens = burstSize;
+			return;
+		}
+		long now = System.nanoTime();
+		double added = (now - lastRefillNanos) / 1e9 * permitsPerSecond;
+		tokens = Math.min(burstSize, tokens + added);
+		lastRefillNanos = now;
+	}
+
+	private long nanosToNextToken() {
+		if (permitsPerSecond <= 0) {
+			return 0;
+		}
+		return Math.max(1, (long) ((1 - tokens) / permitsPerSecond * 1e9));
+	}
+
+	private void rollMonth() {
+		YearMonth current = YearMonth.now(clock);
+		if (!current.equals(month)) {
+			log.debug("New month {}: resetting the request budget ({} requests used in {})", current, used, month);
+			month = current;
+			used = 0;
+			exhausted = false;
+			warned = false;
+			stateVersion++;
+			// Saved with the next request
+			unsavedRequests = saveEveryRequests;
+		}
+	}
+
+	/**
+	 * Projects the date at which the monthly budget will be exhausted, at the
+	 * average pace observed since the beginning of the month. The pace of the first
+	 * requests of the month means little: a date is projected only once 5% of the
+	 * month has elapsed, or 10% of the budget has been used.
+	 * 
+	 * @return the projected date, or null if there is no budget or too few
+	 *         requests yet
+	 */
+	public LocalDateTime getProjectedExhaustion() {
+		lock.lock();
+		try {
+			rollMonth();
+			if (monthlyLimit <= 0 || used == 0) {
+				return null;
+			}
+			ZonedDateTime now = ZonedDateTime.now(clock);
+			ZonedDateTime monthStart = month.atDay(1).atStartOfDay(clock.getZone());
+			long elapsedMillis = Duration.between(monthStart, now).toMillis();
+			long monthMillis = Duration.between(monthStart, month.plusMonths(1).atDay(1).atStartOfDay(clock.getZone())).toMillis();
+			if (elapsedMillis <= 0
+					|| (elapsedMillis < monthMillis * MIN_PROJECTION_ELAPSED && used < monthlyLimit * MIN_PROJECTION_USED)) {
+				return null;
+			}
+			double perMilli = (double) used / elapsedMillis;
+			long remainingMillis = (long) (Math.max(0, monthlyLimit - used) / perMilli);
+			return now.plus(Duration.ofMillis(remainingMillis)).toLocalDateTime();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return true if the budget will be exhausted before the end of the month at
+	 *         the current pace
+	 */
+	public boolean isExhaustionProjected() {
+		LocalDateTime projected = getProjectedExhaustion();
+		return projected != null && projected.isBefore(month.plusMonths(1).atDay(1).atStartOfDay());
+	}
+
+	/**
+	 * @return the projected exhaustion date if the listener must be warned, once
+	 *         the lock is released, null otherwise
+	 */
+	private LocalDateTime checkProjection() {
+		if (warned || monthlyLimit <= 0) {
+			return null;
+		}
+		LocalDateTime projected = getProjectedExhaustion();
+		if (projected != null && projected.isBefore(month.plusMonths(1).atDay(1).atStartOfDay())) {
+			warned = true;
+			return projected;
+		}
+		return null;
+	}
+
+	private void warnProjectedExhaustion(LocalDateTime projected, long usedNow) {
+		log.warn("Monthly request budget projected to be exhausted on {} ({} of {} used)", projected, usedNow, monthlyLimit);
+		Listener current = listener;
+		if (current != null) {
+			current.onProjectedExhaustion(projected, usedNow, monthlyLimit);
+		}
+	}
+
+	/**
+	 * Sets the file in which the monthly count is persisted, and loads the count it
+	 * contains if any.
+	 * 
+	 * @param stateFile
+	 * @throws IOException
+	 */
+	public void setStateFile(Path stateFile) throws IOException {
+		lock.lock();
+		try {
+			this.stateFile = stateFile;
+			if (Files.exists(stateFile)) {
+				Properties properties = new Properties();
+				try (InputStream in = Files.newInputStream(stateFile)) {
+					properties.load(in);
+				}
+				YearMonth savedMonth = YearMonth.parse(properties.getProperty("month"));
+				if (savedMonth.equals(YearMonth.now(clock))) {
+					month = savedMonth;
+					used = Long.parseLong(properties.getProperty("used", "0"));
+					exhausted = Boolean.parseBoolean(properties.getProperty("exhausted", "false"));
+				}
+				log.debug("Request budget loaded from {}: {} used in {}", stateFile, used, month);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes the state file outside the lock of the governor, from a snapshot of
+	 * the state taken under it. A save that is not forced is skipped while another
+	 * thread is writing the file.
+	 * 
+	 * @param force
+	 *            true to save even if fewer than saveEveryRequests requests were
+	 *            counted during the last saveEveryMillis
+	 */
+	private void saveState(boolean force) {
+		if (force) {
+			saveLock.lock();
+		} else if (!saveLock.tryLock()) {
+			return;
+		}
+		try {
+			Path file;
+			long version;
+			Properties properties = new Properties();
+			lock.lock();
+			try {
+				file = stateFile;
+				if (file == null || stateVersion == savedVersion) {
+					return;
+				}
+				long now = System.nanoTime();
+				if (!force && unsavedRequests < saveEveryRequests && now - lastSaveNanos < TimeUnit.MILLISECONDS.toNanos(saveEveryMillis)) {
+					return;
+				}
+				version = stateVersion;
+				unsavedRequests = 0;
+				lastSaveNanos = now;
+				properties.setProperty("month", month.toString());
+				properties.setProperty("used", Long.toString(used));
+				properties.setProperty("exhausted", Boolean.toString(exhausted));
+			} finally {
+				lock.unlock();
+			}
+
+			try {
+				Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+				try (OutputStream out = Files.newOutputStream(tmpFile)) {
+					properties.store(out, "jFixer request budget");
+				}
+				Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				savedVersion = version;
+			} catch (IOException e) {
+				log.warn("Unable to save the request budget to {}: {}", file, e.getLocalizedMessage());
+			}
+		} finally {
+			saveLock.unlock();
+		}
+	}
+
+	public double getPermitsPerSecond() {
+		return permitsPerSecond;
+	}
+
+	public double getBurstSize() {
+		return burstSize;
+	}
+
+	/**
+	 * Sets the number of requests that can be sent at once after a quiet period
+	 * 
+	 * @param burstSize
+	 */
+	public void setBurstSize(double burstSize) {
+		lock.lock();
+		try {
+			this.burstSize = burstSize;
+			this.tokens = Math.min(tokens, burstSize);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getMonthlyLimit() {
+		return monthlyLimit;
+	}
+
+	public double getBackfillReserve() {
+		return backfillReserve;
+	}
+
+	/**
+	 * Sets the fraction of the monthly budget that backfill requests cannot use
+	 * 
+	 * @param backfillReserve
+	 *            a value between 0 and 1, 0.1 by default
+	 */
+	public void setBackfillReserve(double backfillReserve) {
+		this.backfillReserve = backfillReserve;
+	}
+
+	public long getMaxWaitMillis() {
+		return maxWaitMillis;
+	}
+
+	/**
+	 * Sets the maximum time a request waits for the rate limit before failing
+	 * 
+	 * @param maxWaitMillis
+	 */
+	public void setMaxWaitMillis(long maxWaitMillis) {
+		this.maxWaitMillis = maxWaitMillis;
+	}
+
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	public void setClock(Clock clock) {
+		lock.lock();
+		try {
+			this.clock = clock;
+			rollMonth();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public Path getStateFile() {
+		return stateFile;
+	}
+
+	public int getSaveEveryRequests() {
+		return saveEveryRequests;
+	}
+
+	public long getSaveEveryMillis() {
+		return saveEveryMillis;
+	}
+
+	/**
+	 * Sets how often the state file is written. Requests counted since the last
+	 * save are lost if the process stops without closing the governor.
+	 * 
+	 * @param saveEveryRequests
+	 *            number of requests after which the file is written, 10 by default
+	 * @param saveEveryMillis
+	 *            time after which the file is written with the next request, 5000
+	 *            by default
+	 */
+	public void setSaveInterval(int saveEveryRequests, long saveEveryMillis) {
+		Validate.isTrue(saveEveryRequests > 0, "Number of requests must be positive: %d", saveEveryRequests);
+		Validate.isTrue(saveEveryMillis >= 0, "Duration must be positive: %d", saveEveryMillis);
+		lock.lock();
+		try {
+			this.saveEveryRequests = saveEveryRequests;
+			this.saveEveryMillis = saveEveryMillis;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of requests sent this month
+	 */
+	public long getUsed() {
+		lock.lock();
+		try {
+			rollMonth();
+			return used;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of requests that can still be sent this month, or
+	 *         Long.MAX_VALUE if there is no budget
+	 */
+	public long getRemaining() {
+		if (monthlyLimit <= 0) {
+			return Long.MAX_VALUE;
+		}
+		lock.lock();
+		try {
+			rollMonth();
+			return exhausted ? 0 : Math.max(0, monthlyLimit - used);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the fraction of the monthly budget already used, between 0 and 1
+	 */
+	public double getUsedRatio() {
+		if (monthlyLimit <= 0) {
+			return 0;
+		}
+		lock.lock();
+		try {
+			rollMonth();
+			return exhausted ? 1 : Math.min(1, (double) used / monthlyLimit);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getInteractiveCount() {
+		lock.lock();
+		try {
+			return interactiveCount;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getBackfillCount() {
+		lock.lock();
+		try {
+			return backfillCount;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getRejectedCount() {
+		lock.lock();
+		try {
+			return rejectedCount;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+}
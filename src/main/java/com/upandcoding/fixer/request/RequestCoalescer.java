@@ -0,0 +1,306 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.request;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shares one execution between concurrent identical requests ("single flight").
+ * <p>
+ * The first thread calling execute() for a key runs the call. Threads calling
+ * execute() with the same key while this call is in progress do not run their
+ * own call: they wait for the first one and receive the same result, or the
+ * same exception. Once the call has ended, the key is released and the next
+ * call runs again.
+ * <p>
+ * The callers waiting for a call are counted, the thread running it included.
+ * A caller past its timeout or cancelled stops waiting without affecting the
+ * others: the call is cancelled only when all of them have stopped waiting. The
+ * thread running the call returns once the call has ended or was cancelled.
+ * 
+ * @author Lionel Conforto
+ *
+ */
+public class RequestCoalescer {
+
+	private static final Logger log = LoggerFactory.getLogger(RequestCoalescer.class);
+
+	// Makes the thread running a call leave it at its timeout
+	private static final ScheduledExecutorService timeoutScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "jfixer-coalescer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * A call in progress and the number of callers waiting for it
+	 */
+	private static class Flight {
+		private final CompletableFuture<Object> result = new CompletableFuture<>();
+		private final Runnable cancel;
+		private int waiters = 1;
+
+		Flight(Runnable cancel) {
+			this.cancel = cancel;
+		}
+
+		synchronized boolean join() {
+			if (waiters == 0) {
+				// Abandoned by all its callers
+				return false;
+			}
+			waiters++;
+			return true;
+		}
+
+		void leave() {
+			boolean abandoned;
+			synchronized (this) {
+				abandoned = --waiters == 0 && !result.isDone();
+			}
+			if (abandoned && cancel != null) {
+				cancel.run();
+			}
+		}
+	}
+
+	private final ConcurrentMap<String, Flight> inFlight = new ConcurrentHashMap<>();
+
+	private final AtomicLong executedCount = new AtomicLong();
+	private final AtomicLong coalescedCount = new AtomicLong();
+
+	/**
+	 * Runs the call, unless an identical call is already in progress in which case
+	 * its result is returned.
+	 * 
+	 * @param key
+	 *            identifies the request
+	 * @param call
+	 *            the actual request
+	 * @return the result of the call, possibly shared with other threads
+	 * 
+	 * @throws Exception
+	 *             the exception thrown by the call
+	 */
+	public <T> T execute(String key, Callable<T> call) throws Exception {
+		return execute(key, call, 0);
+	}
+
+	/**
+	 * Runs the call, unless an identical call is already in progress in which case
+	 * its result is awaited during timeoutMillis at most. The timeout does not
+	 * apply to the call itself when it is run by the calling thread.
+	 * 
+	 * @param key
+	 *            identifies the request
+	 * @param call
+	 *            the actual request
+	 * @param timeoutMillis
+	 *            maximum time to wait for an identical call, 0 for no limit
+	 * @return the result of the call, possibly shared with other threads
+	 * 
+	 * @throws TimeoutException
+	 *             if the identical call has not ended within the timeout
+	 * @throws Exception
+	 *             the exception thrown by the call
+	 */
+	public <T> T execute(String key, Callable<T> call, long timeoutMillis) throws Exception {
+		Flight flight = new Flight(null);
+		Flight existing = join(key, flight);
+
+		if (existing == null) {
+			executedCount.incrementAndGet();
+			try {
+				T result = call.call();
+				flight.result.complete(result);
+				return result;
+			} catch (Exception | Error e) {
+				flight.result.completeExceptionally(e);
+				throw e;
+			} finally {
+				inFlight.remove(key, flight);
+			}
+		}
+		return await(existing, timeoutMillis, null);
+	}
+
+	/**
+	 * Runs the call in the calling thread, unless an identical call is already in
+	 * progress, and waits for its result until the timeout or the cancellation of
+	 * the caller. A caller that stops waiting does not affect the other callers:
+	 * cancel is run only once all the callers have stopped waiting before the end
+	 * of the call. When the caller runs the call, it still returns only once the
+	 * call has ended, which cancel makes immediate if no other caller waits.
+	 * 
+	 * @param key
+	 *            identifies the request
+	 * @param call
+	 *            the actual request
+	 * @param timeoutMillis
+	 *            maximum time to wait for the call, 0 for no limit
+	 * @param cancellation
+	 *            completed when the caller is cancelled, null if it cannot be
+	 * @param cancel
+	 *            cancels the call, eg: by aborting its HTTP request
+	 * @return the result of the call, possibly shared with other threads
+	 * 
+	 * @throws TimeoutException
+	 *             if the call has not ended within the timeout
+	 * @throws CancellationException
+	 *             if the caller was cancelled before the end of the call
+	 * @throws Exception
+	 *             the exception thrown by the call
+	 */
+	public <T> T execute(String key, Callable<T> call, long timeoutMillis, CompletableFuture<?> cancellation, Runnable cancel)
+			throws Exception {
+		final Flight flight = new Flight(cancel);
+		Flight existing = join(key, flight);
+		if (existing != null) {
+			return await(existing, timeoutMillis, cancellation);
+		}
+
+		executedCount.incrementAndGet();
+		// Reason why the caller stopped waiting, before the end of the call
+		final CompletableFuture<Exception> left = new CompletableFuture<>();
+		ScheduledFuture<?> timeout = null;
+		if (timeoutMillis > 0) {
+			timeout = timeoutScheduler.schedule(() -> {
+				if (left.complete(new TimeoutException())) {
+					flight.leave();
+				}
+			}, timeoutMillis, TimeUnit.MILLISECONDS);
+		}
+		if (cancellation != null) {
+			cancellation.whenComplete((value, error) -> {
+				if (left.complete(new CancellationException("Caller cancelled while running the request"))) {
+					flight.leave();
+				}
+			});
+		}
+		try {
+			T result;
+			try {
+				result = call.call();
+			} catch (Exception | Error e) {
+				flight.result.completeExceptionally(e);
+				// Eg: the request aborted once the caller left
+				if (!left.complete(null)) {
+					throw left.join();
+				}
+				throw e;
+			}
+			flight.result.complete(result);
+			if (!left.complete(null)) {
+				throw left.join();
+			}
+			return result;
+		} finally {
+			if (timeout != null) {
+				timeout.cancel(false);
+			}
+			inFlight.remove(key, flight);
+		}
+	}
+
+	/**
+	 * Registers a new call, or joins the identical call in progress
+	 * 
+	 * @return the call joined, or null if the new call was registered
+	 */
+	private Flight join(String key, Flight flight) {
+		while (true) {
+			Flight existing = inFlight.putIfAbsent(key, flight);
+			if (existing == null) {
+				return null;
+			}
+			if (existing.join()) {
+				coalescedCount.incrementAndGet();
+				log.debug("Joining request in progress: {}", key);
+				return existing;
+			}
+			// Being cancelled: replaced by a new call
+			inFlight.remove(key, existing);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T await(Flight flight, long timeoutMillis, CompletableFuture<?> cancellation) throws Exception {
+		CompletableFuture<?> signal = cancellation != null ? CompletableFuture.anyOf(flight.result, cancellation) : flight.result;
+		try {
+			if (timeoutMillis > 0) {
+				signal.get(timeoutMillis, TimeUnit.MILLISECONDS);
+			} else {
+				signal.get();
+			}
+		} catch (TimeoutException e) {
+			if (!flight.result.isDone()) {
+				throw e;
+			}
+		} catch (ExecutionException e) {
+			// Reported by the result below
+		} finally {
+			flight.leave();
+		}
+		if (!flight.result.isDone()) {
+			throw new CancellationException("Caller cancelled while waiting for the request");
+		}
+		try {
+			return (T) flight.result.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			throw (Error) cause;
+		}
+	}
+
+	/**
+	 * @return the number of requests in progress
+	 */
+	public int getInFlightCount() {
+		return inFlight.size();
+	}
+
+	/**
+	 * @return the number of calls actually run
+	 */
+	public long getExecutedCount() {
+		return executedCount.get();
+	}
+
+	/**
+	 * @return the number of calls that received the result of another call
+	 */
+	public long getCoalescedCount() {
+		return coalescedCount.get();
+	}
+
+}
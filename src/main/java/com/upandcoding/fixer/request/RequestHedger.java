@@ -0,0 +1,312 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.request;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.upandcoding.fixer.FixerException;
+import com.upandcoding.fixer.endpoint.Endpoint;
+
+/**
+ * Sends a second identical request (a "hedge") when the response to a request
+ * is late, and keeps whichever response arrives first.
+ * <p>
+ * The latencies of the last windowSize successful requests are recorded. Once
+ * minSamples latencies are known, a hedge is sent if no response has arrived
+ * after the given percentile of these latencies (95th by default, never less
+ * than minDelayMillis). The first successful response wins and the other
+ * request is aborted. If one of the two requests fails, the outcome of the other
+ * one is awaited; the error of the first request is thrown only if both fail.
+ * <p>
+ * The hedge goes through the same send function as the first request, so it is
+ * counted by the quota governor like any other request. When the governor
+ * rejects it, the first request is simply awaited.
+ * 
+ * @author Lionel Conforto
+ *
+ */
+public class RequestHedger {
+
+	private static final Logger log = LoggerFactory.getLogger(RequestHedger.class);
+
+	public static final double DEFAULT_PERCENTILE = 0.95;
+	public static final int DEFAULT_WINDOW_SIZE = 100;
+	public static final int DEFAULT_MIN_SAMPLES = 20;
+	public static final long DEFAULT_MIN_DELAY_MILLIS = 20;
+
+	private static final AtomicInteger threadCount = new AtomicInteger();
+
+	private static final ThreadFactory threadFactory = new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "jfixer-hedge-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
+
+	private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+	private static final Executor defaultExecutor = Executors.newCachedThreadPool(threadFactory);
+
+	/**
+	 * Sends the request of an endpoint
+	 */
+	public interface Attempt<T> {
+		T send(Endpoint endpoint) throws FixerException, JsonParseException, IOException;
+	}
+
+	private final double percentile;
+	private final long[] latencies;
+	private int latencyCount = 0;
+	private int nextLatency = 0;
+
+	private int minSamples = DEFAULT_MIN_SAMPLES;
+	private long minDelayMillis = DEFAULT_MIN_DELAY_MILLIS;
+	private Executor executor = defaultExecutor;
+
+	private final AtomicLong requestCount = new AtomicLong();
+	private final AtomicLong hedgeCount = new AtomicLong();
+	private final AtomicLong hedgeWinCount = new AtomicLong();
+
+	public RequestHedger() {
+		this(DEFAULT_PERCENTILE, DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * @param percentile
+	 *            percentile of the recent latencies after which a hedge is sent,
+	 *            between 0 and 1, eg: 0.95
+	 * @param windowSize
+	 *            number of recent latencies kept
+	 */
+	public RequestHedger(double percentile, int windowSize) {
+		Validate.isTrue(percentile > 0 && percentile <= 1, "Percentile must be in ]0, 1]: %s", percentile);
+		Validate.isTrue(windowSize > 0, "Window size must be positive: %s", windowSize);
+		this.percentile = percentile;
+		this.latencies = new long[windowSize];
+	}
+
+	/**
+	 * Sends the request of the primary endpoint and, if its response is late, the
+	 * same request with the hedge endpoint.
+	 * 
+	 * @param primary
+	 *            the endpoint sent first, in the calling thread
+	 * @param hedge
+	 *            an endpoint with the same parameters, sent only if needed
+	 * @param attempt
+	 *            the function that sends the request of an endpoint
+	 * @return the first successful response
+	 * 
+	 * @throws FixerException
+	 * @throws JsonParseException
+	 * @throws IOException
+	 */
+	public <T> T execute(final Endpoint primary, final Endpoint hedge, final Attempt<T> attempt)
+			throws FixerException, JsonParseException, IOException {
+		requestCount.incrementAndGet();
+		long delay = getHedgeDelay();
+		if (delay < 0) {
+			long start = System.nanoTime();
+			T result = attempt.send(primary);
+			recordLatency(System.nanoTime() - start);
+			return result;
+		}
+
+		final CompletableFuture<T> winner = new CompletableFuture<>();
+		final CompletableFuture<Void> hedgeDone = new CompletableFuture<>();
+		final AtomicBoolean hedgeLaunched = new AtomicBoolean(false);
+
+		ScheduledFuture<?> scheduled = scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							sendHedge(primary, hedge, attempt, winner, hedgeDone, hedgeLaunched);
+						}
+					});
+				} catch (RuntimeException e) {
+					log.warn("Unable to send a hedged request: {}", e.getLocalizedMessage());
+				}
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+
+		Exception primaryError = null;
+		long start = System.nanoTime();
+		try {
+			T result = attempt.send(primary);
+			recordLatency(System.nanoTime() - start);
+			winner.complete(result);
+		} catch (FixerException | IOException | RuntimeException e) {
+			primaryError = e;
+		} finally {
+			scheduled.cancel(false);
+		}
+
+		// The hedge is not sent once the first request has ended
+		boolean hedgeRunning = !hedgeLaunched.compareAndSet(false, true);
+		if (winner.isDone()) {
+			if (hedgeRunning) {
+				hedge.abort();
+			}
+			return winner.join();
+		}
+
+		if (hedgeRunning) {
+			try {
+				hedgeDone.get();
+			} catch (InterruptedException e) {
+				hedge.abort();
+				Thread.currentThread().interrupt();
+				throw new FixerException("Interrupted while waiting for a hedged request", e);
+			} catch (ExecutionException e) {
+				// Not thrown, the hedge always completes normally
+			}
+			if (winner.isDone()) {
+				return winner.join();
+			}
+		}
+
+		if (primaryError instanceof FixerException) {
+			throw (FixerException) primaryError;
+		} else if (primaryError instanceof IOException) {
+			throw (IOException) primaryError;
+		}
+		throw (RuntimeException) primaryError;
+	}
+
+	private <T> void sendHedge(Endpoint primary, Endpoint hedge, Attempt<T> attempt, CompletableFuture<T> winner,
+			CompletableFuture<Void> hedgeDone, AtomicBoolean hedgeLaunched) {
+		if (!hedgeLaunched.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			hedgeCount.incrementAndGet();
+			long start = System.nanoTime();
+			T result = attempt.send(hedge);
+			recordLatency(System.nanoTime() - start);
+			if (winner.complete(result)) {
+				hedgeWinCount.incrementAndGet();
+				primary.abort();
+			}
+		} catch (Exception e) {
+			log.debug("Hedged request failed: {}", e.getLocalizedMessage());
+		} finally {
+			hedgeDone.complete(null);
+		}
+	}
+
+	private synchronized void recordLatency(long nanos) {
+		latencies[nextLatency] = TimeUnit.NANOSECONDS.toMillis(nanos);
+		nextLatency = (nextLatency + 1) % latencies.length;
+		if (latencyCount < latencies.length) {
+			latencyCount++;
+		}
+	}
+
+	/**
+	 * Returns the time after which a hedge is sent
+	 * 
+	 * @return the delay in milliseconds, or -1 if not enough latencies have been
+	 *         recorded yet
+	 */
+	public long getHedgeDelay() {
+		long[] sorted;
+		synchronized (this) {
+			if (latencyCount == 0 || latencyCount < minSamples) {
+				return -1;
+			}
+			sorted = Arrays.copyOf(latencies, latencyCount);
+		}
+		Arrays.sort(sorted);
+		int index = (int) Math.ceil(percentile * sorted.length) - 1;
+		return Math.max(minDelayMillis, sorted[Math.max(0, index)]);
+	}
+
+	public double getPercentile() {
+		return percentile;
+	}
+
+	public int getMinSamples() {
+		return minSamples;
+	}
+
+	/**
+	 * Sets the number of latencies that must be recorded before hedges are sent
+	 * 
+	 * @param minSamples
+	 */
+	public void setMinSamples(int minSamples) {
+		this.minSamples = minSamples;
+	}
+
+	public long getMinDelayMillis() {
+		return minDelayMillis;
+	}
+
+	/**
+	 * Sets the minimum time after which a hedge is sent, whatever the recent
+	 * latencies
+	 * 
+	 * @param minDelayMillis
+	 */
+	public void setMinDelayMillis(long minDelayMillis) {
+		this.minDelayMillis = minDelayMillis;
+	}
+
+	/**
+	 * Sets the executor on which hedges are sent. By default, a shared pool of
+	 * daemon threads.
+	 * 
+	 * @param executor
+	 */
+	public void setExecutor(Executor executor) {
+		Validate.notNull(executor, "Parameter '%s' cannot be null", "executor");
+		this.executor = executor;
+	}
+
+	public long getRequestCount() {
+		return requestCount.get();
+	}
+
+	public long getHedgeCount() {
+		return hedgeCount.get();
+	}
+
+	public long getHedgeWinCount() {
+		return hedgeWinCount.get();
+	}
+
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.request;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.upandcoding.fixer.FixerException;
+
+/**
+ * Retries failed requests with an exponential backoff and a random jitter.
+ * <p>
+ * Only transient errors are retried:
+ * <ul>
+ * <li>network errors (type 'network_error'): connection refused, reset,
+ * ...</li>
+ * <li>connect and socket timeouts (type 'timeout')</li>
+ * <li>HTTP errors (type 'http_error') whose status is one of the retryable
+ * statuses: 408, 429, 500, 502, 503 and 504 by default</li>
+ * </ul>
+ * Errors returned by the Fixer API itself (invalid key, invalid currency, quota
+ * reached, invalid date, ...) are deterministic and never retried, as well as
+ * responses that are not valid Json.
+ * <p>
+ * The delay before the n-th retry is initialDelay * multiplier^(n-1), bounded by
+ * maxDelay, minus a random part of up to jitter times this value. No retry is
+ * attempted if it would start after the deadline of the policy or of the call,
+ * and the wait before a retry ends as soon as the call is cancelled.
+ * 
+ * @author Lionel Conforto
+ *
+ */
+public class RetryPolicy {
+
+	private static final Logger log = LoggerFactory.getLogger(RetryPolicy.class);
+
+	public static final String TYPE_NETWORK_ERROR = "network_error";
+	public static final String TYPE_HTTP_ERROR = "http_error";
+	public static final String TYPE_TIMEOUT = "timeout";
+
+	// Fixer errors never retried, whatever the configuration: invalid or inactive
+	// access key, monthly quota reached, invalid base or currency codes
+	private static final Set<Integer> NEVER_RETRIED_FIXER_CODES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(101, 102, 104, 201, 202)));
+
+	/**
+	 * A request that can be sent several times
+	 */
+	public interface Request<T> {
+		T send() throws FixerException, JsonParseException, IOException;
+	}
+
+	private int maxAttempts = 3;
+	private long initialDelayMillis = 200;
+	private long maxDelayMillis = 5000;
+	private double multiplier = 2.0;
+	private double jitter = 1.0;
+	private long deadlineMillis = 0;
+	private final Set<Integer> retryableHttpStatuses = new HashSet<>(Arrays.asList(408, 429, 500, 502, 503, 504));
+
+	private final AtomicLong retryCount = new AtomicLong();
+	private final AtomicLong giveUpCount = new AtomicLong();
+
+	public RetryPolicy() {
+	}
+
+	/**
+	 * @param maxAttempts
+	 *            total number of attempts, including the first one
+	 * @param initialDelayMillis
+	 *            delay before the first retry
+	 * @param maxDelayMillis
+	 *            maximum delay between two attempts
+	 */
+	public RetryPolicy(int maxAttempts, long initialDelayMillis, long maxDelayMillis) {
+		this.maxAttempts = maxAttempts;
+		this.initialDelayMillis = initialDelayMillis;
+		this.maxDelayMillis = maxDelayMillis;
+	}
+
+	/**
+	 * Sends the request, and sends it again as long as it fails with a retryable
+	 * error, the maximum number of attempts is not reached and the deadline is not
+	 * passed.
+	 * 
+	 * @param request
+	 * @return the result of the first successful attempt
+	 * 
+	 * @throws FixerException
+	 *             the error of the last attempt
+	 * @throws JsonParseException
+	 * @throws IOException
+	 */
+	public <T> T execute(Request<T> request) throws FixerException, JsonParseException, IOException {
+		return execute(request, null, null);
+	}
+
+	/**
+	 * Sends the request, and sends it again as long as it fails with a retryable
+	 * error, the maximum number of attempts is not reached and neither the
+	 * deadline of the policy nor the one of the call is passed.
+	 * 
+	 * @param request
+	 * @param callDeadline
+	 *            the deadline of the call, null if none
+	 * @param cancellation
+	 *            completed when the call is cancelled, null if it cannot be
+	 * @return the result of the first successful attempt
+	 * 
+	 * @throws FixerException
+	 *             the error of the last attempt, or of type 'request_aborted' if
+	 *             the call is cancelled while waiting for a retry
+	 * @throws JsonParseException
+	 * @throws IOException
+	 */
+	public <T> T execute(Request<T> request, Deadline callDeadline, CompletableFuture<?> cancellation)
+			throws FixerException, JsonParseException, IOException {
+		long deadline = deadlineMillis > 0 ? System.currentTimeMillis() + deadlineMillis : Long.MAX_VALUE;
+		if (callDeadline != null) {
+			deadline = Math.min(deadline, callDeadline.getExpiresAtMillis());
+		}
+		int attempt = 1;
+		while (true) {
+			try {
+				return request.send();
+			} catch (FixerException e) {
+				if (!isRetryable(e)) {
+					throw e;
+				}
+				if (attempt >= maxAttempts) {
+					giveUpCount.incrementAndGet();
+					throw e;
+				}
+				long delay = getDelay(attempt);
+				if (System.currentTimeMillis() + delay >= deadline) {
+					log.debug("Not retrying after attempt {}: deadline reached", attempt);
+					giveUpCount.incrementAndGet();
+					throw e;
+				}
+				log.debug("Attempt {} failed ({}), retrying in {} ms", attempt, e.getLocalizedMessage(), delay);
+				try {
+					if (cancellation != null) {
+						cancellation.get(delay, TimeUnit.MILLISECONDS);
+						giveUpCount.incrementAndGet();
+						throw new FixerException(0, "request_aborted", "Call cancelled while waiting to retry: " + e.getLocalizedMessage());
+					}
+					Thread.sleep(delay);
+				} catch (TimeoutException te) {
+					// Time to retry
+				} catch (ExecutionException | CancellationException ce) {
+					giveUpCount.incrementAndGet();
+					throw new FixerException(0, "request_aborted", "Call cancelled while waiting to retry: " + e.getLocalizedMessage());
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw e;
+				}
+				retryCount.incrementAndGet();
+				attempt++;
+			}
+		}
+	}
+
+	/**
+	 * Tells whether a request that failed with this error may succeed if sent
+	 * again
+	 * 
+	 * @param e
+	 * @return true if the request can be retried
+	 */
+	public boolean isRetryable(FixerException e) {
+		if (NEVER_RETRIED_FIXER_CODES.contains(e.getFixerCode()) && !TYPE_HTTP_ERROR.equals(e.getFixerType())) {
+			return false;
+		}
+		if (TYPE_NETWORK_ERROR.equals(e.getFixerType()) || TYPE_TIMEOUT.equals(e.getFixerType())) {
+			return true;
+		}
+		if (TYPE_HTTP_ERROR.equals(e.getFixerType())) {
+			return retryableHttpStatuses.contains(e.getFixerCode());
+		}
+		return false;
+	}
+
+	/**
+	 * Delay before the given retry, jitter included
+	 * 
+	 * @param attempt
+	 *            number of the attempt that just failed, starting at 1
+	 * @return delay in milliseconds
+	 */
+	public long getDelay(int attempt) {
+		double delay = initialDelayMillis * Math.pow(multiplier, attempt - 1);
+		delay = Math.min(delay, maxDelayMillis);
+		if (jitter > 0) {
+			delay = delay - delay * jitter * ThreadLocalRandom.current().nextDouble();
+		}
+		return (long) delay;
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	public void setMaxAttempts(int maxAttempts) {
+		this.maxAttempts = maxAttempts;
+	}
+
+	public long getInitialDelayMillis() {
+		return initialDelayMillis;
+	}
+
+	public void setInitialDelayMillis(long initialDelayMillis) {
+		this.initialDelayMillis = initialDelayMillis;
+	}
+
+	public long getMaxDelayMillis() {
+		return maxDelayMillis;
+	}
+
+	public void setMaxDelayMillis(long maxDelayMillis) {
+		this.maxDelayMillis = maxDelayMillis;
+	}
+
+	public double getMultiplier() {
+		return multiplier;
+	}
+
+	public void setMultiplier(double multiplier) {
+		this.multiplier = multiplier;
+	}
+
+	public double getJitter() {
+		return jitter;
+	}
+
+	/**
+	 * Sets the random part of the delays: 0 for no jitter, 1 (the default) for a
+	 * delay anywhere between 0 and the computed delay.
+	 * 
+	 * @param jitter
+	 *            a value between 0 and 1
+	 */
+	public void setJitter(double jitter) {
+		if (jitter < 0 || jitter > 1) {
+			throw new IllegalArgumentException("Jitter must be between 0 and 1, was: " + jitter);
+		}
+		this.jitter = jitter;
+	}
+
+	public long getDeadlineMillis() {
+		return deadlineMillis;
+	}
+
+	/**
+	 * Sets the maximum duration of a call, all attempts and delays included.
+	 * 
+	 * @param deadlineMillis
+	 *            duration in milliseconds, 0 for no deadline (the default)
+	 */
+	public void setDeadlineMillis(long deadlineMillis) {
+		this.deadlineMillis = deadlineMillis;
+	}
+
+	public Set<Integer> getRetryableHttpStatuses() {
+		return retryableHttpStatuses;
+	}
+
+	/**
+	 * @return the number of retries sent
+	 */
+	public long getRetryCount() {
+		return retryCount.get();
+	}
+
+	/**
+	 * @return the number of calls that failed with a retryable error after the
+	 *         last allowed attempt
+	 */
+	public long getGiveUpCount() {
+		return giveUpCount.get();
+	}
+
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.upandcoding.fixer.cache.ResponseCache;
+import com.upandcoding.fixer.model.ExchangeRate;
+import com.upandcoding.fixer.request.CircuitBreaker;
+import com.upandcoding.fixer.request.CircuitOpenException;
+import com.upandcoding.fixer.request.QuotaGovernor;
+import com.upandcoding.tests.config.TestConfig;
+import com.upandcoding.tests.config.TestUtils;
+
+import junit.framework.Assert;
+
+public class TestLoaderCircuitBreaker {
+
+	private static final Logger log = LoggerFactory.getLogger(TestLoaderCircuitBreaker.class);
+
+	@Rule
+	public WireMockRule wireMockRule = new WireMockRule(7079);
+
+	private static final String LATEST_JSON = "{" + "\"success\": true," + "\"timestamp\": 1519296206," + "\"base\": \"EUR\","
+			+ "\"date\": \"2018-07-10\"," + "\"rates\": {" + "\"GBP\": 0.72007" + "}" + "}";
+
+	private static final String LATEST_URL = "/latest?access_key=" + TestConfig.accessKey + "&base=" + TestConfig.baseCurrency;
+
+	private static final String HISTORICAL_JSON = "{" + "\"success\": true," + "\"historical\": true," + "\"date\": \"2013-12-24\","
+			+ "\"timestamp\": 1387929599," + "\"base\": \"EUR\"," + "\"rates\": {" + "\"GBP\": 0.838025" + "}" + "}";
+
+	private static final String HISTORICAL_URL = "/2013-12-24?access_key=" + TestConfig.accessKey + "&base=" + TestConfig.baseCurrency;
+
+	private void assertFails(FixerApiLoader fixerApiLoader, Class<?> expectedClass) throws Exception {
+		try {
+			fixerApiLoader.getLatest();
+			Assert.assertTrue(false);
+		} catch (FixerException fe) {
+			log.debug("Expected error: {}", fe.getLocalizedMessage());
+			Assert.assertEquals(expectedClass, fe.getClass());
+		}
+	}
+
+	@Test
+	public void testOpenAndHalfOpen() throws Exception {
+		TestUtils.setupMockHttpServerError500(TestConfig.baseUrl, LATEST_URL);
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, HISTORICAL_URL, HISTORICAL_JSON);
+		wireMockRule.resetRequests();
+
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		fixerApiLoader.setCircuitBreaker(2, 300);
+
+		assertFails(fixerApiLoader, FixerException.class);
+		assertFails(fixerApiLoader, FixerException.class);
+		Assert.assertEquals(CircuitBreaker.State.OPEN, fixerApiLoader.getCircuitBreaker("latest").getState());
+
+		// Fails fast without calling the endpoint
+		assertFails(fixerApiLoader, CircuitOpenException.class);
+		verify(2, getRequestedFor(urlEqualTo(LATEST_URL)));
+
+		// Other endpoint types are not affected
+		Assert.assertEquals(1, fixerApiLoader.getHistorical("2013-12-24").size());
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, fixerApiLoader.getCircuitBreaker("historical").getState());
+
+		// Probe after the open duration: the endpoint is back
+		Thread.sleep(350);
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, LATEST_URL, LATEST_JSON);
+		Assert.assertEquals(1, fixerApiLoader.getLatest().size());
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, fixerApiLoader.getCircuitBreaker("latest").getState());
+	}
+
+	@Test
+	public void testFailedProbeReopens() throws Exception {
+		TestUtils.setupMockHttpServerError500(TestConfig.baseUrl, LATEST_URL);
+
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		fixerApiLoader.setCircuitBreaker(1, 200);
+
+		assertFails(fixerApiLoader, FixerException.class);
+		Thread.sleep(250);
+		assertFails(fixerApiLoader, FixerException.class);
+		assertFails(fixerApiLoader, CircuitOpenException.class);
+		Assert.assertEquals(2, fixerApiLoader.getCircuitBreaker("latest").getOpenCount());
+	}
+
+	@Test
+	public void testProbeReleasedOnUnexpectedError() throws Exception {
+		TestUtils.setupMockHttpServerError500(TestConfig.baseUrl, LATEST_URL);
+
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		fixerApiLoader.setCircuitBreaker(1, 200);
+		assertFails(fixerApiLoader, FixerException.class);
+		Thread.sleep(250);
+
+		// Probe failing with a runtime exception: rates before the base currency
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, LATEST_URL,
+				"{\"success\": true, \"rates\": {\"GBP\": 0.72007}, \"base\": \"EUR\", \"date\": \"2018-07-10\"}");
+		try {
+			fixerApiLoader.getLatest();
+			Assert.fail("Runtime exception expected");
+		} catch (RuntimeException e) {
+			log.debug("Expected error: {}", e.toString());
+		}
+
+		// Another probe is sent
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, LATEST_URL, LATEST_JSON);
+		Assert.assertEquals(1, fixerApiLoader.getLatest().size());
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, fixerApiLoader.getCircuitBreaker("latest").getState());
+	}
+
+	@Test
+	public void testLocalRejectionIgnored() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker("latest", 1, 100);
+		breaker.onFailure();
+		Thread.sleep(150);
+		Assert.assertTrue(breaker.allowRequest());
+
+		// Rejected by the quota governor, the endpoint was not called
+		breaker.onError(new FixerException(0, QuotaGovernor.TYPE_RATE_LIMITED, "No request allowed"));
+		Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		Assert.assertTrue(breaker.allowRequest());
+		breaker.onSuccess();
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void testFixerErrorDoesNotOpen() throws Exception {
+		String jsonStr = "{\"success\":false,\"error\":{\"code\":202,\"type\":\"invalid_currency_codes\"}}";
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, LATEST_URL, jsonStr);
+
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		fixerApiLoader.setCircuitBreaker(1, 10000);
+		assertFails(fixerApiLoader, FixerException.class);
+		assertFails(fixerApiLoader, FixerException.class);
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, fixerApiLoader.getCircuitBreaker("latest").getState());
+	}
+
+	@Test
+	public void testServedFromCacheWhenOpen() throws Exception {
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, LATEST_URL, LATEST_JSON);
+
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		fixerApiLoader.setCircuitBreaker(1, 10000);
+		// Responses expire at once, but are kept for fallback
+		fixerApiLoader.setResponseCache(new ResponseCache(0));
+
+		List<ExchangeRate> rates = fixerApiLoader.getLatest();
+		Assert.assertEquals(1, rates.size());
+
+		stubFor(get(urlEqualTo(LATEST_URL)).willReturn(aResponse().withStatus(503)));
+		assertFails(fixerApiLoader, FixerException.class);
+
+		List<ExchangeRate> cachedRates = fixerApiLoader.getLatest();
+		Assert.assertEquals(rates, cachedRates);
+		Assert.assertEquals(1, fixerApiLoader.getCircuitBreaker("latest").getRejectedCount());
+	}
+
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
+import com.upandcoding.fixer.model.ExchangeRate;
+import com.upandcoding.fixer.request.Deadline;
+import com.upandcoding.fixer.request.RetryPolicy;
+import com.upandcoding.tests.config.TestConfig;
+
+import junit.framework.Assert;
+
+public class TestLoaderDeadline {
+
+	private static final Logger log = LoggerFactory.getLogger(TestLoaderDeadline.class);
+
+	@Rule
+	public WireMockRule wireMockRule = new WireMockRule(7079);
+
+	private static final String LATEST_JSON = "{" + "\"success\": true," + "\"timestamp\": 1519296206," + "\"base\": \"EUR\","
+			+ "\"date\": \"2018-07-10\"," + "\"rates\": {" + "\"GBP\": 0.72007" + "}" + "}";
+
+	private static final String ENDPOINT_URL = "/latest?access_key=" + TestConfig.accessKey + "&base=" + TestConfig.baseCurrency;
+
+	private void setupSlowServer(int delayMillis) {
+		stubFor(get(urlEqualTo(ENDPOINT_URL)).willReturn(aResponse()
+				.withStatus(200)
+				.withFixedDelay(delayMillis)
+				.withHeader("Content-Type", "application/json")
+				.withBody(LATEST_JSON)));
+	}
+
+	private FixerApiLoader createLoader() {
+		return new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+	}
+
+	@Test
+	public void testSocketTimeout() throws Exception {
+		setupSlowServer(3000);
+		FixerApiLoader fixerApiLoader = createLoader();
+		fixerApiLoader.setSocketTimeoutMillis(200);
+
+		long start = System.currentTimeMillis();
+		try {
+			fixerApiLoader.getLatest();
+			Assert.assertTrue(false);
+		} catch (FixerException fe) {
+			Assert.assertEquals(RetryPolicy.TYPE_TIMEOUT, fe.getFixerType());
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		Assert.assertTrue("Elapsed: " + elapsed, elapsed < 2000);
+		Assert.assertEquals(1, fixerApiLoader.getTimeoutCount("latest"));
+		Assert.assertEquals(Long.valueOf(1), fixerApiLoader.getTimeoutCounts().get("latest"));
+	}
+
+	@Test
+	public void testCallDeadline() throws Exception {
+		setupSlowServer(3000);
+		FixerApiLoader fixerApiLoader = createLoader();
+		RetryPolicy retryPolicy = new RetryPolicy(3, 10, 10);
+		fixerApiLoader.setRetryPolicy(retryPolicy);
+
+		long start = System.currentTimeMillis();
+		try {
+			fixerApiLoader.call(Duration.ofMillis(300), l -> l.getLatest());
+			Assert.assertTrue(false);
+		} catch (FixerException fe) {
+			Assert.assertEquals(Deadline.TYPE_DEADLINE_EXCEEDED, fe.getFixerType());
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		Assert.assertTrue("Elapsed: " + elapsed, elapsed < 2000);
+
+		// An exceeded deadline is not retried
+		verify(1, getRequestedFor(urlEqualTo(ENDPOINT_URL)));
+		Assert.assertEquals(1, fixerApiLoader.getTimeoutCount("latest"));
+	}
+
+	@Test
+	public void testExpiredDeadline() throws Exception {
+		setupSlowServer(0);
+		FixerApiLoader fixerApiLoader = createLoader();
+		try {
+			fixerApiLoader.call(Deadline.at(Instant.now().minusSeconds(1)), l -> l.getLatest());
+			Assert.assertTrue(false);
+		} catch (FixerException fe) {
+			Assert.assertEquals(Deadline.TYPE_DEADLINE_EXCEEDED, fe.getFixerType());
+		}
+		verify(0, getRequestedFor(urlEqualTo(ENDPOINT_URL)));
+
+		// Within the deadline
+		List<ExchangeRate> rates = fixerApiLoader.call(Duration.ofSeconds(5), l -> l.getLatest());
+		Assert.assertEquals(1, rates.size());
+	}
+
+	@Test
+	public void testRequestTimeoutRetried() throws Exception {
+		stubFor(get(urlEqualTo(ENDPOINT_URL)).inScenario("slow")
+				.whenScenarioStateIs(Scenario.STARTED)
+				.willReturn(aResponse()
+						.withStatus(200)
+						.withFixedDelay(3000)
+						.withHeader("Content-Type", "application/json")
+						.withBody(LATEST_JSON))
+				.willSetStateTo("fast"));
+		stubFor(get(urlEqualTo(ENDPOINT_URL)).inScenario("slow")
+				.whenScenarioStateIs("fast")
+				.willReturn(aResponse()
+						.withStatus(200)
+						.withHeader("Content-Type", "application/json")
+						.withBody(LATEST_JSON)));
+
+		FixerApiLoader fixerApiLoader = createLoader();
+		fixerApiLoader.setRequestTimeoutMillis(300);
+		fixerApiLoader.setRetryPolicy(new RetryPolicy(3, 10, 10));
+
+		List<ExchangeRate> rates = fixerApiLoader.getLatest();
+		Assert.assertEquals(1, rates.size());
+		verify(2, getRequestedFor(urlEqualTo(ENDPOINT_URL)));
+		Assert.assertEquals(1, fixerApiLoader.getTimeoutCount("latest"));
+	}
+
+	@Test
+	public void testCancelAbortsRequest() throws Exception {
+		setupSlowServer(5000);
+		FixerApiLoader fixerApiLoader = createLoader();
+		fixerApiLoader.setRequestCoalescing(true);
+
+		Future<List<ExchangeRate>> future = fixerApiLoader.submit(Duration.ofSeconds(30), l -> l.getLatest());
+		Thread.sleep(300);
+		Assert.assertEquals(1, fixerApiLoader.getRequestCoalescer().getInFlightCount());
+
+		long start = System.currentTimeMillis();
+		Assert.assertTrue(future.cancel(true));
+		try {
+			future.get();
+			Assert.assertTrue(false);
+		} catch (CancellationException e) {
+			log.debug("Call cancelled");
+		}
+
+		// The HTTP request is aborted at once, not after the 5 s of the response
+		while (fixerApiLoader.getRequestCoalescer().getInFlightCount() > 0 && System.currentTimeMillis() - start < 3000) {
+			Thread.sleep(10);
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		Assert.assertTrue("Elapsed: " + elapsed, elapsed < 1000);
+	}
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.upandcoding.fixer.cache.ErrorCache;
+import com.upandcoding.tests.config.TestConfig;
+
+import junit.framework.Assert;
+
+public class TestLoaderErrorCache {
+
+	@Rule
+	public WireMockRule wireMockRule = new WireMockRule(7079);
+
+	private static final String ERROR_202_JSON = "{" + "\"success\":false," + "\"error\":" + "{\"code\":202,"
+			+ "\"type\":\"invalid_currency_codes\"," + "\"info\":\"You have provided one or more invalid Currency Codes.\"" + "}" + "}";
+
+	private static void stubLatest(int status, String body) {
+		stubFor(get(urlPathEqualTo("/latest"))
+				.willReturn(aResponse().withStatus(status).withHeader("Content-Type", "application/json").withBody(body)));
+	}
+
+	private static void assertFails(FixerApiLoader fixerApiLoader, String symbols, int expectedCode) throws Exception {
+		try {
+			fixerApiLoader.getLatest(symbols, "EUR");
+			Assert.fail("Error expected");
+		} catch (FixerException e) {
+			Assert.assertEquals(expectedCode, e.getFixerCode());
+		}
+	}
+
+	@Test
+	public void testDeterministicErrorCached() throws Exception {
+		stubLatest(200, ERROR_202_JSON);
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		ErrorCache errorCache = new ErrorCache(200);
+		fixerApiLoader.setErrorCache(errorCache);
+
+		assertFails(fixerApiLoader, "USD,XXX", 202);
+		verify(1, getRequestedFor(urlPathEqualTo("/latest")));
+		Assert.assertEquals(1, errorCache.size());
+
+		// Same request, symbols in another order or case: failed locally
+		assertFails(fixerApiLoader, "USD,XXX", 202);
+		assertFails(fixerApiLoader, "xxx,usd", 202);
+		verify(1, getRequestedFor(urlPathEqualTo("/latest")));
+		Assert.assertEquals(2, errorCache.getHitCount());
+
+		// Another request
+		assertFails(fixerApiLoader, "GBP,XXX", 202);
+		verify(2, getRequestedFor(urlPathEqualTo("/latest")));
+
+		// Expired
+		Thread.sleep(250);
+		assertFails(fixerApiLoader, "USD,XXX", 202);
+		verify(3, getRequestedFor(urlPathEqualTo("/latest")));
+	}
+
+	@Test
+	public void testTransientErrorNotCached() throws Exception {
+		stubLatest(500, "Server Error");
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		fixerApiLoader.setErrorCache(new ErrorCache());
+
+		assertFails(fixerApiLoader, "USD", 500);
+		assertFails(fixerApiLoader, "USD", 500);
+		verify(2, getRequestedFor(urlPathEqualTo("/latest")));
+		Assert.assertEquals(0, fixerApiLoader.getErrorCache().size());
+
+		// Depends on the access key: never cached
+		stubLatest(200, "{\"success\":false,\"error\":{\"code\":101,\"type\":\"invalid_access_key\"}}");
+		assertFails(fixerApiLoader, "USD", 101);
+		Assert.assertEquals(0, fixerApiLoader.getErrorCache().size());
+
+		// Depends on the plan of the access key: never cached by default
+		stubLatest(200, "{\"success\":false,\"error\":{\"code\":105,\"type\":\"base_currency_access_restricted\"}}");
+		assertFails(fixerApiLoader, "USD", 105);
+		Assert.assertEquals(0, fixerApiLoader.getErrorCache().size());
+	}
+
+	@Test
+	public void testNormalize() {
+		Assert.assertEquals("http://host/latest?base=EUR&symbols=GBP,USD",
+				ErrorCache.normalize("http://host/latest?symbols=usd, gbp&base=eur#timestamp=1519296206"));
+		Assert.assertEquals("http://host/convert?amount=25&from=GBP&to=JPY",
+				ErrorCache.normalize("http://host/convert?from=gbp&to=JPY&amount=25"));
+		Assert.assertEquals("http://host/2018-13-45", ErrorCache.normalize("http://host/2018-13-45"));
+	}
+
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
+import com.upandcoding.fixer.cache.ResponseCache;
+import com.upandcoding.fixer.model.ExchangeRate;
+import com.upandcoding.fixer.request.QuotaGovernor;
+import com.upandcoding.fixer.request.RequestHedger;
+import com.upandcoding.tests.config.TestConfig;
+
+import junit.framework.Assert;
+
+public class TestLoaderHedging {
+
+	private static final Logger log = LoggerFactory.getLogger(TestLoaderHedging.class);
+
+	@Rule
+	public WireMockRule wireMockRule = new WireMockRule(7079);
+
+	private static final String LATEST_JSON = "{" + "\"success\": true," + "\"timestamp\": 1519296206," + "\"base\": \"EUR\","
+			+ "\"date\": \"2018-07-10\"," + "\"rates\": {" + "\"GBP\": 0.72007" + "}" + "}";
+
+	private static final String ENDPOINT_URL = "/latest?access_key=" + TestConfig.accessKey + "&base=" + TestConfig.baseCurrency;
+
+	private static final int WARM_UP_REQUESTS = 3;
+
+	/**
+	 * Loader whose hedger already knows the latency of a few fast requests
+	 */
+	private FixerApiLoader createWarmLoader() throws Exception {
+		stubFor(get(urlEqualTo(ENDPOINT_URL)).willReturn(aResponse()
+				.withStatus(200)
+				.withHeader("Content-Type", "application/json")
+				.withBody(LATEST_JSON)));
+
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		RequestHedger hedger = new RequestHedger(0.9, 10);
+		hedger.setMinSamples(WARM_UP_REQUESTS);
+		hedger.setMinDelayMillis(100);
+		fixerApiLoader.setRequestHedger(hedger);
+		for (int i = 0; i < WARM_UP_REQUESTS; i++) {
+			fixerApiLoader.getLatest();
+		}
+		wireMockRule.resetAll();
+		return fixerApiLoader;
+	}
+
+	@Test
+	public void testHedgeWins() throws Exception {
+		FixerApiLoader fixerApiLoader = createWarmLoader();
+		QuotaGovernor governor = new QuotaGovernor(0, 1000);
+		fixerApiLoader.setQuotaGovernor(governor);
+
+		// The first request is stuck, the hedge gets an immediate response
+		stubFor(get(urlEqualTo(ENDPOINT_URL)).inScenario("hedge")
+				.whenScenarioStateIs(Scenario.STARTED)
+				.willReturn(aResponse()
+						.withStatus(200)
+						.withFixedDelay(5000)
+						.withHeader("Content-Type", "application/json")
+						.withBody(LATEST_JSON))
+				.willSetStateTo("fast"));
+		stubFor(get(urlEqualTo(ENDPOINT_URL)).inScenario("hedge")
+				.whenScenarioStateIs("fast")
+				.willReturn(aResponse()
+						.withStatus(200)
+						.withHeader("Content-Type", "application/json")
+						.withBody(LATEST_JSON)));
+
+		long start = System.currentTimeMillis();
+		List<ExchangeRate> rates = fixerApiLoader.getLatest();
+		long elapsed = System.currentTimeMillis() - start;
+		log.debug("Hedged request returned in {} ms", elapsed);
+
+		Assert.assertEquals(1, rates.size());
+		Assert.assertTrue("Elapsed: " + elapsed, elapsed < 2000);
+		Assert.assertEquals(1, fixerApiLoader.getRequestHedger().getHedgeCount());
+		Assert.assertEquals(1, fixerApiLoader.getRequestHedger().getHedgeWinCount());
+		verify(2, getRequestedFor(urlEqualTo(ENDPOINT_URL)));
+
+		// Hedges are counted against the budget
+		Assert.assertEquals(2, governor.getUsed());
+	}
+
+	@Test
+	public void testHedgeResponseCached() throws Exception {
+		FixerApiLoader fixerApiLoader = createWarmLoader();
+		fixerApiLoader.setResponseCache(new ResponseCache());
+		String hedgeJson = LATEST_JSON.replace("0.72007", "0.72008");
+
+		stubFor(get(urlEqualTo(ENDPOINT_URL)).inScenario("hedge")
+				.whenScenarioStateIs(Scenario.STARTED)
+				.willReturn(aResponse()
+						.withStatus(200)
+						.withFixedDelay(1000)
+						.withHeader("Content-Type", "application/json")
+						.withBody(LATEST_JSON))
+				.willSetStateTo("fast"));
+		stubFor(get(urlEqualTo(ENDPOINT_URL)).inScenario("hedge")
+				.whenScenarioStateIs("fast")
+				.willReturn(aResponse()
+						.withStatus(200)
+						.withHeader("Content-Type", "application/json")
+						.withBody(hedgeJson)));
+
+		List<ExchangeRate> rates = fixerApiLoader.getLatest();
+		Assert.assertEquals(0.72008, rates.get(0).getRate(), 1e-9);
+		Assert.assertEquals(1, fixerApiLoader.getRequestHedger().getHedgeWinCount());
+
+		// The body of the hedge is exposed and cached, not the one of the aborted request
+		Thread.sleep(200);
+		Assert.assertEquals(hedgeJson, fixerApiLoader.getJsonResponse());
+		ResponseCache.Entry entry = fixerApiLoader.getResponseCache().getEntries().values().iterator().next();
+		Assert.assertEquals(hedgeJson, entry.getJsonResponse());
+
+		Path file = Files.createTempFile("jfixer-warm", ".bin");
+		try {
+			Assert.assertEquals(1, fixerApiLoader.saveCaches(file));
+			FixerApiLoader restarted = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+			Assert.assertEquals(1, restarted.loadCaches(file));
+			Assert.assertEquals(0.72008, restarted.getLatest().get(0).getRate(), 1e-9);
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	public void testNoHedgeWhenFast() throws Exception {
+		FixerApiLoader fixerApiLoader = createWarmLoader();
+		stubFor(get(urlEqualTo(ENDPOINT_URL)).willReturn(aResponse()
+				.withStatus(200)
+				.withHeader("Content-Type", "application/json")
+				.withBody(LATEST_JSON)));
+
+		for (int i = 0; i < 5; i++) {
+			fixerApiLoader.getLatest();
+		}
+		Assert.assertEquals(0, fixerApiLoader.getRequestHedger().getHedgeCount());
+		verify(5, getRequestedFor(urlEqualTo(ENDPOINT_URL)));
+	}
+
+	@Test
+	public void testNoHedgeBeforeMinSamples() throws Exception {
+		stubFor(get(urlEqualTo(ENDPOINT_URL)).willReturn(aResponse()
+				.withStatus(200)
+				.withFixedDelay(300)
+				.withHeader("Content-Type", "application/json")
+				.withBody(LATEST_JSON)));
+
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		fixerApiLoader.setRequestHedger(new RequestHedger());
+		fixerApiLoader.getLatest();
+
+		Assert.assertEquals(-1, fixerApiLoader.getRequestHedger().getHedgeDelay());
+		Assert.assertEquals(0, fixerApiLoader.getRequestHedger().getHedgeCount());
+		verify(1, getRequestedFor(urlEqualTo(ENDPOINT_URL)));
+	}
+
+	@Test
+	public void testHedgeFailsPrimaryWins() throws Exception {
+		FixerApiLoader fixerApiLoader = createWarmLoader();
+
+		// The first request is slow, the hedge fails: the first response is kept
+		stubFor(get(urlEqualTo(ENDPOINT_URL)).inScenario("hedge")
+				.whenScenarioStateIs(Scenario.STARTED)
+				.willReturn(aResponse()
+						.withStatus(200)
+						.withFixedDelay(500)
+						.withHeader("Content-Type", "application/json")
+						.withBody(LATEST_JSON))
+				.willSetStateTo("down"));
+		stubFor(get(urlEqualTo(ENDPOINT_URL)).inScenario("hedge")
+				.whenScenarioStateIs("down")
+				.willReturn(aResponse().withStatus(503)));
+
+		List<ExchangeRate> rates = fixerApiLoader.getLatest();
+		Assert.assertEquals(1, rates.size());
+		Assert.assertEquals(1, fixerApiLoader.getRequestHedger().getHedgeCount());
+		Assert.assertEquals(0, fixerApiLoader.getRequestHedger().getHedgeWinCount());
+	}
+
+}
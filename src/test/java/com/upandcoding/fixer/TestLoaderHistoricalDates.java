@@ -0,0 +1,149 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.upandcoding.fixer.model.ExchangeRate;
+import com.upandcoding.tests.config.TestConfig;
+import com.upandcoding.tests.config.TestUtils;
+
+import junit.framework.Assert;
+
+public class TestLoaderHistoricalDates {
+
+	private static final Logger log = LoggerFactory.getLogger(TestLoaderHistoricalDates.class);
+
+	@Rule
+	public WireMockRule wireMockRule = new WireMockRule(7079);
+
+	@Test
+	public void testPlan() {
+		HistoricalPlanner planner = new HistoricalPlanner();
+		planner.setMaxGapDays(3);
+		List<HistoricalPlanner.Request> requests = planner.plan(Arrays.asList(
+				LocalDate.of(2018, 5, 3), LocalDate.of(2018, 5, 1), LocalDate.of(2018, 5, 1),
+				LocalDate.of(2018, 5, 20),
+				LocalDate.of(2018, 6, 1), LocalDate.of(2018, 6, 4)));
+		log.debug("Plan: {}", requests);
+
+		Assert.assertEquals(3, requests.size());
+		Assert.assertTrue(requests.get(0).isTimeSeries());
+		Assert.assertEquals(LocalDate.of(2018, 5, 1), requests.get(0).getStartDate());
+		Assert.assertEquals(LocalDate.of(2018, 5, 3), requests.get(0).getEndDate());
+		Assert.assertEquals(2, requests.get(0).getDates().size());
+		Assert.assertFalse(requests.get(1).isTimeSeries());
+		Assert.assertEquals(LocalDate.of(2018, 5, 20), requests.get(1).getStartDate());
+		Assert.assertTrue(requests.get(2).isTimeSeries());
+		Assert.assertEquals(LocalDate.of(2018, 6, 4), requests.get(2).getEndDate());
+	}
+
+	@Test
+	public void testPlanMaxSpan() {
+		HistoricalPlanner planner = new HistoricalPlanner();
+		planner.setMaxSpanDays(10);
+		List<HistoricalPlanner.Request> requests = planner.plan(Arrays.asList(
+				LocalDate.of(2018, 5, 1), LocalDate.of(2018, 5, 6), LocalDate.of(2018, 5, 10),
+				LocalDate.of(2018, 5, 11), LocalDate.of(2018, 5, 15)));
+
+		Assert.assertEquals(2, requests.size());
+		Assert.assertEquals(3, requests.get(0).getDates().size());
+		Assert.assertEquals(2, requests.get(1).getDates().size());
+	}
+
+	@Test
+	public void testGetHistoricalDates() throws Exception {
+		String timeSeriesJson = "{"
+				+ "\"success\": true,"
+				+ "\"timeseries\": true,"
+				+ "\"start_date\": \"2012-05-01\","
+				+ "\"end_date\": \"2012-05-03\","
+				+ "\"base\": \"EUR\","
+				+ "\"rates\": {"
+				+ "\"2012-05-01\":{\"USD\": 1.322891},"
+				+ "\"2012-05-02\":{\"USD\": 1.315066},"
+				+ "\"2012-05-03\":{\"USD\": 1.314491}"
+				+ "}"
+				+ "}";
+		String timeSeriesUrl = "/timeseries?access_key=" + TestConfig.accessKey + "&start_date=2012-05-01&end_date=2012-05-03&symbols=USD&base="
+				+ TestConfig.baseCurrency;
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, timeSeriesUrl, timeSeriesJson);
+
+		String historicalJson = "{"
+				+ "\"success\": true,"
+				+ "\"historical\": true,"
+				+ "\"date\": \"2012-08-15\","
+				+ "\"timestamp\": 1345075199,"
+				+ "\"base\": \"EUR\","
+				+ "\"rates\": {\"USD\": 1.233512}"
+				+ "}";
+		String historicalUrl = "/2012-08-15?access_key=" + TestConfig.accessKey + "&symbols=USD&base=" + TestConfig.baseCurrency;
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, historicalUrl, historicalJson);
+		wireMockRule.resetRequests();
+
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		Map<LocalDate, List<ExchangeRate>> rates = fixerApiLoader.getHistorical(
+				Arrays.asList(LocalDate.of(2012, 8, 15), LocalDate.of(2012, 5, 3), LocalDate.of(2012, 5, 1)), "USD");
+
+		// Sorted by date, 2012-05-02 loaded with the period but not requested
+		Assert.assertEquals(Arrays.asList(LocalDate.of(2012, 5, 1), LocalDate.of(2012, 5, 3), LocalDate.of(2012, 8, 15)),
+				Arrays.asList(rates.keySet().toArray()));
+		Assert.assertEquals(1.322891, rates.get(LocalDate.of(2012, 5, 1)).get(0).getRate(), 0.0000001);
+		Assert.assertEquals(1.314491, rates.get(LocalDate.of(2012, 5, 3)).get(0).getRate(), 0.0000001);
+		Assert.assertEquals(1.233512, rates.get(LocalDate.of(2012, 8, 15)).get(0).getRate(), 0.0000001);
+
+		// One request per cluster
+		verify(1, getRequestedFor(urlEqualTo(timeSeriesUrl)));
+		verify(1, getRequestedFor(urlEqualTo(historicalUrl)));
+	}
+
+	@Test
+	public void testGetHistoricalDatesError() throws Exception {
+		String historicalJson = "{\"success\": true, \"historical\": true, \"date\": \"2012-08-15\", \"timestamp\": 1345075199,"
+				+ " \"base\": \"EUR\", \"rates\": {\"USD\": 1.233512}}";
+		String historicalUrl = "/2012-08-15?access_key=" + TestConfig.accessKey + "&symbols=USD&base=" + TestConfig.baseCurrency;
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, historicalUrl, historicalJson);
+
+		String errorJson = "{\"success\": false, \"error\": {\"code\": 302, \"type\": \"invalid_date\", \"info\": \"You have entered an invalid date.\"}}";
+		String errorUrl = "/2012-01-15?access_key=" + TestConfig.accessKey + "&symbols=USD&base=" + TestConfig.baseCurrency;
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, errorUrl, errorJson);
+		wireMockRule.resetRequests();
+
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		try {
+			fixerApiLoader.getHistorical(Arrays.asList(LocalDate.of(2012, 8, 15), LocalDate.of(2012, 1, 15)), "USD");
+			Assert.assertTrue(false);
+		} catch (FixerException fe) {
+			Assert.assertEquals("invalid_date", fe.getFixerType());
+		}
+		verify(1, getRequestedFor(urlPathEqualTo("/2012-01-15")));
+	}
+
+}
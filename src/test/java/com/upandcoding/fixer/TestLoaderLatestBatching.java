@@ -0,0 +1,228 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.upandcoding.fixer.model.ExchangeRate;
+import com.upandcoding.fixer.request.Deadline;
+import com.upandcoding.tests.config.TestConfig;
+import com.upandcoding.tests.config.TestUtils;
+
+import junit.framework.Assert;
+
+public class TestLoaderLatestBatching {
+
+	private static final Logger log = LoggerFactory.getLogger(TestLoaderLatestBatching.class);
+
+	@Rule
+	public WireMockRule wireMockRule = new WireMockRule(7079);
+
+	private static String latestJson(String... ratePairs) {
+		StringBuilder json = new StringBuilder("{\"success\": true, \"timestamp\": 1519296206, \"base\": \"EUR\", \"date\": \"2018-07-10\", \"rates\": {");
+		for (int i = 0; i < ratePairs.length; i++) {
+			if (i > 0) {
+				json.append(",");
+			}
+			json.append(ratePairs[i]);
+		}
+		return json.append("}}").toString();
+	}
+
+	private static String latestUrl(String symbols) {
+		return "/latest?access_key=" + TestConfig.accessKey + "&base=" + TestConfig.baseCurrency + "&symbols=" + symbols;
+	}
+
+	private static List<String> symbolsOf(List<ExchangeRate> rates) {
+		List<String> symbols = new ArrayList<>();
+		for (ExchangeRate rate : rates) {
+			symbols.add(rate.getTargetCurrency());
+		}
+		return symbols;
+	}
+
+	@Test
+	public void testConcurrentSubsetsAreBatched() throws Exception {
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, latestUrl("CHF,GBP,JPY,USD"),
+				latestJson("\"CHF\": 1.16", "\"GBP\": 0.88", "\"JPY\": 129.5", "\"USD\": 1.17"));
+		wireMockRule.resetRequests();
+
+		final FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		fixerApiLoader.setLatestBatchWindow(300);
+
+		final List<List<String>> subsets = new ArrayList<>();
+		subsets.add(Arrays.asList("GBP", "JPY"));
+		subsets.add(Arrays.asList("USD", "JPY"));
+		subsets.add(Arrays.asList("CHF"));
+
+		ExecutorService executor = Executors.newFixedThreadPool(subsets.size());
+		List<Future<List<ExchangeRate>>> futures = new ArrayList<>();
+		for (final List<String> subset : subsets) {
+			futures.add(executor.submit(new Callable<List<ExchangeRate>>() {
+				@Override
+				public List<ExchangeRate> call() throws Exception {
+					return fixerApiLoader.getLatest(new HashSet<>(subset));
+				}
+			}));
+		}
+		for (int i = 0; i < subsets.size(); i++) {
+			List<ExchangeRate> rates = futures.get(i).get();
+			Assert.assertEquals(new HashSet<>(subsets.get(i)), new HashSet<>(symbolsOf(rates)));
+		}
+		executor.shutdown();
+
+		verify(1, getRequestedFor(urlPathEqualTo("/latest")));
+		Assert.assertEquals(1, fixerApiLoader.getLatestBatcher().getBatchCount());
+	}
+
+	@Test
+	public void testLongBatchIsSplit() throws Exception {
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, latestUrl("GBP,JPY"), latestJson("\"GBP\": 0.88", "\"JPY\": 129.5"));
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, latestUrl("USD"), latestJson("\"USD\": 1.17"));
+		wireMockRule.resetRequests();
+
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		fixerApiLoader.setLatestBatchWindow(10);
+		fixerApiLoader.getLatestBatcher().setMaxSymbolsLength(7);
+
+		List<ExchangeRate> rates = fixerApiLoader.getLatest("USD,GBP,JPY");
+		Assert.assertEquals(Arrays.asList("USD", "GBP", "JPY"), symbolsOf(rates));
+		Assert.assertEquals(129.5, rates.get(2).getRate());
+		verify(1, getRequestedFor(urlEqualTo(latestUrl("GBP,JPY"))));
+		verify(1, getRequestedFor(urlEqualTo(latestUrl("USD"))));
+		Assert.assertEquals(2, fixerApiLoader.getLatestBatcher().getRequestCount());
+	}
+
+	@Test
+	public void testFollowerDeadlineAndCancellation() throws Exception {
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, latestUrl("GBP,JPY,USD"),
+				latestJson("\"GBP\": 0.88", "\"JPY\": 129.5", "\"USD\": 1.17"));
+
+		final FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		fixerApiLoader.setLatestBatchWindow(1000);
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		Future<List<ExchangeRate>> leader = executor.submit(new Callable<List<ExchangeRate>>() {
+			@Override
+			public List<ExchangeRate> call() throws Exception {
+				return fixerApiLoader.getLatest("GBP");
+			}
+		});
+		Thread.sleep(100);
+
+		// Joins the batch, but gives up at its own deadline
+		long start = System.currentTimeMillis();
+		try {
+			fixerApiLoader.call(Duration.ofMillis(200), l -> l.getLatest("JPY"));
+			Assert.fail("Deadline not applied to the wait for the batch");
+		} catch (FixerException e) {
+			Assert.assertEquals(Deadline.TYPE_DEADLINE_EXCEEDED, e.getFixerType());
+		}
+		Assert.assertTrue(System.currentTimeMillis() - start < 700);
+
+		// Joins the batch, and stops waiting once cancelled
+		final CountDownLatch ended = new CountDownLatch(1);
+		Future<List<ExchangeRate>> follower = fixerApiLoader.submit(l -> {
+			try {
+				return l.getLatest("USD");
+			} finally {
+				ended.countDown();
+			}
+		});
+		Thread.sleep(100);
+		follower.cancel(false);
+		Assert.assertTrue(ended.await(300, TimeUnit.MILLISECONDS));
+
+		Assert.assertEquals(Arrays.asList("GBP"), symbolsOf(leader.get()));
+		executor.shutdown();
+	}
+
+	@Test
+	public void testLeaderDeadlineAndCancellation() throws Exception {
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, latestUrl("GBP,JPY,USD"),
+				latestJson("\"GBP\": 0.88", "\"JPY\": 129.5", "\"USD\": 1.17"));
+		wireMockRule.resetRequests();
+
+		final FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		fixerApiLoader.setLatestBatchWindow(500);
+
+		// Opens the batch, and gives up at its own deadline, before the end of the window
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		final long start = System.currentTimeMillis();
+		Future<Long> leader = executor.submit(new Callable<Long>() {
+			@Override
+			public Long call() throws Exception {
+				try {
+					fixerApiLoader.call(Duration.ofMillis(150), l -> l.getLatest("GBP"));
+					Assert.fail("Deadline not applied to the wait for the batch");
+				} catch (FixerException e) {
+					Assert.assertEquals(Deadline.TYPE_DEADLINE_EXCEEDED, e.getFixerType());
+				}
+				return System.currentTimeMillis() - start;
+			}
+		});
+		Thread.sleep(50);
+		Future<List<ExchangeRate>> cancelled = fixerApiLoader.submit(l -> l.getLatest("JPY"));
+		Future<List<ExchangeRate>> follower = executor.submit(new Callable<List<ExchangeRate>>() {
+			@Override
+			public List<ExchangeRate> call() throws Exception {
+				return fixerApiLoader.getLatest("USD");
+			}
+		});
+		Thread.sleep(50);
+		cancelled.cancel(false);
+
+		// Neither the deadline nor the cancellation of the others fails the follower
+		Assert.assertTrue(leader.get() < 400);
+		Assert.assertEquals(Arrays.asList("USD"), symbolsOf(follower.get()));
+		executor.shutdown();
+		verify(1, getRequestedFor(urlPathEqualTo("/latest")));
+	}
+
+	@Test
+	public void testAllCurrenciesNotBatched() throws Exception {
+		String endpointUrl = "/latest?access_key=" + TestConfig.accessKey + "&base=" + TestConfig.baseCurrency;
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, endpointUrl, latestJson("\"GBP\": 0.88"));
+
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		fixerApiLoader.setLatestBatchWindow(10);
+		List<ExchangeRate> rates = fixerApiLoader.getLatest();
+		Assert.assertEquals(1, rates.size());
+		Assert.assertEquals(0, fixerApiLoader.getLatestBatcher().getBatchCount());
+	}
+
+}
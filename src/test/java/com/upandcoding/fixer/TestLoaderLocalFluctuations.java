@@ -0,0 +1,181 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.upandcoding.fixer.cache.RateHistoryCache;
+import com.upandcoding.fixer.cache.ResponseCache;
+import com.upandcoding.fixer.model.Currency;
+import com.upandcoding.fixer.model.ExchangeRate;
+import com.upandcoding.fixer.model.Fluctuation;
+import com.upandcoding.fixer.model.TimeSeries;
+import com.upandcoding.tests.config.TestConfig;
+import com.upandcoding.tests.config.TestUtils;
+
+import junit.framework.Assert;
+
+public class TestLoaderLocalFluctuations {
+
+	private static final Logger log = LoggerFactory.getLogger(TestLoaderLocalFluctuations.class);
+
+	@Rule
+	public WireMockRule wireMockRule = new WireMockRule(7079);
+
+	private static final List<Currency> SUPPORTED_CURRENCIES = Arrays.asList(new Currency("USD", "United States Dollar"),
+			new Currency("JPY", "Japanese Yen"), new Currency("EUR", "Euro"));
+
+	private FixerApiLoader createLoaderWithHistory() throws Exception {
+		String jsonStr = "{"
+				+ "\"success\": true,"
+				+ "\"timeseries\": true,"
+				+ "\"start_date\": \"2018-02-25\","
+				+ "\"end_date\": \"2018-02-27\","
+				+ "\"base\": \"EUR\","
+				+ "\"rates\": {"
+				+ "\"2018-02-25\":{\"USD\": 1.228952, \"JPY\": 131.587611},"
+				+ "\"2018-02-26\":{\"USD\": 1.232735, \"JPY\": 131.651142},"
+				+ "\"2018-02-27\":{\"USD\": 1.224343}"
+				+ "}"
+				+ "}";
+		String endpointUrl = "/timeseries?access_key=" + TestConfig.accessKey + "&start_date=2018-02-25&end_date=2018-02-27&symbols=USD,JPY&base="
+				+ TestConfig.baseCurrency;
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, endpointUrl, jsonStr);
+
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		fixerApiLoader.setHistoryCache(new RateHistoryCache());
+		fixerApiLoader.getTimeSeries("2018-02-25", "2018-02-27", "USD,JPY");
+		return fixerApiLoader;
+	}
+
+	@Test
+	public void testHistoryRecorded() throws Exception {
+		FixerApiLoader fixerApiLoader = createLoaderWithHistory();
+		RateHistoryCache cache = fixerApiLoader.getHistoryCache();
+		Assert.assertEquals(3, cache.getSeries("EUR").size());
+		Assert.assertEquals(1.224343, cache.getSeries("EUR").getRate("USD", LocalDate.of(2018, 2, 27)), 0);
+		Assert.assertTrue(Double.isNaN(cache.getSeries("EUR").getRate("JPY", LocalDate.of(2018, 2, 27))));
+
+		// As-of lookups
+		Assert.assertEquals("2018-02-26", cache.getRateAsOf("EUR", "JPY", LocalDate.of(2018, 2, 28)).getDate());
+		Assert.assertEquals(1.224343, cache.getRateAsOf("EUR", "USD", LocalDate.of(2018, 3, 6)).getRate(), 0);
+		Assert.assertNull(cache.getRateAsOf("EUR", "USD", LocalDate.of(2018, 3, 7)));
+		cache.setAsOfToleranceDays(30);
+		Assert.assertNotNull(cache.getRateAsOf("EUR", "USD", LocalDate.of(2018, 3, 7)));
+		Assert.assertNull(cache.getRateAsOf("USD", "EUR", LocalDate.of(2018, 3, 7)));
+		Assert.assertEquals(2, cache.getRatesAsOf("EUR", Arrays.asList("USD", "GBP", "JPY"), LocalDate.of(2018, 2, 24),
+				TimeSeries.Lookup.NEXT, 1).size());
+	}
+
+	@Test
+	public void testCachedResponseNotRecorded() throws Exception {
+		FixerApiLoader fixerApiLoader = createLoaderWithHistory();
+		fixerApiLoader.setResponseCache(new ResponseCache());
+		fixerApiLoader.getTimeSeries("2018-02-25", "2018-02-27", "USD,JPY");
+		TimeSeries series = fixerApiLoader.getHistoryCache().getSeries("EUR");
+		series.put(LocalDate.of(2018, 2, 27), Collections.singletonMap("USD", 1.3));
+		wireMockRule.resetRequests();
+
+		// Served from the response cache: the history is left as it is
+		List<ExchangeRate> rates = fixerApiLoader.getTimeSeries("2018-02-25", "2018-02-27", "USD,JPY");
+		Assert.assertEquals(1.224343, rates.get(rates.size() - 1).getRate(), 0);
+		Assert.assertEquals(1.3, series.getRate("USD", LocalDate.of(2018, 2, 27)), 0);
+		verify(0, getRequestedFor(urlPathEqualTo("/timeseries")));
+	}
+
+	@Test
+	public void testFluctuationsFromCache() throws Exception {
+		FixerApiLoader fixerApiLoader = createLoaderWithHistory();
+		wireMockRule.resetRequests();
+
+		List<Fluctuation> fluctuations = fixerApiLoader.getFluctuations("2018-02-25", "2018-02-26", "USD,JPY");
+		Assert.assertEquals(2, fluctuations.size());
+
+		// Same values as the Fluctuation Endpoint
+		Fluctuation usd = fluctuations.get(0);
+		Assert.assertEquals("USD", usd.getTargetCurrency());
+		Assert.assertEquals("EUR", usd.getBaseCurrency());
+		Assert.assertEquals(1.228952, usd.getStartRate(), 0);
+		Assert.assertEquals(1.232735, usd.getEndRate(), 0);
+		Assert.assertEquals(0.0038, usd.getChange(), 0);
+		Assert.assertEquals(0.3078, usd.getChangePct(), 0);
+		Fluctuation jpy = fluctuations.get(1);
+		Assert.assertEquals(0.0635, jpy.getChange(), 0);
+		Assert.assertEquals(0.0483, jpy.getChangePct(), 0);
+
+		// All the currencies, when all the supported ones are cached
+		Currency.setSupportedCurrencies(SUPPORTED_CURRENCIES);
+		fluctuations = fixerApiLoader.getFluctuations(LocalDate.of(2018, 2, 25), LocalDate.of(2018, 2, 26));
+		Assert.assertEquals(3, fluctuations.size());
+		Assert.assertEquals(0.0038, fluctuations.get(0).getChange(), 0);
+		Assert.assertEquals("EUR", fluctuations.get(2).getTargetCurrency());
+		Assert.assertEquals(0, fluctuations.get(2).getChange(), 0);
+
+		verify(0, getRequestedFor(urlPathEqualTo("/fluctuation")));
+	}
+
+	@Test
+	public void testFallbackForMissingCurrencies() throws Exception {
+		FixerApiLoader fixerApiLoader = createLoaderWithHistory();
+
+		String jsonStr = "{"
+				+ "\"success\":true,"
+				+ "\"fluctuation\":true,"
+				+ "\"start_date\":\"2018-02-25\","
+				+ "\"end_date\":\"2018-02-27\","
+				+ "\"base\":\"EUR\","
+				+ "\"rates\":{"
+				+ "\"JPY\":{\"start_rate\":131.587611, \"end_rate\":130.9, \"change\":-0.6876, \"change_pct\":-0.5225}"
+				+ "}"
+				+ "}";
+		String endpointUrl = "/fluctuation?access_key=" + TestConfig.accessKey + "&base=" + TestConfig.baseCurrency
+				+ "&start_date=2018-02-25&end_date=2018-02-27&symbols=JPY";
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, endpointUrl, jsonStr);
+		wireMockRule.resetRequests();
+
+		// JPY is not cached on 2018-02-27: only JPY is requested
+		List<Fluctuation> fluctuations = fixerApiLoader.getFluctuations("2018-02-25", "2018-02-27", "USD,JPY");
+		Assert.assertEquals(2, fluctuations.size());
+		Assert.assertEquals("USD", fluctuations.get(0).getTargetCurrency());
+		Assert.assertEquals("JPY", fluctuations.get(1).getTargetCurrency());
+		Assert.assertEquals(130.9, fluctuations.get(1).getEndRate(), 0);
+		verify(1, getRequestedFor(urlEqualTo(endpointUrl)));
+
+		// All the currencies: JPY is requested as well
+		Currency.setSupportedCurrencies(SUPPORTED_CURRENCIES);
+		fluctuations = fixerApiLoader.getFluctuations(LocalDate.of(2018, 2, 25), LocalDate.of(2018, 2, 27));
+		Assert.assertEquals(3, fluctuations.size());
+		Assert.assertEquals(-0.0046, fluctuations.get(0).getChange(), 0);
+		Assert.assertEquals("JPY", fluctuations.get(2).getTargetCurrency());
+		Assert.assertEquals(130.9, fluctuations.get(2).getEndRate(), 0);
+		verify(2, getRequestedFor(urlEqualTo(endpointUrl)));
+	}
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.upandcoding.fixer.request.QuotaGovernor;
+import com.upandcoding.tests.config.TestConfig;
+import com.upandcoding.tests.config.TestUtils;
+
+import junit.framework.Assert;
+
+public class TestLoaderQuota {
+
+	private static final Logger log = LoggerFactory.getLogger(TestLoaderQuota.class);
+
+	@Rule
+	public WireMockRule wireMockRule = new WireMockRule(7079);
+
+	private static final String ENDPOINT_URL = "/latest?access_key=" + TestConfig.accessKey + "&base=" + TestConfig.baseCurrency;
+
+	@Test
+	public void testRequestsCounted() throws Exception {
+		String jsonStr = "{\"success\": true, \"timestamp\": 1519296206, \"base\": \"EUR\", \"date\": \"2018-07-10\", \"rates\": {\"GBP\": 0.72007}}";
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, ENDPOINT_URL, jsonStr);
+
+		QuotaGovernor governor = new QuotaGovernor(0, 2);
+		governor.setBackfillReserve(0);
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		fixerApiLoader.setQuotaGovernor(governor);
+
+		fixerApiLoader.getLatest();
+		fixerApiLoader.getLatest();
+		Assert.assertEquals(2, governor.getUsed());
+
+		wireMockRule.resetRequests();
+		try {
+			fixerApiLoader.getLatest();
+			Assert.assertTrue(false);
+		} catch (FixerException fe) {
+			Assert.assertEquals(QuotaGovernor.TYPE_BUDGET_EXHAUSTED, fe.getFixerType());
+		}
+		verify(0, getRequestedFor(urlEqualTo(ENDPOINT_URL)));
+	}
+
+	@Test
+	public void testQuotaReachedOnServer() throws Exception {
+		String jsonStr = "{\"success\":false,\"error\":{\"code\":104,\"type\":\"usage_limit_reached\",\"info\":\"Your monthly usage limit has been reached.\"}}";
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, ENDPOINT_URL, jsonStr);
+		wireMockRule.resetRequests();
+
+		QuotaGovernor governor = new QuotaGovernor(0, 1000);
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		fixerApiLoader.setQuotaGovernor(governor);
+
+		try {
+			fixerApiLoader.getLatest();
+			Assert.assertTrue(false);
+		} catch (FixerException fe) {
+			Assert.assertEquals("usage_limit_reached", fe.getFixerType());
+		}
+		Assert.assertEquals(0, governor.getRemaining());
+
+		// Further requests are not sent
+		try {
+			fixerApiLoader.getLatest();
+			Assert.assertTrue(false);
+		} catch (FixerException fe) {
+			Assert.assertEquals(QuotaGovernor.TYPE_BUDGET_EXHAUSTED, fe.getFixerType());
+		}
+		verify(1, getRequestedFor(urlEqualTo(ENDPOINT_URL)));
+	}
+
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.upandcoding.fixer.cache.ResponseCache;
+import com.upandcoding.fixer.model.ExchangeRate;
+import com.upandcoding.fixer.model.RateChange;
+import com.upandcoding.fixer.model.RateChangeNotifier;
+import com.upandcoding.fixer.model.RateSnapshot;
+import com.upandcoding.fixer.request.QuotaGovernor;
+import com.upandcoding.tests.config.TestConfig;
+import com.upandcoding.tests.config.TestUtils;
+
+import junit.framework.Assert;
+
+public class TestLoaderRateRefresher {
+
+	private static final Logger log = LoggerFactory.getLogger(TestLoaderRateRefresher.class);
+
+	private static final String endpointUrl = "/latest?access_key=" + TestConfig.accessKey + "&base=" + TestConfig.baseCurrency;
+
+	@Rule
+	public WireMockRule wireMockRule = new WireMockRule(7079);
+
+	private static String latestJson(long timestamp, double usd) {
+		return "{" + "\"success\": true," + "\"timestamp\": " + timestamp + "," + "\"base\": \"EUR\"," + "\"date\": \"2018-07-10\","
+				+ "\"rates\": {" + "\"USD\": " + usd + "," + "\"GBP\": 0.88" + "}" + "}";
+	}
+
+	private static void waitFor(RateRefresher refresher, long polls) throws InterruptedException {
+		long end = System.currentTimeMillis() + 5000;
+		while (refresher.getPollCount() + refresher.getSkippedCount() < polls && System.currentTimeMillis() < end) {
+			Thread.sleep(10);
+		}
+	}
+
+	@Test
+	public void testPublishNewSnapshots() throws Exception {
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, endpointUrl, latestJson(1531958399, 1.17));
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		RateRefresher refresher = fixerApiLoader.getRateRefresher(RateRefresher.Plan.PROFESSIONAL);
+		Assert.assertEquals(600000, refresher.getIntervalMillis());
+		Assert.assertNull(refresher.getSnapshot());
+		Assert.assertEquals(-1, refresher.getSnapshotAgeMillis());
+
+		RateSnapshot first = refresher.refresh();
+		Assert.assertSame(first, refresher.getSnapshot());
+		Assert.assertEquals(1.17, first.getRate("USD"), 0);
+		Assert.assertTrue(refresher.getSnapshotAgeMillis() >= 0);
+		Assert.assertTrue(refresher.getRateAgeMillis() > 0);
+
+		// Same timestamp: same snapshot, parsing stopped at the header
+		Assert.assertSame(first, refresher.refresh());
+		Assert.assertEquals(1, refresher.getPublishCount());
+		Assert.assertEquals(1, refresher.getUnchangedCount());
+
+		// Rates updated
+		final List<RateChange> changes = new ArrayList<>();
+		refresher.addChangeListener(new RateChangeNotifier.Listener() {
+			@Override
+			public void onChanges(RateSnapshot previous, RateSnapshot current, List<RateChange> batch) {
+				changes.addAll(batch);
+			}
+		}, 0.5);
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, endpointUrl, latestJson(1531958999, 1.18));
+		RateSnapshot second = refresher.refresh();
+		Assert.assertEquals(1, changes.size());
+		Assert.assertEquals("USD", changes.get(0).getTargetCurrency());
+		Assert.assertEquals(1.17, changes.get(0).getOldRate(), 0);
+		Assert.assertNotSame(first, second);
+		Assert.assertEquals(1.18, refresher.getSnapshot().getRate("USD"), 0);
+		Assert.assertEquals(1.18, refresher.getLiveRates().getRate("USD"), 0);
+		Assert.assertEquals(0.88 / 1.18, refresher.getLiveRates().getCrossRate("USD", "GBP"), 1e-12);
+		Assert.assertEquals(2, refresher.getPublishCount());
+		Assert.assertEquals(3, refresher.getPollCount());
+
+		// Older rates, eg: from a lagging server: not published
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, endpointUrl, latestJson(1531958399, 1.17));
+		Assert.assertSame(second, refresher.refresh());
+		Assert.assertEquals(1.18, refresher.getLiveRates().getRate("USD"), 0);
+		Assert.assertEquals(2, refresher.getPublishCount());
+		Assert.assertEquals(1, changes.size());
+	}
+
+	@Test
+	public void testResponseCacheBypassed() throws Exception {
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, endpointUrl, latestJson(1531958399, 1.17));
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		fixerApiLoader.setResponseCache(new ResponseCache());
+		Assert.assertEquals(1.17, fixerApiLoader.getLatest().get(0).getRate(), 0);
+
+		// The fresh response in cache is not served to the refresher
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, endpointUrl, latestJson(1531958999, 1.18));
+		wireMockRule.resetRequests();
+		RateRefresher refresher = fixerApiLoader.getRateRefresher(RateRefresher.Plan.PROFESSIONAL);
+		Assert.assertEquals(1.18, refresher.refresh().getRate("USD"), 0);
+		verify(1, getRequestedFor(urlEqualTo(endpointUrl)));
+
+		// The new response is cached
+		Assert.assertEquals(1.18, fixerApiLoader.getLatest().get(0).getRate(), 0);
+		verify(1, getRequestedFor(urlEqualTo(endpointUrl)));
+
+		// Unchanged, parsed header first: not cached
+		refresher.refresh();
+		Assert.assertEquals(1, refresher.getUnchangedCount());
+		Assert.assertEquals(1, fixerApiLoader.getResponseCache().size());
+		Assert.assertEquals(1.18, fixerApiLoader.getLatest().get(0).getRate(), 0);
+	}
+
+	@Test
+	public void testScheduledPolls() throws Exception {
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, endpointUrl, latestJson(1531958399, 1.17));
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		RateRefresher refresher = fixerApiLoader.getRateRefresher(null, null, Duration.ofMillis(50));
+		refresher.setAligned(false);
+		refresher.start();
+		waitFor(refresher, 3);
+		refresher.stop();
+		Assert.assertFalse(refresher.isRunning());
+		Assert.assertTrue(refresher.getPollCount() >= 3);
+		Assert.assertEquals(1, refresher.getPublishCount());
+		Assert.assertEquals(0, refresher.getFailureCount());
+		Assert.assertEquals(0.88, refresher.getSnapshot().getRate("GBP"), 0);
+		Assert.assertTrue(refresher.getLastPollAgeMillis() >= 0);
+
+		long polls = refresher.getPollCount();
+		Thread.sleep(200);
+		Assert.assertEquals(polls, refresher.getPollCount());
+	}
+
+	@Test
+	public void testPausedUnderQuotaPressure() throws Exception {
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, endpointUrl, latestJson(1531958399, 1.17));
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		// A single request left this month
+		fixerApiLoader.setQuotaGovernor(new QuotaGovernor(100, 1));
+		RateRefresher refresher = fixerApiLoader.getRateRefresher(null, null, Duration.ofMillis(20));
+		refresher.start();
+		waitFor(refresher, 4);
+		refresher.stop();
+		Assert.assertEquals(1, refresher.getPollCount());
+		Assert.assertTrue(refresher.getSkippedCount() >= 3);
+		Assert.assertTrue(refresher.isQuotaPaused());
+		Assert.assertNotNull(refresher.getSnapshot());
+	}
+
+	@Test
+	public void testGetLatestIfChanged() throws Exception {
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, endpointUrl, latestJson(1531958399, 1.17));
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		List<ExchangeRate> rates = fixerApiLoader.getLatestIfChanged(null, null, null);
+		Assert.assertEquals(2, rates.size());
+		LocalDateTime timestamp = rates.get(0).getTimestamp();
+		Assert.assertNull(fixerApiLoader.getLatestIfChanged(null, null, timestamp));
+		Assert.assertEquals(2, fixerApiLoader.getLatestIfChanged(null, null, timestamp.minusMinutes(1)).size());
+
+		// Whole response parsed when rebased locally
+		fixerApiLoader.setLocalRebasing(true);
+		Assert.assertNull(fixerApiLoader.getLatestIfChanged("USD", "GBP", timestamp));
+		Assert.assertEquals(1, fixerApiLoader.getLatestIfChanged("USD", "GBP", timestamp.minusMinutes(1)).size());
+	}
+
+	@Test
+	public void testAdaptivePeriod() throws Exception {
+		long now = System.currentTimeMillis() / 1000;
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		RateRefresher refresher = fixerApiLoader.getRateRefresher(null, null, Duration.ofMinutes(1));
+		refresher.setAdaptive(true);
+		refresher.setOffsetMillis(1000);
+
+		// Updates every 10 minutes, one of them missed
+		long[] timestamps = { now - 2700, now - 2100, now - 900, now - 300 };
+		for (long timestamp : timestamps) {
+			TestUtils.setupMockHttpServer(TestConfig.baseUrl, endpointUrl, latestJson(timestamp, 1.17));
+			refresher.refresh();
+		}
+		Assert.assertEquals(600000, refresher.getLearnedPeriodMillis());
+
+		// Next update expected in 5 minutes
+		long delay = refresher.getNextPollDelayMillis();
+		Assert.assertTrue("Delay: " + delay, delay > 295000 && delay <= 301000);
+
+		// Quota cap
+		refresher.setMaxPollsPerDay(24);
+		delay = refresher.getNextPollDelayMillis();
+		Assert.assertTrue("Delay: " + delay, delay > 3590000 && delay <= 3600000);
+	}
+
+	@Test
+	public void testAdaptiveLateUpdate() throws Exception {
+		long now = System.currentTimeMillis() / 1000;
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		RateRefresher refresher = fixerApiLoader.getRateRefresher(null, null, Duration.ofMinutes(1));
+		refresher.setAdaptive(true);
+
+		// Update expected 100 s ago
+		long[] timestamps = { now - 1900, now - 1300, now - 700 };
+		for (long timestamp : timestamps) {
+			TestUtils.setupMockHttpServer(TestConfig.baseUrl, endpointUrl, latestJson(timestamp, 1.17));
+			refresher.refresh();
+		}
+		Assert.assertEquals(600000, refresher.getLearnedPeriodMillis());
+
+		// Polled again a tenth of a period later
+		long delay = refresher.getNextPollDelayMillis();
+		Assert.assertTrue("Delay: " + delay, delay > 59000 && delay <= 60000);
+
+		// Still not updated: twice as late after each poll, up to the period
+		refresher.refresh();
+		delay = refresher.getNextPollDelayMillis();
+		Assert.assertTrue("Delay: " + delay, delay > 119000 && delay <= 120000);
+		for (int i = 0; i < 5; i++) {
+			refresher.refresh();
+		}
+		delay = refresher.getNextPollDelayMillis();
+		Assert.assertTrue("Delay: " + delay, delay > 599000 && delay <= 600000);
+		Assert.assertEquals(RateRefresher.DEFAULT_MIN_POLL_INTERVAL_MILLIS, refresher.getMinPollIntervalMillis());
+	}
+
+	@Test(expected = FixerException.class)
+	public void testInvalidInterval() throws Exception {
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		fixerApiLoader.getRateRefresher("USD", null, Duration.ZERO);
+	}
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.upandcoding.fixer.cache.ResponseCache;
+import com.upandcoding.fixer.model.ExchangeRate;
+import com.upandcoding.tests.config.TestConfig;
+import com.upandcoding.tests.config.TestUtils;
+
+import junit.framework.Assert;
+
+public class TestLoaderRebasing {
+
+	private static final Logger log = LoggerFactory.getLogger(TestLoaderRebasing.class);
+
+	@Rule
+	public WireMockRule wireMockRule = new WireMockRule(7079);
+
+	private static final String LATEST_JSON = "{\"success\": true, \"timestamp\": 1519296206, \"base\": \"EUR\", \"date\": \"2018-07-10\","
+			+ " \"rates\": {\"USD\": 1.2, \"GBP\": 0.8, \"JPY\": 130.0}}";
+
+	private static final String LATEST_URL = "/latest?access_key=" + TestConfig.accessKey + "&base=" + TestConfig.baseCurrency;
+
+	@Test
+	public void testLatestRebasedLocally() throws Exception {
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, LATEST_URL, LATEST_JSON);
+		wireMockRule.resetRequests();
+
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		fixerApiLoader.setLocalRebasing(true);
+		fixerApiLoader.setResponseCache(new ResponseCache());
+
+		List<ExchangeRate> rates = fixerApiLoader.getLatest("USD,JPY,EUR", "GBP");
+		Assert.assertEquals(3, rates.size());
+		Assert.assertEquals("GBP", rates.get(0).getBaseCurrency());
+		Assert.assertEquals("USD", rates.get(0).getTargetCurrency());
+		Assert.assertEquals(1.5, rates.get(0).getRate(), 0);
+		Assert.assertEquals(162.5, rates.get(1).getRate(), 0);
+		Assert.assertEquals(1.25, rates.get(2).getRate(), 0);
+		Assert.assertEquals("2018-07-10", rates.get(0).getDate());
+
+		// Every base currency served by the same response
+		rates = fixerApiLoader.getLatest("GBP", "USD");
+		Assert.assertEquals(0.66666667, rates.get(0).getRate(), 0);
+		rates = fixerApiLoader.getLatest((String) null, "JPY");
+		Assert.assertEquals(4, rates.size());
+		verify(1, getRequestedFor(urlEqualTo(LATEST_URL)));
+	}
+
+	@Test
+	public void testUnknownCurrencyRebasedOnServer() throws Exception {
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, LATEST_URL, LATEST_JSON);
+		String chfUrl = "/latest?access_key=" + TestConfig.accessKey + "&base=CHF&symbols=USD";
+		String chfJson = "{\"success\": true, \"timestamp\": 1519296206, \"base\": \"CHF\", \"date\": \"2018-07-10\", \"rates\": {\"USD\": 1.01}}";
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, chfUrl, chfJson);
+		wireMockRule.resetRequests();
+
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		fixerApiLoader.setLocalRebasing(true);
+		List<ExchangeRate> rates = fixerApiLoader.getLatest("USD", "CHF");
+		Assert.assertEquals(1.01, rates.get(0).getRate(), 0);
+		verify(1, getRequestedFor(urlEqualTo(chfUrl)));
+	}
+
+	@Test
+	public void testServerRebasing() throws Exception {
+		String gbpUrl = "/latest?access_key=" + TestConfig.accessKey + "&base=GBP&symbols=USD";
+		String gbpJson = "{\"success\": true, \"timestamp\": 1519296206, \"base\": \"GBP\", \"date\": \"2018-07-10\", \"rates\": {\"USD\": 1.51}}";
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, gbpUrl, gbpJson);
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, LATEST_URL, LATEST_JSON);
+		wireMockRule.resetRequests();
+
+		// Default: the Fixer API rebases
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		List<ExchangeRate> rates = fixerApiLoader.getLatest("USD", "GBP");
+		Assert.assertEquals(1.51, rates.get(0).getRate(), 0);
+		verify(1, getRequestedFor(urlEqualTo(gbpUrl)));
+		verify(0, getRequestedFor(urlEqualTo(LATEST_URL)));
+	}
+
+	@Test
+	public void testHistoricalRebasedLocally() throws Exception {
+		String historicalUrl = "/2013-12-24?access_key=" + TestConfig.accessKey + "&base=" + TestConfig.baseCurrency;
+		String historicalJson = "{\"success\": true, \"historical\": true, \"date\": \"2013-12-24\", \"timestamp\": 1387929599, \"base\": \"EUR\","
+				+ " \"rates\": {\"USD\": 1.25, \"GBP\": 0.8}}";
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, historicalUrl, historicalJson);
+		wireMockRule.resetRequests();
+
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		fixerApiLoader.setLocalRebasing(true);
+		List<ExchangeRate> rates = fixerApiLoader.getHistorical("2013-12-24", "USD", "GBP");
+		Assert.assertEquals(1, rates.size());
+		Assert.assertEquals(1.5625, rates.get(0).getRate(), 0);
+		Assert.assertEquals("2013-12-24", rates.get(0).getDate());
+		verify(1, getRequestedFor(urlEqualTo(historicalUrl)));
+	}
+
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.upandcoding.fixer.model.ExchangeRate;
+import com.upandcoding.fixer.request.Deadline;
+import com.upandcoding.tests.config.TestConfig;
+
+import junit.framework.Assert;
+
+public class TestLoaderRequestCoalescing {
+
+	private static final Logger log = LoggerFactory.getLogger(TestLoaderRequestCoalescing.class);
+
+	private static final int THREADS = 10;
+
+	@Rule
+	public WireMockRule wireMockRule = new WireMockRule(7079);
+
+	private static final String LATEST_JSON = "{" + "\"success\": true," + "\"timestamp\": 1519296206," + "\"base\": \"EUR\","
+			+ "\"date\": \"2018-07-10\"," + "\"rates\": {" + "\"GBP\": 0.72007," + "\"JPY\": 107.346001" + "}" + "}";
+
+	private static final String ENDPOINT_URL = "/latest?access_key=" + TestConfig.accessKey + "&base=" + TestConfig.baseCurrency + "&symbols=GBP,JPY";
+
+	private void setupSlowServer() {
+		stubFor(get(urlEqualTo(ENDPOINT_URL))
+				.willReturn(aResponse()
+						.withStatus(200)
+						.withHeader("Content-Type", "application/json")
+						.withBody(LATEST_JSON)
+						.withFixedDelay(500)));
+	}
+
+	private List<List<ExchangeRate>> callConcurrently(final FixerApiLoader fixerApiLoader) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<List<ExchangeRate>>> futures = new ArrayList<>();
+			for (int i = 0; i < THREADS; i++) {
+				futures.add(executor.submit(new Callable<List<ExchangeRate>>() {
+					@Override
+					public List<ExchangeRate> call() throws Exception {
+						return fixerApiLoader.getLatest("GBP,JPY");
+					}
+				}));
+			}
+			List<List<ExchangeRate>> results = new ArrayList<>();
+			for (Future<List<ExchangeRate>> future : futures) {
+				results.add(future.get());
+			}
+			return results;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testConcurrentCallsShareOneRequest() throws Exception {
+		setupSlowServer();
+
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		fixerApiLoader.setRequestCoalescing(true);
+		List<List<ExchangeRate>> results = callConcurrently(fixerApiLoader);
+
+		verify(1, getRequestedFor(urlEqualTo(ENDPOINT_URL)));
+		for (List<ExchangeRate> rates : results) {
+			Assert.assertEquals(results.get(0), rates);
+			Assert.assertEquals(2, rates.size());
+		}
+
+		// Each caller has its own result
+		results.get(0).clear();
+		results.get(1).get(0).setRate(0);
+		for (int i = 2; i < THREADS; i++) {
+			Assert.assertEquals(2, results.get(i).size());
+			Assert.assertEquals(0.72007, results.get(i).get(0).getRate(), 0);
+		}
+		Assert.assertEquals(1, fixerApiLoader.getRequestCoalescer().getExecutedCount());
+		Assert.assertEquals(THREADS - 1, fixerApiLoader.getRequestCoalescer().getCoalescedCount());
+		Assert.assertEquals(0, fixerApiLoader.getRequestCoalescer().getInFlightCount());
+		Assert.assertEquals(TestConfig.baseUrl + ENDPOINT_URL, fixerApiLoader.getLastCalledUrl());
+
+		// Once completed, the next call sends a new request
+		fixerApiLoader.getLatest("GBP,JPY");
+		verify(2, getRequestedFor(urlEqualTo(ENDPOINT_URL)));
+	}
+
+	@Test
+	public void testCancelledCallerDoesNotAbortOthers() throws Exception {
+		setupSlowServer();
+
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		fixerApiLoader.setRequestCoalescing(true);
+		Future<List<ExchangeRate>> first = fixerApiLoader.submit(l -> l.getLatest("GBP,JPY"));
+		Thread.sleep(100);
+		Future<List<ExchangeRate>> second = fixerApiLoader.submit(Duration.ofSeconds(5), l -> l.getLatest("GBP,JPY"));
+		Thread.sleep(100);
+
+		// The caller that sent the request is cancelled, the other one still gets the response
+		Assert.assertTrue(first.cancel(true));
+		Assert.assertEquals(2, second.get().size());
+		verify(1, getRequestedFor(urlEqualTo(ENDPOINT_URL)));
+		Assert.assertEquals(1, fixerApiLoader.getRequestCoalescer().getCoalescedCount());
+
+		// The request was sent by the thread of the first call, not by another pool
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			Assert.assertFalse(thread.getName(), thread.getName().startsWith("jfixer-coalesced"));
+		}
+	}
+
+	@Test
+	public void testRequestAbortedWhenAllCancelled() throws Exception {
+		setupSlowServer();
+
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		fixerApiLoader.setRequestCoalescing(true);
+		Future<List<ExchangeRate>> first = fixerApiLoader.submit(l -> l.getLatest("GBP,JPY"));
+		Thread.sleep(100);
+		try {
+			fixerApiLoader.call(Duration.ofMillis(100), l -> l.getLatest("GBP,JPY"));
+			Assert.fail("Deadline exceeded expected");
+		} catch (FixerException e) {
+			Assert.assertEquals(Deadline.TYPE_DEADLINE_EXCEEDED, e.getFixerType());
+		}
+		Assert.assertEquals(1, fixerApiLoader.getRequestCoalescer().getInFlightCount());
+
+		// The last caller is cancelled: the request is aborted at once
+		first.cancel(true);
+		Thread.sleep(100);
+		Assert.assertEquals(0, fixerApiLoader.getRequestCoalescer().getInFlightCount());
+	}
+
+	@Test
+	public void testCoalescingDisabledByDefault() throws Exception {
+		setupSlowServer();
+
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		Assert.assertFalse(fixerApiLoader.isRequestCoalescing());
+		callConcurrently(fixerApiLoader);
+
+		verify(THREADS, getRequestedFor(urlEqualTo(ENDPOINT_URL)));
+	}
+
+	@Test
+	public void testErrorIsShared() throws Exception {
+		stubFor(get(urlEqualTo(ENDPOINT_URL))
+				.willReturn(aResponse()
+						.withStatus(500)
+						.withFixedDelay(500)));
+
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		fixerApiLoader.setRequestCoalescing(true);
+		try {
+			callConcurrently(fixerApiLoader);
+			Assert.assertTrue(false);
+		} catch (Exception e) {
+			log.debug("Expected error: {}", e.getCause().getLocalizedMessage());
+			Assert.assertTrue(e.getCause() instanceof FixerException);
+			Assert.assertEquals(500, ((FixerException) e.getCause()).getFixerCode());
+		}
+		verify(1, getRequestedFor(urlEqualTo(ENDPOINT_URL)));
+	}
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
+import com.upandcoding.fixer.model.ExchangeRate;
+import com.upandcoding.fixer.request.RetryPolicy;
+import com.upandcoding.tests.config.TestConfig;
+
+import junit.framework.Assert;
+
+public class TestLoaderRetry {
+
+	private static final Logger log = LoggerFactory.getLogger(TestLoaderRetry.class);
+
+	@Rule
+	public WireMockRule wireMockRule = new WireMockRule(7079);
+
+	private static final String LATEST_JSON = "{" + "\"success\": true," + "\"timestamp\": 1519296206," + "\"base\": \"EUR\","
+			+ "\"date\": \"2018-07-10\"," + "\"rates\": {" + "\"GBP\": 0.72007" + "}" + "}";
+
+	private static final String ENDPOINT_URL = "/latest?access_key=" + TestConfig.accessKey + "&base=" + TestConfig.baseCurrency;
+
+	private FixerApiLoader createLoader() {
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		RetryPolicy retryPolicy = new RetryPolicy(3, 50, 200);
+		retryPolicy.setJitter(0);
+		fixerApiLoader.setRetryPolicy(retryPolicy);
+		return fixerApiLoader;
+	}
+
+	@Test
+	public void testRetryServerError() throws Exception {
+		stubFor(get(urlEqualTo(ENDPOINT_URL)).inScenario("retry")
+				.whenScenarioStateIs(Scenario.STARTED)
+				.willReturn(aResponse().withStatus(503))
+				.willSetStateTo("recovered"));
+		stubFor(get(urlEqualTo(ENDPOINT_URL)).inScenario("retry")
+				.whenScenarioStateIs("recovered")
+				.willReturn(aResponse()
+						.withStatus(200)
+						.withHeader("Content-Type", "application/json")
+						.withBody(LATEST_JSON)));
+
+		FixerApiLoader fixerApiLoader = createLoader();
+		List<ExchangeRate> rates = fixerApiLoader.getLatest();
+		Assert.assertEquals(1, rates.size());
+		verify(2, getRequestedFor(urlEqualTo(ENDPOINT_URL)));
+		Assert.assertEquals(1, fixerApiLoader.getRetryPolicy().getRetryCount());
+	}
+
+	@Test
+	public void testGiveUpAfterMaxAttempts() throws Exception {
+		stubFor(get(urlEqualTo(ENDPOINT_URL)).willReturn(aResponse().withStatus(500)));
+
+		FixerApiLoader fixerApiLoader = createLoader();
+		try {
+			fixerApiLoader.getLatest();
+			Assert.assertTrue(false);
+		} catch (FixerException fe) {
+			Assert.assertEquals(500, fe.getFixerCode());
+		}
+		verify(3, getRequestedFor(urlEqualTo(ENDPOINT_URL)));
+		Assert.assertEquals(1, fixerApiLoader.getRetryPolicy().getGiveUpCount());
+	}
+
+	@Test
+	public void testQuotaErrorNotRetried() throws Exception {
+		String jsonStr = "{\"success\":false,\"error\":{\"code\":104,\"type\":\"usage_limit_reached\",\"info\":\"Your monthly usage limit has been reached.\"}}";
+		stubFor(get(urlEqualTo(ENDPOINT_URL)).willReturn(aResponse()
+				.withStatus(200)
+				.withHeader("Content-Type", "application/json")
+				.withBody(jsonStr)));
+
+		FixerApiLoader fixerApiLoader = createLoader();
+		try {
+			fixerApiLoader.getLatest();
+			Assert.assertTrue(false);
+		} catch (FixerException fe) {
+			Assert.assertEquals(104, fe.getFixerCode());
+		}
+		verify(1, getRequestedFor(urlEqualTo(ENDPOINT_URL)));
+		Assert.assertEquals(0, fixerApiLoader.getRetryPolicy().getRetryCount());
+	}
+
+	@Test
+	public void testDeadline() throws Exception {
+		stubFor(get(urlEqualTo(ENDPOINT_URL)).willReturn(aResponse().withStatus(500)));
+
+		FixerApiLoader fixerApiLoader = createLoader();
+		fixerApiLoader.getRetryPolicy().setMaxAttempts(10);
+		fixerApiLoader.getRetryPolicy().setInitialDelayMillis(300);
+		fixerApiLoader.getRetryPolicy().setMaxDelayMillis(5000);
+		fixerApiLoader.getRetryPolicy().setDeadlineMillis(500);
+		try {
+			fixerApiLoader.getLatest();
+			Assert.assertTrue(false);
+		} catch (FixerException fe) {
+			Assert.assertEquals(500, fe.getFixerCode());
+		}
+		// 0 ms: first attempt, 300 ms: second attempt, 900 ms: after the deadline
+		verify(2, getRequestedFor(urlEqualTo(ENDPOINT_URL)));
+	}
+
+}
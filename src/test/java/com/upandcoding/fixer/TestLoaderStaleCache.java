@@ -0,0 +1,137 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.upandcoding.fixer.cache.ResponseCache;
+import com.upandcoding.fixer.model.ExchangeRate;
+import com.upandcoding.tests.config.TestConfig;
+import com.upandcoding.tests.config.TestUtils;
+
+import junit.framework.Assert;
+
+public class TestLoaderStaleCache {
+
+	private static final Logger log = LoggerFactory.getLogger(TestLoaderStaleCache.class);
+
+	@Rule
+	public WireMockRule wireMockRule = new WireMockRule(7079);
+
+	private static final String LATEST_URL = "/latest?access_key=" + TestConfig.accessKey + "&base=" + TestConfig.baseCurrency;
+
+	private static String latestJson(double gbp) {
+		return "{" + "\"success\": true," + "\"timestamp\": 1519296206," + "\"base\": \"EUR\"," + "\"date\": \"2018-07-10\","
+				+ "\"rates\": {" + "\"GBP\": " + gbp + "}" + "}";
+	}
+
+	private FixerApiLoader createLoader(ResponseCache cache) throws Exception {
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, LATEST_URL, latestJson(0.72007));
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		fixerApiLoader.setResponseCache(cache);
+
+		List<ExchangeRate> rates = fixerApiLoader.getLatest();
+		Assert.assertFalse(rates.get(0).isStale());
+		Assert.assertEquals(0, rates.get(0).getStaleMillis());
+		Thread.sleep(cache.getTtlMillis() + 30);
+		return fixerApiLoader;
+	}
+
+	@Test
+	public void testStaleWhileRevalidate() throws Exception {
+		ResponseCache cache = new ResponseCache(50);
+		cache.setStaleWhileRevalidateMillis(60000);
+		FixerApiLoader fixerApiLoader = createLoader(cache);
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, LATEST_URL, latestJson(0.73));
+
+		// Expired: served at once, loaded again in the background
+		List<ExchangeRate> rates = fixerApiLoader.getLatest();
+		Assert.assertEquals(0.72007, rates.get(0).getRate(), 0);
+		Assert.assertTrue(rates.get(0).isStale());
+		Assert.assertTrue(rates.get(0).getStaleMillis() > 0);
+		Assert.assertEquals(1, cache.getStaleHitCount());
+
+		ResponseCache.Entry entry = cache.getEntries().values().iterator().next();
+		for (int i = 0; i < 100 && !cache.isFresh(entry); i++) {
+			Thread.sleep(20);
+			entry = cache.getEntries().values().iterator().next();
+		}
+		rates = fixerApiLoader.getLatest();
+		Assert.assertEquals(0.73, rates.get(0).getRate(), 0);
+		Assert.assertFalse(rates.get(0).isStale());
+	}
+
+	@Test
+	public void testStaleIfError() throws Exception {
+		ResponseCache cache = new ResponseCache(50);
+		cache.setStaleIfErrorMillis(60000);
+		FixerApiLoader fixerApiLoader = createLoader(cache);
+		TestUtils.setupMockHttpServerError500(TestConfig.baseUrl, LATEST_URL);
+		wireMockRule.resetRequests();
+
+		List<ExchangeRate> rates = fixerApiLoader.getLatest();
+		verify(1, getRequestedFor(urlPathEqualTo("/latest")));
+		Assert.assertEquals(0.72007, rates.get(0).getRate(), 0);
+		Assert.assertTrue(rates.get(0).isStale());
+
+		// Beyond the maximum staleness
+		cache.setStaleIfErrorMillis(1);
+		try {
+			fixerApiLoader.getLatest();
+			Assert.fail("Stale response served beyond the maximum staleness");
+		} catch (FixerException e) {
+			log.debug("Expected error: {}", e.getLocalizedMessage());
+		}
+	}
+
+	@Test
+	public void testCachedDataCopied() throws Exception {
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, LATEST_URL, latestJson(0.72007));
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		fixerApiLoader.setResponseCache(new ResponseCache(60000));
+
+		// Neither the loaded rates nor the cached ones change the cache
+		fixerApiLoader.getLatest().get(0).setRate(1.0);
+		fixerApiLoader.getLatest().get(0).setRate(2.0);
+		List<ExchangeRate> rates = fixerApiLoader.getLatest();
+		Assert.assertEquals(0.72007, rates.get(0).getRate(), 0);
+		Assert.assertEquals(2, fixerApiLoader.getResponseCache().getHitCount());
+	}
+
+	@Test
+	public void testDisabledByDefault() throws Exception {
+		FixerApiLoader fixerApiLoader = createLoader(new ResponseCache(50));
+		TestUtils.setupMockHttpServerError500(TestConfig.baseUrl, LATEST_URL);
+		try {
+			fixerApiLoader.getLatest();
+			Assert.fail("Stale response served");
+		} catch (FixerException e) {
+			log.debug("Expected error: {}", e.getLocalizedMessage());
+		}
+		Assert.assertEquals(0, fixerApiLoader.getResponseCache().getStaleHitCount());
+	}
+
+}
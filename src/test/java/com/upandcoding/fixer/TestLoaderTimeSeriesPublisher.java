@@ -0,0 +1,203 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.ClientProtocolException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.upandcoding.fixer.model.ExchangeRate;
+import com.upandcoding.tests.config.TestConfig;
+import com.upandcoding.tests.config.TestUtils;
+
+import junit.framework.Assert;
+
+public class TestLoaderTimeSeriesPublisher {
+
+	private static final Logger log = LoggerFactory.getLogger(TestLoaderTimeSeriesPublisher.class);
+
+	@Rule
+	public WireMockRule wireMockRule = new WireMockRule(7079);
+
+	private static final String CHUNK1_JSON = "{"
+			+ "\"success\": true,"
+			+ "\"timeseries\": true,"
+			+ "\"start_date\": \"2012-05-01\","
+			+ "\"end_date\": \"2012-05-02\","
+			+ "\"base\": \"EUR\","
+			+ "\"rates\": {"
+			+ "\"2012-05-01\":{"
+			+ "\"USD\": 1.322891,"
+			+ "\"AUD\": 1.278047"
+			+ "},"
+			+ "\"2012-05-02\": {"
+			+ "\"USD\": 1.315066,"
+			+ "\"AUD\": 1.274202"
+			+ "}"
+			+ "}"
+			+ "}";
+
+	private static final String CHUNK2_JSON = "{"
+			+ "\"success\": true,"
+			+ "\"timeseries\": true,"
+			+ "\"start_date\": \"2012-05-03\","
+			+ "\"end_date\": \"2012-05-03\","
+			+ "\"base\": \"EUR\","
+			+ "\"rates\": {"
+			+ "\"2012-05-03\":{"
+			+ "\"USD\": 1.314491,"
+			+ "\"AUD\": 1.280135"
+			+ "}"
+			+ "}"
+			+ "}";
+
+	private static String chunkUrl(String startDate, String endDate) {
+		return "/timeseries?access_key=" + TestConfig.accessKey + "&start_date=" + startDate + "&end_date=" + endDate
+				+ "&symbols=USD,AUD&base=" + TestConfig.baseCurrency;
+	}
+
+	/**
+	 * Subscriber that records what it receives and lets the test drive the demand
+	 */
+	private static class RecordingSubscriber implements RateFlow.Subscriber<List<ExchangeRate>> {
+
+		BlockingQueue<List<ExchangeRate>> items = new LinkedBlockingQueue<>();
+		CountDownLatch completed = new CountDownLatch(1);
+		CountDownLatch subscribed = new CountDownLatch(1);
+		volatile Throwable error;
+		volatile RateFlow.Subscription subscription;
+
+		@Override
+		public void onSubscribe(RateFlow.Subscription subscription) {
+			this.subscription = subscription;
+			subscribed.countDown();
+		}
+
+		@Override
+		public void onNext(List<ExchangeRate> item) {
+			items.add(item);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			this.error = throwable;
+			completed.countDown();
+		}
+
+		@Override
+		public void onComplete() {
+			completed.countDown();
+		}
+	}
+
+	@Test
+	public void testChunksLoadedOnDemand() throws FixerException, ClientProtocolException, IOException, InterruptedException {
+
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, chunkUrl("2012-05-01", "2012-05-02"), CHUNK1_JSON);
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, chunkUrl("2012-05-03", "2012-05-03"), CHUNK2_JSON);
+		wireMockRule.resetRequests();
+
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		TimeSeriesPublisher publisher = fixerApiLoader.getTimeSeriesPublisher(LocalDate.of(2012, 5, 1), LocalDate.of(2012, 5, 3), "USD,AUD", null, 2);
+
+		RecordingSubscriber subscriber = new RecordingSubscriber();
+		publisher.subscribe(subscriber);
+		Assert.assertTrue(subscriber.subscribed.await(1, TimeUnit.SECONDS));
+
+		// First day: only the first chunk is loaded
+		subscriber.subscription.request(1);
+		List<ExchangeRate> day1 = subscriber.items.poll(5, TimeUnit.SECONDS);
+		Assert.assertNotNull(day1);
+		Assert.assertEquals(2, day1.size());
+		Assert.assertEquals("2012-05-01", day1.get(0).getDate());
+		Assert.assertEquals(1.322891, day1.get(0).getRate());
+		verify(1, getRequestedFor(urlEqualTo(chunkUrl("2012-05-01", "2012-05-02"))));
+		verify(0, getRequestedFor(urlEqualTo(chunkUrl("2012-05-03", "2012-05-03"))));
+
+		// Remaining days
+		subscriber.subscription.request(5);
+		Assert.assertTrue(subscriber.completed.await(5, TimeUnit.SECONDS));
+		Assert.assertNull(subscriber.error);
+		Assert.assertEquals(2, subscriber.items.size());
+		Assert.assertEquals("2012-05-02", subscriber.items.poll().get(0).getDate());
+		Assert.assertEquals("2012-05-03", subscriber.items.poll().get(0).getDate());
+		verify(1, getRequestedFor(urlEqualTo(chunkUrl("2012-05-03", "2012-05-03"))));
+	}
+
+	@Test
+	public void testCancelAbortsRequest() throws FixerException, InterruptedException {
+
+		stubFor(get(urlEqualTo(chunkUrl("2012-05-01", "2012-05-02")))
+				.willReturn(aResponse()
+						.withStatus(200)
+						.withHeader("Content-Type", "application/json")
+						.withBody(CHUNK1_JSON)
+						.withFixedDelay(10000)));
+
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		TimeSeriesPublisher publisher = fixerApiLoader.getTimeSeriesPublisher(LocalDate.of(2012, 5, 1), LocalDate.of(2012, 5, 3), "USD,AUD", null, 2);
+
+		RecordingSubscriber subscriber = new RecordingSubscriber();
+		publisher.subscribe(subscriber);
+		subscriber.subscription.request(1);
+		Thread.sleep(300);
+
+		long start = System.currentTimeMillis();
+		subscriber.subscription.cancel();
+
+		// Neither items nor terminal signal after a cancellation
+		Assert.assertFalse(subscriber.completed.await(500, TimeUnit.MILLISECONDS));
+		Assert.assertTrue(subscriber.items.isEmpty());
+		log.debug("Cancelled after {} ms", System.currentTimeMillis() - start);
+	}
+
+	@Test
+	public void testInvalidDemand() throws FixerException, InterruptedException {
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		TimeSeriesPublisher publisher = fixerApiLoader.getTimeSeriesPublisher(LocalDate.of(2012, 5, 1), LocalDate.of(2012, 5, 3), "USD,AUD");
+
+		RecordingSubscriber subscriber = new RecordingSubscriber();
+		publisher.subscribe(subscriber);
+		subscriber.subscription.request(0);
+		Assert.assertTrue(subscriber.completed.await(1, TimeUnit.SECONDS));
+		Assert.assertTrue(subscriber.error instanceof IllegalArgumentException);
+	}
+
+	@Test(expected = FixerException.class)
+	public void testInvalidPeriod() throws FixerException {
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		fixerApiLoader.getTimeSeriesPublisher(LocalDate.of(2012, 5, 3), LocalDate.of(2012, 5, 1), "USD,AUD");
+	}
+
+}
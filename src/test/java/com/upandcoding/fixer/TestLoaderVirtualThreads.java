@@ -0,0 +1,137 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathMatching;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.upandcoding.fixer.model.ExchangeRate;
+import com.upandcoding.tests.config.TestConfig;
+
+import junit.framework.Assert;
+
+public class TestLoaderVirtualThreads {
+
+	private static final Logger log = LoggerFactory.getLogger(TestLoaderVirtualThreads.class);
+
+	@Rule
+	public WireMockRule wireMockRule = new WireMockRule(7079);
+
+	private static final String HISTORICAL_JSON = "{" + "\"success\": true," + "\"historical\": true," + "\"date\": \"2018-01-01\","
+			+ "\"timestamp\": 1514851199," + "\"base\": \"EUR\"," + "\"rates\": {" + "\"USD\": 1.201496" + "}" + "}";
+
+	private static int getJavaVersion() {
+		String version = System.getProperty("java.specification.version");
+		if (version.startsWith("1.")) {
+			version = version.substring(2);
+		}
+		return Integer.parseInt(version);
+	}
+
+	@Test
+	public void testVirtualThreadSupport() {
+		Assert.assertEquals(getJavaVersion() >= 21, VirtualThreadExecutor.isVirtualThreadSupported());
+		VirtualThreadExecutor executor = new VirtualThreadExecutor(4);
+		Assert.assertEquals(VirtualThreadExecutor.isVirtualThreadSupported(), executor.isVirtual());
+	}
+
+	@Test
+	public void testReplacedExecutorShutDown() {
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		fixerApiLoader.setVirtualThreadExecution(2);
+		Executor first = fixerApiLoader.getCallExecutor();
+		fixerApiLoader.setVirtualThreadExecution(4);
+		try {
+			first.execute(() -> {
+			});
+			Assert.fail("Executor not shut down");
+		} catch (RejectedExecutionException e) {
+			log.debug("Expected error: {}", e.toString());
+		}
+		Assert.assertEquals(4, ((VirtualThreadExecutor) fixerApiLoader.getCallExecutor()).getMaxConcurrency());
+	}
+
+	@Test(timeout = 10000)
+	public void testPlannedHistoricalSubmitted() throws Exception {
+		stubFor(get(urlPathMatching("/2018-.*")).willReturn(aResponse()
+				.withStatus(200)
+				.withHeader("Content-Type", "application/json")
+				.withBody(HISTORICAL_JSON)));
+
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		fixerApiLoader.setVirtualThreadExecution(1);
+
+		// Dates far apart: one request each, sent within the only running call
+		final List<LocalDate> dates = Arrays.asList(LocalDate.of(2018, 1, 1), LocalDate.of(2018, 6, 1), LocalDate.of(2018, 11, 1));
+		Future<Map<LocalDate, List<ExchangeRate>>> future = fixerApiLoader.submit(l -> l.getHistorical(dates, "USD"));
+		Assert.assertEquals(3, future.get().size());
+		verify(3, getRequestedFor(urlPathMatching("/2018-.*")));
+	}
+
+	@Test
+	public void testBulkHistorical() throws Exception {
+		stubFor(get(urlPathMatching("/2018-.*")).willReturn(aResponse()
+				.withStatus(200)
+				.withFixedDelay(100)
+				.withHeader("Content-Type", "application/json")
+				.withBody(HISTORICAL_JSON)));
+
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		fixerApiLoader.setVirtualThreadExecution(5);
+		VirtualThreadExecutor executor = (VirtualThreadExecutor) fixerApiLoader.getCallExecutor();
+		log.debug("Bulk fetch on virtual threads: {}", executor.isVirtual());
+
+		int days = 40;
+		long start = System.currentTimeMillis();
+		List<Future<List<ExchangeRate>>> futures = new ArrayList<>();
+		LocalDate date = LocalDate.of(2018, 1, 1);
+		for (int i = 0; i < days; i++) {
+			final LocalDate day = date.plusDays(i);
+			futures.add(fixerApiLoader.submit(l -> l.getHistorical(day, Arrays.asList("USD"))));
+		}
+		for (Future<List<ExchangeRate>> future : futures) {
+			Assert.assertEquals(1, future.get().size());
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		log.debug("{} dates loaded in {} ms", days, elapsed);
+
+		// No more than 5 requests at the same time: at least 8 rounds of 100 ms
+		Assert.assertTrue("Peak: " + executor.getPeakCount(), executor.getPeakCount() <= 5);
+		Assert.assertTrue("Elapsed: " + elapsed, elapsed >= 750);
+		verify(days, getRequestedFor(urlPathMatching("/2018-.*")));
+		Assert.assertEquals(0, executor.getRunningCount());
+	}
+
+}
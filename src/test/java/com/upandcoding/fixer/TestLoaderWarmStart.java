@@ -0,0 +1,158 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.upandcoding.fixer.cache.RateHistoryCache;
+import com.upandcoding.fixer.cache.ResponseCache;
+import com.upandcoding.fixer.model.ExchangeRate;
+import com.upandcoding.tests.config.TestConfig;
+import com.upandcoding.tests.config.TestUtils;
+
+import junit.framework.Assert;
+
+public class TestLoaderWarmStart {
+
+	@Rule
+	public WireMockRule wireMockRule = new WireMockRule(7079);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path saveCaches() throws Exception {
+		String latestJson = "{"
+				+ "\"success\": true,"
+				+ "\"timestamp\": 1519296206,"
+				+ "\"base\": \"EUR\","
+				+ "\"date\": \"2018-02-22\","
+				+ "\"rates\": {\"USD\": 1.23396, \"GBP\": 0.882047}"
+				+ "}";
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, "/latest?access_key=" + TestConfig.accessKey + "&base=EUR&symbols=USD,GBP",
+				latestJson);
+		String timeSeriesJson = "{"
+				+ "\"success\": true,"
+				+ "\"timeseries\": true,"
+				+ "\"start_date\": \"2018-02-25\","
+				+ "\"end_date\": \"2018-02-26\","
+				+ "\"base\": \"EUR\","
+				+ "\"rates\": {"
+				+ "\"2018-02-25\":{\"USD\": 1.228952, \"JPY\": 131.587611},"
+				+ "\"2018-02-26\":{\"USD\": 1.232735, \"JPY\": 131.651142}"
+				+ "}"
+				+ "}";
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, "/timeseries?access_key=" + TestConfig.accessKey
+				+ "&start_date=2018-02-25&end_date=2018-02-26&symbols=USD,JPY&base=" + TestConfig.baseCurrency, timeSeriesJson);
+
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		fixerApiLoader.setResponseCache(new ResponseCache());
+		fixerApiLoader.setHistoryCache(new RateHistoryCache());
+		fixerApiLoader.getLatest("USD,GBP", "EUR");
+		fixerApiLoader.getTimeSeries("2018-02-25", "2018-02-26", "USD,JPY");
+
+		Path file = new File(folder.getRoot(), "jfixer.cache").toPath();
+		Assert.assertEquals(3, fixerApiLoader.saveCaches(file));
+		return file;
+	}
+
+	@Test
+	public void testRestoredCachesServed() throws Exception {
+		Path file = saveCaches();
+		wireMockRule.resetRequests();
+
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		Assert.assertEquals(3, fixerApiLoader.loadCaches(file));
+		Assert.assertEquals(2, fixerApiLoader.getResponseCache().size());
+
+		List<ExchangeRate> rates = fixerApiLoader.getLatest("USD,GBP", "EUR");
+		Assert.assertEquals(2, rates.size());
+		Assert.assertEquals(1.23396, rates.get(0).getRate(), 0);
+		Assert.assertEquals(4, fixerApiLoader.getTimeSeries("2018-02-25", "2018-02-26", "USD,JPY").size());
+		Assert.assertEquals(131.651142,
+				fixerApiLoader.getHistoryCache().getSeries("EUR").getRate("JPY", LocalDate.of(2018, 2, 26)), 0);
+		verify(0, getRequestedFor(urlPathEqualTo("/latest")));
+		verify(0, getRequestedFor(urlPathEqualTo("/timeseries")));
+	}
+
+	@Test
+	public void testStaleEntriesRefreshed() throws Exception {
+		Path file = saveCaches();
+		Thread.sleep(20);
+		wireMockRule.resetRequests();
+
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		fixerApiLoader.setResponseCache(new ResponseCache(10));
+		fixerApiLoader.loadCaches(file);
+
+		// Expired when restored: requested again on first use only
+		verify(0, getRequestedFor(urlPathEqualTo("/latest")));
+		Assert.assertEquals(2, fixerApiLoader.getLatest("USD,GBP", "EUR").size());
+		verify(1, getRequestedFor(urlPathEqualTo("/latest")));
+		verify(0, getRequestedFor(urlPathEqualTo("/timeseries")));
+	}
+
+	@Test
+	public void testInvalidEntriesDropped() throws Exception {
+		Path file = saveCaches();
+		wireMockRule.resetRequests();
+
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		fixerApiLoader.loadCaches(file);
+		ResponseCache cache = fixerApiLoader.getResponseCache();
+		for (String key : cache.getEntries().keySet()) {
+			cache.put(key, ResponseCache.Entry.ofJsonResponse("{\"success\": tru", System.currentTimeMillis()));
+		}
+
+		// Body that cannot be parsed: requested again
+		Assert.assertEquals(2, fixerApiLoader.getLatest("USD,GBP", "EUR").size());
+		verify(1, getRequestedFor(urlPathEqualTo("/latest")));
+		Assert.assertEquals(2, fixerApiLoader.getLatest("USD,GBP", "EUR").size());
+		verify(1, getRequestedFor(urlPathEqualTo("/latest")));
+	}
+
+	@Test
+	public void testWarmStart() throws Exception {
+		Path file = new File(folder.getRoot(), "missing.cache").toPath();
+		FixerApiLoader fixerApiLoader = new FixerApiLoader(TestConfig.baseUrl, TestConfig.accessKey, TestConfig.baseCurrency);
+		try {
+			Assert.assertEquals(0, fixerApiLoader.enableWarmStart(file));
+			Assert.assertEquals(file, fixerApiLoader.getWarmStartFile());
+
+			// Unreadable file: cold start
+			Files.write(file, "not a cache".getBytes("UTF-8"));
+			Assert.assertEquals(0, fixerApiLoader.enableWarmStart(file));
+
+			Assert.assertEquals(3, fixerApiLoader.enableWarmStart(saveCaches()));
+		} finally {
+			fixerApiLoader.disableWarmStart();
+		}
+		Assert.assertNull(fixerApiLoader.getWarmStartFile());
+	}
+
+}
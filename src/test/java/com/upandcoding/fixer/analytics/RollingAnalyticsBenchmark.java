@@ -0,0 +1,109 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.analytics;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import com.upandcoding.fixer.model.TimeSeries;
+
+/**
+ * Compares the incremental rolling analytics with a full recomputation of the
+ * windows, for 170 currencies over 20 years of daily rates.
+ * <p>
+ * Not run by the build: launch the main method with the test classpath.
+ * 
+ * @author Lionel Conforto
+ *
+ */
+public class RollingAnalyticsBenchmark {
+
+	private static final int CURRENCIES = 170;
+	private static final int DAYS = 20 * 365;
+	private static final int WINDOW = 20;
+	private static final int NEW_DAYS = 250;
+
+	public static void main(String[] args) {
+		Random random = new Random(1);
+		String[] currencies = new String[CURRENCIES];
+		for (int c = 0; c < CURRENCIES; c++) {
+			currencies[c] = String.format("C%02d", c);
+		}
+		LocalDate start = LocalDate.of(1998, 1, 1);
+
+		TimeSeries series = new TimeSeries("EUR");
+		for (int d = 0; d < DAYS; d++) {
+			series.put(start.plusDays(d), randomRates(currencies, random));
+		}
+
+		long time = System.nanoTime();
+		RollingAnalytics analytics = new RollingAnalytics(series, WINDOW);
+		analytics.attach();
+		System.out.printf("Initial computation of %d days x %d currencies: %d ms%n", DAYS, CURRENCIES,
+				(System.nanoTime() - time) / 1000000);
+
+		// Incremental: each new day updates the windows in place
+		time = System.nanoTime();
+		for (int d = 0; d < NEW_DAYS; d++) {
+			series.put(start.plusDays(DAYS + d), randomRates(currencies, random));
+		}
+		long incremental = System.nanoTime() - time;
+		System.out.printf("Incremental, %d new days: %.1f us per day%n", NEW_DAYS, incremental / 1000.0 / NEW_DAYS);
+		analytics.detach();
+
+		// Full recomputation of all the windows for each new day
+		time = System.nanoTime();
+		double check = 0;
+		for (int d = 0; d < NEW_DAYS; d++) {
+			series.put(start.plusDays(DAYS + NEW_DAYS + d), randomRates(currencies, random));
+			for (String currency : currencies) {
+				double[] column = series.getColumn(currency);
+				check += recompute(column, column.length - WINDOW, column.length);
+			}
+		}
+		long recomputed = System.nanoTime() - time;
+		System.out.printf("Window recomputation, %d new days: %.1f us per day (%s)%n", NEW_DAYS, recomputed / 1000.0 / NEW_DAYS,
+				check > 0 ? "ok" : "?");
+	}
+
+	private static Map<String, Double> randomRates(String[] currencies, Random random) {
+		Map<String, Double> rates = new HashMap<>();
+		for (String currency : currencies) {
+			rates.put(currency, 1 + random.nextDouble());
+		}
+		return rates;
+	}
+
+	private static double recompute(double[] values, int from, int to) {
+		double sum = 0;
+		double min = Double.MAX_VALUE;
+		double max = -Double.MAX_VALUE;
+		for (int i = from; i < to; i++) {
+			sum += values[i];
+			min = Math.min(min, values[i]);
+			max = Math.max(max, values[i]);
+		}
+		double mean = sum / (to - from);
+		double squares = 0;
+		for (int i = from; i < to; i++) {
+			squares += (values[i] - mean) * (values[i] - mean);
+		}
+		return mean + squares + min + max;
+	}
+
+}
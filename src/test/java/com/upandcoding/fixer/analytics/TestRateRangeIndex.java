@@ -0,0 +1,139 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.analytics;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.upandcoding.fixer.model.TimeSeries;
+
+import junit.framework.Assert;
+
+public class TestRateRangeIndex {
+
+	private static final double DELTA = 1e-9;
+
+	@Test
+	public void testRangesAgainstScan() {
+		Random random = new Random(7);
+		RangeIndex index = new RangeIndex(8);
+		double[] values = new double[1000];
+		for (int i = 0; i < values.length; i++) {
+			// Some missing values
+			values[i] = random.nextInt(10) == 0 ? Double.NaN : random.nextDouble();
+			index.set(i, values[i]);
+		}
+		// Corrections
+		values[500] = 5;
+		index.set(500, 5);
+		values[17] = Double.NaN;
+		index.set(17, Double.NaN);
+
+		for (int q = 0; q < 2000; q++) {
+			int from = random.nextInt(values.length + 1);
+			int to = from + random.nextInt(values.length - from + 1);
+			double min = Double.NaN;
+			double max = Double.NaN;
+			double sum = 0;
+			int count = 0;
+			for (int i = from; i < to; i++) {
+				if (!Double.isNaN(values[i])) {
+					min = Double.isNaN(min) ? values[i] : Math.min(min, values[i]);
+					max = Double.isNaN(max) ? values[i] : Math.max(max, values[i]);
+					sum += values[i];
+					count++;
+				}
+			}
+			Assert.assertEquals(min, index.getMin(from, to), 0);
+			Assert.assertEquals(max, index.getMax(from, to), 0);
+			Assert.assertEquals(sum, index.getSum(from, to), DELTA);
+			Assert.assertEquals(count, index.getCount(from, to));
+		}
+		Assert.assertEquals(1000, index.size());
+		Assert.assertTrue(Double.isNaN(index.getAverage(17, 18)));
+	}
+
+	@Test
+	public void testGapAndLoad() {
+		RangeIndex index = new RangeIndex();
+		index.set(300, 2);
+		Assert.assertEquals(301, index.size());
+		Assert.assertEquals(1, index.getCount(0, 301));
+		Assert.assertTrue(Double.isNaN(index.get(299)));
+		index.load(new double[] { 3, 1, 2 });
+		Assert.assertEquals(3, index.size());
+		Assert.assertEquals(1.0, index.getMin(0, 3), 0);
+		Assert.assertEquals(2.0, index.getAverage(0, 3), DELTA);
+		try {
+			index.getMin(0, 4);
+			Assert.fail("Range after the end");
+		} catch (IndexOutOfBoundsException e) {
+		}
+	}
+
+	@Test
+	public void testUpdatedWithSeries() {
+		TimeSeries series = new TimeSeries("EUR");
+		LocalDate start = LocalDate.of(2018, 1, 1);
+		// Weekdays only
+		for (int i = 0; i < 100; i++) {
+			LocalDate date = start.plusDays(i);
+			if (date.getDayOfWeek().getValue() < 6) {
+				series.put(date, Collections.singletonMap("USD", 1.0 + i / 100.0));
+			}
+		}
+		RateRangeIndex index = new RateRangeIndex(series);
+		index.attach();
+
+		LocalDate saturday = LocalDate.of(2018, 1, 6);
+		Assert.assertEquals(1.0, index.getMin("USD", start, saturday), DELTA);
+		Assert.assertEquals(1.04, index.getMax("usd", start, saturday), DELTA);
+		Assert.assertEquals(5, index.getCount("USD", start, saturday));
+		Assert.assertEquals(1.02, index.getAverage("USD", start, saturday), DELTA);
+		Assert.assertEquals(0, index.getCount("USD", saturday, saturday));
+		Assert.assertEquals(0, index.getCount("USD", saturday, start));
+
+		// Appended days
+		Map<String, Double> rates = new HashMap<>();
+		rates.put("USD", 3.0);
+		rates.put("GBP", 0.9);
+		series.put(start.plusDays(200), rates);
+		Assert.assertEquals(3.0, index.getMax("USD", start, start.plusYears(1)), 0);
+		Assert.assertEquals(0.9, index.getMin("GBP", start, start.plusYears(1)), 0);
+		Assert.assertEquals(1, index.getCount("GBP", start, start.plusYears(1)));
+
+		// New rates for a day present and an appended day, in one batch: set in place
+		Map<LocalDate, Map<String, Double>> days = new HashMap<>();
+		days.put(start.plusDays(1), Collections.singletonMap("USD", 0.8));
+		days.put(start.plusDays(201), Collections.singletonMap("JPY", 130.0));
+		series.putAll(days);
+		Assert.assertEquals(0.8, index.getMin("USD", start, start.plusYears(1)), 0);
+		Assert.assertEquals(130.0, index.getMax("JPY", start, start.plusYears(1)), 0);
+		Assert.assertEquals(1, index.getCount("JPY", start, start.plusYears(1)));
+
+		// Inserted day
+		series.put(saturday, Collections.singletonMap("USD", 0.5));
+		Assert.assertEquals(0.5, index.getMin("USD", start, start.plusYears(1)), 0);
+		Assert.assertEquals(6, index.getCount("USD", start, saturday));
+		Assert.assertTrue(Double.isNaN(index.getMin("JPY", start, saturday)));
+	}
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.analytics;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.upandcoding.fixer.model.TimeSeries;
+
+import junit.framework.Assert;
+
+public class TestRollingAnalytics {
+
+	private static final double DELTA = 1e-9;
+
+	@Test
+	public void testWindowAgainstFullRecomputation() {
+		int size = 20;
+		RollingWindow window = new RollingWindow(size);
+		double[] values = new double[500];
+		Random random = new Random(42);
+		double ewma = Double.NaN;
+		double alpha = 2.0 / (size + 1);
+		for (int i = 0; i < values.length; i++) {
+			values[i] = 1.1 + random.nextGaussian() * 0.05;
+			window.add(values[i]);
+			ewma = i == 0 ? values[i] : alpha * values[i] + (1 - alpha) * ewma;
+
+			int from = Math.max(0, i - size + 1);
+			int n = i - from + 1;
+			double sum = 0;
+			double min = Double.MAX_VALUE;
+			double max = -Double.MAX_VALUE;
+			for (int j = from; j <= i; j++) {
+				sum += values[j];
+				min = Math.min(min, values[j]);
+				max = Math.max(max, values[j]);
+			}
+			double mean = sum / n;
+			double squares = 0;
+			for (int j = from; j <= i; j++) {
+				squares += (values[j] - mean) * (values[j] - mean);
+			}
+
+			Assert.assertEquals(n, window.getCount());
+			Assert.assertEquals(mean, window.getMean(), DELTA);
+			if (n > 1) {
+				Assert.assertEquals(squares / (n - 1), window.getVariance(), DELTA);
+			}
+			Assert.assertEquals(min, window.getMin(), 0);
+			Assert.assertEquals(max, window.getMax(), 0);
+			Assert.assertEquals(ewma, window.getEwma(), DELTA);
+		}
+	}
+
+	@Test
+	public void testWindowEdgeCases() {
+		RollingWindow window = new RollingWindow(3);
+		Assert.assertTrue(Double.isNaN(window.getMean()));
+		Assert.assertTrue(Double.isNaN(window.getMin()));
+		window.add(2);
+		Assert.assertTrue(Double.isNaN(window.getVariance()));
+		window.add(Double.NaN);
+		Assert.assertEquals(1, window.getCount());
+		// Monotonic values, then a plateau
+		window.add(3);
+		window.add(4);
+		window.add(5);
+		Assert.assertEquals(3.0, window.getMin(), 0);
+		Assert.assertEquals(5.0, window.getMax(), 0);
+		window.add(5);
+		window.add(5);
+		Assert.assertEquals(5.0, window.getMin(), 0);
+		Assert.assertEquals(0.0, window.getVariance(), 0);
+		window.clear();
+		Assert.assertEquals(0, window.getCount());
+		Assert.assertTrue(Double.isNaN(window.getEwma()));
+	}
+
+	@Test
+	public void testUpdatedWithSeries() {
+		TimeSeries series = new TimeSeries("EUR");
+		LocalDate start = LocalDate.of(2018, 1, 1);
+		for (int i = 0; i < 5; i++) {
+			series.put(start.plusDays(i), Collections.singletonMap("USD", 1.0 + i));
+		}
+		RollingAnalytics analytics = new RollingAnalytics(series, 3);
+		analytics.attach();
+		Assert.assertEquals(4.0, analytics.getMean("USD"), DELTA);
+		Assert.assertEquals(3.0, analytics.getMin("usd"), 0);
+		Assert.assertEquals(4, analytics.getLastIndex());
+
+		// Appended day: updated in place
+		Map<String, Double> rates = new HashMap<>();
+		rates.put("USD", 9.0);
+		rates.put("GBP", 0.9);
+		series.put(start.plusDays(5), rates);
+		Assert.assertEquals(6.0, analytics.getMean("USD"), DELTA);
+		Assert.assertEquals(9.0, analytics.getMax("USD"), 0);
+		Assert.assertEquals(1, analytics.getCount("GBP"));
+		Assert.assertEquals(5, analytics.getLastIndex());
+
+		// Correction of an old day: rebuilt
+		series.put(start.plusDays(4), Collections.singletonMap("USD", 2.0));
+		Assert.assertEquals(5.0, analytics.getMean("USD"), DELTA);
+		Assert.assertEquals(2.0, analytics.getMin("USD"), 0);
+
+		analytics.detach();
+		series.put(start.plusDays(6), Collections.singletonMap("USD", 100.0));
+		Assert.assertEquals(5.0, analytics.getMean("USD"), DELTA);
+		Assert.assertTrue(Double.isNaN(analytics.getMean("JPY")));
+	}
+
+}
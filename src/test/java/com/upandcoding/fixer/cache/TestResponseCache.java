@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.cache;
+
+import org.junit.Test;
+
+import junit.framework.Assert;
+
+public class TestResponseCache {
+
+	@Test
+	public void testBoundedSize() {
+		ResponseCache cache = new ResponseCache(1000);
+		cache.setMaxEntries(10);
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < 10; i++) {
+			cache.put("key" + i, ResponseCache.Entry.ofJsonResponse("{}", now - 100 + i));
+		}
+		Assert.assertEquals(10, cache.size());
+
+		// Replacing an entry does not evict any other
+		cache.put("key5", ResponseCache.Entry.ofJsonResponse("{}", now));
+		Assert.assertEquals(10, cache.size());
+
+		// The oldest entry is evicted
+		cache.put("key10", ResponseCache.Entry.ofJsonResponse("{}", now));
+		Assert.assertEquals(10, cache.size());
+		Assert.assertNull(cache.get("key0"));
+		Assert.assertNotNull(cache.get("key1"));
+		Assert.assertNotNull(cache.get("key10"));
+	}
+
+	@Test
+	public void testExpiredEvictedFirst() {
+		ResponseCache cache = new ResponseCache(1000);
+		cache.setStaleIfErrorMillis(1000);
+		cache.setMaxEntries(4);
+		long now = System.currentTimeMillis();
+		cache.put("fresh", ResponseCache.Entry.ofJsonResponse("{}", now - 500));
+		cache.put("staleIfError", ResponseCache.Entry.ofJsonResponse("{}", now - 1500));
+		cache.put("expired1", ResponseCache.Entry.ofJsonResponse("{}", now - 3000));
+		cache.put("expired2", ResponseCache.Entry.ofJsonResponse("{}", now - 4000));
+
+		// Both entries expired beyond the stale-if-error window are removed
+		cache.put("new", ResponseCache.Entry.ofJsonResponse("{}", now));
+		Assert.assertEquals(3, cache.size());
+		Assert.assertNull(cache.get("expired1"));
+		Assert.assertNull(cache.get("expired2"));
+		Assert.assertNotNull(cache.get("staleIfError"));
+
+		// Lowering the maximum trims the cache
+		cache.setMaxEntries(1);
+		Assert.assertEquals(1, cache.size());
+		Assert.assertNotNull(cache.get("new"));
+	}
+
+}
@@ -33,6 +33,28 @@ public class TestEndpoint {
 		Assert.assertEquals(expected1, url1);
 	}
 
+	@Test
+	public void testGetRequestKey() throws FixerException {
+		Endpoint latest = new LatestEndpoint(TestConfig.baseUrl);
+		latest.addParam("access_key", TestConfig.accessKey);
+		latest.addParam("base", TestConfig.baseCurrency);
+		latest.addParam("symbols", "USD,GBP");
+		String expected = TestConfig.baseUrl + "/latest?base=" + TestConfig.baseCurrency + "&symbols=USD,GBP";
+		Assert.assertEquals(expected, latest.getRequestKey());
+
+		// Same request with another key
+		Endpoint latest2 = new LatestEndpoint(TestConfig.baseUrl);
+		latest2.addParam("access_key", "OTHER-KEY");
+		latest2.addParam("base", TestConfig.baseCurrency);
+		latest2.addParam("symbols", "USD,GBP");
+		Assert.assertEquals(latest.getRequestKey(), latest2.getRequestKey());
+
+		Endpoint historical = new HistoricalEndpoint(TestConfig.baseUrl);
+		historical.addParam("access_key", TestConfig.accessKey);
+		historical.addPathVariable("date", "2018-02-15");
+		Assert.assertEquals(TestConfig.baseUrl + "/2018-02-15", historical.getRequestKey());
+	}
+
 	@Test(expected = FixerException.class)
 	public void testGetUrlError() throws FixerException {
 		Endpoint latest3 = new LatestEndpoint(TestConfig.baseUrl);
@@ -95,4 +95,61 @@ public class TestEndpointLatest {
 		}
 	}
 
+	@Test
+	public void testKnownTimestamp() throws FixerException, ClientProtocolException, IOException {
+
+		// Rates before the timestamp: skipped, not parsed
+		String jsonStr = "{"
+				+ "\"success\": true,"
+				+ "\"base\": \"USD\","
+				+ "\"date\": \"2018-07-10\","
+				+ "\"rates\": {"
+				+ "\"GBP\": 0.72007,"
+				+ "\"JPY\": 107.346001"
+				+ "},"
+				+ "\"timestamp\": 1531958399"
+				+ "}";
+		String endpointUrl = "/latest?access_key=" + TestConfig.accessKey + "&base=USD";
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, endpointUrl, jsonStr);
+
+		LatestEndpoint latestEndpoint = new LatestEndpoint(TestConfig.baseUrl);
+		latestEndpoint.addParam("access_key", TestConfig.accessKey);
+		latestEndpoint.addParam("base", "USD");
+		String requestKey = latestEndpoint.getRequestKey();
+
+		// Same timestamp: header only
+		latestEndpoint.setKnownTimestamp(1531958399);
+		Assert.assertFalse(requestKey.equals(latestEndpoint.getRequestKey()));
+		EndpointFieldList data = latestEndpoint.getData();
+		Assert.assertTrue(data.isSuccess());
+		Assert.assertTrue(data.isUnchanged());
+		Assert.assertTrue(data.getRates().isEmpty());
+		Assert.assertEquals("1531958399", data.getField("timestamp").getValue());
+
+		// Other timestamp: fully parsed
+		latestEndpoint.setKnownTimestamp(1531950000);
+		data = latestEndpoint.getData();
+		Assert.assertFalse(data.isUnchanged());
+		Assert.assertEquals(2, data.getRates().size());
+		Assert.assertEquals("USD", data.getField("base").getValue());
+	}
+
+	@Test
+	public void testKnownTimestampError() throws FixerException, ClientProtocolException, IOException {
+		String jsonStr = "{\"success\": false, \"error\": {\"code\": 101, \"type\": \"invalid_access_key\"}}";
+		String endpointUrl = "/latest?access_key=" + TestConfig.accessKey + "&base=USD";
+		TestUtils.setupMockHttpServer(TestConfig.baseUrl, endpointUrl, jsonStr);
+
+		LatestEndpoint latestEndpoint = new LatestEndpoint(TestConfig.baseUrl);
+		latestEndpoint.addParam("access_key", TestConfig.accessKey);
+		latestEndpoint.addParam("base", "USD");
+		latestEndpoint.setKnownTimestamp(1531958399);
+		try {
+			latestEndpoint.getData();
+			Assert.fail("Error expected");
+		} catch (FixerException e) {
+			Assert.assertEquals(101, e.getFixerCode());
+		}
+	}
+
 }
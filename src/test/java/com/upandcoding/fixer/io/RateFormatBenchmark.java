@@ -0,0 +1,136 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.upandcoding.fixer.model.TimeSeries;
+
+/**
+ * Compares the binary format with a JSON document shaped like a timeseries
+ * response, for 170 currencies over 20 years of daily rates: size, write and
+ * read times.
+ * <p>
+ * Not run by the build: launch the main method with the test classpath.
+ * 
+ * @author Lionel Conforto
+ *
+ */
+public class RateFormatBenchmark {
+
+	private static final int CURRENCIES = 170;
+	private static final int DAYS = 20 * 365;
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) throws IOException {
+		Random random = new Random(1);
+		String[] currencies = new String[CURRENCIES];
+		double[] levels = new double[CURRENCIES];
+		for (int c = 0; c < CURRENCIES; c++) {
+			currencies[c] = String.format("C%02d", c);
+			levels[c] = Math.pow(10, random.nextInt(5) - 1);
+		}
+		LocalDate start = LocalDate.of(1998, 1, 1);
+
+		// Rates with 6 significant digits, as returned by the API
+		TimeSeries series = new TimeSeries("EUR");
+		for (int d = 0; d < DAYS; d++) {
+			Map<String, Double> rates = new HashMap<>();
+			for (int c = 0; c < CURRENCIES; c++) {
+				levels[c] *= 1 + (random.nextDouble() - 0.5) / 100;
+				rates.put(currencies[c], Double.parseDouble(String.format("%.6g", levels[c])));
+			}
+			series.put(start.plusDays(d), rates);
+		}
+
+		JsonFactory factory = new JsonFactory();
+		for (int round = 0; round < ROUNDS; round++) {
+			long time = System.nanoTime();
+			byte[] json = writeJson(factory, series);
+			long jsonWrite = System.nanoTime() - time;
+			time = System.nanoTime();
+			int jsonValues = readJson(factory, json);
+			long jsonRead = System.nanoTime() - time;
+
+			time = System.nanoTime();
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			try (RateWriter writer = new RateWriter(Channels.newChannel(out))) {
+				writer.write(series);
+			}
+			byte[] binary = out.toByteArray();
+			long binaryWrite = System.nanoTime() - time;
+			time = System.nanoTime();
+			TimeSeries read;
+			try (RateReader reader = new RateReader(Channels.newChannel(new ByteArrayInputStream(binary)))) {
+				reader.next();
+				read = reader.readSeries();
+			}
+			long binaryRead = System.nanoTime() - time;
+
+			System.out.printf("Round %d: JSON %d bytes, write %d ms, read %d ms (%d rates)%n", round + 1, json.length,
+					jsonWrite / 1000000, jsonRead / 1000000, jsonValues);
+			System.out.printf("Round %d: binary %d bytes, write %d ms, read %d ms (%d days)%n", round + 1,
+					binary.length, binaryWrite / 1000000, binaryRead / 1000000, read.size());
+		}
+	}
+
+	private static byte[] writeJson(JsonFactory factory, TimeSeries series) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (JsonGenerator generator = factory.createGenerator(out)) {
+			generator.writeStartObject();
+			generator.writeBooleanField("success", true);
+			generator.writeBooleanField("timeseries", true);
+			generator.writeStringField("base", series.getBaseCurrency());
+			generator.writeObjectFieldStart("rates");
+			for (int i = 0; i < series.size(); i++) {
+				generator.writeObjectFieldStart(series.getDate(i).toString());
+				for (String currency : series.getCurrencies()) {
+					generator.writeNumberField(currency, series.getRate(currency, i));
+				}
+				generator.writeEndObject();
+			}
+			generator.writeEndObject();
+			generator.writeEndObject();
+		}
+		return out.toByteArray();
+	}
+
+	private static int readJson(JsonFactory factory, byte[] json) throws IOException {
+		int values = 0;
+		try (JsonParser parser = factory.createParser(json)) {
+			JsonToken token;
+			while ((token = parser.nextToken()) != null) {
+				if (token == JsonToken.VALUE_NUMBER_FLOAT) {
+					parser.getDoubleValue();
+					values++;
+				}
+			}
+		}
+		return values;
+	}
+
+}
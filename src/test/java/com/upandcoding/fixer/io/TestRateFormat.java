@@ -0,0 +1,182 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.upandcoding.fixer.model.RateSnapshot;
+import com.upandcoding.fixer.model.TimeSeries;
+
+import junit.framework.Assert;
+
+public class TestRateFormat {
+
+	private static byte[] write(int bufferSize, Object... records) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (RateWriter writer = new RateWriter(Channels.newChannel(out), bufferSize)) {
+			for (Object record : records) {
+				if (record instanceof RateSnapshot) {
+					writer.write((RateSnapshot) record);
+				} else {
+					writer.write((TimeSeries) record);
+				}
+			}
+		}
+		return out.toByteArray();
+	}
+
+	private static RateReader reader(byte[] data, int bufferSize) {
+		return new RateReader(Channels.newChannel(new ByteArrayInputStream(data)), bufferSize);
+	}
+
+	private static TimeSeries series() {
+		TimeSeries series = new TimeSeries("EUR");
+		LocalDate start = LocalDate.of(2018, 1, 1);
+		for (int d = 0; d < 100; d++) {
+			if (d % 7 == 5) {
+				continue;
+			}
+			Map<String, Double> rates = new HashMap<>();
+			rates.put("USD", 1.2 + d * 0.0001);
+			if (d % 3 != 0) {
+				rates.put("JPY", 130.25 - d * 0.01);
+			}
+			// Not a short decimal: stored raw
+			rates.put("XAU", 1.0 / (1200 + d));
+			series.put(start.plusDays(d), rates);
+		}
+		return series;
+	}
+
+	@Test
+	public void testSnapshotRoundTrip() throws IOException {
+		Map<String, Double> rates = new LinkedHashMap<>();
+		rates.put("USD", 1.23396);
+		rates.put("GBP", 0.882047);
+		rates.put("JPY", Double.NaN);
+		RateSnapshot snapshot = new RateSnapshot("EUR", "2018-02-13", LocalDateTime.of(2018, 2, 13, 10, 15, 8), rates);
+
+		try (RateReader reader = reader(write(RateWriter.DEFAULT_BUFFER_SIZE, snapshot), RateWriter.DEFAULT_BUFFER_SIZE)) {
+			Assert.assertEquals(RateFormat.RECORD_SNAPSHOT, reader.next());
+			RateSnapshot read = reader.readSnapshot();
+			Assert.assertEquals("EUR", read.getBaseCurrency());
+			Assert.assertEquals("2018-02-13", read.getDate());
+			Assert.assertEquals(snapshot.getTimestamp(), read.getTimestamp());
+			Assert.assertEquals(snapshot.getCurrencies(), read.getCurrencies());
+			Assert.assertEquals(1.23396, read.getRate("USD"), 0);
+			Assert.assertEquals(0.882047, read.getRate("GBP"), 0);
+			Assert.assertEquals(-1, reader.next());
+		}
+
+		RateSnapshot empty = new RateSnapshot("USD", null, null, new HashMap<String, Double>());
+		try (RateReader reader = reader(write(RateWriter.DEFAULT_BUFFER_SIZE, empty), RateWriter.DEFAULT_BUFFER_SIZE)) {
+			Assert.assertEquals(RateFormat.RECORD_SNAPSHOT, reader.next());
+			RateSnapshot read = reader.readSnapshot();
+			Assert.assertEquals("USD", read.getBaseCurrency());
+			Assert.assertNull(read.getDate());
+			Assert.assertNull(read.getTimestamp());
+			Assert.assertEquals(0, read.size());
+		}
+	}
+
+	@Test
+	public void testSeriesRoundTrip() throws IOException {
+		TimeSeries series = series();
+		// Small buffers: records span several reads and writes
+		byte[] data = write(256, series, series);
+
+		try (RateReader reader = reader(data, 256)) {
+			for (int r = 0; r < 2; r++) {
+				Assert.assertEquals(RateFormat.RECORD_SERIES, reader.next());
+				TimeSeries read = reader.readSeries();
+				Assert.assertEquals("EUR", read.getBaseCurrency());
+				Assert.assertEquals(series.getCurrencies(), read.getCurrencies());
+				Assert.assertTrue(Arrays.equals(series.getEpochDays(), read.getEpochDays()));
+				for (String currency : series.getCurrencies()) {
+					double[] expected = series.getColumn(currency);
+					double[] actual = read.getColumn(currency);
+					for (int i = 0; i < expected.length; i++) {
+						Assert.assertEquals(Double.doubleToLongBits(expected[i]), Double.doubleToLongBits(actual[i]));
+					}
+				}
+			}
+			Assert.assertEquals(-1, reader.next());
+		}
+	}
+
+	@Test
+	public void testDecimalScale() {
+		Assert.assertEquals(0, RateWriter.getDecimalScale(new double[] { 1, 2, Double.NaN }));
+		Assert.assertEquals(6, RateWriter.getDecimalScale(new double[] { 1.23396, 0.882047 }));
+		Assert.assertEquals(-1, RateWriter.getDecimalScale(new double[] { 1.0 / 3 }));
+		Assert.assertEquals(-1, RateWriter.getDecimalScale(new double[] { 1e12, 0.123456 }));
+	}
+
+	@Test
+	public void testMixedRecords() throws IOException {
+		RateSnapshot snapshot = new RateSnapshot("EUR", "2018-02-13", null, Collections.singletonMap("USD", 1.2));
+		byte[] data = write(RateWriter.DEFAULT_BUFFER_SIZE, snapshot, new TimeSeries("EUR"), snapshot);
+
+		try (RateReader reader = reader(data, 256)) {
+			Assert.assertEquals(RateFormat.RECORD_SNAPSHOT, reader.next());
+			Assert.assertEquals(1.2, reader.readSnapshot().getRate("USD"), 0);
+			Assert.assertEquals(RateFormat.RECORD_SERIES, reader.next());
+			Assert.assertEquals(0, reader.readSeries().size());
+			Assert.assertEquals(RateFormat.RECORD_SNAPSHOT, reader.next());
+			try {
+				reader.readSeries();
+				Assert.fail("Record type not checked");
+			} catch (IOException e) {
+				// Expected
+			}
+			reader.readSnapshot();
+			Assert.assertEquals(-1, reader.next());
+		}
+	}
+
+	@Test
+	public void testInvalidStream() throws IOException {
+		try (RateReader reader = reader("{\"success\":true}".getBytes("UTF-8"), 256)) {
+			reader.next();
+			Assert.fail("Magic not checked");
+		} catch (IOException e) {
+			// Expected
+		}
+
+		byte[] data = write(256, series());
+		byte[] truncated = Arrays.copyOf(data, data.length - 10);
+		try (RateReader reader = reader(truncated, 256)) {
+			reader.next();
+			reader.readSeries();
+			Assert.fail("Truncation not detected");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.model;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Reports the memory of a compressed history of 170 currencies over 20 years
+ * of daily rates, against the columns of a TimeSeries and a list of
+ * ExchangeRate, and times sequential and random reads.
+ * <p>
+ * Not run by the build: launch the main method with the test classpath.
+ * 
+ * @author Lionel Conforto
+ *
+ */
+public class CompressedTimeSeriesBenchmark {
+
+	private static final int CURRENCIES = 170;
+	private static final int DAYS = 20 * 365;
+	private static final int RANDOM_READS = 1000000;
+
+	public static void main(String[] args) {
+		Random random = new Random(1);
+		String[] currencies = new String[CURRENCIES];
+		double[] levels = new double[CURRENCIES];
+		for (int c = 0; c < CURRENCIES; c++) {
+			currencies[c] = String.format("C%02d", c);
+			levels[c] = Math.pow(10, random.nextInt(5) - 1);
+		}
+		LocalDate start = LocalDate.of(1998, 1, 1);
+
+		// Rates with 6 significant digits, as returned by the API
+		TimeSeries series = new TimeSeries("EUR");
+		for (int d = 0; d < DAYS; d++) {
+			Map<String, Double> rates = new HashMap<>();
+			for (int c = 0; c < CURRENCIES; c++) {
+				levels[c] *= 1 + (random.nextDouble() - 0.5) / 100;
+				rates.put(currencies[c], Double.parseDouble(String.format("%.6g", levels[c])));
+			}
+			series.put(start.plusDays(d), rates);
+		}
+
+		for (int blockSize : new int[] { 32, CompressedTimeSeries.DEFAULT_BLOCK_SIZE, 1024 }) {
+			long time = System.nanoTime();
+			CompressedTimeSeries compressed = CompressedTimeSeries.of(series, blockSize);
+			long encode = System.nanoTime() - time;
+			System.out.printf("Block of %d days: %s, encoded in %d ms%n", blockSize, compressed, encode / 1000000);
+
+			for (int round = 0; round < 3; round++) {
+				time = System.nanoTime();
+				double sum = 0;
+				for (String currency : currencies) {
+					for (double rate : compressed.getColumn(currency)) {
+						sum += rate;
+					}
+				}
+				long sequential = System.nanoTime() - time;
+
+				time = System.nanoTime();
+				for (int n = 0; n < RANDOM_READS; n++) {
+					sum += compressed.getRate(currencies[random.nextInt(CURRENCIES)], random.nextInt(DAYS));
+				}
+				long randomReads = System.nanoTime() - time;
+				System.out.printf("    full decode %d ms, %d random reads %d ms (%.1f)%n", sequential / 1000000, RANDOM_READS,
+						randomReads / 1000000, sum);
+			}
+		}
+	}
+
+}
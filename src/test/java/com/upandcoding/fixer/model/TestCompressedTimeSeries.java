@@ -0,0 +1,112 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.model;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import junit.framework.Assert;
+
+public class TestCompressedTimeSeries {
+
+	private static TimeSeries randomSeries(int days) {
+		Random random = new Random(7);
+		TimeSeries series = new TimeSeries("EUR");
+		double usd = 1.2;
+		double jpy = 130;
+		LocalDate start = LocalDate.of(2010, 1, 1);
+		for (int d = 0; d < days; d++) {
+			Map<String, Double> rates = new HashMap<>();
+			usd *= 1 + (random.nextDouble() - 0.5) / 100;
+			rates.put("USD", Double.parseDouble(String.format("%.6f", usd)));
+			if (d % 10 != 3) {
+				jpy *= 1 + (random.nextDouble() - 0.5) / 100;
+				rates.put("JPY", jpy);
+			}
+			// Pegged: the same rate every day
+			rates.put("DKK", 7.46);
+			series.put(start.plusDays(d + d / 5), rates);
+		}
+		return series;
+	}
+
+	private static void assertSameBits(double expected, double actual) {
+		Assert.assertEquals(Double.doubleToRawLongBits(expected), Double.doubleToRawLongBits(actual));
+	}
+
+	@Test
+	public void testRoundTrip() {
+		TimeSeries series = randomSeries(1000);
+		for (int blockSize : new int[] { 1, 7, CompressedTimeSeries.DEFAULT_BLOCK_SIZE, 5000 }) {
+			CompressedTimeSeries compressed = CompressedTimeSeries.of(series, blockSize);
+			Assert.assertEquals(series.size(), compressed.size());
+			Assert.assertEquals(series.getCurrencies(), compressed.getCurrencies());
+			for (String currency : series.getCurrencies()) {
+				double[] expected = series.getColumn(currency);
+				double[] actual = compressed.getColumn(currency);
+				for (int i = 0; i < expected.length; i++) {
+					assertSameBits(expected[i], actual[i]);
+				}
+			}
+			TimeSeries restored = compressed.toTimeSeries();
+			Assert.assertEquals(series.getLastDate(), restored.getLastDate());
+			assertSameBits(series.getRate("JPY", 500), restored.getRate("JPY", 500));
+		}
+	}
+
+	@Test
+	public void testRandomAccess() {
+		TimeSeries series = randomSeries(1000);
+		CompressedTimeSeries compressed = CompressedTimeSeries.of(series, 64);
+		Random random = new Random(3);
+		for (int n = 0; n < 500; n++) {
+			int index = random.nextInt(series.size());
+			assertSameBits(series.getRate("JPY", index), compressed.getRate("JPY", index));
+			LocalDate date = series.getDate(index);
+			assertSameBits(series.getRate("USD", date), compressed.getRate("usd", date));
+
+			int from = random.nextInt(series.size());
+			int to = from + random.nextInt(series.size() - from + 1);
+			double[] rates = compressed.getRates("USD", from, to);
+			Assert.assertEquals(to - from, rates.length);
+			for (int i = from; i < to; i++) {
+				assertSameBits(series.getRate("USD", i), rates[i - from]);
+			}
+		}
+		Assert.assertTrue(Double.isNaN(compressed.getRate("JPY", 3)));
+		Assert.assertTrue(Double.isNaN(compressed.getRate("GBP", 3)));
+		Assert.assertNull(compressed.getColumn("GBP"));
+		Assert.assertTrue(Double.isNaN(compressed.getRate("USD", LocalDate.of(2010, 1, 6))));
+	}
+
+	@Test
+	public void testMemoryReport() {
+		CompressedTimeSeries compressed = CompressedTimeSeries.of(randomSeries(1000));
+		Assert.assertEquals(2900, compressed.getRateCount());
+		Assert.assertTrue(compressed.toString(), compressed.getMemoryBytes() < compressed.getColumnarMemoryBytes());
+		Assert.assertTrue(compressed.toString(), compressed.getColumnarMemoryBytes() < compressed.getObjectMemoryBytes());
+
+		CompressedTimeSeries empty = CompressedTimeSeries.of(new TimeSeries("EUR"));
+		Assert.assertEquals(0, empty.size());
+		Assert.assertEquals(0, empty.getRateCount());
+		Assert.assertEquals(0, empty.toTimeSeries().size());
+	}
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import junit.framework.Assert;
+
+public class TestLiveRates {
+
+	private static final String[] SYMBOLS = { "USD", "GBP", "JPY", "CHF" };
+
+	/**
+	 * Snapshot number n: USD = n, GBP = 2n, JPY = 3n, CHF = 4n. Odd snapshots also
+	 * have AUD, so that the currencies change.
+	 */
+	private static RateSnapshot snapshot(long n) {
+		Map<String, Double> rates = new HashMap<>();
+		for (int i = 0; i < SYMBOLS.length; i++) {
+			rates.put(SYMBOLS[i], (double) n * (i + 1));
+		}
+		if (n % 2 == 1) {
+			rates.put("AUD", (double) n * 10);
+		}
+		return new RateSnapshot("EUR", "2018-07-10", null, rates);
+	}
+
+	@Test
+	public void testReads() {
+		LiveRates liveRates = new LiveRates();
+		Assert.assertNull(liveRates.getSnapshot());
+		Assert.assertTrue(Double.isNaN(liveRates.getRate("USD")));
+
+		liveRates.publish(snapshot(3));
+		Assert.assertEquals(3.0, liveRates.getRate("USD"), 0);
+		Assert.assertEquals(9.0, liveRates.getRate("jpy"), 0);
+		Assert.assertEquals(1.0, liveRates.getRate("EUR"), 0);
+		Assert.assertTrue(Double.isNaN(liveRates.getRate("XXX")));
+		Assert.assertEquals(2.0, liveRates.getCrossRate("USD", "GBP"), 0);
+		Assert.assertEquals(1 / 3.0, liveRates.getCrossRate("USD", "EUR"), 1e-12);
+
+		liveRates.publish(snapshot(4));
+		double[] result = new double[3];
+		Assert.assertEquals(2, liveRates.getRates(new String[] { "CHF", "AUD", "EUR" }, result));
+		Assert.assertEquals(16.0, result[0], 0);
+		Assert.assertTrue(Double.isNaN(result[1]));
+		Assert.assertEquals(1.0, result[2], 0);
+		Assert.assertEquals(4.0, liveRates.getSnapshot().getRate("USD"), 0);
+	}
+
+	@Test
+	public void testConcurrentReadsAreConsistent() throws Exception {
+		final LiveRates liveRates = new LiveRates();
+		liveRates.publish(snapshot(1));
+		final AtomicBoolean stop = new AtomicBoolean();
+		final AtomicReference<String> failure = new AtomicReference<>();
+		final AtomicLong reads = new AtomicLong();
+		int readerCount = Math.max(2, Runtime.getRuntime().availableProcessors() - 1);
+		final CountDownLatch done = new CountDownLatch(readerCount);
+
+		for (int r = 0; r < readerCount; r++) {
+			final int reader = r;
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					double[] result = new double[SYMBOLS.length + 1];
+					String[] symbols = { "USD", "GBP", "JPY", "CHF", "AUD" };
+					long count = 0;
+					long lastVersion = 0;
+					try {
+						while (!stop.get()) {
+							switch (reader % 3) {
+							case 0:
+								long version = liveRates.getRates(symbols, result);
+								for (int i = 1; i < SYMBOLS.length; i++) {
+									if (result[i] != result[0] * (i + 1)) {
+										failure.compareAndSet(null, "Torn read: " + Arrays.toString(result));
+									}
+								}
+								long n = (long) result[0];
+								if ((n % 2 == 1) != !Double.isNaN(result[4]) || (n % 2 == 1 && result[4] != n * 10)) {
+									failure.compareAndSet(null, "Inconsistent currencies: " + Arrays.toString(result));
+								}
+								if (version < lastVersion) {
+									failure.compareAndSet(null, "Version went back: " + version + " < " + lastVersion);
+								}
+								lastVersion = version;
+								break;
+							case 1:
+								double cross = liveRates.getCrossRate("GBP", "CHF");
+								if (cross != 2.0) {
+									failure.compareAndSet(null, "Cross rate: " + cross);
+								}
+								break;
+							default:
+								RateSnapshot snapshot = liveRates.getSnapshot();
+								if (snapshot.getRate("JPY") != snapshot.getRate("USD") * 3) {
+									failure.compareAndSet(null, "Snapshot: " + snapshot);
+								}
+							}
+							count++;
+						}
+					} finally {
+						reads.addAndGet(count);
+						done.countDown();
+					}
+				}
+			});
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		long end = System.currentTimeMillis() + 1000;
+		long n = 1;
+		while (System.currentTimeMillis() < end && failure.get() == null) {
+			liveRates.publish(snapshot(++n));
+		}
+		stop.set(true);
+		done.await();
+
+		Assert.assertNull(failure.get(), failure.get());
+		Assert.assertEquals(n, liveRates.getVersion());
+		Assert.assertTrue(reads.get() > 0);
+	}
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import junit.framework.Assert;
+
+public class TestRateChangeNotifier {
+
+	private static class Recorder implements RateChangeNotifier.Listener {
+		private final List<List<RateChange>> calls = new ArrayList<>();
+
+		@Override
+		public void onChanges(RateSnapshot previous, RateSnapshot current, List<RateChange> changes) {
+			calls.add(changes);
+		}
+	}
+
+	private static RateSnapshot snapshot(String base, Object... ratesByCurrency) {
+		Map<String, Double> rates = new HashMap<>();
+		for (int i = 0; i < ratesByCurrency.length; i += 2) {
+			rates.put((String) ratesByCurrency[i], (Double) ratesByCurrency[i + 1]);
+		}
+		return new RateSnapshot(base, "2018-07-10", null, rates);
+	}
+
+	@Test
+	public void testThresholds() {
+		RateChangeNotifier notifier = new RateChangeNotifier();
+		Recorder all = new Recorder();
+		Recorder large = new Recorder();
+		notifier.addListener(all, 0);
+		notifier.addListener(large, 1.0);
+
+		RateSnapshot first = snapshot("EUR", "USD", 1.0, "GBP", 0.8, "JPY", 130.0, "CHF", 1.1);
+		// USD +2%, GBP -0.5%, JPY unchanged, CHF removed, AUD added
+		RateSnapshot second = snapshot("EUR", "USD", 1.02, "GBP", 0.796, "JPY", 130.0, "AUD", 1.5);
+		Assert.assertEquals(3, notifier.compare(first, second));
+
+		Assert.assertEquals(1, all.calls.size());
+		List<RateChange> changes = all.calls.get(0);
+		Assert.assertEquals(2, changes.size());
+		Assert.assertEquals("GBP", changes.get(0).getTargetCurrency());
+		Assert.assertEquals(-0.5, changes.get(0).getChangePct(), 1e-9);
+		Assert.assertEquals("USD", changes.get(1).getTargetCurrency());
+		Assert.assertEquals(1.0, changes.get(1).getOldRate(), 0);
+		Assert.assertEquals(1.02, changes.get(1).getNewRate(), 0);
+		Assert.assertEquals(2.0, changes.get(1).getChangePct(), 1e-9);
+		Assert.assertEquals("EUR", changes.get(1).getBaseCurrency());
+
+		Assert.assertEquals(1, large.calls.size());
+		Assert.assertEquals(1, large.calls.get(0).size());
+		Assert.assertSame(changes.get(1), large.calls.get(0).get(0));
+	}
+
+	@Test
+	public void testNoChange() {
+		RateChangeNotifier notifier = new RateChangeNotifier();
+		Recorder recorder = new Recorder();
+		notifier.addListener(recorder, 5.0);
+		RateSnapshot first = snapshot("EUR", "USD", 1.0);
+		Assert.assertEquals(0, notifier.compare(first, snapshot("EUR", "USD", 1.01)));
+		Assert.assertEquals(0, notifier.compare(null, first));
+		// Other base currency: not compared
+		Assert.assertEquals(0, notifier.compare(first, snapshot("USD", "USD", 2.0)));
+		Assert.assertTrue(recorder.calls.isEmpty());
+
+		// Changes reported again once the listener is added back
+		notifier.removeListener(recorder);
+		Assert.assertEquals(0, notifier.getListenerCount());
+		Assert.assertEquals(0, notifier.compare(first, snapshot("EUR", "USD", 2.0)));
+		notifier.addListener(recorder, 5.0);
+		Assert.assertEquals(1, notifier.compare(first, snapshot("EUR", "USD", 2.0)));
+		Assert.assertEquals(100.0, recorder.calls.get(0).get(0).getChangePct(), 1e-9);
+	}
+
+	@Test
+	public void testConcurrentSubscriptions() throws InterruptedException {
+		RateSnapshot first = snapshot("EUR", "USD", 1.0);
+		RateSnapshot second = snapshot("EUR", "USD", 1.01);
+		for (int i = 0; i < 200; i++) {
+			final RateChangeNotifier notifier = new RateChangeNotifier();
+			final Recorder large = new Recorder();
+			final Recorder small = new Recorder();
+			notifier.addListener(large, 5.0);
+			Thread adding = new Thread(() -> notifier.addListener(small, 0.5));
+			Thread removing = new Thread(() -> notifier.removeListener(large));
+			adding.start();
+			removing.start();
+			adding.join();
+			removing.join();
+
+			// The minimum threshold is the one of the remaining listener
+			Assert.assertEquals(1, notifier.compare(first, second));
+			Assert.assertEquals(1, small.calls.size());
+		}
+	}
+
+	@Test
+	public void testFailingListener() {
+		RateChangeNotifier notifier = new RateChangeNotifier();
+		Recorder recorder = new Recorder();
+		notifier.addListener(new RateChangeNotifier.Listener() {
+			@Override
+			public void onChanges(RateSnapshot previous, RateSnapshot current, List<RateChange> changes) {
+				throw new IllegalStateException("Listener failure");
+			}
+		}, 0);
+		notifier.addListener(recorder, 0);
+		Assert.assertEquals(2, notifier.compare(snapshot("EUR", "USD", 1.0), snapshot("EUR", "USD", 1.1)));
+		Assert.assertEquals(1, recorder.calls.size());
+	}
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.model;
+
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import junit.framework.Assert;
+
+public class TestRateSnapshot {
+
+	private RateSnapshot createSnapshot() {
+		Map<String, Double> rates = new HashMap<>();
+		rates.put("USD", 1.2);
+		rates.put("GBP", 0.8);
+		rates.put("JPY", 130.0);
+		rates.put("CHF", 1.1);
+		return new RateSnapshot("EUR", "2018-07-10", null, rates);
+	}
+
+	@Test
+	public void testGetRate() {
+		RateSnapshot snapshot = createSnapshot();
+		Assert.assertEquals(4, snapshot.size());
+		Assert.assertEquals(Arrays.asList("CHF", "GBP", "JPY", "USD"), snapshot.getCurrencies());
+		Assert.assertEquals(1.2, snapshot.getRate("usd"), 0);
+		Assert.assertEquals(1.0, snapshot.getRate("EUR"), 0);
+		Assert.assertTrue(Double.isNaN(snapshot.getRate("XXX")));
+		Assert.assertFalse(snapshot.contains("XXX"));
+	}
+
+	@Test
+	public void testRebase() {
+		RateSnapshot rebased = createSnapshot().rebase("GBP");
+		Assert.assertEquals("GBP", rebased.getBaseCurrency());
+		Assert.assertEquals("2018-07-10", rebased.getDate());
+		Assert.assertEquals(1.5, rebased.getRate("USD"), 0);
+		Assert.assertEquals(162.5, rebased.getRate("JPY"), 0);
+		Assert.assertEquals(1.25, rebased.getRate("EUR"), 0);
+		Assert.assertEquals(1.0, rebased.getRate("GBP"), 0);
+		Assert.assertEquals(5, rebased.size());
+
+		// 1.1 / 0.8 = 1.375
+		Assert.assertEquals(1.375, rebased.getRate("CHF"), 0);
+	}
+
+	@Test
+	public void testRebasePrecision() {
+		RateSnapshot snapshot = createSnapshot();
+
+		// 130 / 1.2 = 108.3333...
+		Assert.assertEquals(108.33333, snapshot.rebase("USD").getRate("JPY"), 0);
+		Assert.assertEquals(108.3, snapshot.rebase("USD", new MathContext(4, RoundingMode.HALF_EVEN)).getRate("JPY"), 0);
+		Assert.assertEquals(130.0 / 1.2, snapshot.rebase("USD", MathContext.UNLIMITED).getRate("JPY"), 0);
+	}
+
+	@Test
+	public void testToExchangeRates() {
+		RateSnapshot rebased = createSnapshot().rebase("GBP");
+		List<ExchangeRate> rates = rebased.toExchangeRates(Arrays.asList("USD", "EUR"));
+		Assert.assertEquals(2, rates.size());
+		Assert.assertEquals("GBP", rates.get(0).getBaseCurrency());
+		Assert.assertEquals("USD", rates.get(0).getTargetCurrency());
+		Assert.assertEquals(1.25, rates.get(1).getRate(), 0);
+
+		Assert.assertNull(rebased.toExchangeRates(Arrays.asList("USD", "XXX")));
+		Assert.assertEquals(5, rebased.toExchangeRates(null).size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRebaseUnknownCurrency() {
+		createSnapshot().rebase("XXX");
+	}
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.model;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import junit.framework.Assert;
+
+public class TestTimeSeries {
+
+	private static Map<String, Double> rate(String currency, double rate) {
+		return Collections.singletonMap(currency, rate);
+	}
+
+	@Test
+	public void testAppendAndInsert() {
+		TimeSeries series = new TimeSeries("EUR");
+		final List<String> events = new ArrayList<>();
+		series.addListener(new TimeSeries.Listener() {
+			@Override
+			public void onAppend(TimeSeries s, int index) {
+				events.add("append " + index);
+			}
+
+			@Override
+			public void onChange(TimeSeries s, int fromIndex) {
+				events.add("change " + fromIndex);
+			}
+		});
+
+		series.put(LocalDate.of(2018, 1, 2), rate("USD", 1.2));
+		series.put(LocalDate.of(2018, 1, 5), rate("USD", 1.3));
+		series.put(LocalDate.of(2018, 1, 3), rate("GBP", 0.9));
+		series.put(LocalDate.of(2018, 1, 5), rate("GBP", 0.8));
+
+		Assert.assertEquals(3, series.size());
+		Assert.assertEquals(LocalDate.of(2018, 1, 2), series.getFirstDate());
+		Assert.assertEquals(LocalDate.of(2018, 1, 5), series.getLastDate());
+		Assert.assertEquals(LocalDate.of(2018, 1, 3), series.getDate(1));
+		Assert.assertEquals(1.3, series.getRate("USD", 2), 0);
+		Assert.assertEquals(0.8, series.getRate("GBP", 2), 0);
+		Assert.assertTrue(Double.isNaN(series.getRate("USD", 1)));
+		Assert.assertTrue(Double.isNaN(series.getRate("GBP", 0)));
+		Assert.assertEquals(1.0, series.getRate("EUR", 0), 0);
+		Assert.assertEquals("[append 0, append 1, change 1, change 2]", events.toString());
+	}
+
+	@Test
+	public void testNotifiedOnlyOfChanges() {
+		TimeSeries series = new TimeSeries("EUR");
+		final List<String> events = new ArrayList<>();
+		series.addListener(new TimeSeries.Listener() {
+			@Override
+			public void onAppend(TimeSeries s, int index) {
+				events.add("append " + index);
+			}
+
+			@Override
+			public void onChange(TimeSeries s, int fromIndex) {
+				events.add("change " + fromIndex);
+			}
+		});
+		LocalDate start = LocalDate.of(2018, 1, 1);
+		Map<LocalDate, Map<String, Double>> days = new LinkedHashMap<>();
+		for (int i = 0; i < 5; i++) {
+			days.put(start.plusDays(i), rate("USD", 1.0 + i));
+		}
+		series.putAll(days);
+		Assert.assertEquals("[append 0, append 1, append 2, append 3, append 4]", events.toString());
+
+		// Same rates: no notification
+		events.clear();
+		series.putAll(days);
+		series.put(start.plusDays(2), rate("USD", 3.0));
+		Assert.assertEquals("[]", events.toString());
+
+		// One notification from the first day changed
+		days.put(start.plusDays(3), rate("USD", 9.0));
+		days.put(start.plusDays(1), rate("GBP", 0.9));
+		days.put(start.plusDays(5), rate("USD", 6.0));
+		series.putAll(days);
+		Assert.assertEquals("[change 1]", events.toString());
+		Assert.assertEquals(6, series.size());
+		Assert.assertEquals(9.0, series.getRate("USD", 3), 0);
+	}
+
+	@Test
+	public void testGrowth() {
+		TimeSeries series = new TimeSeries("EUR");
+		LocalDate start = LocalDate.of(2000, 1, 1);
+		for (int i = 0; i < 1000; i++) {
+			series.put(start.plusDays(i), rate("USD", i));
+		}
+		Assert.assertEquals(1000, series.size());
+		Assert.assertEquals(999.0, series.getRate("USD", start.plusDays(999)), 0);
+		Assert.assertEquals(1000, series.getColumn("USD").length);
+		Assert.assertEquals(start.toEpochDay(), series.getEpochDays()[0]);
+		Assert.assertEquals(-1, series.indexOf(start.minusDays(1)));
+	}
+
+	@Test
+	public void testAsOf() {
+		TimeSeries series = new TimeSeries("EUR");
+		// Friday, Monday (no GBP), Tuesday
+		series.put(LocalDate.of(2018, 6, 1), rate("GBP", 0.87));
+		series.put(LocalDate.of(2018, 6, 4), rate("USD", 1.17));
+		Map<String, Double> rates = new HashMap<>();
+		rates.put("USD", 1.16);
+		rates.put("GBP", 0.88);
+		series.put(LocalDate.of(2018, 6, 5), rates);
+
+		LocalDate saturday = LocalDate.of(2018, 6, 2);
+		Assert.assertEquals(0, series.indexAsOf("GBP", saturday, TimeSeries.Lookup.PREVIOUS, 7));
+		Assert.assertEquals(2, series.indexAsOf("GBP", saturday, TimeSeries.Lookup.NEXT, 7));
+		Assert.assertEquals(0, series.indexAsOf("GBP", saturday, TimeSeries.Lookup.NEAREST, 7));
+		Assert.assertEquals(1, series.indexAsOf("USD", saturday, TimeSeries.Lookup.NEAREST, 7));
+		Assert.assertEquals(-1, series.indexAsOf("USD", saturday, TimeSeries.Lookup.PREVIOUS, 7));
+		// Monday: no GBP rate, Friday's rate is still in force
+		Assert.assertEquals(0, series.indexAsOf("GBP", LocalDate.of(2018, 6, 4), TimeSeries.Lookup.PREVIOUS, 3));
+		Assert.assertEquals(-1, series.indexAsOf("GBP", LocalDate.of(2018, 6, 4), TimeSeries.Lookup.PREVIOUS, 2));
+		Assert.assertEquals(2, series.indexAsOf("GBP", LocalDate.of(2018, 6, 4), TimeSeries.Lookup.NEAREST, 2));
+		// Exact date, future date, unknown currency
+		Assert.assertEquals(2, series.indexAsOf("USD", LocalDate.of(2018, 6, 5), TimeSeries.Lookup.NEXT, 0));
+		Assert.assertEquals(2, series.indexAsOf("USD", LocalDate.of(2018, 6, 10), TimeSeries.Lookup.PREVIOUS, 7));
+		Assert.assertEquals(-1, series.indexAsOf("USD", LocalDate.of(2018, 6, 10), TimeSeries.Lookup.NEXT, 7));
+		Assert.assertEquals(-1, series.indexAsOf("JPY", saturday, TimeSeries.Lookup.NEAREST, 7));
+		Assert.assertEquals(0, series.indexAsOf("EUR", saturday, TimeSeries.Lookup.PREVIOUS, 7));
+
+		ExchangeRate rate = series.getRateAsOf("gbp", saturday, TimeSeries.Lookup.PREVIOUS, 7);
+		Assert.assertEquals("GBP", rate.getTargetCurrency());
+		Assert.assertEquals("EUR", rate.getBaseCurrency());
+		Assert.assertEquals("2018-06-01", rate.getDate());
+		Assert.assertEquals(0.87, rate.getRate(), 0);
+		Assert.assertNull(series.getRateAsOf("GBP", LocalDate.of(2018, 5, 1), TimeSeries.Lookup.PREVIOUS, 7));
+	}
+
+}
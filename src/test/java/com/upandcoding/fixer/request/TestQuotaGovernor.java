@@ -0,0 +1,230 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.request;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.upandcoding.fixer.FixerException;
+
+import junit.framework.Assert;
+
+public class TestQuotaGovernor {
+
+	@Test
+	public void testTokenBucket() throws FixerException {
+		QuotaGovernor governor = new QuotaGovernor(20, 0);
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < 5; i++) {
+			governor.acquire(QuotaGovernor.Priority.INTERACTIVE);
+		}
+		// The first token is available at once, the 4 others at 50 ms intervals
+		long elapsed = System.currentTimeMillis() - start;
+		Assert.assertTrue("Elapsed: " + elapsed, elapsed >= 180);
+		Assert.assertEquals(5, governor.getUsed());
+	}
+
+	@Test
+	public void testMonthlyBudgetAndReserve() throws FixerException {
+		QuotaGovernor governor = new QuotaGovernor(0, 10);
+		governor.setBackfillReserve(0.2);
+		for (int i = 0; i < 8; i++) {
+			governor.acquire(QuotaGovernor.Priority.BACKFILL);
+		}
+
+		// Last 20% reserved for interactive requests
+		try {
+			governor.acquire(QuotaGovernor.Priority.BACKFILL);
+			Assert.assertTrue(false);
+		} catch (FixerException fe) {
+			Assert.assertEquals(104, fe.getFixerCode());
+			Assert.assertEquals(QuotaGovernor.TYPE_BUDGET_EXHAUSTED, fe.getFixerType());
+		}
+		governor.acquire(QuotaGovernor.Priority.INTERACTIVE);
+		governor.acquire(QuotaGovernor.Priority.INTERACTIVE);
+		Assert.assertEquals(0, governor.getRemaining());
+		try {
+			governor.acquire(QuotaGovernor.Priority.INTERACTIVE);
+			Assert.assertTrue(false);
+		} catch (FixerException fe) {
+			Assert.assertEquals(104, fe.getFixerCode());
+		}
+		Assert.assertEquals(2, governor.getRejectedCount());
+	}
+
+	@Test
+	public void testInteractivePreemptsBackfill() throws Exception {
+		final QuotaGovernor governor = new QuotaGovernor(5, 0);
+		governor.acquire(QuotaGovernor.Priority.INTERACTIVE);
+
+		final List<QuotaGovernor.Priority> order = Collections.synchronizedList(new ArrayList<QuotaGovernor.Priority>());
+		Thread backfill = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					governor.acquire(QuotaGovernor.Priority.BACKFILL);
+					order.add(QuotaGovernor.Priority.BACKFILL);
+				} catch (FixerException e) {
+				}
+			}
+		});
+		backfill.start();
+		Thread.sleep(50);
+
+		// Arrives later, but gets the next token first
+		governor.acquire(QuotaGovernor.Priority.INTERACTIVE);
+		order.add(QuotaGovernor.Priority.INTERACTIVE);
+		backfill.join(2000);
+		Assert.assertEquals(QuotaGovernor.Priority.INTERACTIVE, order.get(0));
+		Assert.assertEquals(QuotaGovernor.Priority.BACKFILL, order.get(1));
+	}
+
+	@Test
+	public void testPersistence() throws IOException, FixerException {
+		Path stateFile = File.createTempFile("jfixer-quota", ".properties").toPath();
+		Files.delete(stateFile);
+		try {
+			QuotaGovernor governor = new QuotaGovernor(0, 100);
+			governor.setStateFile(stateFile);
+			governor.acquire(QuotaGovernor.Priority.INTERACTIVE);
+			governor.acquire(QuotaGovernor.Priority.INTERACTIVE);
+			governor.acquire(QuotaGovernor.Priority.INTERACTIVE);
+			governor.close();
+
+			QuotaGovernor restarted = new QuotaGovernor(0, 100);
+			restarted.setStateFile(stateFile);
+			Assert.assertEquals(3, restarted.getUsed());
+			Assert.assertEquals(97, restarted.getRemaining());
+		} finally {
+			Files.deleteIfExists(stateFile);
+		}
+	}
+
+	@Test
+	public void testPeriodicPersistence() throws IOException, FixerException {
+		Path stateFile = File.createTempFile("jfixer-quota", ".properties").toPath();
+		Files.delete(stateFile);
+		try {
+			QuotaGovernor governor = new QuotaGovernor(0, 100);
+			governor.setSaveInterval(3, 60000);
+			governor.setStateFile(stateFile);
+			governor.acquire(QuotaGovernor.Priority.INTERACTIVE);
+			governor.acquire(QuotaGovernor.Priority.INTERACTIVE);
+			Assert.assertFalse(Files.exists(stateFile));
+
+			// Saved every 3 requests
+			governor.acquire(QuotaGovernor.Priority.INTERACTIVE);
+			governor.acquire(QuotaGovernor.Priority.INTERACTIVE);
+			Assert.assertEquals(3, restart(stateFile).getUsed());
+
+			// Saved at once when the quota is reached
+			governor.markExhausted();
+			Assert.assertEquals(0, restart(stateFile).getRemaining());
+		} finally {
+			Files.deleteIfExists(stateFile);
+		}
+	}
+
+	private static QuotaGovernor restart(Path stateFile) throws IOException {
+		QuotaGovernor restarted = new QuotaGovernor(0, 100);
+		restarted.setStateFile(stateFile);
+		return restarted;
+	}
+
+	@Test
+	public void testProjectedExhaustion() throws FixerException {
+		// 10 days into a 30-day month
+		Clock clock = Clock.fixed(Instant.parse("2018-06-11T00:00:00Z"), ZoneOffset.UTC);
+		final QuotaGovernor governor = new QuotaGovernor(0, 100);
+		governor.setClock(clock);
+
+		final List<LocalDateTime> warnings = new ArrayList<>();
+		governor.setListener(new QuotaGovernor.Listener() {
+			@Override
+			public void onProjectedExhaustion(LocalDateTime projectedExhaustion, long used, long monthlyLimit) {
+				// Called outside the lock: another thread can use the governor
+				Thread other = new Thread(() -> governor.getProjectedExhaustion());
+				other.start();
+				try {
+					other.join(1000);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				if (!other.isAlive()) {
+					warnings.add(projectedExhaustion);
+				}
+			}
+		});
+
+		// 20 requests in 10 days: 100 requests reached 50 days after the 1st
+		for (int i = 0; i < 20; i++) {
+			governor.acquire(QuotaGovernor.Priority.INTERACTIVE);
+		}
+		Assert.assertEquals(LocalDateTime.of(2018, 7, 21, 0, 0), governor.getProjectedExhaustion());
+		Assert.assertFalse(governor.isExhaustionProjected());
+		Assert.assertTrue(warnings.isEmpty());
+
+		// 50 requests in 10 days: 100 requests reached 20 days after the 1st
+		for (int i = 0; i < 30; i++) {
+			governor.acquire(QuotaGovernor.Priority.INTERACTIVE);
+		}
+		Assert.assertEquals(LocalDateTime.of(2018, 6, 21, 0, 0), governor.getProjectedExhaustion());
+		Assert.assertTrue(governor.isExhaustionProjected());
+		Assert.assertEquals(1, warnings.size());
+	}
+
+	@Test
+	public void testNoEarlyProjection() throws FixerException {
+		// 2 hours into the month: 5 requests tell nothing about the pace
+		QuotaGovernor governor = new QuotaGovernor(0, 1000);
+		governor.setClock(Clock.fixed(Instant.parse("2018-06-01T02:00:00Z"), ZoneOffset.UTC));
+		for (int i = 0; i < 5; i++) {
+			governor.acquire(QuotaGovernor.Priority.INTERACTIVE);
+		}
+		Assert.assertNull(governor.getProjectedExhaustion());
+		Assert.assertFalse(governor.isExhaustionProjected());
+
+		// 10% of the budget already used
+		for (int i = 0; i < 95; i++) {
+			governor.acquire(QuotaGovernor.Priority.INTERACTIVE);
+		}
+		Assert.assertTrue(governor.isExhaustionProjected());
+	}
+
+	@Test
+	public void testNewMonthResetsBudget() throws FixerException {
+		QuotaGovernor governor = new QuotaGovernor(0, 10);
+		governor.setClock(Clock.fixed(Instant.parse("2018-06-30T23:00:00Z"), ZoneOffset.UTC));
+		governor.markExhausted();
+		Assert.assertEquals(0, governor.getRemaining());
+
+		governor.setClock(Clock.fixed(Instant.parse("2018-07-01T01:00:00Z"), ZoneOffset.UTC));
+		Assert.assertEquals(10, governor.getRemaining());
+		governor.acquire(QuotaGovernor.Priority.INTERACTIVE);
+	}
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2018 UpAndCoding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upandcoding.fixer.request;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.upandcoding.fixer.FixerException;
+
+import junit.framework.Assert;
+
+public class TestRetryPolicy {
+
+	@Test
+	public void testIsRetryable() {
+		RetryPolicy retryPolicy = new RetryPolicy();
+
+		// Transient errors
+		Assert.assertTrue(retryPolicy.isRetryable(new FixerException(0, "network_error", "Connection reset")));
+		Assert.assertTrue(retryPolicy.isRetryable(new FixerException(503, "http_error", "Service Unavailable")));
+		Assert.assertTrue(retryPolicy.isRetryable(new FixerException(429, "http_error", "Too Many Requests")));
+
+		// Fixer errors
+		Assert.assertFalse(retryPolicy.isRetryable(new FixerException(101, "invalid_access_key", "invalid_access_key")));
+		Assert.assertFalse(retryPolicy.isRetryable(new FixerException(104, "usage_limit_reached", "usage_limit_reached")));
+		Assert.assertFalse(retryPolicy.isRetryable(new FixerException(201, "invalid_base_currency", "invalid_base_currency")));
+		Assert.assertFalse(retryPolicy.isRetryable(new FixerException(202, "invalid_currency_codes", "invalid_currency_codes")));
+		Assert.assertFalse(retryPolicy.isRetryable(new FixerException(503, "invalid_end_date", "invalid_end_date")));
+
+		// HTTP errors that are not transient
+		Assert.assertFalse(retryPolicy.isRetryable(new FixerException(404, "http_error", "Not Found")));
+
+		// Errors raised before sending the request
+		Assert.assertFalse(retryPolicy.isRetryable(new FixerException("Parameter 'access_key' is mandatory")));
+	}
+
+	@Test
+	public void testDelay() {
+		RetryPolicy retryPolicy = new RetryPolicy(5, 100, 350);
+		retryPolicy.setJitter(0);
+		Assert.assertEquals(100, retryPolicy.getDelay(1));
+		Assert.assertEquals(200, retryPolicy.getDelay(2));
+		Assert.assertEquals(350, retryPolicy.getDelay(3));
+
+		retryPolicy.setJitter(0.5);
+		for (int i = 0; i < 100; i++) {
+			long delay = retryPolicy.getDelay(2);
+			Assert.assertTrue(delay >= 100 && delay <= 200);
+		}
+	}
+
+	@Test
+	public void testCallDeadlineAndCancellation() throws Exception {
+		RetryPolicy retryPolicy = new RetryPolicy(5, 1000, 1000);
+		retryPolicy.setJitter(0);
+		final AtomicInteger attempts = new AtomicInteger();
+		RetryPolicy.Request<String> failing = () -> {
+			attempts.incrementAndGet();
+			throw new FixerException(0, RetryPolicy.TYPE_NETWORK_ERROR, "Connection reset");
+		};
+
+		// No retry after the deadline of the call
+		long start = System.currentTimeMillis();
+		try {
+			retryPolicy.execute(failing, Deadline.after(Duration.ofMillis(500)), null);
+			Assert.fail("Error not reported");
+		} catch (FixerException e) {
+			Assert.assertEquals(RetryPolicy.TYPE_NETWORK_ERROR, e.getFixerType());
+		}
+		Assert.assertEquals(1, attempts.get());
+		Assert.assertTrue(System.currentTimeMillis() - start < 400);
+
+		// The wait before the retry ends with the call
+		final CompletableFuture<Void> cancellation = new CompletableFuture<>();
+		new Thread(() -> {
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			cancellation.complete(null);
+		}).start();
+		start = System.currentTimeMillis();
+		try {
+			retryPolicy.execute(failing, null, cancellation);
+			Assert.fail("Error not reported");
+		} catch (FixerException e) {
+			Assert.assertEquals("request_aborted", e.getFixerType());
+		}
+		Assert.assertEquals(2, attempts.get());
+		Assert.assertTrue(System.currentTimeMillis() - start < 700);
+	}
+
+}